@@ -0,0 +1,74 @@
+package edu.stanford.nlp.cache;
+
+import edu.stanford.nlp.pipeline.Annotation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts legacy .ser.gz annotation caches into IndexedAnnotationFiles next to them, so BatchCoreNLPCache picks the
+ * indexed version up from then on, and reports how long a cold start takes in each format.
+ *
+ * Usage: AnnotationCacheMigrator [cache.ser.gz ...]
+ *
+ * With no arguments, migrates every .ser.gz cache in realdata/.
+ */
+public class AnnotationCacheMigrator {
+    public static void main(String[] args) throws IOException {
+        List<File> caches = new ArrayList<>();
+        if (args.length > 0) {
+            for (String arg : args) caches.add(new File(arg));
+        }
+        else {
+            File[] files = new File("realdata").listFiles((dir, name) -> name.endsWith(".ser.gz"));
+            if (files != null) {
+                for (File file : files) caches.add(file);
+            }
+        }
+
+        if (caches.isEmpty()) {
+            System.out.println("No .ser.gz caches to migrate");
+            return;
+        }
+
+        for (File cache : caches) {
+            migrate(cache);
+        }
+    }
+
+    public static void migrate(File legacyCache) throws IOException {
+        System.out.println("Migrating "+legacyCache.getPath());
+
+        long startTime = System.currentTimeMillis();
+        Annotation[] annotations = BatchCoreNLPCache.readLegacy(legacyCache);
+        long legacyLoad = System.currentTimeMillis() - startTime;
+
+        String indexedPath = IndexedAnnotationFile.cachePathFor(legacyCache.getPath());
+        IndexedAnnotationFile.Writer writer = new IndexedAnnotationFile.Writer(indexedPath, annotations.length);
+        for (int i = 0; i < annotations.length; i++) {
+            if (annotations[i] != null) writer.write(i, annotations[i]);
+        }
+        writer.close();
+
+        // Cold start for the indexed file is opening it and decoding the first sentence, which is all a run has to
+        // wait for before it can start work
+
+        startTime = System.currentTimeMillis();
+        IndexedAnnotationFile.Reader reader = new IndexedAnnotationFile.Reader(indexedPath);
+        if (reader.size() > 0) reader.read(0);
+        long indexedFirst = System.currentTimeMillis() - startTime;
+        for (int i = 1; i < reader.size(); i++) {
+            reader.read(i);
+        }
+        long indexedAll = System.currentTimeMillis() - startTime;
+        reader.close();
+
+        System.out.println("  "+annotations.length+" annotations, "+
+                new File(legacyCache.getPath()).length()+" bytes -> "+new File(indexedPath).length()+" bytes");
+        System.out.println("  legacy load: "+legacyLoad+"ms");
+        System.out.println("  indexed open and first read: "+indexedFirst+"ms");
+        System.out.println("  indexed read of everything: "+indexedAll+"ms");
+    }
+}
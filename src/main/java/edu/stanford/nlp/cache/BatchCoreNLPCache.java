@@ -1,28 +1,35 @@
 package edu.stanford.nlp.cache;
 
+import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-import com.google.protobuf.CodedOutputStream;
 import edu.stanford.nlp.curator.CuratorClient;
 import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.pipeline.CoreNLPProtos;
+import edu.stanford.nlp.pipeline.ProtobufAnnotationSerializer;
 import edu.stanford.nlp.pipeline.StanfordCoreNLP;
 import org.omg.PortableInterceptor.SYSTEM_EXCEPTION;
 
 import java.io.*;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by keenon on 12/28/14.
  *
- * This is the baseline cache, just read into an array in memory, and write from an array in memory. No attempt at
- * laziness or minimizing memory footprint.
+ * This is the baseline cache. Annotations are stored in an IndexedAnnotationFile, which each annotator thread appends
+ * to as it finishes sentences, and which is read back one sentence at a time as they're asked for. Caches in the old
+ * single stream .ser.gz format are still read (all at once) if there's no indexed cache, and can be converted with
+ * AnnotationCacheMigrator.
  */
 public class BatchCoreNLPCache extends CoreNLPCache {
+    // Filled in up front when reading a legacy cache or annotating from scratch
     Annotation[] annotations;
 
+    // Decoded on demand when reading an indexed cache
+    IndexedAnnotationFile.Reader reader;
+    AtomicReferenceArray<Annotation> decoded;
+
     public BatchCoreNLPCache(String sourcePath, String[] sentences) {
         String cachePath = sourcePath;
         if (cachePath.endsWith(".txt"))
@@ -30,34 +37,39 @@ public class BatchCoreNLPCache extends CoreNLPCache {
         cachePath += ".ser.gz";
 
         File cacheFile = new File(cachePath);
-        try {
-            if (cacheFile.exists()) {
-                if (useProtobuf) {
-                    InputStream is = new GZIPInputStream(new FileInputStream(cacheFile));
-                    int len = BinaryUtils.readInt(is);
-                    annotations = new Annotation[len];
-                    for (int i = 0; i < len; i++) {
-                        CoreNLPProtos.Document doc = CoreNLPProtos.Document.parseFrom(is);
-                        annotations[i] = protobufAnnotationSerializer.fromProto(doc);
-                    }
-                    is.close();
-                }
-                else if (useKryo) {
-                    Input input = new Input(new GZIPInputStream(new FileInputStream(cacheFile)));
-                    int len = input.readInt();
-                    annotations = new Annotation[len];
-                    for (int i = 0; i < len; i++) {
-                        annotations[i] = kryo.readObject(input, Annotation.class);
-                    }
-                    input.close();
+        String indexedPath = IndexedAnnotationFile.cachePathFor(sourcePath);
+        File indexedFile = new File(indexedPath);
+        if (indexedFile.exists()) {
+            try {
+                reader = new IndexedAnnotationFile.Reader(indexedPath);
+                if (reader.size() != sentences.length) {
+                    // Annotations for some other version of the source file, so the indices won't line up
+                    System.err.println("Ignoring annotation cache with "+reader.size()+" sentences, rebuilding it for "
+                            +sentences.length+": "+indexedPath);
+                    reader.close();
+                    reader = null;
                 }
                 else {
-                    ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(new FileInputStream(cacheFile)));
-                    annotations = (Annotation[])ois.readObject();
-                    ois.close();
+                    decoded = new AtomicReferenceArray<>(reader.size());
                 }
+            } catch (IOException e) {
+                // Most likely left behind by something older that crashed partway, so just build it again
+                System.err.println("Ignoring unreadable annotation cache, rebuilding it: "+e.getMessage());
+                reader = null;
             }
-            else {
+        }
+        if (reader != null) return;
+
+        try {
+            if (cacheFile.exists()) {
+                annotations = readLegacy(cacheFile);
+                if (annotations.length != sentences.length) {
+                    System.err.println("Ignoring annotation cache with "+annotations.length+" sentences, rebuilding it for "
+                            +sentences.length+": "+cachePath);
+                    annotations = null;
+                }
+            }
+            if (annotations == null) {
 
                 Properties props = new Properties();
                 props.put("annotators", "tokenize, ssplit, pos, lemma, ner, regexner1, regexner2, regexner_amr, depparse"); //parse, dcoref, srl, nom, prep");
@@ -90,6 +102,10 @@ public class BatchCoreNLPCache extends CoreNLPCache {
                 int numThreads = Runtime.getRuntime().availableProcessors();
 
                 annotations = new Annotation[sentences.length];
+
+                // Each thread appends its annotations to the cache as soon as they're done
+                IndexedAnnotationFile.Writer writer = new IndexedAnnotationFile.Writer(indexedPath, sentences.length);
+
                 Thread[] threads = new Thread[numThreads];
                 for (int i = 0; i < threads.length; i++) {
                     threads[i] = new Thread(new AnnotatorRunnable(coreNLP,
@@ -97,7 +113,8 @@ public class BatchCoreNLPCache extends CoreNLPCache {
                                                                     numThreads,
                                                                     i,
                                                                     sentences,
-                                                                    annotations));
+                                                                    annotations,
+                                                                    writer));
                     threads[i].start();
                 }
 
@@ -107,30 +124,7 @@ public class BatchCoreNLPCache extends CoreNLPCache {
                     threads[i].join();
                 }
 
-                // Single threaded writing out of annotations
-
-                if (useProtobuf) {
-                    OutputStream os = new GZIPOutputStream(new FileOutputStream(cacheFile));
-                    BinaryUtils.writeInt(os, annotations.length);
-                    for (int i = 0; i < annotations.length; i++) {
-                        CoreNLPProtos.Document serialized = protobufAnnotationSerializer.toProto(annotations[i]);
-                        serialized.writeTo(os);
-                    }
-                    os.close();
-                }
-                else if (useKryo) {
-                    Output output = new Output(new GZIPOutputStream(new FileOutputStream(cacheFile)));
-                    for (int i = 0; i < annotations.length; i++) {
-                        kryo.writeObject(output, annotations[i]);
-                    }
-                    output.close();
-                }
-                else {
-                    ObjectOutputStream oos =
-                            new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(cacheFile)));
-                    oos.writeObject(annotations);
-                    oos.close();
-                }
+                writer.close();
             }
         } catch (FileNotFoundException e) {
             e.printStackTrace();
@@ -138,11 +132,50 @@ public class BatchCoreNLPCache extends CoreNLPCache {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
         }
     }
 
+    /**
+     * Reads a whole cache in the old single stream .ser.gz format, which is what the indexed format replaces. The
+     * only thing these are still needed for is migrating them, see AnnotationCacheMigrator.
+     */
+    public static Annotation[] readLegacy(File cacheFile) throws IOException {
+        Annotation[] annotations;
+        if (useProtobuf) {
+            ProtobufAnnotationSerializer protobufAnnotationSerializer = new ProtobufAnnotationSerializer();
+            InputStream is = new GZIPInputStream(new FileInputStream(cacheFile));
+            int len = BinaryUtils.readInt(is);
+            annotations = new Annotation[len];
+            for (int i = 0; i < len; i++) {
+                CoreNLPProtos.Document doc = CoreNLPProtos.Document.parseFrom(is);
+                annotations[i] = protobufAnnotationSerializer.fromProto(doc);
+            }
+            is.close();
+        }
+        else if (useKryo) {
+            Kryo kryo = KryoAnnotationSerializerSupplier.getKryo();
+            Input input = new Input(new GZIPInputStream(new FileInputStream(cacheFile)));
+            int len = input.readInt();
+            annotations = new Annotation[len];
+            for (int i = 0; i < len; i++) {
+                annotations[i] = kryo.readObject(input, Annotation.class);
+            }
+            input.close();
+        }
+        else {
+            ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(new FileInputStream(cacheFile)));
+            try {
+                annotations = (Annotation[])ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            finally {
+                ois.close();
+            }
+        }
+        return annotations;
+    }
+
     private static class AnnotatorRunnable implements Runnable {
         StanfordCoreNLP coreNLP;
         StanfordCoreNLP coreNLPFallback;
@@ -150,19 +183,22 @@ public class BatchCoreNLPCache extends CoreNLPCache {
         int threadIdx;
         String[] sentences;
         Annotation[] annotations;
+        IndexedAnnotationFile.Writer writer;
 
         public AnnotatorRunnable(StanfordCoreNLP coreNLP,
                                  StanfordCoreNLP coreNLPFallback,
                                  int numThreads,
                                  int threadIdx,
                                  String[] sentences,
-                                 Annotation[] annotations) {
+                                 Annotation[] annotations,
+                                 IndexedAnnotationFile.Writer writer) {
             this.coreNLP = coreNLP;
             this.coreNLPFallback = coreNLPFallback;
             this.numThreads = numThreads;
             this.threadIdx = threadIdx;
             this.sentences = sentences;
             this.annotations = annotations;
+            this.writer = writer;
         }
 
         @Override
@@ -177,6 +213,7 @@ public class BatchCoreNLPCache extends CoreNLPCache {
                         coreNLPFallback.annotate(annotation);
                     }
                     annotations[i] = annotation;
+                    writer.write(i, annotation);
                 }
             } catch (Throwable t) {
                 System.err.println("CAUGHT ERROR IN ANNOTATION (EXITING):");
@@ -188,11 +225,31 @@ public class BatchCoreNLPCache extends CoreNLPCache {
 
     @Override
     public Annotation getAnnotation(int index) {
-        return annotations[index];
+        if (reader == null) {
+            return annotations[index];
+        }
+
+        // Decode on first request. If two threads race, they both get whichever copy was published first.
+        Annotation annotation = decoded.get(index);
+        if (annotation == null) {
+            try {
+                decoded.compareAndSet(index, null, reader.read(index));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            annotation = decoded.get(index);
+        }
+        return annotation;
     }
 
     @Override
     public void close() {
-        // This is a no-op, there are no threads that might need to complete
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 }
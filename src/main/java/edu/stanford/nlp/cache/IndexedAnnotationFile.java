@@ -0,0 +1,292 @@
+package edu.stanford.nlp.cache;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.CoreNLPProtos;
+import edu.stanford.nlp.pipeline.ProtobufAnnotationSerializer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A random access file of Annotations. Every record is serialized and deflated on its own, and an index of record
+ * offsets goes at the end of the file, so any single record can be read back without touching the rest:
+ *
+ *   header:  MAGIC, version, serializer, number of records
+ *   records: deflated serialized Annotations, in whatever order they were written
+ *   index:   (offset, length) for every record, offset -1 if it was never written
+ *   footer:  offset of the index, number of records, MAGIC
+ *
+ * Records are compressed on the writing thread and then appended with positional writes, so any number of threads
+ * can write at once. The file is written next to its final path and only moved there once the index is down, so a
+ * run that dies partway never leaves a half written cache where a later run would find it.
+ */
+public class IndexedAnnotationFile {
+    static final byte[] MAGIC = new byte[]{'A', 'M', 'R', 'C', 'A', 'C', 'H', 'E'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 3 * 4;
+    static final int INDEX_ENTRY_SIZE = 8 + 4;
+    static final int FOOTER_SIZE = 8 + 4 + MAGIC.length;
+
+    static final int SERIALIZER_JAVA = 0;
+    static final int SERIALIZER_PROTOBUF = 1;
+    static final int SERIALIZER_KRYO = 2;
+
+    // Kryo isn't thread safe, so every thread encoding or decoding records gets its own
+    private static final ThreadLocal<Kryo> kryo = ThreadLocal.withInitial(KryoAnnotationSerializerSupplier::getKryo);
+    private static final ProtobufAnnotationSerializer protobufAnnotationSerializer = new ProtobufAnnotationSerializer();
+
+    /**
+     * Swaps the extension of a dataset (or legacy .ser.gz cache) path for the indexed cache extension.
+     */
+    public static String cachePathFor(String sourcePath) {
+        String cachePath = sourcePath;
+        if (cachePath.endsWith(".txt"))
+            cachePath = cachePath.substring(0, cachePath.length()-".txt".length());
+        if (cachePath.endsWith(".ser.gz"))
+            cachePath = cachePath.substring(0, cachePath.length()-".ser.gz".length());
+        return cachePath + ".idx";
+    }
+
+    static int currentSerializer() {
+        if (CoreNLPCache.useProtobuf) return SERIALIZER_PROTOBUF;
+        if (CoreNLPCache.useKryo) return SERIALIZER_KRYO;
+        return SERIALIZER_JAVA;
+    }
+
+    static byte[] encode(Annotation annotation, int serializer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (serializer == SERIALIZER_PROTOBUF) {
+            protobufAnnotationSerializer.toProto(annotation).writeTo(bytes);
+        }
+        else if (serializer == SERIALIZER_KRYO) {
+            Output output = new Output(bytes);
+            kryo.get().writeObject(output, annotation);
+            output.close();
+        }
+        else {
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(annotation);
+            oos.close();
+        }
+
+        byte[] raw = bytes.toByteArray();
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressed.write(buffer, 0, n);
+            }
+            return compressed.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    static Annotation decode(byte[] compressed, int serializer) throws IOException {
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length * 4);
+        try {
+            inflater.setInput(compressed);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated annotation record");
+                }
+                bytes.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        finally {
+            inflater.end();
+        }
+
+        InputStream is = new ByteArrayInputStream(bytes.toByteArray());
+        if (serializer == SERIALIZER_PROTOBUF) {
+            return protobufAnnotationSerializer.fromProto(CoreNLPProtos.Document.parseFrom(is));
+        }
+        else if (serializer == SERIALIZER_KRYO) {
+            Input input = new Input(is);
+            return kryo.get().readObject(input, Annotation.class);
+        }
+        else {
+            ObjectInputStream ois = new ObjectInputStream(is);
+            try {
+                return (Annotation)ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new EOFException("Annotation cache ended early at "+position);
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Writes a fixed number of records, in any order, from any number of threads.
+     */
+    public static class Writer implements Closeable {
+        final Path path;
+        final Path tmpPath;
+        final FileChannel channel;
+        final int serializer;
+        final long[] offsets;
+        final int[] lengths;
+        final AtomicLong end = new AtomicLong(HEADER_SIZE);
+
+        public Writer(String path, int size) throws IOException {
+            this.path = new File(path).toPath();
+            this.tmpPath = new File(path+".tmp").toPath();
+            channel = FileChannel.open(tmpPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            serializer = currentSerializer();
+            offsets = new long[size];
+            lengths = new int[size];
+            Arrays.fill(offsets, -1);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC).putInt(VERSION).putInt(serializer).putInt(size);
+            header.flip();
+            writeFully(channel, header, 0);
+        }
+
+        public void write(int index, Annotation annotation) throws IOException {
+            byte[] record = encode(annotation, serializer);
+            long offset = end.getAndAdd(record.length);
+            writeFully(channel, ByteBuffer.wrap(record), offset);
+            synchronized (this) {
+                offsets[index] = offset;
+                lengths[index] = record.length;
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            long indexOffset = end.get();
+            ByteBuffer index = ByteBuffer.allocate(offsets.length * INDEX_ENTRY_SIZE + FOOTER_SIZE);
+            for (int i = 0; i < offsets.length; i++) {
+                index.putLong(offsets[i]).putInt(lengths[i]);
+            }
+            index.putLong(indexOffset).putInt(offsets.length).put(MAGIC);
+            index.flip();
+            writeFully(channel, index, indexOffset);
+            channel.force(true);
+            channel.close();
+            try {
+                Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Reads the index up front, and then decodes records on demand. Safe to read from many threads at once.
+     */
+    public static class Reader implements Closeable {
+        final FileChannel channel;
+        final int serializer;
+        final long[] offsets;
+        final int[] lengths;
+
+        public Reader(String path) throws IOException {
+            channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ);
+            try {
+                if (channel.size() < HEADER_SIZE + FOOTER_SIZE) {
+                    throw new IOException("Annotation cache is too short to be complete: "+path);
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                checkMagic(header, path);
+                int version = header.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Don't know how to read version "+version+" annotation caches: "+path);
+                }
+                serializer = header.getInt();
+                int size = header.getInt();
+
+                ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+                readFully(channel, footer, channel.size() - FOOTER_SIZE);
+                long indexOffset = footer.getLong();
+                if (footer.getInt() != size) {
+                    throw new IOException("Annotation cache index doesn't match its header, was it closed properly? "+path);
+                }
+                checkMagic(footer, path);
+
+                offsets = new long[size];
+                lengths = new int[size];
+                ByteBuffer index = ByteBuffer.allocate(size * INDEX_ENTRY_SIZE);
+                readFully(channel, index, indexOffset);
+                for (int i = 0; i < size; i++) {
+                    offsets[i] = index.getLong();
+                    lengths[i] = index.getInt();
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private static void checkMagic(ByteBuffer buffer, String path) throws IOException {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not an indexed annotation cache: "+path);
+            }
+        }
+
+        public int size() {
+            return offsets.length;
+        }
+
+        /**
+         * Decodes record `index`, or returns null if it was never written.
+         */
+        public Annotation read(int index) throws IOException {
+            if (offsets[index] == -1) return null;
+            ByteBuffer record = ByteBuffer.allocate(lengths[index]);
+            readFully(channel, record, offsets[index]);
+            return decode(record.array(), serializer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package edu.stanford.nlp.experiments;
 
+import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
 import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.annotation.DependencyPathTable;
 import edu.stanford.nlp.util.Triple;
 
 import java.util.HashSet;
@@ -20,6 +23,20 @@ public class AMRNodeSet {
     public String[] tokens;
     public Annotation annotation;
 
+    // Built the first time a feature asks for a dependency path
+    private volatile DependencyPathTable collapsedPaths;
+
+    /**
+     * Every dependency path over the collapsed, CC processed dependencies of the sentence.
+     */
+    public DependencyPathTable getCollapsedPaths() {
+        if (collapsedPaths == null) {
+            collapsedPaths = new DependencyPathTable(annotation.get(CoreAnnotations.SentencesAnnotation.class).get(0)
+                    .get(SemanticGraphCoreAnnotations.CollapsedCCProcessedDependenciesAnnotation.class));
+        }
+        return collapsedPaths;
+    }
+
     public String formatTokens() {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < tokens.length; i++) {
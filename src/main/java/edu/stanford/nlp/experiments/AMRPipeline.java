@@ -24,6 +24,7 @@ import edu.stanford.nlp.stamr.AMR;
 import edu.stanford.nlp.stamr.AMRConstants;
 import edu.stanford.nlp.stamr.AMRParser;
 import edu.stanford.nlp.stamr.AMRSlurp;
+import edu.stanford.nlp.stamr.annotation.DependencyPathTable;
 import edu.stanford.nlp.stamr.datagen.DumpSequence;
 import edu.stanford.nlp.stamr.evaluation.Smatch;
 import edu.stanford.nlp.stamr.utils.MSTGraph;
@@ -31,6 +32,7 @@ import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.Triple;
+import edu.stanford.nlp.word2vec.EmbeddingStore;
 import edu.stanford.nlp.word2vec.Word2VecLoader;
 import edu.stanford.nlp.wsd.WordNet;
 import javassist.tools.Dump;
@@ -38,7 +40,11 @@ import org.ejml.alg.dense.decomposition.qr.QrUpdate;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,6 +61,12 @@ public class AMRPipeline {
     public static boolean USE_MULTIHEAD = false;
     public static int maxAllowedHeads = 2;
     public static boolean GREEDY_ARC_HEURISTIC = true;
+    public static int PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+    // Longest span (in tokens) that getBestAMRChunks will look up in the dictionary. 0 means as many tokens as the
+    // longest dictionary key has characters, which can't skip a span the dictionary would have matched.
+    public static int MAX_CHUNK_LENGTH = 0;
+    // Where loadOrTrainStages() keeps trained stages between runs
+    public static String MODEL_DIR = "models";
 
     /////////////////////////////////////////////////////
     // FEATURE SPECS
@@ -64,12 +76,12 @@ public class AMRPipeline {
     // collisions, String is default case)
     /////////////////////////////////////////////////////
 
-    static Map<String,double[]> embeddings;
+    static EmbeddingStore embeddings;
     static FrameManager frameManager;
 
     static {
         try {
-            embeddings = Word2VecLoader.loadData("realdata/google-300-fulldata.ser.gz");
+            embeddings = Word2VecLoader.loadStore("realdata/google-300-fulldata.ser.gz");
             frameManager = new FrameManager("data/frames");
         } catch (IOException e) {
             e.printStackTrace();
@@ -272,36 +284,52 @@ public class AMRPipeline {
 
                 // Input triple is (Seq, index into Seq for start of expression, index into Seq for end of expression)
 
-                add((triple) -> {
-                    StringBuilder sb = new StringBuilder();
-                    for (int i = triple.second; i <= triple.third; i++) {
-                        sb.append(triple.first.annotation.get(CoreAnnotations.TokensAnnotation.class).get(i).get(CoreAnnotations.LemmaAnnotation.class).toLowerCase());
-                    }
-                    return sb.toString();
-                });
+                add((triple) -> dictionaryKey(triple.first, triple.second, triple.third));
             }},
             AMRPipeline::writeDictionaryContext
     );
 
+    // Length (in characters) of the longest dictionary key seen in training. Every lemma is at least a character
+    // long, so no span of more tokens than this can match, even one whose lemmas run together into a key that was
+    // memorized for fewer tokens.
+    int longestDictionaryKey = Integer.MAX_VALUE;
+
+    /**
+     * What dictionaryLookup memorizes a span by: its lemmas, lowercased and run together.
+     */
+    static String dictionaryKey(LabeledSequence labeledSequence, int first, int last) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = first; i <= last; i++) {
+            sb.append(labeledSequence.annotation.get(CoreAnnotations.TokensAnnotation.class).get(i).get(CoreAnnotations.LemmaAnnotation.class).toLowerCase());
+        }
+        return sb.toString();
+    }
+
     private Set<String> getBagOfEdges(AMRNodeSet set, int head, int tail) {
         if (head == 0) return new HashSet<>();
         int headToken = set.nodes[head].alignment;
         int tailToken = set.nodes[tail].alignment;
-        SemanticGraph graph = set.annotation.get(CoreAnnotations.SentencesAnnotation.class).get(0)
-                .get(SemanticGraphCoreAnnotations.CollapsedCCProcessedDependenciesAnnotation.class);
-        IndexedWord headIndexedWord = graph.getNodeByIndexSafe(headToken + 1);
-        IndexedWord tailIndexedWord = graph.getNodeByIndexSafe(tailToken + 1);
-        if (headIndexedWord == null || tailIndexedWord == null) {
-            return new HashSet<>();
-        }
-        List<SemanticGraphEdge> edges = graph.getShortestUndirectedPathEdges(headIndexedWord, tailIndexedWord);
+        List<DependencyPathTable.Step> steps = set.getCollapsedPaths().steps(headToken + 1, tailToken + 1);
         Set<String> bagOfEdges = new HashSet<>();
-        for (SemanticGraphEdge edge : edges) {
-            bagOfEdges.add(edge.getRelation().toString());
+        if (steps == null) {
+            return bagOfEdges;
+        }
+        for (DependencyPathTable.Step step : steps) {
+            bagOfEdges.add(step.relation.toString());
         }
         return bagOfEdges;
     }
 
+    private static final DependencyPathTable.PathFormat CMU_PATH = (steps) -> {
+        StringBuilder sb = new StringBuilder();
+        for (DependencyPathTable.Step step : steps) {
+            sb.append(step.up ? " ^ " : " v ");
+            sb.append(step.relation.toString());
+            sb.append(step.tag);
+        }
+        return sb.toString();
+    };
+
     private String getPath(AMRNodeSet set, int head, int tail) {
         if (head == 0 || tail == 0) { // if tail == 0, then something else went fairly wrong
             return "ROOT:NOPATH";
@@ -311,39 +339,14 @@ public class AMRPipeline {
         }
         int headToken = set.nodes[head].alignment;
         int tailToken = set.nodes[tail].alignment;
-        SemanticGraph graph = set.annotation.get(CoreAnnotations.SentencesAnnotation.class).get(0)
-                .get(SemanticGraphCoreAnnotations.CollapsedCCProcessedDependenciesAnnotation.class);
-
-        IndexedWord headIndexedWord = graph.getNodeByIndexSafe(headToken+1);
-        IndexedWord tailIndexedWord = graph.getNodeByIndexSafe(tailToken+1);
+        DependencyPathTable paths = set.getCollapsedPaths();
 
-        if (headIndexedWord == null || tailIndexedWord == null) {
+        if (!paths.hasWord(headToken+1) || !paths.hasWord(tailToken+1)) {
             return "NOTOKENS:NOPATH";
         }
 
-        List<SemanticGraphEdge> edges = graph.getShortestUndirectedPathEdges(headIndexedWord, tailIndexedWord);
-
-        StringBuilder sb = new StringBuilder();
-        IndexedWord currentWord = headIndexedWord;
-        for (SemanticGraphEdge edge : edges) {
-            if (edge.getDependent().equals(currentWord)) {
-                sb.append(" ^ ");
-                currentWord = edge.getGovernor();
-            }
-            else {
-                if (!edge.getGovernor().equals(currentWord)) {
-                    throw new IllegalStateException("Edges not in order");
-                }
-                sb.append(" v ");
-                currentWord = edge.getDependent();
-            }
-            sb.append(edge.getRelation().toString());
-            if (currentWord != headIndexedWord) {
-                sb.append(currentWord.get(CoreAnnotations.PartOfSpeechAnnotation.class));
-            }
-        }
-
-        return sb.toString();
+        String path = paths.path(headToken+1, tailToken+1, CMU_PATH);
+        return path == null ? "NOPATH" : path;
     }
 
     private String getEnumType(AMR.Node node) {
@@ -664,8 +667,7 @@ public class AMRPipeline {
         nerPlusPlus.sigma = 0.5;
         nerPlusPlus.train(getNERPlusPlusForClassifier(nerPlusPlusData));
 
-        dictionaryLookup.type = LinearPipe.ClassifierType.BAYESIAN;
-        dictionaryLookup.train(getDictionaryForClassifier(dictionaryData));
+        trainDictionaryLookup(dictionaryData);
 
         arcExistence.type = LinearPipe.ClassifierType.LOGISTIC;
         arcExistence.automaticallyReweightTrainingData = false; // uses HUBER penalty instead on Logistic regression
@@ -676,25 +678,25 @@ public class AMRPipeline {
         arcType.train(getArcTypeForClassifier(mstData));
         if (arcType.classifiers.size() != 1) throw new IllegalStateException("Should have 1 classifier for arcType. Instead "+arcType.classifiers.size());
 
-        LinearClassifier<String,String> classifier = (LinearClassifier<String, String>) arcType.classifiers.get(0);
+        LinearClassifier<String,Integer> classifier = (LinearClassifier<String, Integer>) arcType.classifiers.get(0);
         PrintWriter pw = IOUtils.getPrintWriter("data/arcTypeWeights-full.txt");
         classifier.dump(pw);
         pw.close();
 
-        LogisticClassifier<Boolean,String> logistic = (LogisticClassifier<Boolean,String>) arcExistence.classifiers.get(0);
-        Counter<String> weights = logistic.weightsAsCounter();
+        LogisticClassifier<Boolean,Integer> logistic = (LogisticClassifier<Boolean,Integer>) arcExistence.classifiers.get(0);
+        Counter<Integer> weights = logistic.weightsAsCounter();
         BufferedWriter bw = new BufferedWriter(new FileWriter("data/arcExistence.csv"));
-        List<String> keys = new ArrayList<>();
+        List<Integer> keys = new ArrayList<>();
         keys.addAll(weights.keySet());
-        Collections.sort(keys, new Comparator<String>() {
+        Collections.sort(keys, new Comparator<Integer>() {
             @Override
-            public int compare(String o1, String o2) {
+            public int compare(Integer o1, Integer o2) {
                 return Double.compare(weights.getCount(o2), weights.getCount(o1));
             }
         });
 
-        for (String s : keys) {
-            bw.write(s);
+        for (int s : keys) {
+            bw.write(arcExistence.alphabet.featureName(s));
             bw.write(",");
             bw.write(Double.toString(weights.getCount(s)));
             bw.write("\n");
@@ -702,6 +704,72 @@ public class AMRPipeline {
         bw.close();
     }
 
+    /**
+     * Memorizes the AMR for each span in the manygen data, and how long the longest key is.
+     */
+    void trainDictionaryLookup(List<LabeledSequence> dictionaryData) {
+        dictionaryLookup.type = LinearPipe.ClassifierType.BAYESIAN;
+        List<Pair<Triple<LabeledSequence,Integer,Integer>,String>> dictionaryTrainingData = getDictionaryForClassifier(dictionaryData);
+        dictionaryLookup.train(dictionaryTrainingData);
+        longestDictionaryKey = 0;
+        for (Pair<Triple<LabeledSequence,Integer,Integer>,String> pair : dictionaryTrainingData) {
+            String key = dictionaryKey(pair.first.first, pair.first.second, pair.first.third);
+            longestDictionaryKey = Math.max(longestDictionaryKey, key.length());
+        }
+    }
+
+    static final int STAGES_VERSION = 2;
+
+    /**
+     * Writes every trained stage into a directory, for loadStages() to pick up on the next run.
+     */
+    public void saveStages(String directory) throws IOException {
+        File dir = new File(directory);
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("Couldn't create "+directory);
+        nerPlusPlus.save(directory+"/nerPlusPlus.model");
+        dictionaryLookup.save(directory+"/dictionaryLookup.model");
+        arcExistence.save(directory+"/arcExistence.model");
+        arcType.save(directory+"/arcType.model");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(directory+"/pipeline.model"))) {
+            out.writeInt(STAGES_VERSION);
+            out.writeInt(longestDictionaryKey);
+        }
+    }
+
+    /**
+     * Loads stages written by saveStages(), instead of training them. Throws an IOException if any of them are
+     * missing, unreadable, or were trained with feature templates that have since changed.
+     */
+    public void loadStages(String directory) throws IOException {
+        long startTime = System.currentTimeMillis();
+        nerPlusPlus.load(directory+"/nerPlusPlus.model");
+        dictionaryLookup.load(directory+"/dictionaryLookup.model");
+        arcExistence.load(directory+"/arcExistence.model");
+        arcType.load(directory+"/arcType.model");
+        try (DataInputStream in = new DataInputStream(new FileInputStream(directory+"/pipeline.model"))) {
+            int version = in.readInt();
+            if (version != STAGES_VERSION) throw new IOException("Stages in "+directory+" are version "+version+", expected "+STAGES_VERSION);
+            longestDictionaryKey = in.readInt();
+        }
+        System.out.println("Loaded stages from "+directory+" in "+(System.currentTimeMillis() - startTime)+"ms");
+    }
+
+    /**
+     * Loads the stages saved in `directory`, or if there aren't any usable ones there, trains them and saves them
+     * there for next time.
+     */
+    public void loadOrTrainStages(String directory) throws IOException {
+        try {
+            loadStages(directory);
+            return;
+        }
+        catch (IOException e) {
+            System.out.println("Can't load stages from "+directory+" ("+e.getMessage()+"), retraining");
+        }
+        trainStages();
+        saveStages(directory);
+    }
+
     /**
      * This is bunch of code lifted from Ditch for generating special case AMR stuff that we have reliable parsers for.
      */
@@ -1076,9 +1144,16 @@ public class AMRPipeline {
         return new Pair<>(nodes, forcedArcs);
     }
 
-    private List<Pair<String,Integer>> getBestAMRChunks(LabeledSequence labeledSequence, int first, int last) {
-        List<Pair<String,Integer>> bestChunks = new ArrayList<>();
+    List<Pair<String,Integer>> getBestAMRChunks(LabeledSequence labeledSequence, int first, int last) {
+        int maxChunkLength = MAX_CHUNK_LENGTH > 0 ? MAX_CHUNK_LENGTH : longestDictionaryKey;
+        return new ChunkChart(first, last, maxChunkLength, (i, j) -> bestDictionaryEntry(labeledSequence, i, j))
+                .getBestChunks();
+    }
 
+    /**
+     * The AMR string the dictionary has seen most often for tokens first to last, or null if it hasn't seen them.
+     */
+    String bestDictionaryEntry(LabeledSequence labeledSequence, int first, int last) {
         Counter<String> amrStrings = dictionaryLookup.predictSoft(new Triple<>(labeledSequence, first, last));
 
         String amrString = null;
@@ -1090,30 +1165,7 @@ public class AMRPipeline {
                 bestCount = count;
             }
         }
-
-        if (bestCount > 0) {
-            bestChunks.add(new Pair<String, Integer>(amrString, first));
-            return bestChunks;
-        }
-        else {
-            // Recursion base case, we didn't find anything
-            if (first == last) {
-                return new ArrayList<>();
-            }
-
-            for (int pivot = first; pivot < last; pivot++) {
-                List<Pair<String,Integer>> part1 = getBestAMRChunks(labeledSequence, first, pivot);
-                List<Pair<String,Integer>> part2 = getBestAMRChunks(labeledSequence, pivot+1, last);
-
-                if (part1.size() + part2.size() > bestChunks.size()) {
-                    bestChunks = new ArrayList<>();
-                    bestChunks.addAll(part1);
-                    bestChunks.addAll(part2);
-                }
-            }
-
-            return bestChunks;
-        }
+        return amrString;
     }
 
     public AMR runMultiheadMSTPipeline(String[] tokens, Annotation annotation, AMRNodeSet nodeSet) {
@@ -1124,6 +1176,9 @@ public class AMRPipeline {
 
         int length = nodeSet.nodes.length-1;
 
+        // Arcs the classifiers need to score, collected up so we can score them as a batch
+        List<Triple<AMRNodeSet,Integer,Integer>> candidates = new ArrayList<>();
+
         // Parent Node
         for (int i = 0; i <= length; i++) {
             if (nodeSet.nodes[i] == null && i != 0) continue;
@@ -1159,29 +1214,41 @@ public class AMRPipeline {
                         }
                     }
                     else {
-                        double logProb;
+                        candidates.add(new Triple<>(nodeSet, i, j));
+                    }
+                }
+            }
+        }
 
-                        if (nodeSet.nodes[i] != null
-                                && nodeSet.nodes[j] != null
-                                && nodeSet.nodes[i].title.equals("name")
-                                && nodeSet.nodes[j].type != AMR.NodeType.QUOTE) {
-                            // Insanely unlikely that a name will ever link to a non-QUOTE node
-                            logProb = -10000;
-                        }
-                        else {
-                            Counter<Boolean> counter = arcExistence.predictSoft(new Triple<>(nodeSet, i, j));
-                            Counters.logNormalizeInPlace(counter);
-                            logProb = counter.getCount(true);
-                        }
+        // Score every candidate arc with both classifiers in one batch, running cmuFeatures only once per arc
 
-                        Counter<String> arcTypeLogProb = arcType.predictSoft(new Triple<>(nodeSet, i, j));
-                        Counters.logNormalizeInPlace(arcTypeLogProb);
+        Object[][] candidateFeatures = arcExistence.applyFeatures(candidates);
+        double[][] existenceScores = arcExistence.predictSoftBatch(candidateFeatures);
+        double[][] typeScores = arcType.predictSoftBatch(candidateFeatures);
+        int trueIndex = arcExistence.getLabels().indexOf(true);
+        List<String> arcTypes = arcType.getLabels();
 
-                        for (String s : arcTypeLogProb.keySet()) {
-                            mstGraph.addArc(i, j, s, logProb + arcTypeLogProb.getCount(s));
-                        }
-                    }
-                }
+        for (int k = 0; k < candidates.size(); k++) {
+            int i = candidates.get(k).second;
+            int j = candidates.get(k).third;
+
+            double logProb;
+
+            if (nodeSet.nodes[i] != null
+                    && nodeSet.nodes[j] != null
+                    && nodeSet.nodes[i].title.equals("name")
+                    && nodeSet.nodes[j].type != AMR.NodeType.QUOTE) {
+                // Insanely unlikely that a name will ever link to a non-QUOTE node
+                logProb = -10000;
+            }
+            else {
+                LinearPipe.logNormalizeInPlace(existenceScores[k]);
+                logProb = existenceScores[k][trueIndex];
+            }
+
+            LinearPipe.logNormalizeInPlace(typeScores[k]);
+            for (int t = 0; t < arcTypes.size(); t++) {
+                mstGraph.addArc(i, j, arcTypes.get(t), logProb + typeScores[k][t]);
             }
         }
 
@@ -1194,7 +1261,7 @@ public class AMRPipeline {
                 if (arc.first.equals("NO-LABEL")) {
                     arc.first = arcType.predict(new Triple<>(nodeSet, head, arc.second));
                 }
-                state.arcs[head][arc.second] = arc.first;
+                state.setArc(head, arc.second, arc.first);
             }
         }
 
@@ -1210,6 +1277,9 @@ public class AMRPipeline {
 
         int length = nodeSet.nodes.length-1;
 
+        // Arcs arcExistence needs to score, collected up so we can score them as a batch
+        List<Triple<AMRNodeSet,Integer,Integer>> candidates = new ArrayList<>();
+
         // Parent Node
         for (int i = 0; i <= length; i++) {
             if (nodeSet.nodes[i] == null && i != 0) continue;
@@ -1245,36 +1315,37 @@ public class AMRPipeline {
                         }
                     }
                     else {
-                        double logProb;
-
                         if (nodeSet.nodes[i] != null
                                 && nodeSet.nodes[j] != null
                                 && nodeSet.nodes[i].title.equals("name")
                                 && nodeSet.nodes[j].type != AMR.NodeType.QUOTE) {
                             // Insanely unlikely that a name will ever link to a non-QUOTE node
-                            logProb = -10000;
+                            mstGraph.addArc(i, j, "NO-LABEL", -10000);
                         }
                         else {
-                            Counter<Boolean> counter = arcExistence.predictSoft(new Triple<>(nodeSet, i, j));
-                            Counters.logNormalizeInPlace(counter);
-                            logProb = counter.getCount(true);
-                        }
-
-                        /*
-                        Counter<String> arcTypeLogProb = arcType.predictSoft(new Triple<>(nodeSet, i, j));
-                        Counters.logNormalizeInPlace(arcTypeLogProb);
-
-                        for (String s : arcTypeLogProb.keySet()) {
-                            mstGraph.addArc(i, j, s, logProb + arcTypeLogProb.getCount(s));
+                            candidates.add(new Triple<>(nodeSet, i, j));
                         }
-                        */
-
-                        mstGraph.addArc(i, j, "NO-LABEL", logProb);
                     }
                 }
             }
         }
 
+        // Score all the candidates in one batch. We hang on to the cmuFeatures outputs, so arcType can reuse them
+        // when labelling the arcs the MST picks
+
+        Object[][][] arcFeatures = new Object[length+1][length+1][];
+        Object[][] candidateFeatures = arcExistence.applyFeatures(candidates);
+        double[][] existenceScores = arcExistence.predictSoftBatch(candidateFeatures);
+        int trueIndex = arcExistence.getLabels().indexOf(true);
+
+        for (int k = 0; k < candidates.size(); k++) {
+            int i = candidates.get(k).second;
+            int j = candidates.get(k).third;
+            arcFeatures[i][j] = candidateFeatures[k];
+            LinearPipe.logNormalizeInPlace(existenceScores[k]);
+            mstGraph.addArc(i, j, "NO-LABEL", existenceScores[k][trueIndex]);
+        }
+
         // Stitch based on the MST we got
 
         Map<Integer,Set<Pair<String,Integer>>> arcMap = mstGraph.getMST(false);
@@ -1306,8 +1377,12 @@ public class AMRPipeline {
             }
         }
 
+        List<String> arcTypes = arcType.getLabels();
+
         GreedyState state = new GreedyState(nodeSet.nodes, tokens, annotation);
         for (int i : arcMap.keySet()) {
+            Map<Integer,double[]> typeScores = scoreUnlabeledArcs(nodeSet, i, arcMap.get(i), arcFeatures);
+
             if (GREEDY_ARC_HEURISTIC) {
                 while (true) {
                     Set<String> takenArcs = new HashSet<>();
@@ -1323,18 +1398,19 @@ public class AMRPipeline {
                     for (Pair<String, Integer> arc : arcMap.get(i)) {
                         if (arc.first.equals("NO-LABEL")) {
                             if ((state.arcs[i][arc.second] == null || state.arcs[i][arc.second].equals("NO-LABEL"))) {
-                                Counter<String> probs = arcType.predictSoft(new Triple<>(nodeSet, i, arc.second));
-                                for (String type : probs.keySet()) {
+                                double[] probs = typeScores.get(arc.second);
+                                for (int t = 0; t < probs.length; t++) {
+                                    String type = arcTypes.get(t);
                                     if (!takenArcs.contains(type)) {
-                                        if (probs.getCount(type) > bestNewArcScore) {
+                                        if (probs[t] > bestNewArcScore) {
                                             bestNewArc = new Pair<>(type, arc.second);
-                                            bestNewArcScore = probs.getCount(type);
+                                            bestNewArcScore = probs[t];
                                         }
                                     }
                                 }
                             }
                         } else {
-                            state.arcs[i][arc.second] = arc.first;
+                            state.setArc(i, arc.second, arc.first);
                         }
                     }
 
@@ -1342,16 +1418,21 @@ public class AMRPipeline {
                     if (state.arcs[i][bestNewArc.second] != null && !state.arcs[i][bestNewArc.second].equals("NO-LABEL")) {
                         throw new IllegalStateException("Trying to label the same arc twice, old " + state.arcs[i][bestNewArc.second] + ", new " + bestNewArc.first);
                     }
-                    state.arcs[i][bestNewArc.second] = bestNewArc.first;
+                    state.setArc(i, bestNewArc.second, bestNewArc.first);
                 }
             }
             else {
                 for (Pair<String, Integer> arc : arcMap.get(i)) {
                     if (arc.first.equals("NO-LABEL")) {
-                        state.arcs[i][arc.second] = arcType.predict(new Triple<>(nodeSet, i, arc.second));
+                        double[] probs = typeScores.get(arc.second);
+                        int best = 0;
+                        for (int t = 1; t < probs.length; t++) {
+                            if (probs[t] > probs[best]) best = t;
+                        }
+                        state.setArc(i, arc.second, arcTypes.get(best));
                     }
                     else {
-                        state.arcs[i][arc.second] = arc.first;
+                        state.setArc(i, arc.second, arc.first);
                     }
                 }
             }
@@ -1402,6 +1483,32 @@ public class AMRPipeline {
         return generated;
     }
 
+    /**
+     * Gets arcType scores for all the unlabeled arcs out of a single head in one batch, reusing any cmuFeatures
+     * outputs we already computed for arcExistence.
+     */
+    private Map<Integer,double[]> scoreUnlabeledArcs(AMRNodeSet nodeSet, int head, Set<Pair<String,Integer>> arcs, Object[][][] arcFeatures) {
+        List<Integer> tails = new ArrayList<>();
+        List<Object[]> featureValues = new ArrayList<>();
+        for (Pair<String,Integer> arc : arcs) {
+            if (!arc.first.equals("NO-LABEL")) continue;
+            tails.add(arc.second);
+            Object[] cached = arcFeatures[head][arc.second];
+            featureValues.add(cached != null ? cached : arcType.applyFeatures(new Triple<>(nodeSet, head, arc.second)));
+        }
+
+        double[][] scores = arcType.predictSoftBatch(featureValues.toArray(new Object[featureValues.size()][]));
+        Map<Integer,double[]> typeScores = new HashMap<>();
+        for (int k = 0; k < tails.size(); k++) {
+            typeScores.put(tails.get(k), scores[k]);
+        }
+        return typeScores;
+    }
+
+    /**
+     * Parses a single sentence. Once the pipeline is trained this only reads the models, so it's safe to call from
+     * many threads at once.
+     */
     public AMR runPipeline(String[] tokens, Annotation annotation) {
         // Special case code to handle things like: 2008-01-03
         if (tokens.length == 1) {
@@ -1449,6 +1556,52 @@ public class AMRPipeline {
         }
     }
 
+    /**
+     * Parses a whole batch of sentences across PARSE_THREADS threads, getting annotations from the cache by index.
+     * The results come back in the same order as the input.
+     */
+    public AMR[] runPipeline(String[][] tokens, CoreNLPCache cache) {
+        AMR[] parsed = new AMR[tokens.length];
+        parseInParallel(tokens, (i) -> parsed[i] = runPipeline(tokens[i], cache.getAnnotation(i)));
+        return parsed;
+    }
+
+    /**
+     * Calls parse(i) for every sentence on a work stealing pool. Sentences are handed out longest first, so the
+     * batch doesn't end up waiting on one long sentence that happened to come last.
+     */
+    private static void parseInParallel(String[][] tokens, IntConsumer parse) {
+        Integer[] order = new Integer[tokens.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> tokens[b].length - tokens[a].length);
+
+        long startTime = System.currentTimeMillis();
+        AtomicInteger parsed = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, PARSE_THREADS));
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int i : order) {
+                tasks.add(pool.submit(() -> {
+                    parse.accept(i);
+                    System.out.println("Parsed "+parsed.incrementAndGet()+"/"+tokens.length);
+                }));
+            }
+            // Rethrows anything that went wrong parsing
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+        System.out.println("Parsed "+tokens.length+" sentences in "+seconds+"s, "+(tokens.length / seconds)+
+                " sentences/sec on "+PARSE_THREADS+" threads");
+    }
+
     private AMR createAMRSingleton(String title) {
         return createAMRSingleton(title, AMR.NodeType.ENTITY);
     }
@@ -1553,19 +1706,23 @@ public class AMRPipeline {
         }
         CoreNLPCache cache = new BatchCoreNLPCache(path, sentences);
 
+        String[][] tokens = new String[bank.length][];
+        for (int i = 0; i < bank.length; i++) {
+            tokens[i] = bank[i].sourceText;
+        }
+
         AMR[] recovered = new AMR[bank.length];
         AMR[] recoveredPerfectDict = new AMR[bank.length];
-        for (int i = 0; i < bank.length; i++) {
-            System.out.println("Parsing "+i+"/"+bank.length);
+        parseInParallel(tokens, (i) -> {
             Annotation annotation = cache.getAnnotation(i);
-            recovered[i] = runPipeline(bank[i].sourceText, annotation);
+            recovered[i] = runPipeline(tokens[i], annotation);
             if (USE_MULTIHEAD) {
-                recoveredPerfectDict[i] = runMultiheadMSTPipeline(bank[i].sourceText, annotation, mstDataTest.get(i));
+                recoveredPerfectDict[i] = runMultiheadMSTPipeline(tokens[i], annotation, mstDataTest.get(i));
             }
             else {
-                recoveredPerfectDict[i] = runMSTPipeline(bank[i].sourceText, annotation, mstDataTest.get(i));
+                recoveredPerfectDict[i] = runMSTPipeline(tokens[i], annotation, mstDataTest.get(i));
             }
-        }
+        });
         cache.close();
 
         System.out.println("Finished analyzing");
@@ -1751,7 +1908,7 @@ public class AMRPipeline {
 
         /*
         AMRPipeline pipeline = new AMRPipeline();
-        pipeline.trainStages();
+        pipeline.loadOrTrainStages(MODEL_DIR);
         pipeline.analyzeStages();
         pipeline.testCompletePipeline();
         */
@@ -1761,7 +1918,7 @@ public class AMRPipeline {
     // LOADERS
     /////////////////////////////////////////////////////
 
-    private static List<LabeledSequence> loadSequenceData(String path) throws IOException {
+    static List<LabeledSequence> loadSequenceData(String path) throws IOException {
         List<LabeledSequence> seqList = new ArrayList<>();
 
         BufferedReader br = new BufferedReader(new FileReader(path));
@@ -1813,7 +1970,7 @@ public class AMRPipeline {
         return seqList;
     }
 
-    private List<LabeledSequence> loadManygenData(String path) throws IOException {
+    List<LabeledSequence> loadManygenData(String path) throws IOException {
         List<LabeledSequence> seqList = new ArrayList<>();
 
         BufferedReader br = new BufferedReader(new FileReader(path));
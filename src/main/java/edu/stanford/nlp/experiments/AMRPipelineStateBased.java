@@ -9,9 +9,9 @@ import edu.stanford.nlp.ling.IndexedWord;
 import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.semgraph.SemanticGraph;
 import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
-import edu.stanford.nlp.semgraph.SemanticGraphEdge;
 import edu.stanford.nlp.stamr.AMR;
 import edu.stanford.nlp.stamr.AMRSlurp;
+import edu.stanford.nlp.stamr.annotation.DependencyPathTable;
 import edu.stanford.nlp.stamr.evaluation.Smatch;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.util.Pair;
@@ -159,6 +159,17 @@ public class AMRPipelineStateBased {
         else return state.nodes[state.head].toString();
     }
 
+    private static final DependencyPathTable.PathFormat STATE_PATH = (steps) -> {
+        StringBuilder sb = new StringBuilder();
+        for (DependencyPathTable.Step step : steps) {
+            sb.append(step.up ? ">" : "<");
+            sb.append(step.relation.getShortName());
+            sb.append(":");
+            sb.append(step.tag);
+        }
+        return sb.toString();
+    };
+
     public static String getDependencyPath(GreedyState state, int head, int tail) {
         if (head == 0 || tail == 0) { // if tail == 0, then something else went fairly wrong
             return "ROOT:NOPATH";
@@ -168,37 +179,12 @@ public class AMRPipelineStateBased {
         }
         int headToken = state.nodes[head].alignment;
         int tailToken = state.nodes[tail].alignment;
-        SemanticGraph graph = state.annotation.get(CoreAnnotations.SentencesAnnotation.class).get(0)
-                .get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class);
-        IndexedWord headIndexedWord = graph.getNodeByIndexSafe(headToken);
-        IndexedWord tailIndexedWord = graph.getNodeByIndexSafe(tailToken);
-        if (headIndexedWord == null || tailIndexedWord == null) {
+        DependencyPathTable paths = state.getBasicPaths();
+        if (!paths.hasWord(headToken) || !paths.hasWord(tailToken)) {
             return "NOTOKENS:NOPATH";
         }
-        List<SemanticGraphEdge> edges = graph.getShortestUndirectedPathEdges(headIndexedWord, tailIndexedWord);
-
-        StringBuilder sb = new StringBuilder();
-        IndexedWord currentWord = headIndexedWord;
-        for (SemanticGraphEdge edge : edges) {
-            if (edge.getDependent().equals(currentWord)) {
-                sb.append(">");
-                currentWord = edge.getGovernor();
-            }
-            else {
-                if (!edge.getGovernor().equals(currentWord)) {
-                    throw new IllegalStateException("Edges not in order");
-                }
-                sb.append("<");
-                currentWord = edge.getDependent();
-            }
-            sb.append(edge.getRelation().getShortName());
-            if (currentWord != headIndexedWord) {
-                sb.append(":");
-                sb.append(currentWord.get(CoreAnnotations.PartOfSpeechAnnotation.class));
-            }
-        }
-
-        return sb.toString();
+        String path = paths.path(headToken, tailToken, STATE_PATH);
+        return path == null ? "NOPATH" : path;
     }
 
     public static List<Integer> getParents(GreedyState state, int i) {
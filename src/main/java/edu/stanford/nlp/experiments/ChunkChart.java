@@ -0,0 +1,92 @@
+package edu.stanford.nlp.experiments;
+
+import edu.stanford.nlp.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Splits a span of tokens into the largest number of chunks that the dictionary has an AMR for, the way
+ * AMRPipeline.getBestAMRChunks() always has: a span the dictionary knows is a single chunk, otherwise we take the
+ * first pivot whose two halves give the most chunks between them.
+ *
+ * The old version did this by recursing on both halves at every pivot, which scores the same sub-spans over and
+ * over again and blows up exponentially on long spans. This fills a CKY style chart bottom up instead, so each span
+ * gets looked up in the dictionary once and each span's best split is computed once, in O(n^2) lookups and O(n^3)
+ * pivot comparisons.
+ *
+ * Spans longer than maxChunkLength are never looked up, and count as unknown to the dictionary. As long as that's at
+ * least the longest span the dictionary was trained on, the dictionary has nothing for those spans anyway (unless
+ * their lemmas happen to run together into the same key as some shorter span's).
+ */
+public class ChunkChart {
+    // Back pointers: a span that is a single dictionary chunk, or one that has no chunks in it at all
+    private static final int CHUNK = -1;
+    private static final int EMPTY = -2;
+
+    final int first;
+    final int[][] numChunks;
+    final int[][] split;
+    final String[][] chunks;
+
+    /**
+     * Fills in the chart for [first, last] (inclusive). lookup(i, j) gives the AMR the dictionary has for the tokens
+     * [i, j], or null if it has none.
+     */
+    public ChunkChart(int first, int last, int maxChunkLength, BiFunction<Integer,Integer,String> lookup) {
+        if (last < first) throw new IllegalArgumentException("Empty span ["+first+", "+last+"]");
+        this.first = first;
+        int n = last - first + 1;
+        numChunks = new int[n][n];
+        split = new int[n][n];
+        chunks = new String[n][];
+
+        for (int i = 0; i < n; i++) {
+            chunks[i] = new String[Math.min(n - i, Math.max(maxChunkLength, 0))];
+        }
+
+        for (int length = 1; length <= n; length++) {
+            for (int i = 0; i + length <= n; i++) {
+                int j = i + length - 1;
+                if (length <= maxChunkLength) {
+                    chunks[i][length - 1] = lookup.apply(first + i, first + j);
+                    if (chunks[i][length - 1] != null) {
+                        numChunks[i][j] = 1;
+                        split[i][j] = CHUNK;
+                        continue;
+                    }
+                }
+
+                // Strictly greater, so the first best pivot wins, same as the recursion
+                split[i][j] = EMPTY;
+                for (int pivot = i; pivot < j; pivot++) {
+                    int count = numChunks[i][pivot] + numChunks[pivot + 1][j];
+                    if (count > numChunks[i][j]) {
+                        numChunks[i][j] = count;
+                        split[i][j] = pivot;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The best chunking of the whole span, as (AMR string, first token of the chunk) pairs in sentence order.
+     */
+    public List<Pair<String,Integer>> getBestChunks() {
+        List<Pair<String,Integer>> bestChunks = new ArrayList<>();
+        collect(0, numChunks.length - 1, bestChunks);
+        return bestChunks;
+    }
+
+    private void collect(int i, int j, List<Pair<String,Integer>> bestChunks) {
+        if (split[i][j] == CHUNK) {
+            bestChunks.add(new Pair<>(chunks[i][j - i], first + i));
+        }
+        else if (split[i][j] != EMPTY) {
+            collect(i, split[i][j], bestChunks);
+            collect(split[i][j] + 1, j, bestChunks);
+        }
+    }
+}
@@ -1,9 +1,5 @@
 package edu.stanford.nlp.experiments;
 
-import gurobi.*;
-
-import java.util.Arrays;
-
 /**
  * Created by keenon on 2/4/15.
  *
@@ -21,109 +17,25 @@ public class ConstrainedSequence {
         System.out.println(classes[0]+","+classes[1]);
     }
 
-    public static int[] solve(double[][] probabilities, int[] allowedClassOccupants, int[] minClassOccupants, int[] forcedClasses) {
-        assert(probabilities[0].length == allowedClassOccupants.length);
-
-        int[] classes = new int[probabilities.length];
-
-        try {
-            GRBEnv env = new GRBEnv();
-            env.set(GRB.IntParam.OutputFlag, 0);
-            GRBModel model = new GRBModel(env);
-
-            GRBVar[][] vars = new GRBVar[probabilities.length][];
-            for (int i = 0; i < probabilities.length; i++) {
-                vars[i] = new GRBVar[probabilities[i].length];
-                for (int j = 0; j < probabilities[i].length; j++) {
-                    vars[i][j] = model.addVar(0.0, 1.0, 0.0, GRB.BINARY, "x"+i+j);
-
-                    probabilities[i][j] *= -1;
-                }
-            }
-            model.update();
-
-            // Make sure all columns sum to 1, i.e. all values get an assignment
-
-            for (int i = 0; i < probabilities.length; i++) {
-                GRBLinExpr expr = new GRBLinExpr();
-                for (int j = 0; j < vars[i].length; j++) {
-                    expr.addTerm(1.0, vars[i][j]);
-                }
-                model.addConstr(expr, GRB.EQUAL, 1.0, "c"+i);
-            }
-
-            // Make sure that all the classes have no more than the allowed number of occupants
-
-            for (int j = 0; j < allowedClassOccupants.length; j++) {
-                GRBLinExpr expr = new GRBLinExpr();
-                for (int i = 0; i < probabilities.length; i++) {
-                    expr.addTerm(1.0, vars[i][j]);
-                }
-                if (allowedClassOccupants[j] == minClassOccupants[j]) {
-                    int equals = allowedClassOccupants[j];
-                    if (equals != -1) {
-                        model.addConstr(expr, GRB.EQUAL, equals, "e" + j);
-                    }
-                }
-                else {
-                    if (allowedClassOccupants[j] != -1) {
-                        model.addConstr(expr, GRB.LESS_EQUAL, allowedClassOccupants[j], "d" + j);
-                    }
-                    if (minClassOccupants[j] != -1) {
-                        model.addConstr(expr, GRB.GREATER_EQUAL, minClassOccupants[j], "m" + j);
-                    }
-                }
-            }
-
-            // Constrain any forced classes
-
-            for (int i = 0; i < forcedClasses.length; i++) {
-                if (forcedClasses[i] != -1) {
-                    for (int j = 0; j < probabilities[i].length; j++) {
-                        GRBLinExpr expr = new GRBLinExpr();
-                        expr.addTerm(1.0, vars[i][j]);
-                        if (forcedClasses[i] == j) {
-                            model.addConstr(expr, GRB.EQUAL, 1.0, "f"+i+j);
-                        }
-                        else {
-                            model.addConstr(expr, GRB.EQUAL, 0.0, "f"+i+j);
-                        }
-                    }
-                }
-            }
-
-            // Add the goal
-
-            GRBLinExpr expr = new GRBLinExpr();
-            for (int i = 0; i < probabilities.length; i++) {
-                for (int j = 0; j < vars[i].length; j++) {
-                    expr.addTerm(probabilities[i][j], vars[i][j]);
-                }
-            }
-            model.setObjective(expr);
-
-            model.optimize();
-
-            // Get the values of the model
-
-            for (int i = 0; i < probabilities.length; i++) {
-                for (int j = 0; j < vars[i].length; j++) {
-                    if (vars[i][j].get(GRB.DoubleAttr.X) == 1) {
-                        classes[i] = j;
-                        break;
-                    }
-                }
-            }
-
-            // Dispose of model and environment
-            model.dispose();
-            env.dispose();
+    /**
+     * Something that can solve a constrained sequence problem. Classes are numbered by column of the probability
+     * matrix, and -1 in any of the count or forcing arrays means "no constraint".
+     */
+    public interface Solver {
+        int[] solve(double[][] probabilities, int[] allowedClassOccupants, int[] minClassOccupants, int[] forcedClasses);
+    }
 
-        } catch (GRBException e) {
-            System.out.println("Error code: " + e.getErrorCode() + ". " +
-                    e.getMessage());
-        }
+    /**
+     * The backend used by solve(). Set this to a GurobiConstrainedSequence to go back to solving with Gurobi.
+     */
+    public static Solver solver = new MinCostFlowConstrainedSequence();
 
-        return classes;
+    /**
+     * Assigns every row of the probabilities matrix to a class (column), maximizing the summed probabilities of the
+     * assignment, while keeping the number of rows assigned to class j between minClassOccupants[j] and
+     * allowedClassOccupants[j], and respecting any forcedClasses. Doesn't modify probabilities.
+     */
+    public static int[] solve(double[][] probabilities, int[] allowedClassOccupants, int[] minClassOccupants, int[] forcedClasses) {
+        return solver.solve(probabilities, allowedClassOccupants, minClassOccupants, forcedClasses);
     }
 }
@@ -0,0 +1,287 @@
+package edu.stanford.nlp.experiments;
+
+import edu.stanford.nlp.word2vec.EmbeddingStore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the values produced by LinearPipe feature templates onto a compact range of integer feature ids.
+ *
+ * Each template gets its own value table, so we never have to build (or intern) a "template->value" String to
+ * tell features from different templates apart. Templates returning a double[] get a contiguous block of ids, one
+ * per dimension (as do templates returning an EmbeddingStore.Vector, which are read straight out of the store without
+ * copying them into a double[] first), and templates returning a Double get a single id.
+ *
+ * There are two modes:
+ *
+ * - Exact: ids are handed out as new values are seen, which is safe to do from several featurizing threads at
+ *   once. Once the alphabet is frozen (after training), unseen values are just dropped, since they'd have no
+ *   weights anyway.
+ * - Hashed: ids are a hash of (template, value) into a fixed number of buckets. This never grows, never
+ *   synchronizes, and can't name its features back to you.
+ */
+public class FeatureAlphabet {
+    final int numTemplates;
+    final int hashSize;
+
+    ConcurrentHashMap<String,Integer>[] valueIds;
+    int[] blockStart;
+    int[] blockWidth;
+
+    // Reverse lookup, for debugging and weight dumps
+    int[] idTemplate = new int[1024];
+    String[] idValue = new String[1024];
+    int size = 0;
+
+    volatile boolean frozen = false;
+
+    /**
+     * Creates an exact alphabet for the given number of feature templates.
+     */
+    public FeatureAlphabet(int numTemplates) {
+        this(numTemplates, 0);
+    }
+
+    /**
+     * Creates a hashed alphabet, where every feature lands in one of hashSize buckets.
+     */
+    public static FeatureAlphabet hashed(int numTemplates, int hashSize) {
+        if (hashSize <= 0) throw new IllegalArgumentException("Hash size must be positive, got "+hashSize);
+        return new FeatureAlphabet(numTemplates, hashSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private FeatureAlphabet(int numTemplates, int hashSize) {
+        this.numTemplates = numTemplates;
+        this.hashSize = hashSize;
+        if (hashSize == 0) {
+            valueIds = new ConcurrentHashMap[numTemplates];
+            for (int i = 0; i < numTemplates; i++) {
+                valueIds[i] = new ConcurrentHashMap<>();
+            }
+            blockStart = new int[numTemplates];
+            blockWidth = new int[numTemplates];
+            Arrays.fill(blockStart, -1);
+        }
+    }
+
+    public boolean isHashed() {
+        return hashSize > 0;
+    }
+
+    public void setFrozen(boolean frozen) {
+        this.frozen = frozen;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * The number of distinct ids this alphabet can produce, which is the width of a weight vector over it.
+     */
+    public int size() {
+        return isHashed() ? hashSize : size;
+    }
+
+    /**
+     * Adds the output of template number `template` to `vector`. Output can be null (no feature), a Double, a
+     * double[] or EmbeddingStore.Vector, a Set (one indicator per element), or anything else with a sensible
+     * toString().
+     */
+    public void featurize(int template, Object obj, FeatureVector vector) {
+        if (obj == null) return;
+
+        if (obj instanceof double[]) {
+            double[] arr = (double[])obj;
+            vector.ensureCapacity(arr.length);
+            if (isHashed()) {
+                for (int j = 0; j < arr.length; j++) {
+                    if (arr[j] != 0.0) vector.add(hash(template, ~j), arr[j]);
+                }
+            }
+            else {
+                int start = block(template, arr.length);
+                if (start == -1) return;
+                // block() either read frozen or took the lock, so blockWidth is visible here
+                int width = Math.min(arr.length, blockWidth[template]);
+                for (int j = 0; j < width; j++) {
+                    if (arr[j] != 0.0) vector.add(start + j, arr[j]);
+                }
+            }
+        }
+        else if (obj instanceof EmbeddingStore.Vector) {
+            EmbeddingStore.Vector embedding = (EmbeddingStore.Vector)obj;
+            int dimension = embedding.dimension();
+            vector.ensureCapacity(dimension);
+            if (isHashed()) {
+                for (int j = 0; j < dimension; j++) {
+                    double value = embedding.get(j);
+                    if (value != 0.0) vector.add(hash(template, ~j), value);
+                }
+            }
+            else {
+                int start = block(template, dimension);
+                if (start == -1) return;
+                int width = Math.min(dimension, blockWidth[template]);
+                for (int j = 0; j < width; j++) {
+                    double value = embedding.get(j);
+                    if (value != 0.0) vector.add(start + j, value);
+                }
+            }
+        }
+        else if (obj instanceof Double) {
+            double value = (Double)obj;
+            if (value == 0.0) return;
+            int id = isHashed() ? hash(template, 0x5bd1e995) : block(template, 1);
+            if (id != -1) vector.add(id, value);
+        }
+        else if (obj instanceof Set) {
+            for (Object o : (Set)obj) {
+                int id = lookup(template, o.toString());
+                if (id != -1) vector.add(id, 1.0);
+            }
+        }
+        else {
+            int id = lookup(template, obj.toString());
+            if (id != -1) vector.add(id, 1.0);
+        }
+    }
+
+    /**
+     * Returns the id for a discrete template value, or -1 if the alphabet is frozen and has never seen it.
+     */
+    public int lookup(int template, String value) {
+        if (isHashed()) return hash(template, value.hashCode());
+
+        Integer id = valueIds[template].get(value);
+        if (id != null) return id;
+        if (frozen) return -1;
+
+        synchronized (this) {
+            id = valueIds[template].get(value);
+            if (id != null) return id;
+            int newId = allocate(template, value, 1);
+            valueIds[template].put(value, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * Returns the first id of the block reserved for a continuous template, reserving it on first sight.
+     */
+    private int block(int template, int width) {
+        // Reading frozen first makes everything written while training visible without taking the lock
+        if (frozen) return blockStart[template];
+
+        synchronized (this) {
+            if (blockStart[template] == -1) {
+                blockWidth[template] = width;
+                blockStart[template] = allocate(template, null, width);
+            }
+            return blockStart[template];
+        }
+    }
+
+    private int allocate(int template, String value, int width) {
+        int start = size;
+        if (size + width > idTemplate.length) {
+            int newLength = Math.max(size + width, idTemplate.length * 2);
+            idTemplate = Arrays.copyOf(idTemplate, newLength);
+            idValue = Arrays.copyOf(idValue, newLength);
+        }
+        for (int i = 0; i < width; i++) {
+            idTemplate[start + i] = template;
+            idValue[start + i] = value;
+        }
+        size += width;
+        return start;
+    }
+
+    private int hash(int template, int valueHash) {
+        int h = template * 0x9E3779B9 + valueHash;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % hashSize;
+    }
+
+    /**
+     * Gives back the human readable name the old String-keyed featurizer would have used for this id, so weight
+     * dumps stay readable.
+     */
+    public String featureName(int id) {
+        if (isHashed()) return "#"+id;
+        if (id < 0 || id >= size) return "UNKNOWN:"+id;
+        int template = idTemplate[id];
+        if (idValue[id] != null) return template+"->"+idValue[id];
+        if (blockWidth[template] == 1) return Integer.toString(template);
+        return template+"->"+(id - blockStart[template]);
+    }
+
+    /**
+     * Writes the alphabet out as part of a saved LinearPipe model.
+     */
+    public synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(numTemplates);
+        out.writeInt(hashSize);
+        if (isHashed()) return;
+
+        out.writeInt(size);
+        for (int id = 0; id < size; id++) {
+            out.writeInt(idTemplate[id]);
+            if (idValue[id] == null) {
+                out.writeInt(-1);
+            }
+            else {
+                byte[] bytes = idValue[id].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        for (int template = 0; template < numTemplates; template++) {
+            out.writeInt(blockStart[template]);
+            out.writeInt(blockWidth[template]);
+        }
+    }
+
+    /**
+     * Reads back an alphabet written by write(). It comes back frozen, since it belongs to a trained model.
+     */
+    public static FeatureAlphabet read(DataInputStream in) throws IOException {
+        int numTemplates = in.readInt();
+        int hashSize = in.readInt();
+        FeatureAlphabet alphabet = new FeatureAlphabet(numTemplates, hashSize);
+        if (!alphabet.isHashed()) {
+            int size = in.readInt();
+            alphabet.idTemplate = new int[Math.max(size, 1)];
+            alphabet.idValue = new String[Math.max(size, 1)];
+            for (int id = 0; id < size; id++) {
+                int template = in.readInt();
+                int length = in.readInt();
+                alphabet.idTemplate[id] = template;
+                if (length >= 0) {
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    alphabet.idValue[id] = new String(bytes, StandardCharsets.UTF_8);
+                    alphabet.valueIds[template].put(alphabet.idValue[id], id);
+                }
+            }
+            alphabet.size = size;
+            for (int template = 0; template < numTemplates; template++) {
+                alphabet.blockStart[template] = in.readInt();
+                alphabet.blockWidth[template] = in.readInt();
+            }
+        }
+        alphabet.setFrozen(true);
+        return alphabet;
+    }
+}
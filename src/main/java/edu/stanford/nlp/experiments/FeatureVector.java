@@ -0,0 +1,86 @@
+package edu.stanford.nlp.experiments;
+
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+import java.util.Arrays;
+
+/**
+ * A sparse feature vector as parallel primitive arrays of feature ids (from a FeatureAlphabet) and values.
+ *
+ * This is what LinearPipe featurizes into, so that nothing on the featurization path has to box or build a
+ * String per feature value. Ids aren't guaranteed to be unique in hashed mode, collisions are just summed.
+ */
+public class FeatureVector {
+    public int[] indices;
+    public double[] values;
+    public int size = 0;
+
+    public FeatureVector() {
+        this(16);
+    }
+
+    public FeatureVector(int capacity) {
+        indices = new int[Math.max(capacity, 1)];
+        values = new double[Math.max(capacity, 1)];
+    }
+
+    public void add(int index, double value) {
+        if (size == indices.length) {
+            indices = Arrays.copyOf(indices, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        indices[size] = index;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Makes sure there's room for another n entries without regrowing, which is useful before dumping a whole
+     * embedding into the vector.
+     */
+    public void ensureCapacity(int n) {
+        if (size + n > indices.length) {
+            int newLength = Math.max(size + n, indices.length * 2);
+            indices = Arrays.copyOf(indices, newLength);
+            values = Arrays.copyOf(values, newLength);
+        }
+    }
+
+    /**
+     * Dot product against a dense weight layout where the weights for feature f live at
+     * weights[f*stride + offset]. Ids that fall outside the weight array are ignored, which is how we handle
+     * features that were added to the alphabet after the weights were laid out.
+     */
+    public double dot(double[] weights, int stride, int offset) {
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            int w = indices[i] * stride + offset;
+            if (w < weights.length) sum += weights[w] * values[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Boxes into a Counter, for handing to the CoreNLP classifiers. This is the only place boxing happens.
+     */
+    public Counter<Integer> toCounter() {
+        Counter<Integer> counter = new ClassicCounter<>(size);
+        for (int i = 0; i < size; i++) {
+            counter.incrementCount(indices[i], values[i]);
+        }
+        return counter;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        for (int i = 0; i < size; i++) {
+            if (i != 0) sb.append(", ");
+            sb.append(indices[i]).append("=").append(values[i]);
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,303 @@
+package edu.stanford.nlp.experiments;
+
+import edu.stanford.nlp.keenonutils.JaroWinklerDistance;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Finds the frame whose lemma is most Jaro-Winkler similar to a token, without scoring every frame.
+ *
+ * A JaroWinklerDistance score can never be higher than what you'd get if every character of the shorter string
+ * matched with no transpositions, and the common prefix bonus only depends on how many of the first 4 characters
+ * two strings share. So lemmas are bucketed by length, and sorted within each bucket, which makes the lemmas sharing
+ * a k character prefix with the token a contiguous range. Each (length, prefix) range has an upper bound on its
+ * score, and we search the ranges best bound first, stopping once no remaining range can beat the best frame found.
+ * Within a range, a per lemma bound on the number of matching characters (from a bitmask of the characters each
+ * string contains) skips most of the remaining exact scores.
+ *
+ * The answers are exactly what the linear scans in FrameManager give, including breaking ties in favor of the frame
+ * that comes first in the list, because the exact score is still what decides between every frame that survives
+ * the bounds.
+ */
+public class FrameIndex {
+    // Slack on the bounds, so floating point rounding can never prune a frame that ties the best score
+    static final double EPSILON = 1e-9;
+
+    final List<Frame> frames;
+    final String[] lemmas;
+    final long[] charMasks;
+
+    // Frame indices bucketed by lemma length, each bucket sorted by lemma, along with their character masks in the
+    // same order so scanning a bucket reads memory sequentially
+    final int[] bucketLengths;
+    final int[][] buckets;
+    final long[][] bucketMasks;
+
+    final Set<String> lemmaSet = new HashSet<>();
+
+    public FrameIndex(List<Frame> frames) {
+        this.frames = frames;
+        lemmas = new String[frames.size()];
+        charMasks = new long[frames.size()];
+        Map<Integer,List<Integer>> byLength = new TreeMap<>();
+        for (int i = 0; i < lemmas.length; i++) {
+            lemmas[i] = frames.get(i).lemma.toLowerCase();
+            charMasks[i] = charMask(lemmas[i]);
+            lemmaSet.add(lemmas[i]);
+            byLength.computeIfAbsent(lemmas[i].length(), k -> new ArrayList<>()).add(i);
+        }
+
+        bucketLengths = new int[byLength.size()];
+        buckets = new int[byLength.size()][];
+        bucketMasks = new long[byLength.size()][];
+        int b = 0;
+        for (Map.Entry<Integer,List<Integer>> entry : byLength.entrySet()) {
+            List<Integer> bucket = entry.getValue();
+            // Stable, so equal lemmas stay in list order
+            bucket.sort((x, y) -> lemmas[x].compareTo(lemmas[y]));
+            bucketLengths[b] = entry.getKey();
+            buckets[b] = new int[bucket.size()];
+            bucketMasks[b] = new long[bucket.size()];
+            for (int i = 0; i < bucket.size(); i++) {
+                buckets[b][i] = bucket.get(i);
+                bucketMasks[b][i] = charMasks[bucket.get(i)];
+            }
+            b++;
+        }
+    }
+
+    /**
+     * The best match for a token: the index of the closest frame (or -1 if nothing scores above 0), its score, and
+     * how many exact Jaro-Winkler scores it took to find.
+     */
+    static class Match {
+        int frame = -1;
+        double similarity = 0;
+        int comparisons = 0;
+    }
+
+    public boolean containsLemma(String token) {
+        return lemmaSet.contains(token.toLowerCase());
+    }
+
+    public double getMaxSimilarity(String token) {
+        return search(token.toLowerCase()).similarity;
+    }
+
+    public String getClosestFrame(String token) {
+        String lower = token.toLowerCase();
+        Match match = search(lower);
+        if (match.frame != -1) {
+            return frames.get(match.frame).sense;
+        }
+        return lower+"-01";
+    }
+
+    Match search(String token) {
+        Match match = new Match();
+        int length = token.length();
+        long tokenMask = charMask(token);
+        int[] tokenCounts = new int[64];
+        for (int i = 0; i < length; i++) tokenCounts[token.charAt(i) & 63]++;
+
+        // Every (bucket, prefix length) range, with an upper bound on the score of anything in it
+
+        int maxPrefix = Math.min(4, length);
+        int numRanges = buckets.length * (maxPrefix + 1);
+        double[] rangeBounds = new double[numRanges];
+        Integer[] order = new Integer[numRanges];
+        for (int b = 0; b < buckets.length; b++) {
+            int shorter = Math.min(length, bucketLengths[b]);
+            int longer = Math.max(length, bucketLengths[b]);
+            for (int p = 0; p <= maxPrefix; p++) {
+                int r = b * (maxPrefix + 1) + p;
+                order[r] = r;
+                rangeBounds[r] = p > Math.min(4, shorter) ? Double.NEGATIVE_INFINITY : bound(shorter, shorter, longer, p);
+            }
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(rangeBounds[y], rangeBounds[x]));
+
+        for (int r : order) {
+            if (rangeBounds[r] < match.similarity - EPSILON) break;
+
+            int b = r / (maxPrefix + 1);
+            int p = r % (maxPrefix + 1);
+            int[] bucket = buckets[b];
+            int shorter = Math.min(length, bucketLengths[b]);
+            int longer = Math.max(length, bucketLengths[b]);
+
+            // Lemmas sharing exactly p leading characters with the token (or at least p, if p is the most that can
+            // count): the range sharing p, minus the range sharing p+1
+            int lo = prefixStart(bucket, token, p);
+            int hi = prefixEnd(bucket, token, p);
+            boolean exact = p < Math.min(4, shorter);
+            int innerLo = exact ? prefixStart(bucket, token, p + 1) : hi;
+            int innerHi = exact ? prefixEnd(bucket, token, p + 1) : hi;
+
+            scan(b, lo, innerLo, token, tokenMask, tokenCounts, shorter, longer, p, match);
+            scan(b, innerHi, hi, token, tokenMask, tokenCounts, shorter, longer, p, match);
+        }
+
+        return match;
+    }
+
+    private void scan(int b, int from, int to, String token, long tokenMask, int[] tokenCounts,
+                      int shorter, int longer, int p, Match match) {
+        int[] bucket = buckets[b];
+        long[] masks = bucketMasks[b];
+        boolean tokenIsShorter = shorter == token.length();
+        int minMatches = minMatches(shorter, longer, p, match.similarity);
+        for (int i = from; i < to; i++) {
+            // The characters of the shorter string that appear anywhere in the longer one bound the matches
+            int matches;
+            if (tokenIsShorter) {
+                matches = shorter;
+                for (long missing = tokenMask & ~masks[i]; missing != 0; missing &= missing - 1) {
+                    matches -= tokenCounts[Long.numberOfTrailingZeros(missing)];
+                }
+            }
+            else {
+                matches = countPresent(lemmas[bucket[i]], tokenMask);
+            }
+            if (matches < minMatches) continue;
+
+            int f = bucket[i];
+            double similarity = JaroWinklerDistance.distance(token, lemmas[f]);
+            match.comparisons++;
+            if (similarity > match.similarity || (similarity == match.similarity && match.frame != -1 && f < match.frame)) {
+                match.similarity = similarity;
+                match.frame = f;
+                minMatches = minMatches(shorter, longer, p, match.similarity);
+            }
+        }
+    }
+
+    /**
+     * The fewest common characters a lemma needs for bound() to say it might still reach the best score so far.
+     */
+    private static int minMatches(int shorter, int longer, int p, double best) {
+        int matches = shorter;
+        while (matches > 0 && bound(matches - 1, shorter, longer, p) >= best - EPSILON) matches--;
+        return matches;
+    }
+
+    /**
+     * Upper bound on JaroWinklerDistance.distance() for strings with at most `matches` common characters and
+     * exactly p common leading characters, computed the same way the distance is.
+     */
+    static double bound(int matches, int shorter, int longer, int p) {
+        if (shorter == 0) return shorter == longer ? 1.0 : 0.0;
+        if (matches == 0) return 0.0;
+        double score = ((matches / (double) shorter) + (matches / (double) longer) + 1.0) / 3.0;
+        return score + ((p * (1 - score)) / 10);
+    }
+
+    private static long charMask(String s) {
+        long mask = 0;
+        for (int i = 0; i < s.length(); i++) mask |= 1L << (s.charAt(i) & 63);
+        return mask;
+    }
+
+    private static int countPresent(String s, long mask) {
+        int count = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if ((mask & (1L << (s.charAt(i) & 63))) != 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * First position in a sorted bucket whose lemma starts with the first p characters of token.
+     */
+    private int prefixStart(int[] bucket, String token, int p) {
+        int lo = 0;
+        int hi = bucket.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(lemmas[bucket[mid]], token, p) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * One past the last position in a sorted bucket whose lemma starts with the first p characters of token.
+     */
+    private int prefixEnd(int[] bucket, String token, int p) {
+        int lo = 0;
+        int hi = bucket.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(lemmas[bucket[mid]], token, p) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Compares the first p characters of a lemma (which is at least p long) to the first p characters of token.
+     */
+    private static int comparePrefix(String lemma, String token, int p) {
+        for (int i = 0; i < p; i++) {
+            int diff = lemma.charAt(i) - token.charAt(i);
+            if (diff != 0) return diff;
+        }
+        return 0;
+    }
+
+    /**
+     * Benchmarks the index against the linear scan on every lemma in a frames folder, plus a few misspelled and
+     * inflected variants of each, and checks that they always agree.
+     *
+     * Usage: FrameIndex [frames folder]
+     */
+    public static void main(String[] args) throws IOException {
+        String path = args.length > 0 ? args[0] : "data/frames";
+        List<Frame> frames = FrameManager.loadFrames(path);
+        FrameIndex index = new FrameIndex(frames);
+
+        Random r = new Random(42);
+        List<String> tokens = new ArrayList<>();
+        for (Frame frame : frames) {
+            String lemma = frame.lemma;
+            tokens.add(lemma);
+            tokens.add(lemma+"ing");
+            tokens.add(lemma+"s");
+            if (lemma.length() > 2) {
+                int i = r.nextInt(lemma.length());
+                tokens.add(lemma.substring(0, i)+lemma.substring(i+1));
+                tokens.add(lemma.substring(0, i)+(char)('a'+r.nextInt(26))+lemma.substring(i+1));
+            }
+        }
+        Collections.shuffle(tokens, r);
+        System.out.println(frames.size()+" frames, "+tokens.size()+" tokens");
+
+        long startTime = System.currentTimeMillis();
+        String[] linear = new String[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            linear[i] = FrameManager.getClosestFrame(tokens.get(i), frames);
+        }
+        long linearTime = System.currentTimeMillis() - startTime;
+
+        startTime = System.currentTimeMillis();
+        String[] indexed = new String[tokens.size()];
+        long comparisons = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            indexed[i] = index.getClosestFrame(tokens.get(i));
+        }
+        long indexedTime = System.currentTimeMillis() - startTime;
+
+        int mismatches = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            comparisons += index.search(tokens.get(i).toLowerCase()).comparisons;
+            if (!linear[i].equals(indexed[i])) {
+                if (mismatches++ < 10) System.out.println("MISMATCH on "+tokens.get(i)+": "+linear[i]+" vs "+indexed[i]);
+            }
+        }
+
+        System.out.println("Linear scan: "+linearTime+"ms, "+((long)frames.size() * tokens.size())+" comparisons");
+        System.out.println("Index: "+indexedTime+"ms, "+comparisons+" comparisons");
+        System.out.println(mismatches+" mismatches");
+    }
+}
@@ -1,6 +1,7 @@
 package edu.stanford.nlp.experiments;
 
 import edu.stanford.nlp.keenonutils.JaroWinklerDistance;
+import edu.stanford.nlp.stamr.utils.MemoCache;
 import jdk.internal.org.xml.sax.XMLReader;
 import org.w3c.dom.*;
 import org.xml.sax.EntityResolver;
@@ -20,10 +21,17 @@ import java.util.Optional;
  * Created by keenon on 2/8/15.
  */
 public class FrameManager {
+    // How many lookups of each kind to remember. Features ask about the same tokens over and over
+    public static int CACHE_SIZE = 50000;
+
     List<Frame> frames;
+    FrameIndex index;
+    final MemoCache<String, Double> maxSimilarities = new MemoCache<>("max frame similarities", CACHE_SIZE);
+    final MemoCache<String, String> closestFrames = new MemoCache<>("closest frames", CACHE_SIZE);
 
     public FrameManager(String path) throws IOException {
         frames = loadFrames(path);
+        index = new FrameIndex(frames);
     }
 
     public static List<Frame> loadFrames(String path) throws IOException {
@@ -72,6 +80,28 @@ public class FrameManager {
     }
 
     public double getMaxSimilarity(String token) {
+        return maxSimilarities.get(token, index::getMaxSimilarity);
+    }
+
+    public boolean containsFrameWithLemma(String token) {
+        return index.containsLemma(token);
+    }
+
+    public String getClosestFrame(String token) {
+        return closestFrames.get(token, index::getClosestFrame);
+    }
+
+    /**
+     * Hit rates and sizes of the lookup caches.
+     */
+    public String cacheStats() {
+        return maxSimilarities + "; " + closestFrames;
+    }
+
+    /**
+     * The linear scan FrameIndex replaces, kept for checking the index against.
+     */
+    public static double getMaxSimilarity(String token, List<Frame> frames) {
         double maxSimilarity = 0;
         for (Frame f : frames) {
             double dist = JaroWinklerDistance.distance(token.toLowerCase(), f.lemma.toLowerCase());
@@ -82,21 +112,6 @@ public class FrameManager {
         return maxSimilarity;
     }
 
-    public boolean containsFrameWithLemma(String token) {
-        double maxSimilarity = 0;
-        Frame closestFrame = null;
-        for (Frame f : frames) {
-            if (token.toLowerCase().equals(f.lemma.toLowerCase())) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    public String getClosestFrame(String token) {
-        return getClosestFrame(token, frames);
-    }
-
     public static String getClosestFrame(String token, List<Frame> frames) {
         double maxSimilarity = 0;
         Frame closestFrame = null;
@@ -0,0 +1,115 @@
+package edu.stanford.nlp.experiments;
+
+import gurobi.*;
+
+/**
+ * The original ConstrainedSequence solver, as a Boolean LP in Gurobi. This needs a Gurobi license and the native
+ * libraries, and sets up a fresh GRBEnv for every problem, so it's only kept around as an optional backend to check
+ * the MinCostFlowConstrainedSequence against.
+ */
+public class GurobiConstrainedSequence implements ConstrainedSequence.Solver {
+    @Override
+    public int[] solve(double[][] probabilities, int[] allowedClassOccupants, int[] minClassOccupants, int[] forcedClasses) {
+        assert(probabilities[0].length == allowedClassOccupants.length);
+
+        int[] classes = new int[probabilities.length];
+
+        try {
+            GRBEnv env = new GRBEnv();
+            env.set(GRB.IntParam.OutputFlag, 0);
+            GRBModel model = new GRBModel(env);
+
+            GRBVar[][] vars = new GRBVar[probabilities.length][];
+            for (int i = 0; i < probabilities.length; i++) {
+                vars[i] = new GRBVar[probabilities[i].length];
+                for (int j = 0; j < probabilities[i].length; j++) {
+                    vars[i][j] = model.addVar(0.0, 1.0, 0.0, GRB.BINARY, "x"+i+j);
+                }
+            }
+            model.update();
+
+            // Make sure all columns sum to 1, i.e. all values get an assignment
+
+            for (int i = 0; i < probabilities.length; i++) {
+                GRBLinExpr expr = new GRBLinExpr();
+                for (int j = 0; j < vars[i].length; j++) {
+                    expr.addTerm(1.0, vars[i][j]);
+                }
+                model.addConstr(expr, GRB.EQUAL, 1.0, "c"+i);
+            }
+
+            // Make sure that all the classes have no more than the allowed number of occupants
+
+            for (int j = 0; j < allowedClassOccupants.length; j++) {
+                GRBLinExpr expr = new GRBLinExpr();
+                for (int i = 0; i < probabilities.length; i++) {
+                    expr.addTerm(1.0, vars[i][j]);
+                }
+                if (allowedClassOccupants[j] == minClassOccupants[j]) {
+                    int equals = allowedClassOccupants[j];
+                    if (equals != -1) {
+                        model.addConstr(expr, GRB.EQUAL, equals, "e" + j);
+                    }
+                }
+                else {
+                    if (allowedClassOccupants[j] != -1) {
+                        model.addConstr(expr, GRB.LESS_EQUAL, allowedClassOccupants[j], "d" + j);
+                    }
+                    if (minClassOccupants[j] != -1) {
+                        model.addConstr(expr, GRB.GREATER_EQUAL, minClassOccupants[j], "m" + j);
+                    }
+                }
+            }
+
+            // Constrain any forced classes
+
+            for (int i = 0; i < forcedClasses.length; i++) {
+                if (forcedClasses[i] != -1) {
+                    for (int j = 0; j < probabilities[i].length; j++) {
+                        GRBLinExpr expr = new GRBLinExpr();
+                        expr.addTerm(1.0, vars[i][j]);
+                        if (forcedClasses[i] == j) {
+                            model.addConstr(expr, GRB.EQUAL, 1.0, "f"+i+j);
+                        }
+                        else {
+                            model.addConstr(expr, GRB.EQUAL, 0.0, "f"+i+j);
+                        }
+                    }
+                }
+            }
+
+            // Add the goal, which Gurobi minimizes, so we negate the probabilities
+
+            GRBLinExpr expr = new GRBLinExpr();
+            for (int i = 0; i < probabilities.length; i++) {
+                for (int j = 0; j < vars[i].length; j++) {
+                    expr.addTerm(-probabilities[i][j], vars[i][j]);
+                }
+            }
+            model.setObjective(expr);
+
+            model.optimize();
+
+            // Get the values of the model
+
+            for (int i = 0; i < probabilities.length; i++) {
+                for (int j = 0; j < vars[i].length; j++) {
+                    if (vars[i][j].get(GRB.DoubleAttr.X) == 1) {
+                        classes[i] = j;
+                        break;
+                    }
+                }
+            }
+
+            // Dispose of model and environment
+            model.dispose();
+            env.dispose();
+
+        } catch (GRBException e) {
+            System.out.println("Error code: " + e.getErrorCode() + ". " +
+                    e.getMessage());
+        }
+
+        return classes;
+    }
+}
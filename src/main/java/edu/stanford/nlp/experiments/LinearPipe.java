@@ -10,13 +10,12 @@ import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.stats.TwoDimensionalCounter;
 import edu.stanford.nlp.util.Factory;
+import edu.stanford.nlp.util.Index;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.Triple;
+import edu.stanford.nlp.word2vec.EmbeddingStore;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
@@ -32,11 +31,23 @@ import java.util.function.Function;
 public class LinearPipe<IN,OUT> {
 
     Function<IN,Object>[] features;
-    Classifier<Integer,String> bucketClassifier;
-    List<Classifier<OUT,String>> classifiers;
+    Classifier<Integer,Integer> bucketClassifier;
+    List<Classifier<OUT,Integer>> classifiers;
     public BiConsumer<IN, BufferedWriter> debugErrorContext;
 
-    TwoDimensionalCounter<String,OUT> memorizedClassifier;
+    TwoDimensionalCounter<Integer,OUT> memorizedClassifier;
+
+    /**
+     * Maps feature template outputs to integer feature ids. Rebuilt at the start of every train() call, and frozen
+     * at the end of it.
+     */
+    public FeatureAlphabet alphabet;
+
+    /**
+     * If > 0, features are hashed into this many buckets instead of being given exact ids. Takes effect on the
+     * next call to train().
+     */
+    public int featureHashSize = 0;
 
     public boolean automaticallyReweightTrainingData = true;
     public double sigma = 1.0;
@@ -55,94 +66,112 @@ public class LinearPipe<IN,OUT> {
     public LinearPipe(List<Function<IN,Object>> features, BiConsumer<IN, BufferedWriter> debugErrorContext) {
         this.features = features.toArray(new Function[features.size()]);
         this.debugErrorContext = debugErrorContext;
+        this.alphabet = new FeatureAlphabet(this.features.length);
     }
 
     public void debugFeatures(IN in) {
-        Counter<String> features = featurize(in);
+        FeatureVector features = featurize(in);
         System.out.println("Debugging features for "+in.toString());
-        for (String s : features.keySet()) {
-            System.out.println(s+":"+features.getCount(s));
+        for (int i = 0; i < features.size; i++) {
+            System.out.println(alphabet.featureName(features.indices[i])+":"+features.values[i]);
         }
     }
 
-    /*
-    Helpful note: Run this with XX:StringTableSize=1000003, which should vastly improve interned string hashmap
-    performance
+    /**
+     * Runs every feature template over the input. Pipes built from the same feature list (like arcExistence and
+     * arcType over cmuFeatures) can share these raw outputs, which is worth doing since the templates themselves are
+     * the expensive part of featurization.
      */
-
-    private Counter<String> featurize(IN in) {
-        Counter<String> featureCounts = new ClassicCounter<>();
-
+    public Object[] applyFeatures(IN in) {
+        Object[] featureValues = new Object[features.length];
         for (int i = 0; i < features.length; i++) {
-            Function<IN,Object> feature = features[i];
-
-            Object obj = feature.apply(in);
-
-            if (obj == null) continue;
+            featureValues[i] = features[i].apply(in);
+        }
+        return featureValues;
+    }
 
-            if (obj instanceof double[]) {
-                double[] arr = (double[])obj;
-                for (int j = 0; j < arr.length; j++) {
-                    featureCounts.setCount((i + "->" + j).intern(), arr[j]);
-                }
-            }
-            else if (obj instanceof Double) {
-                featureCounts.setCount(Integer.toString(i).intern(), (double)obj);
-            }
-            else if (obj instanceof Set) {
-                Set s = (Set)obj;
-                for (Object o : s) {
-                    featureCounts.setCount(Integer.toString(i) + "->" + o.toString().intern(), 1.0);
-                }
-            }
-            else {
-                featureCounts.setCount((Integer.toString(i) + "->" + obj.toString()).intern(), 1.0);
-            }
+    public Object[][] applyFeatures(List<IN> inputs) {
+        Object[][] featureValues = new Object[inputs.size()][];
+        for (int i = 0; i < featureValues.length; i++) {
+            featureValues[i] = applyFeatures(inputs.get(i));
         }
+        return featureValues;
+    }
 
-        return featureCounts;
+    /**
+     * Runs every feature template over the input, and writes the results straight into primitive id/value arrays
+     * through the alphabet.
+     */
+    FeatureVector featurize(IN in) {
+        return featurize(applyFeatures(in), new FeatureVector());
     }
 
-    private Collection<String> discreteFeaturize(IN in) {
-        Collection<String> featureValues = new HashSet<>();
+    private FeatureVector featurize(Object[] featureValues, FeatureVector vector) {
+        if (featureValues.length != features.length) {
+            throw new IllegalArgumentException("Expected outputs for "+features.length+" feature templates, got "+featureValues.length);
+        }
+        for (int i = 0; i < featureValues.length; i++) {
+            alphabet.featurize(i, featureValues[i], vector);
+        }
+        return vector;
+    }
 
-        for (int i = 0; i < features.length; i++) {
-            Function<IN,Object> feature = features[i];
+    private FeatureVector discreteFeaturize(Object[] featureValues) {
+        FeatureVector vector = new FeatureVector(features.length);
 
-            Object obj = feature.apply(in);
+        for (int i = 0; i < featureValues.length; i++) {
+            Object obj = featureValues[i];
 
             if (obj == null) continue;
 
-            if (obj instanceof double[]) {
-                throw new IllegalArgumentException("Can't have double arguments to discreteFeaturize!");
-            }
-            else if (obj instanceof Double) {
+            if (obj instanceof double[] || obj instanceof EmbeddingStore.Vector || obj instanceof Double) {
                 throw new IllegalArgumentException("Can't have double arguments to discreteFeaturize!");
             }
             else {
-                featureValues.add(Integer.toString(i) + "->" + obj.toString());
+                int id = alphabet.lookup(i, obj.toString());
+                if (id != -1) vector.add(id, 1.0);
             }
         }
 
-        return featureValues;
+        return vector;
+    }
+
+    /**
+     * The single feature id the BAYESIAN classifier is keyed on, or -1 if there isn't one we've seen before.
+     */
+    private int memorizedKey(Object[] featureValues) {
+        FeatureVector f = discreteFeaturize(featureValues);
+        assert f.size <= 1;
+        return f.size == 0 ? -1 : f.indices[0];
+    }
+
+    private int memorizedKey(IN in) {
+        return memorizedKey(applyFeatures(in));
     }
 
-    private Datum<OUT, String> toDiscreteDatum(IN in, OUT out) {
-        return new BasicDatum<>(discreteFeaturize(in), out);
+    /**
+     * The memorized label counts for a key. TwoDimensionalCounter.getCounter() inserts an empty counter for keys it
+     * hasn't seen, which would race when several threads are predicting at once, so we don't let it.
+     */
+    private Counter<OUT> memorizedCounts(int key) {
+        if (!memorizedClassifier.firstKeySet().contains(key)) {
+            return new ClassicCounter<>();
+        }
+        return memorizedClassifier.getCounter(key);
     }
 
-    private RVFDatum<OUT, String> toDatum(IN in, OUT out) {
-        return new RVFDatum<>(featurize(in), out);
+    private RVFDatum<OUT, Integer> toDatum(IN in, OUT out) {
+        return new RVFDatum<>(featurize(in).toCounter(), out);
     }
 
     public void guaranteeMemorizable(List<Pair<IN,OUT>> data) {
-        Set<String> set = new HashSet<>();
+        Set<Integer> set = new HashSet<>();
         for (Pair<IN,OUT> pair : data) {
-            Counter<String> f = featurize(pair.first);
-            for (String s : f.keySet()) {
-                if (set.contains(s)) throw new IllegalArgumentException("Can't have the same feature appear twice!\n"+
-                s);
-                set.add(s);
+            FeatureVector f = featurize(pair.first);
+            for (int i = 0; i < f.size; i++) {
+                if (set.contains(f.indices[i])) throw new IllegalArgumentException("Can't have the same feature appear twice!\n"+
+                alphabet.featureName(f.indices[i]));
+                set.add(f.indices[i]);
             }
         }
     }
@@ -228,6 +257,23 @@ public class LinearPipe<IN,OUT> {
     }
 
     public void train(List<Pair<IN,OUT>> data, List<Set<OUT>> clusters) {
+        alphabet = featureHashSize > 0 ? FeatureAlphabet.hashed(features.length, featureHashSize) : new FeatureAlphabet(features.length);
+        clearCompiledScorer();
+        try {
+            trainClassifiers(data, clusters);
+        }
+        finally {
+            alphabet.setFrozen(true);
+        }
+
+        labels = new ArrayList<>();
+        for (Pair<IN,OUT> pair : data) {
+            if (!labels.contains(pair.second)) labels.add(pair.second);
+        }
+        compileScorer(data);
+    }
+
+    private void trainClassifiers(List<Pair<IN,OUT>> data, List<Set<OUT>> clusters) {
 
         Set<OUT> leftOutCluster = new HashSet<>();
         outer: for (Pair<IN,OUT> pair : data) {
@@ -243,10 +289,10 @@ public class LinearPipe<IN,OUT> {
         classifiers = new ArrayList<>();
 
         if (type == ClassifierType.LOGISTIC) {
-            List<RVFDatum<OUT,String>> datumList = parmap(data, (pair) -> toDatum(pair.first, pair.second));
-            LogisticClassifierFactory<OUT, String> factory = new LogisticClassifierFactory<>();
-            RVFDataset<OUT, String> dataset = new RVFDataset<>();
-            for (RVFDatum<OUT, String> datum : datumList) {
+            List<RVFDatum<OUT,Integer>> datumList = parmap(data, (pair) -> toDatum(pair.first, pair.second));
+            LogisticClassifierFactory<OUT, Integer> factory = new LogisticClassifierFactory<>();
+            RVFDataset<OUT, Integer> dataset = new RVFDataset<>();
+            for (RVFDatum<OUT, Integer> datum : datumList) {
                 dataset.add(datum);
             }
             if (automaticallyReweightTrainingData) {
@@ -261,34 +307,34 @@ public class LinearPipe<IN,OUT> {
             }
         }
         else if (type == ClassifierType.SVM) {
-            SVMLightClassifierFactory<OUT, String> factory = new SVMLightClassifierFactory<>();
+            SVMLightClassifierFactory<OUT, Integer> factory = new SVMLightClassifierFactory<>();
             factory.svmLightLearn = "svm_light/svm_learn";
             factory.svmStructLearn = "svm_multiclass/svm_multiclass_learn";
             factory.svmLightClassify = "svm_light/svm_classify";
             factory.svmStructClassify = "svm_multiclass/svm_multiclass_classify";
             factory.setC(1.0);
 
-            List<RVFDatum<OUT,String>> datumList = parmap(data, (pair) -> toDatum(pair.first, pair.second));
+            List<RVFDatum<OUT,Integer>> datumList = parmap(data, (pair) -> toDatum(pair.first, pair.second));
 
-            RVFDataset<OUT, String> dataset = new RVFDataset<>();
-            for (RVFDatum<OUT, String> datum : datumList) {
+            RVFDataset<OUT, Integer> dataset = new RVFDataset<>();
+            for (RVFDatum<OUT, Integer> datum : datumList) {
                 dataset.add(datum);
             }
 
             classifiers.add(factory.trainClassifier(dataset));
         }
         else if (type == ClassifierType.LINEAR) {
-            List<RVFDatum<OUT,String>> datumList = parmap(data, (pair) -> toDatum(pair.first, pair.second));
+            List<RVFDatum<OUT,Integer>> datumList = parmap(data, (pair) -> toDatum(pair.first, pair.second));
 
-            RVFDataset<OUT, String> dataset = new RVFDataset<>();
-            for (RVFDatum<OUT, String> datum : datumList) {
+            RVFDataset<OUT, Integer> dataset = new RVFDataset<>();
+            for (RVFDatum<OUT, Integer> datum : datumList) {
                 dataset.add(datum);
             }
 
             // Create a data-weighting array to down-weight super frequent tags and upweight infrequent ones
 
-            LinearClassifierFactory<OUT, String> factory = new LinearClassifierFactory<>();
-            LinearClassifierFactory<Integer, String> bucketClassifierFactory = new LinearClassifierFactory<>();
+            LinearClassifierFactory<OUT, Integer> factory = new LinearClassifierFactory<>();
+            LinearClassifierFactory<Integer, Integer> bucketClassifierFactory = new LinearClassifierFactory<>();
             factory.setSigma(sigma);  // higher -> less regularization (default=1)
             factory.setVerbose(true);
             bucketClassifierFactory.setSigma(sigma);  // higher -> less regularization (default=1)
@@ -304,14 +350,14 @@ public class LinearPipe<IN,OUT> {
             }
             else {
                 // Create a cluster map dataset
-                RVFDataset<Integer, String> bucketDataset = new RVFDataset<>();
-                List<RVFDataset<OUT, String>> collectionDatasets = new ArrayList<>();
+                RVFDataset<Integer, Integer> bucketDataset = new RVFDataset<>();
+                List<RVFDataset<OUT, Integer>> collectionDatasets = new ArrayList<>();
 
                 for (int i = 0; i < clusters.size(); i++) {
                     collectionDatasets.add(new RVFDataset<>());
                 }
 
-                outer: for (RVFDatum<OUT, String> datum : datumList) {
+                outer: for (RVFDatum<OUT, Integer> datum : datumList) {
                     for (int i = 0; i < clusters.size(); i++) {
                         if (clusters.get(i).contains(datum.label())) {
                             bucketDataset.add(new RVFDatum<>(datum.asFeaturesCounter(), i));
@@ -342,7 +388,7 @@ public class LinearPipe<IN,OUT> {
             for (int i = 0; i < dataset.size(); i++) {
                 int predictedCluster = 0;
                 if (classifiers.size() > 1) {
-                    RVFDatum<Integer,String> bucketDatum = new RVFDatum<>(dataset.getRVFDatum(i).asFeaturesCounter());
+                    RVFDatum<Integer,Integer> bucketDatum = new RVFDatum<>(dataset.getRVFDatum(i).asFeaturesCounter());
                     predictedCluster = bucketClassifier.classOf(bucketDatum);
                 }
                 OUT predicted = classifiers.get(predictedCluster).classOf(dataset.getRVFDatum(i));
@@ -353,18 +399,14 @@ public class LinearPipe<IN,OUT> {
         else if (type == ClassifierType.BAYESIAN) {
             memorizedClassifier = new TwoDimensionalCounter<>();
             for (Pair<IN,OUT> pair : data) {
-                Collection<String> f = discreteFeaturize(pair.first);
-                assert f.size() == 1;
-                String s = f.iterator().next();
-                memorizedClassifier.incrementCount(s, pair.second, 1.0);
+                memorizedClassifier.incrementCount(memorizedKey(pair.first), pair.second, 1.0);
             }
 
             System.out.println("Trained classifier");
 
             int correct = 0;
             for (int i = 0; i < data.size(); i++) {
-                String s = discreteFeaturize(data.get(i).first).iterator().next();
-                OUT predicted = Counters.argmax(memorizedClassifier.getCounter(s));
+                OUT predicted = Counters.argmax(memorizedClassifier.getCounter(memorizedKey(data.get(i).first)));
                 if (predicted.equals(data.get(i).second)) correct++;
             }
             System.out.println("Accuracy: "+((double)correct/data.size())+" ("+correct+"/"+data.size()+")");
@@ -373,14 +415,22 @@ public class LinearPipe<IN,OUT> {
 
     public OUT predict(IN in) {
         if (type == ClassifierType.BAYESIAN) {
-            String s = discreteFeaturize(in).iterator().next();
-            return Counters.argmax(memorizedClassifier.getCounter(s));
+            return Counters.argmax(memorizedCounts(memorizedKey(in)));
+        }
+        else if (isCompiled()) {
+            double[] scores = new double[labels.size()];
+            compiledScores(featurize(in), scores);
+            int best = 0;
+            for (int i = 1; i < scores.length; i++) {
+                if (scores[i] > scores[best]) best = i;
+            }
+            return labels.get(best);
         }
         else {
-            Counter<String> features = featurize(in);
+            Counter<Integer> features = featurize(in).toCounter();
             int predictedCluster = 0;
             if (classifiers.size() > 1) {
-                RVFDatum<Integer,String> bucketDatum = new RVFDatum<>(features);
+                RVFDatum<Integer,Integer> bucketDatum = new RVFDatum<>(features);
                 predictedCluster = bucketClassifier.classOf(bucketDatum);
             }
             return classifiers.get(predictedCluster).classOf(new RVFDatum<>(features));
@@ -388,32 +438,46 @@ public class LinearPipe<IN,OUT> {
     }
 
     public Counter<OUT> predictSoft(IN in) {
+        Object[] featureValues = applyFeatures(in);
+        if (isCompiled()) {
+            double[] scores = new double[labels.size()];
+            compiledScores(featurize(featureValues, new FeatureVector()), scores);
+            Counter<OUT> out = new ClassicCounter<>();
+            for (int i = 0; i < scores.length; i++) {
+                out.setCount(labels.get(i), scores[i]);
+            }
+            return out;
+        }
+        return predictSoftWithClassifiers(featureValues);
+    }
+
+    @SuppressWarnings("unchecked")
+    Counter<OUT> predictSoftWithClassifiers(Object[] featureValues) {
         if (type == ClassifierType.BAYESIAN) {
-            String s = discreteFeaturize(in).iterator().next();
-            return memorizedClassifier.getCounter(s);
+            return memorizedCounts(memorizedKey(featureValues));
         }
         else if (type == ClassifierType.LOGISTIC) {
-            LogisticClassifier<Boolean,String> logistic = (LogisticClassifier <Boolean,String>)classifiers.get(0);
+            LogisticClassifier<Boolean,Integer> logistic = (LogisticClassifier<Boolean,Integer>)classifiers.get(0);
 
-            double trueCount = logistic.probabilityOf(featurize(in), Boolean.TRUE);
+            double trueCount = logistic.probabilityOf(featurize(featureValues, new FeatureVector()).toCounter(), Boolean.TRUE);
             Counter<Boolean> out = new ClassicCounter<>();
             out.incrementCount(true, Math.log(trueCount));
             out.incrementCount(false, Math.log(1 - trueCount));
             return (Counter<OUT>)out;
         }
         else {
+            Counter<Integer> features = featurize(featureValues, new FeatureVector()).toCounter();
             if (classifiers.size() == 1) {
-                return classifiers.get(0).scoresOf(new RVFDatum<>(featurize(in)));
+                return classifiers.get(0).scoresOf(new RVFDatum<>(features));
             }
             else {
-                Counter<String> features = featurize(in);
                 Counter<Integer> bucketProbs = bucketClassifier.scoresOf(new RVFDatum<>(features));
                 Counter<OUT> outClasses = new ClassicCounter<>();
                 Counters.logNormalizeInPlace(outClasses);
 
                 for (int i : bucketProbs.keySet()) {
                     double logProbI = bucketProbs.getCount(i);
-                    Counter<OUT> localClasses = classifiers.get(i).scoresOf(new RVFDatum<OUT, String>(features));
+                    Counter<OUT> localClasses = classifiers.get(i).scoresOf(new RVFDatum<OUT, Integer>(features));
                     Counters.logNormalizeInPlace(localClasses);
                     for (OUT out : localClasses.keySet()) {
                         outClasses.incrementCount(out, Math.exp(localClasses.getCount(out) + logProbI));
@@ -426,6 +490,271 @@ public class LinearPipe<IN,OUT> {
         }
     }
 
+    /////////////////////////////////////////////////////
+    // BATCH SCORING
+    /////////////////////////////////////////////////////
+
+    /**
+     * The column order of the score matrices returned by predictSoftBatch().
+     */
+    public List<OUT> getLabels() {
+        return labels;
+    }
+
+    /**
+     * Scores a whole batch of inputs at once. Returns a matrix with a row per input and a column per label (in
+     * getLabels() order), holding exactly what predictSoft() would have put in its Counter.
+     */
+    public double[][] predictSoftBatch(List<IN> inputs) {
+        return predictSoftBatch(applyFeatures(inputs));
+    }
+
+    /**
+     * Same as predictSoftBatch(List), but starts from raw feature template outputs (see applyFeatures()), so that a
+     * batch featurized once can be scored by every pipe that shares the same feature list.
+     */
+    public double[][] predictSoftBatch(Object[][] featureValues) {
+        double[][] scores = new double[featureValues.length][labels.size()];
+        if (isCompiled()) {
+            FeatureVector vector = new FeatureVector();
+            for (int i = 0; i < featureValues.length; i++) {
+                vector.size = 0;
+                compiledScores(featurize(featureValues[i], vector), scores[i]);
+            }
+        }
+        else {
+            for (int i = 0; i < featureValues.length; i++) {
+                Counter<OUT> counter = predictSoftWithClassifiers(featureValues[i]);
+                for (int j = 0; j < labels.size(); j++) {
+                    scores[i][j] = counter.getCount(labels.get(j));
+                }
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Turns a row of log-scores into log-probabilities, the primitive version of Counters.logNormalizeInPlace().
+     */
+    public static void logNormalizeInPlace(double[] scores) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double score : scores) {
+            if (score > max) max = score;
+        }
+        if (max == Double.NEGATIVE_INFINITY) return;
+        double sum = 0.0;
+        for (double score : scores) {
+            sum += Math.exp(score - max);
+        }
+        double logSum = max + Math.log(sum);
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] -= logSum;
+        }
+    }
+
+    /*
+    After training a single LINEAR or LOGISTIC classifier we pull its weights out into arrays indexed directly by
+    alphabet id, so that scoring is a tight loop over the feature vector instead of a round trip through boxed
+    Counters. linearWeights[f] is the trained classifier's own row of per-label weights for feature f (not a copy),
+    in the same label order as `labels`.
+     */
+
+    List<OUT> labels;
+    double[][] linearWeights;
+    double[] linearBias;
+    double[] logisticWeights;
+    double logisticBias;
+    int logisticTrueIndex;
+
+    private boolean isCompiled() {
+        return linearWeights != null || logisticWeights != null;
+    }
+
+    private void clearCompiledScorer() {
+        linearWeights = null;
+        linearBias = null;
+        logisticWeights = null;
+    }
+
+    private void compiledScores(FeatureVector vector, double[] scores) {
+        if (logisticWeights != null) {
+            double z = logisticBias + vector.dot(logisticWeights, 1, 0);
+            // log(sigmoid(z)) and log(1 - sigmoid(z)), without the cancellation
+            scores[logisticTrueIndex] = -Math.log1p(Math.exp(-z));
+            scores[1 - logisticTrueIndex] = -Math.log1p(Math.exp(z));
+            return;
+        }
+
+        System.arraycopy(linearBias, 0, scores, 0, linearBias.length);
+        for (int i = 0; i < vector.size; i++) {
+            int f = vector.indices[i];
+            if (f >= linearWeights.length || linearWeights[f] == null) continue;
+            double[] row = linearWeights[f];
+            double value = vector.values[i];
+            for (int j = 0; j < row.length; j++) {
+                scores[j] += row[j] * value;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void compileScorer(List<Pair<IN,OUT>> data) {
+        if (type == ClassifierType.LINEAR && classifiers.size() == 1 && classifiers.get(0) instanceof LinearClassifier) {
+            LinearClassifier<OUT,Integer> linear = (LinearClassifier<OUT,Integer>)classifiers.get(0);
+            double[][] weights = linear.weights();
+            Index<Integer> featureIndex = linear.featureIndex();
+            Index<OUT> labelIndex = linear.labelIndex();
+
+            labels = new ArrayList<>();
+            for (int i = 0; i < labelIndex.size(); i++) {
+                labels.add(labelIndex.get(i));
+            }
+
+            // Anything the classifier adds regardless of features shows up as the score of an empty datum
+            Counter<OUT> bias = linear.scoresOf(new RVFDatum<OUT,Integer>(new ClassicCounter<Integer>()));
+            linearBias = new double[labels.size()];
+            for (int i = 0; i < labels.size(); i++) {
+                linearBias[i] = bias.getCount(labels.get(i));
+            }
+
+            linearWeights = new double[alphabet.size()][];
+            for (int f = 0; f < linearWeights.length; f++) {
+                int i = featureIndex.indexOf(f);
+                if (i >= 0) linearWeights[f] = weights[i];
+            }
+        }
+        else if (type == ClassifierType.LOGISTIC) {
+            LogisticClassifier<Boolean,Integer> logistic = (LogisticClassifier<Boolean,Integer>)classifiers.get(0);
+            labels = new ArrayList<>();
+            labels.add((OUT)Boolean.TRUE);
+            labels.add((OUT)Boolean.FALSE);
+            logisticTrueIndex = 0;
+
+            double p0 = logistic.probabilityOf(new ClassicCounter<Integer>(), Boolean.TRUE);
+            logisticBias = Math.log(p0) - Math.log(1 - p0);
+
+            // LogisticClassifier gives the first of its labels probability 1 / (1 + e^(w.x)), so w.x is the log odds
+            // of TRUE unless TRUE is that first label
+            double sign = Boolean.TRUE.equals(logistic.getLabels().iterator().next()) ? -1.0 : 1.0;
+            Counter<Integer> weightCounter = logistic.weightsAsCounter();
+            logisticWeights = new double[alphabet.size()];
+            for (int f : weightCounter.keySet()) {
+                if (f >= 0 && f < logisticWeights.length) logisticWeights[f] = sign * weightCounter.getCount(f);
+            }
+        }
+
+        if (isCompiled()) checkCompiledScorer(data);
+    }
+
+    /**
+     * Checks the compiled weights against the classifier on the first few training examples, and throws if they
+     * disagree, since that means compileScorer() has misread the classifier.
+     */
+    private void checkCompiledScorer(List<Pair<IN,OUT>> data) {
+        double[] scores = new double[labels.size()];
+        for (int i = 0; i < Math.min(data.size(), 20); i++) {
+            Object[] featureValues = applyFeatures(data.get(i).first);
+            compiledScores(featurize(featureValues, new FeatureVector()), scores);
+            Counter<OUT> expected = predictSoftWithClassifiers(featureValues);
+            for (int j = 0; j < scores.length; j++) {
+                double a = expected.getCount(labels.get(j));
+                double b = scores[j];
+                if (a == b || Math.abs(a - b) <= 1.0e-6 * Math.max(1.0, Math.abs(a))) continue;
+                // Logistic log-probabilities lose precision near 0 and 1, so compare those as probabilities
+                if (logisticWeights != null && Math.abs(Math.exp(a) - Math.exp(b)) < 1.0e-9) continue;
+                throw new IllegalStateException("Compiled scorer gives "+labels.get(j)+" "+b+" for "+data.get(i).first
+                        +", but the trained classifier gives "+a);
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    // MODEL FILES
+    /////////////////////////////////////////////////////
+
+    /*
+    A saved model is everything train() produces, so a pipe built with the same feature templates can load it and
+    predict straight away:
+
+      MAGIC, version, checksum of the feature templates (see TemplateChecksum), classifier type
+      the FeatureAlphabet
+      whether the compiled scorer was in use
+      Java serialized: labels, classifiers (whose weights the compiled scorer gets rebuilt from), the bucket
+      classifier for clustered labels, and the memorized counts for BAYESIAN pipes
+     */
+
+    static final byte[] MODEL_MAGIC = new byte[]{'L', 'I', 'N', 'P', 'I', 'P', 'E', '1'};
+    static final int MODEL_VERSION = 1;
+
+    public void save(String path) throws IOException {
+        if (classifiers == null && memorizedClassifier == null) {
+            throw new IllegalStateException("Can't save a LinearPipe that hasn't been trained");
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+            out.write(MODEL_MAGIC);
+            out.writeInt(MODEL_VERSION);
+            out.writeLong(TemplateChecksum.of(features));
+            out.writeUTF(type.name());
+            alphabet.write(out);
+            out.writeBoolean(isCompiled());
+
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(labels);
+            oos.writeObject(classifiers);
+            oos.writeObject(bucketClassifier);
+            oos.writeObject(memorizedClassifier);
+            oos.flush();
+        }
+    }
+
+    /**
+     * Replaces whatever this pipe has learned with a model written by save(). Throws an IOException if the file
+     * isn't a model this version can read, or if it was trained with different feature templates than this pipe has.
+     */
+    @SuppressWarnings("unchecked")
+    public void load(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+            byte[] magic = new byte[MODEL_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MODEL_MAGIC)) {
+                throw new IOException(path+" isn't a LinearPipe model");
+            }
+            int version = in.readInt();
+            if (version != MODEL_VERSION) {
+                throw new IOException(path+" is model version "+version+", but we can only read version "+MODEL_VERSION);
+            }
+            if (in.readLong() != TemplateChecksum.of(features)) {
+                throw new IOException(path+" was trained with different feature templates than the code has now");
+            }
+            ClassifierType loadedType = ClassifierType.valueOf(in.readUTF());
+            FeatureAlphabet loadedAlphabet = FeatureAlphabet.read(in);
+            if (loadedAlphabet.numTemplates != features.length) {
+                throw new IOException(path+" has "+loadedAlphabet.numTemplates+" feature templates, expected "+features.length);
+            }
+            boolean compiled = in.readBoolean();
+
+            ObjectInputStream ois = new ObjectInputStream(in);
+            List<OUT> loadedLabels = (List<OUT>) ois.readObject();
+            List<Classifier<OUT,Integer>> loadedClassifiers = (List<Classifier<OUT,Integer>>) ois.readObject();
+            Classifier<Integer,Integer> loadedBucketClassifier = (Classifier<Integer,Integer>) ois.readObject();
+            TwoDimensionalCounter<Integer,OUT> loadedMemorized = (TwoDimensionalCounter<Integer,OUT>) ois.readObject();
+
+            type = loadedType;
+            alphabet = loadedAlphabet;
+            featureHashSize = loadedAlphabet.hashSize;
+            labels = loadedLabels;
+            classifiers = loadedClassifiers;
+            bucketClassifier = loadedBucketClassifier;
+            memorizedClassifier = loadedMemorized;
+            clearCompiledScorer();
+            // The scorer was already checked against these classifiers when they were trained
+            if (compiled) compileScorer(new ArrayList<>());
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(path+" holds a class we don't have", e);
+        }
+    }
+
     public void analyze(List<Pair<IN,OUT>> train, List<Pair<IN,OUT>> test, String directory) throws IOException {
         File dir = new File(directory);
         if (dir.exists()) dir.delete();
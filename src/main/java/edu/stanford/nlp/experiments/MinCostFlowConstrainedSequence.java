@@ -0,0 +1,223 @@
+package edu.stanford.nlp.experiments;
+
+import java.util.Arrays;
+
+/**
+ * Solves ConstrainedSequence problems in process, as a min cost flow.
+ *
+ * Assigning rows to classes with per class count limits is a transportation problem, so we build the network
+ *
+ *   source -> row i (capacity 1) -> class j (capacity 1, cost -probabilities[i][j]) -> sink
+ *
+ * where each class gets one arc to the sink that carries its minimum count, with a cost so negative that flow always
+ * prefers it, and a second free arc for the rest of its allowance. Pushing one unit per row along successive
+ * shortest paths (Dijkstra on reduced costs) gives the optimal assignment, which is integral, so it's the same
+ * optimum the Boolean LP finds.
+ *
+ * Holds no state between calls, so it's safe to share between threads.
+ */
+public class MinCostFlowConstrainedSequence implements ConstrainedSequence.Solver {
+
+    /**
+     * Infeasible problems print why, and come back as all zeros, like they did from Gurobi.
+     */
+    @Override
+    public int[] solve(double[][] probabilities, int[] allowedClassOccupants, int[] minClassOccupants, int[] forcedClasses) {
+        int[] classes = solveOrNull(probabilities, allowedClassOccupants, minClassOccupants, forcedClasses);
+        return classes == null ? new int[probabilities.length] : classes;
+    }
+
+    /**
+     * The optimal assignment, or null if the constraints can't all be met.
+     */
+    int[] solveOrNull(double[][] probabilities, int[] allowedClassOccupants, int[] minClassOccupants, int[] forcedClasses) {
+        int numRows = probabilities.length;
+        int[] classes = new int[numRows];
+        if (numRows == 0) return classes;
+        int numClasses = probabilities[0].length;
+        assert(numClasses == allowedClassOccupants.length);
+
+        // log(0) comes out of the classifiers as -Infinity. Those assignments are still allowed, just worse than any
+        // number of possible ones, so we price them above anything the finite costs can add up to.
+
+        double maxAbs = 0.0;
+        for (double[] row : probabilities) {
+            for (double p : row) {
+                if (!Double.isInfinite(p) && Math.abs(p) > maxAbs) maxAbs = Math.abs(p);
+            }
+        }
+        double impossibleCost = 2 * numRows * maxAbs + 1;
+        double minimumBonus = 2 * numRows * impossibleCost + 1;
+
+        // Node numbering: source, rows, classes, sink
+
+        int source = 0;
+        int sink = numRows + numClasses + 1;
+        Network network = new Network(sink + 1, numRows * (numClasses + 1) + 2 * numClasses);
+
+        for (int i = 0; i < numRows; i++) {
+            network.addArc(source, 1 + i, 1, 0.0);
+        }
+
+        int[][] assignmentArcs = new int[numRows][numClasses];
+        for (int i = 0; i < numRows; i++) {
+            Arrays.fill(assignmentArcs[i], -1);
+            int forced = forcedClasses.length > i ? forcedClasses[i] : -1;
+            for (int j = 0; j < numClasses; j++) {
+                if (forced != -1 && forced != j) continue;
+                double p = probabilities[i][j];
+                double cost = Double.isInfinite(p) || Double.isNaN(p) ? impossibleCost : -p;
+                assignmentArcs[i][j] = network.addArc(1 + i, 1 + numRows + j, 1, cost);
+            }
+        }
+
+        int[] minimumArcs = new int[numClasses];
+        for (int j = 0; j < numClasses; j++) {
+            int max = allowedClassOccupants[j] == -1 ? numRows : Math.min(allowedClassOccupants[j], numRows);
+            int min = minClassOccupants[j] == -1 ? 0 : minClassOccupants[j];
+            if (min > max) {
+                System.out.println("Class "+j+" needs at least "+min+" occupants, but can have at most "+max);
+                return null;
+            }
+            minimumArcs[j] = network.addArc(1 + numRows + j, sink, min, -minimumBonus);
+            network.addArc(1 + numRows + j, sink, max - min, 0.0);
+        }
+
+        int flow = network.minCostFlow(source, sink, numRows);
+        if (flow < numRows) {
+            System.out.println("Constrained sequence is infeasible, could only assign "+flow+" of "+numRows+" rows");
+            return null;
+        }
+        for (int j = 0; j < numClasses; j++) {
+            if (network.residual[minimumArcs[j]] > 0) {
+                System.out.println("Constrained sequence is infeasible, class "+j+" can't get its minimum occupants");
+                return null;
+            }
+        }
+
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numClasses; j++) {
+                if (assignmentArcs[i][j] != -1 && network.residual[assignmentArcs[i][j]] == 0) {
+                    classes[i] = j;
+                    break;
+                }
+            }
+        }
+
+        return classes;
+    }
+
+    /**
+     * A residual network in flat arrays. Arc a and its reverse arc a^1 are always stored next to each other.
+     */
+    static class Network {
+        int numNodes;
+        int numArcs = 0;
+        int[] head;
+        int[] next;
+        int[] to;
+        int[] residual;
+        double[] cost;
+
+        Network(int numNodes, int expectedArcs) {
+            this.numNodes = numNodes;
+            head = new int[numNodes];
+            Arrays.fill(head, -1);
+            next = new int[2 * expectedArcs];
+            to = new int[2 * expectedArcs];
+            residual = new int[2 * expectedArcs];
+            cost = new double[2 * expectedArcs];
+        }
+
+        int addArc(int from, int target, int capacity, double arcCost) {
+            int a = numArcs;
+            to[a] = target;
+            residual[a] = capacity;
+            cost[a] = arcCost;
+            next[a] = head[from];
+            head[from] = a;
+
+            to[a + 1] = from;
+            residual[a + 1] = 0;
+            cost[a + 1] = -arcCost;
+            next[a + 1] = head[target];
+            head[target] = a + 1;
+
+            numArcs += 2;
+            return a;
+        }
+
+        /**
+         * Pushes up to maxFlow units from source to sink, always along the cheapest remaining path, and returns how
+         * many units made it. Assumes nodes are numbered in a topological order of the original arcs, which is how
+         * the potentials get started without a Bellman-Ford pass.
+         */
+        int minCostFlow(int source, int sink, int maxFlow) {
+            double[] potential = new double[numNodes];
+            Arrays.fill(potential, Double.POSITIVE_INFINITY);
+            potential[source] = 0.0;
+            for (int u = 0; u < numNodes; u++) {
+                if (potential[u] == Double.POSITIVE_INFINITY) continue;
+                for (int a = head[u]; a != -1; a = next[a]) {
+                    if (residual[a] > 0 && potential[u] + cost[a] < potential[to[a]]) {
+                        potential[to[a]] = potential[u] + cost[a];
+                    }
+                }
+            }
+
+            double[] dist = new double[numNodes];
+            int[] parentArc = new int[numNodes];
+            boolean[] done = new boolean[numNodes];
+
+            int flow = 0;
+            while (flow < maxFlow) {
+                // Dense Dijkstra on reduced costs, which is as fast as a heap on graphs this small and allocates nothing
+
+                Arrays.fill(dist, Double.POSITIVE_INFINITY);
+                Arrays.fill(parentArc, -1);
+                Arrays.fill(done, false);
+                dist[source] = 0.0;
+
+                while (true) {
+                    int u = -1;
+                    for (int v = 0; v < numNodes; v++) {
+                        if (!done[v] && dist[v] < Double.POSITIVE_INFINITY && (u == -1 || dist[v] < dist[u])) u = v;
+                    }
+                    if (u == -1) break;
+                    done[u] = true;
+                    if (u == sink) break;
+                    for (int a = head[u]; a != -1; a = next[a]) {
+                        if (residual[a] == 0) continue;
+                        int v = to[a];
+                        // Reduced costs are non-negative in exact arithmetic, clamp away rounding noise
+                        double reduced = Math.max(0.0, cost[a] + potential[u] - potential[v]);
+                        if (dist[u] + reduced < dist[v]) {
+                            dist[v] = dist[u] + reduced;
+                            parentArc[v] = a;
+                        }
+                    }
+                }
+
+                if (dist[sink] == Double.POSITIVE_INFINITY) break;
+
+                // We stop as soon as the sink is settled, so anything further away only moves as far as the sink did,
+                // which still keeps every reduced cost non-negative
+                for (int v = 0; v < numNodes; v++) {
+                    potential[v] += Math.min(dist[v], dist[sink]);
+                }
+
+                int push = maxFlow - flow;
+                for (int v = sink; v != source; v = to[parentArc[v] ^ 1]) {
+                    push = Math.min(push, residual[parentArc[v]]);
+                }
+                for (int v = sink; v != source; v = to[parentArc[v] ^ 1]) {
+                    residual[parentArc[v]] -= push;
+                    residual[parentArc[v] ^ 1] += push;
+                }
+                flow += push;
+            }
+
+            return flow;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package edu.stanford.nlp.experiments;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Fingerprints the code behind a list of LinearPipe feature templates, so a saved model can tell when the
+ * templates it was trained with have since been edited.
+ *
+ * Templates are lambdas (usually added in a double brace initializer, which puts them all in one anonymous class),
+ * and the JVM names a lambda's class after the class that declares it. We checksum the bytecode of those declaring
+ * classes: the constant pool, fields, and the instructions of every method. Line numbers and other debug
+ * attributes are left out, so editing something elsewhere in the file that shifts the templates down a few lines
+ * doesn't count as a change. Helper methods that templates call in other classes aren't covered.
+ */
+public class TemplateChecksum {
+
+    public static long of(Object[] templates) {
+        CRC32 crc = new CRC32();
+        List<String> declaringClasses = new ArrayList<>();
+        update(crc, templates.length);
+        for (Object template : templates) {
+            String declaring = declaringClass(template.getClass());
+            int index = declaringClasses.indexOf(declaring);
+            if (index == -1) {
+                index = declaringClasses.size();
+                declaringClasses.add(declaring);
+                byte[] classFile = readClassFile(template.getClass().getClassLoader(), declaring);
+                if (classFile == null) {
+                    crc.update(declaring.getBytes());
+                }
+                else {
+                    try {
+                        checksumCode(classFile, crc);
+                    } catch (IOException e) {
+                        // Not a class file we understand, so take all of it
+                        crc.update(classFile);
+                    }
+                }
+            }
+            update(crc, index);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Lambda classes are named like Outer$1$$Lambda$42/0x1234 (the suffix varies by JVM), the rest are ordinary
+     * classes and declare themselves.
+     */
+    static String declaringClass(Class<?> c) {
+        String name = c.getName();
+        int lambda = name.indexOf("$$Lambda");
+        return lambda == -1 ? name : name.substring(0, lambda);
+    }
+
+    private static byte[] readClassFile(ClassLoader loader, String className) {
+        if (loader == null) loader = ClassLoader.getSystemClassLoader();
+        try (InputStream is = loader.getResourceAsStream(className.replace('.', '/') + ".class")) {
+            if (is == null) return null;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The checksum of one class file on its own, as {@link #of} takes it.
+     */
+    static long of(byte[] classFile) throws IOException {
+        CRC32 crc = new CRC32();
+        checksumCode(classFile, crc);
+        return crc.getValue();
+    }
+
+    /**
+     * Walks a class file (JVMS chapter 4), feeding everything except the attributes that only hold debug
+     * information into the checksum.
+     */
+    private static void checksumCode(byte[] classFile, CRC32 crc) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != 0xCAFEBABE) throw new IOException("Not a class file");
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        // Constant pool, kept whole. It only changes when the code referring to it does.
+        int constantPoolStart = 10;
+        int constantPoolCount = in.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: utf8[i] = in.readUTF(); break;
+                case 3: case 4: in.readInt(); break;
+                case 5: case 6: in.readLong(); i++; break;
+                case 7: case 8: case 16: case 19: case 20: in.readUnsignedShort(); break;
+                case 9: case 10: case 11: case 12: case 17: case 18: in.readInt(); break;
+                case 15: in.readUnsignedByte(); in.readUnsignedShort(); break;
+                default: throw new IOException("Unknown constant pool tag "+tag);
+            }
+        }
+        int constantPoolEnd = classFile.length - in.available();
+        crc.update(classFile, constantPoolStart, constantPoolEnd - constantPoolStart);
+
+        update(crc, in.readUnsignedShort()); // access flags
+        update(crc, in.readUnsignedShort()); // this class
+        update(crc, in.readUnsignedShort()); // super class
+        int interfaces = in.readUnsignedShort();
+        for (int i = 0; i < interfaces; i++) update(crc, in.readUnsignedShort());
+
+        // Fields and methods: their signatures, and the instructions of each method
+        for (int members = 0; members < 2; members++) {
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                update(crc, in.readUnsignedShort()); // access flags
+                update(crc, in.readUnsignedShort()); // name
+                update(crc, in.readUnsignedShort()); // descriptor
+                int attributes = in.readUnsignedShort();
+                for (int a = 0; a < attributes; a++) {
+                    String name = utf8[in.readUnsignedShort()];
+                    int length = in.readInt();
+                    byte[] attribute = new byte[length];
+                    in.readFully(attribute);
+                    if ("Code".equals(name)) {
+                        // max_stack, max_locals, code_length, code, then the exception table
+                        int codeLength = ((attribute[4] & 255) << 24) | ((attribute[5] & 255) << 16) |
+                                ((attribute[6] & 255) << 8) | (attribute[7] & 255);
+                        int exceptionTableEnd = 8 + codeLength + 2 + 8 * (((attribute[8 + codeLength] & 255) << 8) |
+                                (attribute[9 + codeLength] & 255));
+                        crc.update(attribute, 0, exceptionTableEnd);
+                    }
+                    else if ("ConstantValue".equals(name)) {
+                        crc.update(attribute);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void update(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+}
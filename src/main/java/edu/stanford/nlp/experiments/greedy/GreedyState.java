@@ -1,7 +1,10 @@
 package edu.stanford.nlp.experiments.greedy;
 
+import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
 import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.annotation.DependencyPathTable;
 
 import java.util.*;
 
@@ -9,6 +12,11 @@ import java.util.*;
  * Created by keenon on 2/4/15.
  *
  * Holds the state necessary for a greedy linking of AMR nodes.
+ *
+ * States are cheap to step: transition() only copies the row of arcs it fills in, and shares every other row (and
+ * forcedArcs) with the state it came from, so a run over n nodes costs O(n^2) rather than O(n^3). That means rows of
+ * arcs must be treated as read only, and changed through setArc(), which copies a shared row before writing to it.
+ * hashCode() is kept up to date as arcs are set, so it's O(1), and equals() checks it before comparing contents.
  */
 public class GreedyState {
     public int head;
@@ -17,9 +25,18 @@ public class GreedyState {
     public String[][] forcedArcs;
     public int[] originalParent;
 
+    // Which rows of arcs belong to this state alone, and so can be written in place
+    private boolean[] ownedRows;
+    private int[] rowHashes;
+    private int arcsHash;
+    private int parentsHash;
+
     public Annotation annotation;
     public String[] tokens;
 
+    // Shared by every clone of this state, since they all have the same sentence
+    private volatile DependencyPathTable basicPaths;
+
     public Queue<Integer> q = new ArrayDeque<>();
 
     public boolean finished = false;
@@ -35,10 +52,24 @@ public class GreedyState {
         for (int i = 0; i < originalParent.length; i++) {
             originalParent[i] = -1;
         }
+        this.ownedRows = new boolean[nodes.length];
+        Arrays.fill(ownedRows, true);
+        this.rowHashes = new int[nodes.length];
         this.annotation = annotation;
         this.tokens = tokens;
     }
 
+    /**
+     * Every dependency path over the basic dependencies of the sentence, built the first time one is asked for.
+     */
+    public DependencyPathTable getBasicPaths() {
+        if (basicPaths == null) {
+            basicPaths = new DependencyPathTable(annotation.get(CoreAnnotations.SentencesAnnotation.class).get(0)
+                    .get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class));
+        }
+        return basicPaths;
+    }
+
     public GreedyState deepClone() {
         GreedyState clone = new GreedyState(nodes, tokens, annotation);
         clone.head = head;
@@ -54,18 +85,82 @@ public class GreedyState {
         clone.originalParent = new int[nodes.length];
         System.arraycopy(originalParent, 0, clone.originalParent, 0, originalParent.length);
 
+        clone.rowHashes = Arrays.copyOf(rowHashes, rowHashes.length);
+        clone.arcsHash = arcsHash;
+        clone.parentsHash = parentsHash;
+
         clone.q = new ArrayDeque<>();
         clone.q.addAll(q);
 
         clone.finished = finished;
+        clone.basicPaths = basicPaths;
 
         return clone;
     }
 
+    /**
+     * A copy that shares all of our rows of arcs, and forcedArcs. Neither of us owns the shared rows afterwards.
+     */
+    private GreedyState shallowClone() {
+        GreedyState clone = new GreedyState();
+        clone.head = head;
+        clone.nodes = nodes;
+        clone.arcs = Arrays.copyOf(arcs, arcs.length);
+        clone.forcedArcs = forcedArcs;
+        clone.originalParent = Arrays.copyOf(originalParent, originalParent.length);
+        clone.ownedRows = new boolean[ownedRows.length];
+        Arrays.fill(ownedRows, false);
+        clone.rowHashes = Arrays.copyOf(rowHashes, rowHashes.length);
+        clone.arcsHash = arcsHash;
+        clone.parentsHash = parentsHash;
+        clone.annotation = annotation;
+        clone.tokens = tokens;
+        clone.q = new ArrayDeque<>(q);
+        clone.finished = finished;
+        clone.basicPaths = basicPaths;
+        return clone;
+    }
+
+    /**
+     * Sets arcs[head][tail], first copying that row if it's shared with another state.
+     */
+    public void setArc(int head, int tail, String arc) {
+        if (!ownedRows[head]) {
+            arcs[head] = Arrays.copyOf(arcs[head], arcs[head].length);
+            ownedRows[head] = true;
+        }
+        int change = arcHash(head, tail, arc) - arcHash(head, tail, arcs[head][tail]);
+        rowHashes[head] += change;
+        arcsHash += change;
+        arcs[head][tail] = arc;
+    }
+
+    private void setOriginalParent(int node, int parent) {
+        parentsHash += parentHash(node, parent) - parentHash(node, originalParent[node]);
+        originalParent[node] = parent;
+    }
+
+    // "NONE" and null hash the same, because equals() treats them the same
+    private int arcHash(int head, int tail, String arc) {
+        if (arc == null || arc.equals("NONE")) return 0;
+        return arc.hashCode() * (31 * (head * arcs.length + tail) + 17);
+    }
+
+    private static int parentHash(int node, int parent) {
+        return (parent + 1) * (92821 * node + 1);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((arcsHash * 31 + parentsHash) * 31 + head) * 2 + (finished ? 1 : 0);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof GreedyState)) return false;
         GreedyState state = (GreedyState)o;
+        if (state == this) return true;
+        if (hashCode() != state.hashCode()) return false;
         if (head != state.head) return false;
         if (nodes.length != state.nodes.length) return false;
         for (int i = 0; i < nodes.length; i++) {
@@ -73,6 +168,8 @@ public class GreedyState {
         }
         if (arcs.length != state.arcs.length) return false;
         for (int i = 0; i < arcs.length; i++) {
+            if (arcs[i] == state.arcs[i]) continue;
+            if (rowHashes[i] != state.rowHashes[i]) return false;
             if (arcs[i].length != state.arcs[i].length) return false;
             for (int j = 0; j < arcs[i].length; j++) {
                 String myArc = arcs[i][j];
@@ -83,7 +180,7 @@ public class GreedyState {
             }
         }
         if (forcedArcs.length != state.forcedArcs.length) return false;
-        for (int i = 0; i < forcedArcs.length; i++) {
+        for (int i = 0; forcedArcs != state.forcedArcs && i < forcedArcs.length; i++) {
             if (forcedArcs[i].length != state.forcedArcs[i].length) return false;
             for (int j = 0; j < forcedArcs[i].length; j++) {
                 String myArc = forcedArcs[i][j];
@@ -125,12 +222,12 @@ public class GreedyState {
 
         // Put in all the arcs
 
-        GreedyState next = deepClone();
+        GreedyState next = shallowClone();
         for (int i = 1; i < headArcs.length; i++) {
-            next.arcs[head][i] = headArcs[i];
+            next.setArc(head, i, headArcs[i]);
             if (!headArcs[i].equals("NONE")) {
                 if (next.originalParent[i] == -1) {
-                    next.originalParent[i] = head;
+                    next.setOriginalParent(i, head);
                     if (next.q.contains(i)) {
                         throw new IllegalStateException("Can't visit the same node twice!");
                     }
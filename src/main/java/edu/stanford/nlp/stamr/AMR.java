@@ -389,9 +389,18 @@ public class AMR implements Serializable {
         remainingNodes.removeAll(firstSorted);
 
         while (!remainingNodes.isEmpty()) {
-            List<Node> disconnectedSortedSet = breadthFirstSearch(remainingNodes.iterator().next());
-            sorted.addAll(disconnectedSortedSet);
-            remainingNodes.removeAll(disconnectedSortedSet);
+            // Start from a root where there is one, so parents still come before their children, and don't list
+            // nodes we already reached from an earlier component twice
+            Node start = remainingNodes.iterator().next();
+            for (Node node : remainingNodes) {
+                if (getParentArc(node) == nullArc) {
+                    start = node;
+                    break;
+                }
+            }
+            for (Node node : breadthFirstSearch(start)) {
+                if (remainingNodes.remove(node)) sorted.add(node);
+            }
         }
 
         return sorted;
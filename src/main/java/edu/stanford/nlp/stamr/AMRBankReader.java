@@ -0,0 +1,216 @@
+package edu.stanford.nlp.stamr;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads an AMR bank one entry at a time, instead of loading the whole file into an AMR[] like AMRSlurp.slurp().
+ *
+ * Splitting the file into entries is cheap and happens on the calling thread. Parsing an entry (tokenizing the
+ * sentence and running the AMR grammar) is where the time goes, so up to READ_AHEAD entries past the one you're
+ * on are handed to a pool of THREADS workers. Entries still come out in file order, and at most READ_AHEAD of them
+ * are held in memory at once, so this works on banks that don't fit in the heap.
+ *
+ * Close the reader if you stop before the end, so the file and the worker threads are released. Parse errors are
+ * thrown from next() for the entry they belong to, the same exceptions AMRSlurp.parse() throws, and read errors
+ * come out as UncheckedIOException.
+ */
+public class AMRBankReader implements Iterator<AMR>, Iterable<AMR>, Closeable {
+    public static int THREADS = Runtime.getRuntime().availableProcessors();
+    public static int READ_AHEAD = 256;
+
+    final BufferedReader br;
+    final AMRSlurp.Format format;
+    final int readAhead;
+    final ExecutorService pool;
+    final ArrayDeque<Future<AMR>> pending = new ArrayDeque<>();
+
+    String header = "";
+    final StringBuilder sb = new StringBuilder();
+    boolean inAMR = false;
+    boolean exhausted = false;
+
+    public AMRBankReader(String path, AMRSlurp.Format format) throws IOException {
+        this(new BufferedReader(new FileReader(path)), format, THREADS, READ_AHEAD);
+    }
+
+    public AMRBankReader(BufferedReader br, AMRSlurp.Format format, int threads, int readAhead) {
+        this.br = br;
+        this.format = format;
+        this.readAhead = Math.max(1, readAhead);
+        if (threads > 1) {
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "amr-bank-reader");
+                // Don't keep the JVM alive for a reader somebody forgot to close
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        else pool = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public AMR next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Future<AMR> future = pending.poll();
+        // Keep the workers busy while we wait on this one
+        fill();
+        AMR amr;
+        try {
+            amr = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing an AMR", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            if (cause instanceof IOException) throw new UncheckedIOException((IOException)cause);
+            throw new IllegalStateException(cause);
+        }
+        if (exhausted && pending.isEmpty()) close();
+        return amr;
+    }
+
+    @Override
+    public Iterator<AMR> iterator() {
+        return this;
+    }
+
+    /**
+     * The rest of the bank as an ordered Stream. Closing the stream closes the reader.
+     */
+    public Stream<AMR> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        exhausted = true;
+        for (Future<AMR> future : pending) future.cancel(true);
+        pending.clear();
+        if (pool != null) pool.shutdownNow();
+        try {
+            br.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void fill() {
+        while (!exhausted && pending.size() < readAhead) {
+            String[] entry;
+            try {
+                entry = readEntry();
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+            if (entry == null) {
+                exhausted = true;
+                try {
+                    br.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                if (pool != null) pool.shutdown();
+                break;
+            }
+            final String amr = entry[0];
+            final String entryHeader = entry[1];
+            Callable<AMR> parse = () -> AMRSlurp.parse(amr, entryHeader, format);
+            if (pool != null) {
+                pending.add(pool.submit(parse));
+            }
+            else {
+                FutureTask<AMR> task = new FutureTask<>(parse);
+                task.run();
+                pending.add(task);
+            }
+        }
+    }
+
+    /**
+     * The next {AMR text, header} pair in the file, or null at the end of it.
+     */
+    private String[] readEntry() throws IOException {
+        String line;
+        while ((line = br.readLine()) != null) {
+
+            // LDC Format looks like this:
+            //
+            // # ::id blah-im-a-doc-id-001
+            // # ::snt He can't seem to help himself .
+            // (h / help-01 :ARG0 (h2 / he) :ARG1 h2)
+            //
+            // # ::id blah
+            // # ::snt next sentence
+
+            if (format == AMRSlurp.Format.LDC) {
+                if (line.length() == 0) {
+                    // Comment lines with no AMR after them (like a file's preamble) aren't an entry
+                    if (!inAMR) {
+                        sb.setLength(0);
+                        continue;
+                    }
+                    inAMR = false;
+                    String amr = sb.toString();
+                    sb.setLength(0);
+                    return new String[]{amr, header};
+                }
+                else if (line.charAt(0) == '(' && !inAMR) {
+                    header = sb.toString();
+                    sb.setLength(0);
+                    inAMR = true;
+                }
+            }
+
+            // Little Prince Format looks like this:
+            //
+            // He can't seem to help himself . (blah-im-a-doc-id-001)
+            // (h / help-01 :ARG0 (h2 / he) :ARG1 h2)
+            //
+            // Next sentence . (blah)
+
+            else if (format == AMRSlurp.Format.LITTLE_PRINCE) {
+                if (line.length() == 0) {
+                    if (sb.length() == 0) continue;
+                    String result = sb.toString();
+                    sb.setLength(0);
+                    if (result.charAt(0) == '(') {
+                        return new String[]{result, header};
+                    }
+                    else header = result;
+                    continue;
+                }
+            }
+
+            sb.append(line).append("\n");
+        }
+
+        // A last entry with no blank line after it
+        if (sb.length() > 0) {
+            String rest = sb.toString();
+            sb.setLength(0);
+            if (format == AMRSlurp.Format.LDC ? inAMR : rest.charAt(0) == '(') {
+                inAMR = false;
+                return new String[]{rest, header};
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,323 @@
+package edu.stanford.nlp.stamr;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A compact binary file format for AMR banks, to use instead of Java serializing an AMR[].
+ *
+ * Serialization writes out every IdentityHashMap and cache hanging off an AMR, breaks whenever one of those classes
+ * changes, and has to read the whole array back at once. This format stores only what the graph is built from, and
+ * rebuilds the rest through AMR.addNode() and AMR.addArc(), the way AMR.subsumeContentsOf() copies a graph. CoreNLP
+ * annotations aren't stored; AnnotationManager keeps those in its own cache.
+ *
+ * Layout (varint is an unsigned LEB128 int, svarint a zigzag encoded signed one):
+ *
+ *   file       := "AMRBIN" version:byte entry* 0:byte
+ *   entry      := 1:byte amr
+ *   amr        := docId:utf tokens nodes arcs treeDepth:varint
+ *   tokens     := count:varint word:string*
+ *   nodes      := count:varint node*          (the head first)
+ *   node       := flags:byte [ref:string] title:string alignment:svarint depth:varint
+ *                 [testAlignment:svarint] [count:varint softAlignment:double*]
+ *   arcs       := count:varint (head:varint tail:varint relation:string)*   (heads and tails index into nodes)
+ *   string     := varint, 0 followed by a new utf string, or 1 + the id of a string seen before
+ *
+ * Node flags hold the NodeType ordinal in the low two bits, then alignmentFixed, isFirstRef, whether there's a
+ * testAlignment, and whether there are soft alignments. Refs are only stored for ENTITY nodes.
+ *
+ * Strings go through one of four tables (words, refs, concepts and relations), each growing as the file is
+ * written, so a concept or relation costs its text once per file and a byte or two after that. Because the
+ * tables are built as we go, files can be written and read one AMR at a time. Paths ending in ".gz" are gzipped.
+ */
+public class AMRBinaryFormat {
+    static final byte[] MAGIC = {'A', 'M', 'R', 'B', 'I', 'N'};
+    static final int VERSION = 1;
+
+    private static final int FIXED = 4;
+    private static final int FIRST_REF = 8;
+    private static final int TEST_ALIGNMENT = 16;
+    private static final int SOFT_ALIGNMENTS = 32;
+
+    public static void write(String path, AMR[] bank) throws IOException {
+        try (Writer writer = new Writer(path)) {
+            for (AMR amr : bank) writer.write(amr);
+        }
+    }
+
+    public static AMR[] read(String path) throws IOException {
+        List<AMR> bank = new ArrayList<>();
+        try (Reader reader = new Reader(path)) {
+            AMR amr;
+            while ((amr = reader.read()) != null) bank.add(amr);
+        }
+        return bank.toArray(new AMR[bank.size()]);
+    }
+
+    /**
+     * Writes AMRs to a file one at a time.
+     */
+    public static class Writer implements Closeable {
+        final DataOutputStream out;
+        final StringTable words = new StringTable();
+        final StringTable refs = new StringTable();
+        final StringTable concepts = new StringTable();
+        final StringTable relations = new StringTable();
+
+        public Writer(String path) throws IOException {
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+            if (path.endsWith(".gz")) stream = new GZIPOutputStream(stream, 1 << 16);
+            out = new DataOutputStream(stream);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        public void write(AMR amr) throws IOException {
+            out.writeByte(1);
+            out.writeUTF(amr.docId == null ? "" : amr.docId);
+
+            writeVarint(out, amr.sourceText.length);
+            for (String token : amr.sourceText) words.write(out, token);
+
+            // Head first, so that adding it first on the way back in makes it the head again
+            List<AMR.Node> order = new ArrayList<>(amr.nodes.size());
+            if (amr.head != null && amr.nodes.contains(amr.head)) order.add(amr.head);
+            for (AMR.Node node : amr.nodes) {
+                if (node != amr.head) order.add(node);
+            }
+            Map<AMR.Node,Integer> index = new IdentityHashMap<>();
+            writeVarint(out, order.size());
+            for (AMR.Node node : order) {
+                index.put(node, index.size());
+                int flags = node.type.ordinal();
+                if (node.alignmentFixed) flags |= FIXED;
+                if (node.isFirstRef) flags |= FIRST_REF;
+                if (node.testAlignment != -1) flags |= TEST_ALIGNMENT;
+                if (node.softAlignments != null && node.softAlignments.length > 0) flags |= SOFT_ALIGNMENTS;
+                out.writeByte(flags);
+                if (node.type == AMR.NodeType.ENTITY) refs.write(out, node.ref);
+                concepts.write(out, node.title);
+                writeSignedVarint(out, node.alignment);
+                writeVarint(out, node.depth);
+                if ((flags & TEST_ALIGNMENT) != 0) writeSignedVarint(out, node.testAlignment);
+                if ((flags & SOFT_ALIGNMENTS) != 0) {
+                    writeVarint(out, node.softAlignments.length);
+                    for (double d : node.softAlignments) out.writeDouble(d);
+                }
+            }
+
+            // Arcs in each node's outgoing order, skipping any left pointing at nodes no longer in the graph
+            List<AMR.Arc> arcs = new ArrayList<>(amr.arcs.size());
+            for (AMR.Node node : order) {
+                List<AMR.Arc> outgoing = amr.outgoingArcs.get(node);
+                if (outgoing == null) continue;
+                for (AMR.Arc arc : outgoing) {
+                    if (amr.arcs.contains(arc) && index.containsKey(arc.tail)) arcs.add(arc);
+                }
+            }
+            writeVarint(out, arcs.size());
+            for (AMR.Arc arc : arcs) {
+                writeVarint(out, index.get(arc.head));
+                writeVarint(out, index.get(arc.tail));
+                relations.write(out, arc.title);
+            }
+
+            writeVarint(out, amr.treeDepth);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(0);
+            out.close();
+        }
+    }
+
+    /**
+     * Reads AMRs back from a file one at a time.
+     */
+    public static class Reader implements Closeable {
+        final DataInputStream in;
+        final StringTable words = new StringTable();
+        final StringTable refs = new StringTable();
+        final StringTable concepts = new StringTable();
+        final StringTable relations = new StringTable();
+        boolean done = false;
+
+        public Reader(String path) throws IOException {
+            InputStream stream = new BufferedInputStream(new FileInputStream(path), 1 << 16);
+            if (path.endsWith(".gz")) stream = new GZIPInputStream(stream, 1 << 16);
+            in = new DataInputStream(stream);
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                in.close();
+                throw new IOException(path+" isn't a binary AMR bank");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                in.close();
+                throw new IOException(path+" is binary AMR bank version "+version+", expected "+VERSION);
+            }
+        }
+
+        /**
+         * The next AMR in the file, or null once they've all been read.
+         */
+        public AMR read() throws IOException {
+            if (done) return null;
+            int tag = in.readUnsignedByte();
+            if (tag == 0) {
+                done = true;
+                return null;
+            }
+            if (tag != 1) throw new IOException("Corrupt binary AMR bank, unknown entry type "+tag);
+
+            AMR amr = new AMR();
+            amr.docId = in.readUTF();
+            amr.sourceText = new String[readVarint(in)];
+            for (int i = 0; i < amr.sourceText.length; i++) amr.sourceText[i] = words.read(in);
+
+            AMR.Node[] nodes = new AMR.Node[readVarint(in)];
+            int[] depths = new int[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                int flags = in.readUnsignedByte();
+                AMR.NodeType type = AMR.NodeType.values()[flags & 3];
+                String ref = type == AMR.NodeType.ENTITY ? refs.read(in) : null;
+                String title = concepts.read(in);
+                AMR.Node node = type == AMR.NodeType.ENTITY ? amr.addNode(ref, title) : amr.addNode(title, type);
+                node.alignment = readSignedVarint(in);
+                node.alignmentFixed = (flags & FIXED) != 0;
+                node.isFirstRef = (flags & FIRST_REF) != 0;
+                depths[i] = readVarint(in);
+                if ((flags & TEST_ALIGNMENT) != 0) node.testAlignment = readSignedVarint(in);
+                if ((flags & SOFT_ALIGNMENTS) != 0) {
+                    node.softAlignments = new double[readVarint(in)];
+                    for (int j = 0; j < node.softAlignments.length; j++) node.softAlignments[j] = in.readDouble();
+                }
+                nodes[i] = node;
+            }
+
+            int numArcs = readVarint(in);
+            for (int i = 0; i < numArcs; i++) {
+                AMR.Node head = nodes[readVarint(in)];
+                AMR.Node tail = nodes[readVarint(in)];
+                amr.addArc(head, tail, relations.read(in));
+            }
+
+            // addArc() recomputes depths from whatever order arcs come in, so put back the ones we had
+            for (int i = 0; i < nodes.length; i++) nodes[i].depth = depths[i];
+            amr.treeDepth = readVarint(in);
+            return amr;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Strings numbered in the order they're first written, shared between a Writer and the Reader that reads its
+     * file back.
+     */
+    static class StringTable {
+        final Map<String,Integer> ids = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+
+        void write(DataOutputStream out, String s) throws IOException {
+            if (s == null) s = "";
+            Integer id = ids.get(s);
+            if (id == null) {
+                ids.put(s, ids.size());
+                writeVarint(out, 0);
+                out.writeUTF(s);
+            }
+            else {
+                writeVarint(out, id + 1);
+            }
+        }
+
+        String read(DataInputStream in) throws IOException {
+            int id = readVarint(in);
+            if (id == 0) {
+                String s = in.readUTF();
+                strings.add(s);
+                return s;
+            }
+            if (id > strings.size()) throw new IOException("Corrupt binary AMR bank, unknown string "+(id - 1));
+            return strings.get(id - 1);
+        }
+    }
+
+    public static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupt binary file, varint too long");
+    }
+
+    static void writeSignedVarint(DataOutputStream out, int value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int readSignedVarint(DataInputStream in) throws IOException {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Compares this format against AMRSlurp.burpSerialized() on a bank, for size and read/write time.
+     */
+    public static void main(String[] args) throws IOException {
+        String path = args.length > 0 ? args[0] : "data/training-500-subset.txt";
+        AMR[] bank = AMRSlurp.slurp(path, AMRSlurp.Format.LDC);
+
+        File serialized = File.createTempFile("bank", ".ser.gz");
+        File binary = File.createTempFile("bank", ".amrbin");
+        File binaryGz = File.createTempFile("bank", ".amrbin.gz");
+        serialized.deleteOnExit();
+        binary.deleteOnExit();
+        binaryGz.deleteOnExit();
+
+        for (int run = 0; run < 5; run++) {
+            long start = System.currentTimeMillis();
+            AMRSlurp.burpSerialized(serialized.getPath(), bank);
+            long serializedWrite = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            AMRSlurp.slurpSerialized(serialized.getPath());
+            long serializedRead = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            write(binary.getPath(), bank);
+            long binaryWrite = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            read(binary.getPath());
+            long binaryRead = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            write(binaryGz.getPath(), bank);
+            long binaryGzWrite = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            read(binaryGz.getPath());
+            long binaryGzRead = System.currentTimeMillis() - start;
+
+            System.out.println("Run "+run+" ("+bank.length+" AMRs):");
+            System.out.println("\tserialized .ser.gz: "+serialized.length()+" bytes, write "+serializedWrite+"ms, read "+serializedRead+"ms");
+            System.out.println("\tbinary:             "+binary.length()+" bytes, write "+binaryWrite+"ms, read "+binaryRead+"ms");
+            System.out.println("\tbinary .gz:         "+binaryGz.length()+" bytes, write "+binaryGzWrite+"ms, read "+binaryGzRead+"ms");
+        }
+    }
+}
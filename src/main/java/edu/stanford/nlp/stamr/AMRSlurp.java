@@ -22,6 +22,12 @@ public class AMRSlurp {
 
     static AnnotationManager annotationManager = new AnnotationManager();
 
+    /**
+     * Parse AMR strings with the generated ANTLR parser instead of PenmanParser. They build the same graphs, ANTLR is
+     * just a lot slower.
+     */
+    public static boolean USE_ANTLR = false;
+
     public enum Format {
         LITTLE_PRINCE,
         LDC
@@ -44,57 +50,14 @@ public class AMRSlurp {
     public static boolean doingAlignments = false;
     public static AMR[] slurp(String path, Format format, String annotationLocation) throws IOException {
 
-        BufferedReader br = new BufferedReader(new FileReader(path));
-
-        StringBuilder sb = new StringBuilder();
-        String header = "";
-
         List<AMR> bank = new ArrayList<AMR>();
-
-        String line;
-        while ((line = br.readLine()) != null) {
-
-            // LDC Format looks like this:
-            //
-            // # ::id blah-im-a-doc-id-001
-            // # ::snt He can't seem to help himself .
-            // (h / help-01 :ARG0 (h2 / he) :ARG1 h2)
-            //
-            // # ::id blah
-            // # ::snt next sentence
-
-            if (format == Format.LDC) {
-                if (line.length() == 0) {
-                    bank.add(parse(sb.toString(),header,format));
-                    sb.setLength(0);
-                    continue;
-                }
-                else if (line.charAt(0) == '(') {
-                    header = sb.toString();
-                    sb.setLength(0);
-                }
-            }
-
-            // Little Prince Format looks like this:
-            //
-            // He can't seem to help himself . (blah-im-a-doc-id-001)
-            // (h / help-01 :ARG0 (h2 / he) :ARG1 h2)
-            //
-            // Next sentence . (blah)
-
-            else if (format == Format.LITTLE_PRINCE) {
-                if (line.length() == 0) {
-                    String result = sb.toString();
-                    if (result.charAt(0) == '(') {
-                        bank.add(parse(result, header, format));
-                    }
-                    else header = result;
-                    sb.setLength(0);
-                    continue;
-                }
+        try (AMRBankReader reader = new AMRBankReader(path, format)) {
+            for (AMR amr : reader) {
+                bank.add(amr);
             }
-
-            sb.append(line).append("\n");
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
         }
 
         AMR[] arr = bank.toArray(new AMR[bank.size()]);
@@ -104,6 +67,14 @@ public class AMRSlurp {
         return arr;
     }
 
+    /**
+     * Reads a bank lazily, parsing ahead of you in parallel, for banks too big to slurp. Close the reader (or
+     * read it to the end) when you're done with it.
+     */
+    public static AMRBankReader stream(String path, Format format) throws IOException {
+        return new AMRBankReader(path, format);
+    }
+
     public static AMR[] slurpSerialized(String path) throws IOException {
         AMR[] bank = new AMR[0];
         try{
@@ -139,6 +110,17 @@ public class AMRSlurp {
         }
     }
 
+    /**
+     * Reads a bank written by burpBinary(), see AMRBinaryFormat.
+     */
+    public static AMR[] slurpBinary(String path) throws IOException {
+        return AMRBinaryFormat.read(path);
+    }
+
+    public static void burpBinary(String path, AMR[] bank) throws IOException {
+        AMRBinaryFormat.write(path, bank);
+    }
+
     public static void burpCoNLL(String path, AMR[] bank) throws IOException {
         File f = new File(path);
         if (!f.exists()) f.delete();
@@ -300,21 +282,27 @@ public class AMRSlurp {
             throw new IllegalStateException("Header doesn't match supplied format, docId or sourceText failed to extract correctly");
         }
 
-        // A bunch of boilerplate to read in edu.stanford.nlp.stamr.AMR using ANTLR
-
         try {
             AMR doc = parseAMRTree(amr);
             doc.docId = docId;
             doc.sourceText = sourceText;
             return doc;
         }
-        catch (ParseCancellationException e) {
+        catch (ParseCancellationException | PenmanParser.ParseException e) {
             System.err.println("Error parsing:\n"+amr);
             throw e;
         }
     }
 
     public static AMR parseAMRTree(String amr) {
+        if (USE_ANTLR) return parseAMRTreeANTLR(amr);
+        return PenmanParser.parse(amr);
+    }
+
+    /**
+     * A bunch of boilerplate to read in edu.stanford.nlp.stamr.AMR using ANTLR
+     */
+    public static AMR parseAMRTreeANTLR(String amr) {
         ANTLRInputStream input = new ANTLRInputStream(amr);
         AMRLexer lexer = new AMRLexer(input);
         CommonTokenStream tokens = new CommonTokenStream(lexer);
@@ -0,0 +1,400 @@
+package edu.stanford.nlp.stamr;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of an AMR's graph, with nodes and arcs numbered and adjacency kept in flat arrays.
+ *
+ * AMR keeps its nodes and arcs in IdentityHashSets and its adjacency in IdentityHashMaps, which is convenient for
+ * editing graphs but slow to walk: every getParentArc(), search and hashCode() goes through hashed collections.
+ * Code that walks the same graph over and over (EM, message passing, evaluation) can take one of these instead.
+ *
+ * Nodes are numbered in AMR.topologicalSort() order, so the head is node 0, and the nodes reachable from the head
+ * come first, in breadth first order. Arcs are numbered by head node, in each node's outgoing arc order. Both
+ * directions of adjacency are stored CSR style: node v's outgoing arcs are outStart[v] to outStart[v+1] (which,
+ * given the arc numbering, are just those arc ids), and its incoming arcs are inArcs[inStart[v]] to
+ * inArcs[inStart[v+1]-1], in the order of AMR.incomingArcs, so parentArc() agrees with AMR.getParentArc().
+ *
+ * hashCode() is computed once, up front, and is the same as the source AMR's.
+ */
+public class ArrayAMR {
+    public static final int NONE = -1;
+
+    public final String docId;
+    final String[] sourceText;
+
+    final String[] refs;
+    final String[] titles;
+    final AMR.NodeType[] types;
+    final int[] alignments;
+    final boolean[] alignmentFixed;
+    final boolean[] firstRef;
+
+    final int[] arcHeads;
+    final int[] arcTails;
+    final String[] arcTitles;
+
+    final int[] outStart;
+    final int[] inStart;
+    final int[] inArcs;
+
+    final int reachable;
+    final int hash;
+
+    // The objects we were built from, if we were built from an AMR
+    final AMR.Node[] sourceNodes;
+    final AMR.Arc[] sourceArcs;
+    final Map<AMR.Node,Integer> nodeIds;
+    final Map<AMR.Arc,Integer> arcIds;
+
+    private String[] sortedNodeKeys;
+    private String[] sortedArcKeys;
+
+    public static ArrayAMR of(AMR amr) {
+        return new ArrayAMR(amr);
+    }
+
+    private ArrayAMR(AMR amr) {
+        docId = amr.docId;
+        sourceText = amr.sourceText;
+
+        sourceNodes = amr.topologicalSort().toArray(new AMR.Node[0]);
+        int n = sourceNodes.length;
+        nodeIds = new IdentityHashMap<>(n * 2);
+        for (int i = 0; i < n; i++) nodeIds.put(sourceNodes[i], i);
+        reachable = amr.head == null ? 0 : amr.breadthFirstSearch(amr.head).size();
+
+        refs = new String[n];
+        titles = new String[n];
+        types = new AMR.NodeType[n];
+        alignments = new int[n];
+        alignmentFixed = new boolean[n];
+        firstRef = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            AMR.Node node = sourceNodes[i];
+            refs[i] = node.ref;
+            titles[i] = node.title;
+            types[i] = node.type;
+            alignments[i] = node.alignment;
+            alignmentFixed[i] = node.alignmentFixed;
+            firstRef[i] = node.isFirstRef;
+        }
+
+        // Arcs grouped by head, in outgoing order, leaving out any that point outside the graph
+
+        List<AMR.Arc> arcs = new ArrayList<>();
+        outStart = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            outStart[i] = arcs.size();
+            List<AMR.Arc> outgoing = amr.outgoingArcs.get(sourceNodes[i]);
+            if (outgoing == null) continue;
+            for (AMR.Arc arc : outgoing) {
+                if (amr.arcs.contains(arc) && nodeIds.containsKey(arc.tail)) arcs.add(arc);
+            }
+        }
+        outStart[n] = arcs.size();
+
+        int m = arcs.size();
+        sourceArcs = arcs.toArray(new AMR.Arc[m]);
+        arcIds = new IdentityHashMap<>(m * 2);
+        arcHeads = new int[m];
+        arcTails = new int[m];
+        arcTitles = new String[m];
+        for (int a = 0; a < m; a++) {
+            arcIds.put(sourceArcs[a], a);
+            arcHeads[a] = nodeIds.get(sourceArcs[a].head);
+            arcTails[a] = nodeIds.get(sourceArcs[a].tail);
+            arcTitles[a] = sourceArcs[a].title;
+        }
+
+        inStart = new int[n + 1];
+        inArcs = new int[m];
+        int next = 0;
+        for (int i = 0; i < n; i++) {
+            inStart[i] = next;
+            List<AMR.Arc> incoming = amr.incomingArcs.get(sourceNodes[i]);
+            if (incoming == null) continue;
+            for (AMR.Arc arc : incoming) {
+                Integer a = arcIds.get(arc);
+                if (a != null) inArcs[next++] = a;
+            }
+        }
+        inStart[n] = next;
+
+        int hashCode = 1;
+        for (AMR.Node node : sourceNodes) hashCode *= node.hashCode();
+        for (AMR.Arc arc : sourceArcs) hashCode *= arc.hashCode();
+        hash = hashCode;
+    }
+
+    /////////////////////////////////////////////////
+    // NODES
+
+    public int size() {
+        return titles.length;
+    }
+
+    /**
+     * The head node's id, or NONE for an empty graph.
+     */
+    public int head() {
+        return titles.length == 0 ? NONE : 0;
+    }
+
+    /**
+     * Nodes [0, reachableFromHead()) are the ones connected to the head, the rest are in other components.
+     */
+    public int reachableFromHead() {
+        return reachable;
+    }
+
+    public String ref(int node) {
+        return refs[node];
+    }
+
+    public String title(int node) {
+        return titles[node];
+    }
+
+    public AMR.NodeType type(int node) {
+        return types[node];
+    }
+
+    public int alignment(int node) {
+        return alignments[node];
+    }
+
+    public boolean alignmentFixed(int node) {
+        return alignmentFixed[node];
+    }
+
+    public int sourceTokenCount() {
+        return sourceText.length;
+    }
+
+    /////////////////////////////////////////////////
+    // ARCS
+
+    public int numArcs() {
+        return arcTitles.length;
+    }
+
+    public int arcHead(int arc) {
+        return arcHeads[arc];
+    }
+
+    public int arcTail(int arc) {
+        return arcTails[arc];
+    }
+
+    public String arcTitle(int arc) {
+        return arcTitles[arc];
+    }
+
+    public int outDegree(int node) {
+        return outStart[node + 1] - outStart[node];
+    }
+
+    /**
+     * The k'th outgoing arc of a node.
+     */
+    public int outArc(int node, int k) {
+        return outStart[node] + k;
+    }
+
+    public int child(int node, int k) {
+        return arcTails[outStart[node] + k];
+    }
+
+    public int inDegree(int node) {
+        return inStart[node + 1] - inStart[node];
+    }
+
+    /**
+     * The k'th incoming arc of a node.
+     */
+    public int inArc(int node, int k) {
+        return inArcs[inStart[node] + k];
+    }
+
+    /**
+     * The arc AMR.getParentArc() would give, or NONE where that would be the null arc.
+     */
+    public int parentArc(int node) {
+        return inStart[node] == inStart[node + 1] ? NONE : inArcs[inStart[node]];
+    }
+
+    public int parent(int node) {
+        int arc = parentArc(node);
+        return arc == NONE ? NONE : arcHeads[arc];
+    }
+
+    /////////////////////////////////////////////////
+    // SEARCH
+
+    /**
+     * Node ids in the order AMR.breadthFirstSearch() visits them.
+     */
+    public int[] breadthFirstSearch(int from) {
+        if (from == 0) return Arrays.copyOf(identity(), reachable);
+        boolean[] visited = new boolean[size()];
+        int[] queue = new int[size()];
+        int read = 0;
+        int write = 0;
+        queue[write++] = from;
+        visited[from] = true;
+        while (read < write) {
+            int node = queue[read++];
+            for (int a = outStart[node]; a < outStart[node + 1]; a++) {
+                int tail = arcTails[a];
+                if (!visited[tail]) {
+                    visited[tail] = true;
+                    queue[write++] = tail;
+                }
+            }
+        }
+        return Arrays.copyOf(queue, write);
+    }
+
+    /**
+     * Node ids in the order AMR.depthFirstSearchNode() visits them.
+     */
+    public int[] depthFirstSearch(int from) {
+        boolean[] visited = new boolean[size()];
+        int[] order = new int[size()];
+        int count = 0;
+        // Stack of (node, next outgoing arc to look at)
+        int[] nodeStack = new int[size()];
+        int[] arcStack = new int[size()];
+        int depth = 0;
+        nodeStack[0] = from;
+        arcStack[0] = outStart[from];
+        visited[from] = true;
+        order[count++] = from;
+        while (depth >= 0) {
+            int node = nodeStack[depth];
+            if (arcStack[depth] == outStart[node + 1]) {
+                depth--;
+                continue;
+            }
+            int tail = arcTails[arcStack[depth]++];
+            if (visited[tail]) continue;
+            visited[tail] = true;
+            order[count++] = tail;
+            depth++;
+            nodeStack[depth] = tail;
+            arcStack[depth] = outStart[tail];
+        }
+        return Arrays.copyOf(order, count);
+    }
+
+    private int[] identity() {
+        int[] ids = new int[size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = i;
+        return ids;
+    }
+
+    /////////////////////////////////////////////////
+    // CONVERSION
+
+    /**
+     * The id of a node of the AMR this was built from, or NONE if it isn't one.
+     */
+    public int idOf(AMR.Node node) {
+        Integer id = nodeIds.get(node);
+        return id == null ? NONE : id;
+    }
+
+    /**
+     * The id of an arc of the AMR this was built from, or NONE if it isn't one (like the AMR's nullArc).
+     */
+    public int idOf(AMR.Arc arc) {
+        Integer id = arcIds.get(arc);
+        return id == null ? NONE : id;
+    }
+
+    /**
+     * The AMR.Node this node id was built from, for handing to code that wants one.
+     */
+    public AMR.Node sourceNode(int node) {
+        return sourceNodes[node];
+    }
+
+    public AMR.Arc sourceArc(int arc) {
+        return sourceArcs[arc];
+    }
+
+    /**
+     * A new, mutable AMR with this graph in it. Soft alignments and annotations aren't part of the snapshot.
+     */
+    public AMR toAMR() {
+        AMR amr = new AMR();
+        amr.docId = docId;
+        amr.sourceText = sourceText;
+        AMR.Node[] nodes = new AMR.Node[size()];
+        for (int i = 0; i < nodes.length; i++) {
+            if (types[i] == AMR.NodeType.ENTITY) nodes[i] = amr.addNode(refs[i], titles[i]);
+            else nodes[i] = amr.addNode(titles[i], types[i]);
+            nodes[i].alignment = alignments[i];
+            nodes[i].alignmentFixed = alignmentFixed[i];
+            nodes[i].isFirstRef = firstRef[i];
+        }
+        for (int a = 0; a < numArcs(); a++) {
+            amr.addArc(nodes[arcHeads[a]], nodes[arcTails[a]], arcTitles[a]);
+        }
+        return amr;
+    }
+
+    /////////////////////////////////////////////////
+    // EQUALITY
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Same nodes and arcs, going by titles and types like AMR.equals(), and the same head.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof ArrayAMR)) return false;
+        ArrayAMR other = (ArrayAMR)o;
+        if (hash != other.hash || size() != other.size() || numArcs() != other.numArcs()) return false;
+        if (size() > 0 && (!titles[0].equals(other.titles[0]) || types[0] != other.types[0])) return false;
+        return Arrays.equals(sortedNodeKeys(), other.sortedNodeKeys()) &&
+                Arrays.equals(sortedArcKeys(), other.sortedArcKeys());
+    }
+
+    private String nodeKey(int node) {
+        return types[node].ordinal() + titles[node];
+    }
+
+    private String[] sortedNodeKeys() {
+        if (sortedNodeKeys == null) {
+            String[] keys = new String[size()];
+            for (int i = 0; i < keys.length; i++) keys[i] = nodeKey(i);
+            Arrays.sort(keys);
+            sortedNodeKeys = keys;
+        }
+        return sortedNodeKeys;
+    }
+
+    private String[] sortedArcKeys() {
+        if (sortedArcKeys == null) {
+            String[] keys = new String[numArcs()];
+            for (int a = 0; a < keys.length; a++) {
+                keys[a] = arcTitles[a] + "\u0000" + nodeKey(arcHeads[a]) + "\u0000" + nodeKey(arcTails[a]);
+            }
+            Arrays.sort(keys);
+            sortedArcKeys = keys;
+        }
+        return sortedArcKeys;
+    }
+
+    @Override
+    public String toString() {
+        return toAMR().toString();
+    }
+}
@@ -0,0 +1,267 @@
+package edu.stanford.nlp.stamr;
+
+/**
+ * Reads an AMR in PENMAN notation straight into an AMR, without going through ANTLR.
+ *
+ * This accepts the same language as the AMR.g4 grammar AMRSlurp has always used, and calls AMR.addNode() and
+ * AMR.addArc() in the same order the ANTLR visitor does, so the graphs come out identical:
+ *
+ *   node      : '(' LABEL ('/' (LABEL | NUMBER))? alignment? (':' LABEL node)* ')'
+ *             | (LABEL | NUMBER | POLARITY | QUOTE) alignment?
+ *   alignment : '[' NUMBER ('=' QUOTE)? ']'
+ *             | '[' 'GUESS' NUMBER '=' QUOTE 'ACTUAL' NUMBER '=' QUOTE ']'
+ *
+ * with tokens
+ *
+ *   LABEL    : [a-zA-Z] [a-zA-Z0-9'-]*        (except GUESS and ACTUAL, which are keywords)
+ *   NUMBER   : [0-9]+ ('.' [0-9]+)?
+ *   POLARITY : '+' | '-'
+ *   QUOTE    : '"' ~'"'+ '"'
+ *
+ * Like the ANTLR parser, anything after the end of the first node is ignored. Errors are thrown as a
+ * ParseException that knows where in the string it happened. One difference: a character that can't start any
+ * token is an error here, where the ANTLR lexer prints a warning, skips it and carries on.
+ */
+public class PenmanParser {
+
+    public static class ParseException extends IllegalArgumentException {
+        public final int position;
+        public final int line;
+        public final int column;
+
+        ParseException(String message, String input, int position) {
+            this(message, position, lineOf(input, position), columnOf(input, position));
+        }
+
+        private ParseException(String message, int position, int line, int column) {
+            super(message+" at line "+line+", column "+column);
+            this.position = position;
+            this.line = line;
+            this.column = column;
+        }
+
+        private static int lineOf(String input, int position) {
+            int line = 1;
+            for (int i = 0; i < position && i < input.length(); i++) {
+                if (input.charAt(i) == '\n') line++;
+            }
+            return line;
+        }
+
+        private static int columnOf(String input, int position) {
+            int lineStart = input.lastIndexOf('\n', Math.min(position, input.length()) - 1) + 1;
+            return position - lineStart + 1;
+        }
+    }
+
+    // Token types
+    private static final int EOF = 0;
+    private static final int ERROR = 1;
+    private static final int LPAREN = 2;
+    private static final int RPAREN = 3;
+    private static final int SLASH = 4;
+    private static final int COLON = 5;
+    private static final int LBRACKET = 6;
+    private static final int RBRACKET = 7;
+    private static final int EQUALS = 8;
+    private static final int GUESS = 9;
+    private static final int ACTUAL = 10;
+    private static final int LABEL = 11;
+    private static final int NUMBER = 12;
+    private static final int POLARITY = 13;
+    private static final int QUOTE = 14;
+
+    private static final String[] TOKEN_NAMES = {
+            "end of input", "bad character", "'('", "')'", "'/'", "':'", "'['", "']'", "'='", "GUESS", "ACTUAL",
+            "a label", "a number", "a polarity", "a quote"
+    };
+
+    final String input;
+    final AMR doc = new AMR();
+
+    // The current token, always one past what we've consumed
+    int type;
+    int start;
+    int end;
+    String error;
+
+    private PenmanParser(String input) {
+        this.input = input;
+        end = 0;
+        advance();
+    }
+
+    public static AMR parse(String amr) {
+        PenmanParser parser = new PenmanParser(amr);
+        parser.node();
+        return parser.doc;
+    }
+
+    private AMR.Node node() {
+        AMR.Node head;
+        if (type == LPAREN) {
+            advance();
+            String ref = expect(LABEL);
+            if (type == SLASH) {
+                advance();
+                if (type != LABEL && type != NUMBER) throw unexpected("a concept");
+                String title = text();
+                advance();
+                head = doc.addNode(ref, title);
+            }
+            else {
+                head = doc.addNode(ref);
+            }
+            alignment(head);
+            while (type == COLON) {
+                advance();
+                String label = expect(LABEL);
+                AMR.Node tail = node();
+                doc.addArc(head, tail, label);
+            }
+            expect(RPAREN);
+        }
+        else {
+            switch (type) {
+                case LABEL:
+                    head = doc.addNodeAmbiguousValueOrRef(text());
+                    break;
+                case NUMBER:
+                case POLARITY:
+                    head = doc.addNode(text(), AMR.NodeType.VALUE);
+                    break;
+                case QUOTE:
+                    head = doc.addNode(input.substring(start + 1, end - 1), AMR.NodeType.QUOTE);
+                    break;
+                default:
+                    throw unexpected("a node");
+            }
+            advance();
+            alignment(head);
+        }
+        return head;
+    }
+
+    private void alignment(AMR.Node node) {
+        if (type != LBRACKET) return;
+        advance();
+        String alignment;
+        if (type == GUESS) {
+            advance();
+            expect(NUMBER);
+            expect(EQUALS);
+            expect(QUOTE);
+            expect(ACTUAL);
+            alignment = expect(NUMBER);
+            expect(EQUALS);
+            expect(QUOTE);
+        }
+        else {
+            alignment = expect(NUMBER);
+            if (type == EQUALS) {
+                advance();
+                expect(QUOTE);
+            }
+        }
+        expect(RBRACKET);
+        node.alignment = Integer.parseInt(alignment);
+        node.alignmentFixed = true;
+    }
+
+    private String text() {
+        return input.substring(start, end);
+    }
+
+    private String expect(int expected) {
+        if (type != expected) throw unexpected(TOKEN_NAMES[expected]);
+        String text = text();
+        advance();
+        return text;
+    }
+
+    private ParseException unexpected(String expected) {
+        if (type == ERROR) return new ParseException(error, input, start);
+        String found = type == EOF ? TOKEN_NAMES[EOF] : "\""+text()+"\"";
+        return new ParseException("Expected "+expected+" but found "+found, input, start);
+    }
+
+    /**
+     * Reads the next token. Problems are kept as an ERROR token rather than thrown here, so that junk after the
+     * last node goes unnoticed, as it does with ANTLR.
+     */
+    private void advance() {
+        int i = end;
+        while (i < input.length()) {
+            char c = input.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') break;
+            i++;
+        }
+        start = i;
+        if (i == input.length()) {
+            type = EOF;
+            end = i;
+            return;
+        }
+
+        char c = input.charAt(i);
+        end = i + 1;
+        switch (c) {
+            case '(': type = LPAREN; return;
+            case ')': type = RPAREN; return;
+            case '/': type = SLASH; return;
+            case ':': type = COLON; return;
+            case '[': type = LBRACKET; return;
+            case ']': type = RBRACKET; return;
+            case '=': type = EQUALS; return;
+            case '+':
+            case '-': type = POLARITY; return;
+            case '"': {
+                int close = input.indexOf('"', i + 1);
+                if (close == -1) {
+                    type = ERROR;
+                    error = "Unterminated quote";
+                }
+                else if (close == i + 1) {
+                    type = ERROR;
+                    error = "Empty quote";
+                }
+                else {
+                    type = QUOTE;
+                    end = close + 1;
+                }
+                return;
+            }
+        }
+
+        if (isLetter(c)) {
+            while (end < input.length() && isLabelChar(input.charAt(end))) end++;
+            type = LABEL;
+            if (end - start == 5 && input.startsWith("GUESS", start)) type = GUESS;
+            else if (end - start == 6 && input.startsWith("ACTUAL", start)) type = ACTUAL;
+        }
+        else if (isDigit(c)) {
+            while (end < input.length() && isDigit(input.charAt(end))) end++;
+            if (end + 1 < input.length() && input.charAt(end) == '.' && isDigit(input.charAt(end + 1))) {
+                end++;
+                while (end < input.length() && isDigit(input.charAt(end))) end++;
+            }
+            type = NUMBER;
+        }
+        else {
+            type = ERROR;
+            error = "Unexpected character '"+c+"'";
+        }
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLabelChar(char c) {
+        return isLetter(c) || isDigit(c) || c == '\'' || c == '-';
+    }
+}
@@ -67,207 +67,142 @@ public class EMAligner {
 
         System.out.println("Creating "+threadCount+" threads");
 
-        Thread[] eStepThreads = new Thread[threadCount];
-        ParallelEStep[] parallelESteps = new ParallelEStep[threadCount];
-        Thread[] mStepThreads = new Thread[threadCount];
-        ParallelMStep[] parallelMSteps = new ParallelMStep[threadCount];
-        Thread[] alignmentThreads = new Thread[threadCount];
-        ParallelAlignmentStep[] parallelAlignmentSteps = new ParallelAlignmentStep[threadCount];
+        EMScheduler scheduler = new EMScheduler(bank, augmentBank, threadCount);
 
-        int bankSliceCursor = 0;
-        int augmentBankSliceCursor = 0;
+        // Each worker collects soft counts into its own copy of the features, and after each M step they're merged
+        // into the running totals. The totals carry over between iterations, and are what the global features get.
 
-        for (int i = 0; i < threadCount; i++) {
-
-            // Do slice of bank
-
-            int bankSliceSize = bank.length / threadCount;
-            if (i == threadCount-1) {
-                bankSliceSize = bank.length - bankSliceCursor;
-            }
-            AMR[] bankSlice = new AMR[bankSliceSize];
-            System.arraycopy(bank,bankSliceCursor,bankSlice,0,bankSliceSize);
-            bankSliceCursor += bankSliceSize;
-
-            // Do same slice of augment bank
-
-            int augmentBankSliceSize = augmentBank.length / threadCount;
-            if (i == threadCount-1) {
-                augmentBankSliceSize = augmentBank.length - augmentBankSliceCursor;
-            }
-            SRL[] augmentBankSlice = new SRL[augmentBankSliceSize];
-            System.arraycopy(augmentBank,augmentBankSliceCursor,augmentBankSlice,0,augmentBankSliceSize);
-            augmentBankSliceCursor += augmentBankSliceSize;
-
-            // Create thread slice of the dataset
-
-            parallelESteps[i] = new ParallelEStep(bankSlice,globalUnaryAlignmentFeatures,globalBinaryAlignmentFeatures);
-            parallelMSteps[i] = new ParallelMStep(bankSlice,augmentBankSlice,globalUnaryAlignmentFeatures,globalBinaryAlignmentFeatures);
-            parallelAlignmentSteps[i] = new ParallelAlignmentStep(bankSlice,globalUnaryAlignmentFeatures,globalBinaryAlignmentFeatures);
+        UnaryAlignmentFeature[][] workerUnaryAlignmentFeatures = new UnaryAlignmentFeature[threadCount][];
+        BinaryAlignmentFeature[][] workerBinaryAlignmentFeatures = new BinaryAlignmentFeature[threadCount][];
+        for (int t = 0; t < threadCount; t++) {
+            workerUnaryAlignmentFeatures[t] = newInstances(globalUnaryAlignmentFeatures);
+            workerBinaryAlignmentFeatures[t] = newInstances(globalBinaryAlignmentFeatures);
         }
+        UnaryAlignmentFeature[] totalUnaryAlignmentFeatures = newInstances(globalUnaryAlignmentFeatures);
+        BinaryAlignmentFeature[] totalBinaryAlignmentFeatures = newInstances(globalBinaryAlignmentFeatures);
 
         TimingEstimator estimator = new TimingEstimator();
         estimator.start();
 
-        for (int i = 0; i < iterations; i++) {
-            System.out.println();
-            System.out.println("EM Iteration " + (i+1)+" / "+iterations);
-            System.out.println("-------");
+        try {
+            for (int i = 0; i < iterations; i++) {
+                System.out.println();
+                System.out.println("EM Iteration " + (i+1)+" / "+iterations);
+                System.out.println("-------");
 
-            if (preIteration != null) {
-                preIteration.hook(i);
-            }
+                if (preIteration != null) {
+                    preIteration.hook(i);
+                }
 
-            for (UnaryAlignmentFeature unaryAlignmentFeature : globalUnaryAlignmentFeatures) unaryAlignmentFeature.clear();
-            for (BinaryAlignmentFeature binaryAlignmentFeature : globalBinaryAlignmentFeatures) binaryAlignmentFeature.clear();
+                for (UnaryAlignmentFeature unaryAlignmentFeature : globalUnaryAlignmentFeatures) unaryAlignmentFeature.clear();
+                for (BinaryAlignmentFeature binaryAlignmentFeature : globalBinaryAlignmentFeatures) binaryAlignmentFeature.clear();
 
-            System.out.println(" [M Step] Collecting soft counts ...");
+                System.out.println(" [M Step] Collecting soft counts ...");
+                long mStepStart = System.currentTimeMillis();
 
-            for (int t = 0; t < threadCount; t++) {
-                mStepThreads[t] = new Thread(parallelMSteps[t]);
-                mStepThreads[t].start();
-            }
-            for (int t = 0; t < threadCount; t++) {
-                mStepThreads[t].join();
+                for (int t = 0; t < threadCount; t++) {
+                    for (UnaryAlignmentFeature unaryAlignmentFeature : workerUnaryAlignmentFeatures[t]) unaryAlignmentFeature.clear();
+                    for (BinaryAlignmentFeature binaryAlignmentFeature : workerBinaryAlignmentFeatures[t]) binaryAlignmentFeature.clear();
+                }
+                scheduler.run((worker, amrs, srls) ->
+                        mStep(amrs, srls, workerUnaryAlignmentFeatures[worker], workerBinaryAlignmentFeatures[worker]));
+                scheduler.reduce(workerUnaryAlignmentFeatures, (into, from) -> {
+                    for (int u = 0; u < into.length; u++) into[u].addAll(from[u]);
+                });
+                scheduler.reduce(workerBinaryAlignmentFeatures, (into, from) -> {
+                    for (int b = 0; b < into.length; b++) into[b].addAll(from[b]);
+                });
                 for (int u = 0; u < globalUnaryAlignmentFeatures.length; u++) {
-                    globalUnaryAlignmentFeatures[u].addAll(parallelMSteps[t].localUnaryAlignmentFeatures[u]);
+                    totalUnaryAlignmentFeatures[u].addAll(workerUnaryAlignmentFeatures[0][u]);
+                    globalUnaryAlignmentFeatures[u].addAll(totalUnaryAlignmentFeatures[u]);
                 }
                 for (int b = 0; b < globalBinaryAlignmentFeatures.length; b++) {
-                    globalBinaryAlignmentFeatures[b].addAll(parallelMSteps[t].localBinaryAlignmentFeatures[b]);
+                    totalBinaryAlignmentFeatures[b].addAll(workerBinaryAlignmentFeatures[0][b]);
+                    globalBinaryAlignmentFeatures[b].addAll(totalBinaryAlignmentFeatures[b]);
                 }
-            }
-
-            // Cook everything once we're done collapsing it all
 
-            for (int u = 0; u < globalUnaryAlignmentFeatures.length; u++) {
-                globalUnaryAlignmentFeatures[u].cook();
-            }
-            for (int b = 0; b < globalBinaryAlignmentFeatures.length; b++) {
-                globalBinaryAlignmentFeatures[b].cook();
-            }
+                // Cook everything once we're done collapsing it all
 
-            if (postIteration != null) {
-                System.out.println(" [Checkin Step] Getting intermediate predictions ...");
-                for (int t = 0; t < threadCount; t++) {
-                    alignmentThreads[t] = new Thread(parallelAlignmentSteps[t]);
-                    alignmentThreads[t].start();
+                for (int u = 0; u < globalUnaryAlignmentFeatures.length; u++) {
+                    globalUnaryAlignmentFeatures[u].cook();
                 }
-                for (int t = 0; t < threadCount; t++) {
-                    alignmentThreads[t].join();
+                for (int b = 0; b < globalBinaryAlignmentFeatures.length; b++) {
+                    globalBinaryAlignmentFeatures[b].cook();
                 }
-                // doFinalAlignments(bank, globalUnaryAlignmentFeatures, globalBinaryAlignmentFeatures);
-                postIteration.hook(i);
-            }
-
-            totalSizeMatched = 0; numTimesMatched = 0; numFixed = 0;
-            System.out.println(" [E Step] Taking soft expectations ...");
 
-            for (int t = 0; t < threadCount; t++) {
-                eStepThreads[t] = new Thread(parallelESteps[t]);
-                eStepThreads[t].start();
-            }
-            for (int t = 0; t < threadCount; t++) {
-                eStepThreads[t].join();
-            }
-            System.out.println("numFixed: " + numFixed);
-            System.out.println("average match size: " + totalSizeMatched + "/" + numTimesMatched + "(" + (totalSizeMatched / (double) numTimesMatched) + ")");
+                long mStepMillis = System.currentTimeMillis() - mStepStart;
+                long checkinMillis = 0;
 
-            System.out.println();
-            System.out.println(estimator.reportEstimate(i, iterations));
-        }
-
-        System.out.println(" Getting final predictions ... ");
-
-        for (int t = 0; t < threadCount; t++) {
-            alignmentThreads[t] = new Thread(parallelAlignmentSteps[t]);
-            alignmentThreads[t].start();
-        }
-        for (int t = 0; t < threadCount; t++) {
-            alignmentThreads[t].join();
-        }
-        // doFinalAlignments(bank, globalUnaryAlignmentFeatures, globalBinaryAlignmentFeatures);
-
-        System.out.println("Done");
+                if (postIteration != null) {
+                    System.out.println(" [Checkin Step] Getting intermediate predictions ...");
+                    long checkinStart = System.currentTimeMillis();
+                    scheduler.run((worker, amrs, srls) ->
+                            doFinalAlignments(amrs, globalUnaryAlignmentFeatures, globalBinaryAlignmentFeatures));
+                    checkinMillis = System.currentTimeMillis() - checkinStart;
+                    postIteration.hook(i);
+                }
 
-    }
+                totalSizeMatched = 0; numTimesMatched = 0; numFixed = 0;
+                System.out.println(" [E Step] Taking soft expectations ...");
+                long eStepStart = System.currentTimeMillis();
 
-    private static class ParallelMStep implements Runnable {
-        public UnaryAlignmentFeature[] localUnaryAlignmentFeatures;
-        public BinaryAlignmentFeature[] localBinaryAlignmentFeatures;
-        public AMR[] bankSlice;
-        public SRL[] augmentBankSlice;
+                scheduler.run((worker, amrs, srls) ->
+                        eStep(amrs, globalUnaryAlignmentFeatures, globalBinaryAlignmentFeatures));
 
-        public ParallelMStep(AMR[] bankSlice, SRL[] augmentBankSlice, UnaryAlignmentFeature[] globalUnaryAlignmentFeatures, BinaryAlignmentFeature[] globalBinaryAlignmentFeatures) {
-            this.bankSlice = bankSlice;
-            this.augmentBankSlice = augmentBankSlice;
+                long eStepMillis = System.currentTimeMillis() - eStepStart;
+                System.out.println("numFixed: " + numFixed);
+                System.out.println("average match size: " + totalSizeMatched + "/" + numTimesMatched + "(" + (totalSizeMatched / (double) numTimesMatched) + ")");
+                System.out.println(" M step "+mStepMillis+"ms, checkin "+checkinMillis+"ms, E step "+eStepMillis+"ms");
 
-            // Clone the unary features
+                if (preIteration != null) preIteration.timings(i, mStepMillis, checkinMillis, eStepMillis);
+                if (postIteration != null) postIteration.timings(i, mStepMillis, checkinMillis, eStepMillis);
 
-            localUnaryAlignmentFeatures = new UnaryAlignmentFeature[globalUnaryAlignmentFeatures.length];
-            for (int i = 0; i < globalUnaryAlignmentFeatures.length; i++) {
-                try {
-                    localUnaryAlignmentFeatures[i] = globalUnaryAlignmentFeatures[i].getClass().getConstructor().newInstance();
-                } catch (Exception e) {
-                    System.out.println("Fatal: All unary features must be clonable with a zero arguments constructor. Quitting");
-                    e.printStackTrace();
-                    System.exit(1);
-                }
+                System.out.println();
+                System.out.println(estimator.reportEstimate(i, iterations));
             }
 
+            System.out.println(" Getting final predictions ... ");
 
-            // Clone the unary features
-
-            localBinaryAlignmentFeatures = new BinaryAlignmentFeature[globalBinaryAlignmentFeatures.length];
-            for (int i = 0; i < globalBinaryAlignmentFeatures.length; i++) {
-                try {
-                    localBinaryAlignmentFeatures[i] = globalBinaryAlignmentFeatures[i].getClass().getConstructor().newInstance();
-                } catch (Exception e) {
-                    System.out.println("Fatal: All binary features must be clonable with a zero arguments constructor. Quitting");
-                    e.printStackTrace();
-                    System.exit(1);
-                }
-            }
+            scheduler.run((worker, amrs, srls) ->
+                    doFinalAlignments(amrs, globalUnaryAlignmentFeatures, globalBinaryAlignmentFeatures));
         }
-
-        @Override
-        public void run() {
-            mStep(bankSlice,augmentBankSlice,localUnaryAlignmentFeatures,localBinaryAlignmentFeatures);
+        finally {
+            scheduler.shutdown();
         }
-    }
-
-    private static class ParallelEStep implements Runnable {
-        public UnaryAlignmentFeature[] globalUnaryAlignmentFeatures;
-        public BinaryAlignmentFeature[] globalBinaryAlignmentFeatures;
-        public AMR[] bankSlice;
 
-        public ParallelEStep(AMR[] bankSlice, UnaryAlignmentFeature[] globalUnaryAlignmentFeatures, BinaryAlignmentFeature[] globalBinaryAlignmentFeatures) {
-            this.bankSlice = bankSlice;
-            this.globalUnaryAlignmentFeatures = globalUnaryAlignmentFeatures;
-            this.globalBinaryAlignmentFeatures = globalBinaryAlignmentFeatures;
-        }
+        System.out.println("Done");
 
-        @Override
-        public void run() {
-            eStep(bankSlice,globalUnaryAlignmentFeatures,globalBinaryAlignmentFeatures);
-        }
     }
 
-
-    private static class ParallelAlignmentStep implements Runnable {
-        public UnaryAlignmentFeature[] globalUnaryAlignmentFeatures;
-        public BinaryAlignmentFeature[] globalBinaryAlignmentFeatures;
-        public AMR[] bankSlice;
-
-        public ParallelAlignmentStep(AMR[] bankSlice, UnaryAlignmentFeature[] globalUnaryAlignmentFeatures, BinaryAlignmentFeature[] globalBinaryAlignmentFeatures) {
-            this.bankSlice = bankSlice;
-            this.globalUnaryAlignmentFeatures = globalUnaryAlignmentFeatures;
-            this.globalBinaryAlignmentFeatures = globalBinaryAlignmentFeatures;
+    /**
+     * Fresh, empty copies of some features, made with their zero argument constructors.
+     */
+    private static UnaryAlignmentFeature[] newInstances(UnaryAlignmentFeature[] features) {
+        UnaryAlignmentFeature[] copies = new UnaryAlignmentFeature[features.length];
+        for (int i = 0; i < features.length; i++) {
+            try {
+                copies[i] = features[i].getClass().getConstructor().newInstance();
+            } catch (Exception e) {
+                System.out.println("Fatal: All unary features must be clonable with a zero arguments constructor. Quitting");
+                e.printStackTrace();
+                System.exit(1);
+            }
         }
+        return copies;
+    }
 
-        @Override
-        public void run() {
-            doFinalAlignments(bankSlice,globalUnaryAlignmentFeatures,globalBinaryAlignmentFeatures);
+    private static BinaryAlignmentFeature[] newInstances(BinaryAlignmentFeature[] features) {
+        BinaryAlignmentFeature[] copies = new BinaryAlignmentFeature[features.length];
+        for (int i = 0; i < features.length; i++) {
+            try {
+                copies[i] = features[i].getClass().getConstructor().newInstance();
+            } catch (Exception e) {
+                System.out.println("Fatal: All binary features must be clonable with a zero arguments constructor. Quitting");
+                e.printStackTrace();
+                System.exit(1);
+            }
         }
+        return copies;
     }
 
     // Seed with a random starting alignment
@@ -388,8 +323,16 @@ public class EMAligner {
         tree.getMarginals();
     }
 
+    /**
+     * Whether inference graphs get sparse factors, over just the tokens getMatches() allows each node, or dense factors
+     * over every token. Both give the same marginals and alignments, but dense factors cost O(tokens^2) per node.
+     */
+    public static boolean SPARSE_INFERENCE = true;
+
     private static int numTimesMatched = 0, totalSizeMatched = 0, numFixed = 0;
     public static PGMTree prepareExactInferenceGraph(AMR amr, UnaryAlignmentFeature[] unaryAlignmentFeatures, BinaryAlignmentFeature[] binaryAlignmentFeatures) {
+        if (SPARSE_INFERENCE) return prepareSparseInferenceGraph(amr, unaryAlignmentFeatures, binaryAlignmentFeatures);
+
         PGMTree tree = new PGMTree(amr);
 
         // Prepares factors for a MLE assignment
@@ -446,13 +389,129 @@ public class EMAligner {
                 }
             }
 
-            tree.setFactor(parentArc,jointFactor);
+            // Roots all hang off the null arc, and each needs its own factor with it
+            if (parentArc == amr.nullArc) tree.setRootFactor(node,jointFactor);
+            else tree.setFactor(parentArc,jointFactor);
             tree.setFactor(node,singleFactor);
         }
 
         return tree;
     }
 
+    /**
+     * The same factors as the dense version of prepareExactInferenceGraph(), computed the same way, but only stored
+     * for the alignments getMatches() allows. A node with no matches (or no lexical evidence) can go anywhere, so it
+     * still gets a dense factor.
+     */
+    public static PGMTree prepareSparseInferenceGraph(AMR amr, UnaryAlignmentFeature[] unaryAlignmentFeatures, BinaryAlignmentFeature[] binaryAlignmentFeatures) {
+        PGMTree tree = new PGMTree(amr);
+        double uniform = Math.log(1.0 / amr.sourceTokenCount());
+
+        for (AMR.Node node : amr.nodes) {
+            AMR.Arc parentArc = amr.getParentArc(node);
+
+            Set<Integer> matches = getMatches(node, amr);
+            numTimesMatched++;
+            totalSizeMatched += matches.size();
+            int[] support = sortedAlignments(matches);
+
+            // Indexed by position in support, and in parentSupport for the joint factor
+
+            double[] singleFactor = new double[support.length];
+            double singleFactorSum = 0.0;
+            int[] parentSupport = new int[0];
+            double[][] jointFactor = new double[0][];
+            double[] jointFactorSum = new double[0];
+
+            for (int match : matches) {
+                int position = Arrays.binarySearch(support, match);
+
+                double lexicalProb = 1.0;
+                for (UnaryAlignmentFeature unaryAlignmentFeature : unaryAlignmentFeatures) {
+                    lexicalProb *= unaryAlignmentFeature.score(amr, node, match);
+                }
+
+                if (matches.size() == 1) lexicalProb = 1.0;
+                singleFactorSum += lexicalProb;
+                singleFactor[position] = lexicalProb;
+
+                Set<Integer> parentMatches = getMatches(parentArc.head, amr);
+                if (jointFactor.length == 0) {
+                    parentSupport = sortedAlignments(parentMatches);
+                    jointFactor = new double[parentSupport.length][support.length];
+                    jointFactorSum = new double[parentSupport.length];
+                }
+                for (int parentMatch : parentMatches) {
+                    int parentPosition = Arrays.binarySearch(parentSupport, parentMatch);
+
+                    double parentProb = 1.0;
+                    for (BinaryAlignmentFeature binaryAlignmentFeature : binaryAlignmentFeatures) {
+                        parentProb *= binaryAlignmentFeature.score(amr, node, match, parentMatch, parentArc);
+                    }
+
+                    jointFactorSum[parentPosition] += parentProb;
+                    jointFactor[parentPosition][position] = parentProb;
+                }
+            }
+
+            // Normalize values, and log everything. Parents with no support from any match are uniform over tokens.
+
+            int rows = 0;
+            for (double sum : jointFactorSum) if (sum != 0) rows++;
+            int[] parentValues = new int[rows];
+            double[][] logJointFactor = new double[rows][];
+            int row = 0;
+
+            if (singleFactorSum != 0) {
+                for (int i = 0; i < support.length; i++) {
+                    singleFactor[i] = Math.log(singleFactor[i] / singleFactorSum);
+                }
+                for (int i = 0; i < parentSupport.length; i++) {
+                    if (jointFactorSum[i] == 0) continue;
+                    parentValues[row] = parentSupport[i];
+                    logJointFactor[row] = new double[support.length];
+                    for (int j = 0; j < support.length; j++) {
+                        logJointFactor[row][j] = Math.log(jointFactor[i][j] / jointFactorSum[i]);
+                    }
+                    row++;
+                }
+                tree.setFactor(node, support, singleFactor);
+            }
+            else {
+                double[] denseFactor = new double[amr.sourceTokenCount()];
+                Arrays.fill(denseFactor, uniform);
+                for (int i = 0; i < parentSupport.length; i++) {
+                    if (jointFactorSum[i] == 0) continue;
+                    parentValues[row] = parentSupport[i];
+                    logJointFactor[row] = new double[amr.sourceTokenCount()];
+                    Arrays.fill(logJointFactor[row], Double.NEGATIVE_INFINITY);
+                    for (int j = 0; j < support.length; j++) {
+                        logJointFactor[row][support[j]] = Math.log(jointFactor[i][j] / jointFactorSum[i]);
+                    }
+                    row++;
+                }
+                tree.setFactor(node, denseFactor);
+            }
+
+            if (parentArc == amr.nullArc) tree.setRootFactor(node, parentValues, logJointFactor, uniform);
+            else tree.setFactor(parentArc, parentValues, logJointFactor, uniform);
+        }
+
+        return tree;
+    }
+
+    private static int[] sortedAlignments(Set<Integer> matches) {
+        int[] alignments = new int[matches.size()];
+        int i = 0;
+        for (int match : matches) alignments[i++] = match;
+        Arrays.sort(alignments);
+        int unique = 0;
+        for (i = 0; i < alignments.length; i++) {
+            if (unique == 0 || alignments[i] != alignments[unique - 1]) alignments[unique++] = alignments[i];
+        }
+        return Arrays.copyOf(alignments, unique);
+    }
+
     public static boolean isNullNode(AMR.Node node, AMR amr) {
 
         // Look for hallucinated NER nodes
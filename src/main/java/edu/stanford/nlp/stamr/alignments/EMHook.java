@@ -5,4 +5,10 @@ package edu.stanford.nlp.stamr.alignments;
  */
 public abstract class EMHook {
     public abstract void hook(int iteration);
+
+    /**
+     * Called at the end of every EM iteration with how long each of its steps took, in milliseconds. The checkin step
+     * only runs when there's a post-iteration hook, and takes 0 otherwise. Does nothing unless overridden.
+     */
+    public void timings(int iteration, long mStepMillis, long checkinMillis, long eStepMillis) {}
 }
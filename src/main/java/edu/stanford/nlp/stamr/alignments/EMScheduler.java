@@ -0,0 +1,145 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.ontonotes.SRL;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spreads the per-AMR work of EM iterations over a pool of threads that lasts for the whole run.
+ *
+ * The bank is cut once into chunks of roughly equal estimated cost (nodes x tokens), most expensive first, so the
+ * big AMRs are started early and the small ones fill in the gaps at the end. Each step, every worker keeps taking
+ * the next chunk until there are none left, so nobody sits idle behind a slice that happened to get all the long
+ * sentences. Workers are numbered, so steps can keep per-worker state (like soft counts) and reduce() it after.
+ */
+class EMScheduler {
+    // Aim for this many chunks per thread, which is plenty to even out the load without much contention
+    public static int CHUNKS_PER_THREAD = 16;
+
+    public interface ChunkTask {
+        void run(int worker, AMR[] amrs, SRL[] srls);
+    }
+
+    public interface Merge<T> {
+        void merge(T into, T from);
+    }
+
+    private static final AMR[] NO_AMRS = new AMR[0];
+    private static final SRL[] NO_SRLS = new SRL[0];
+
+    final int threads;
+    final ForkJoinPool pool;
+    final List<AMR[]> amrChunks = new ArrayList<>();
+    final List<SRL[]> srlChunks = new ArrayList<>();
+
+    EMScheduler(AMR[] bank, SRL[] augmentBank, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread, got "+threads);
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads);
+
+        AMR[] byCost = Arrays.copyOf(bank, bank.length);
+        Arrays.sort(byCost, (a, b) -> Long.compare(cost(b), cost(a)));
+        long totalCost = 0;
+        for (AMR amr : byCost) totalCost += cost(amr);
+        long chunkCost = Math.max(1, totalCost / ((long)threads * CHUNKS_PER_THREAD));
+
+        int start = 0;
+        long cost = 0;
+        for (int i = 0; i < byCost.length; i++) {
+            cost += cost(byCost[i]);
+            if (cost >= chunkCost || i == byCost.length - 1) {
+                amrChunks.add(Arrays.copyOfRange(byCost, start, i + 1));
+                start = i + 1;
+                cost = 0;
+            }
+        }
+
+        int srlChunkSize = Math.max(1, augmentBank.length / (threads * CHUNKS_PER_THREAD));
+        for (int i = 0; i < augmentBank.length; i += srlChunkSize) {
+            srlChunks.add(Arrays.copyOfRange(augmentBank, i, Math.min(augmentBank.length, i + srlChunkSize)));
+        }
+    }
+
+    /**
+     * Roughly how long EM takes over an AMR, relative to the others.
+     */
+    static long cost(AMR amr) {
+        return (long)Math.max(1, amr.nodes.size()) * Math.max(1, amr.sourceTokenCount());
+    }
+
+    /**
+     * Runs the task over every chunk of AMRs and then every chunk of SRLs, and waits for it to finish.
+     */
+    void run(ChunkTask task) throws InterruptedException {
+        AtomicInteger nextChunk = new AtomicInteger();
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int worker = t;
+            workers.add(() -> {
+                while (true) {
+                    int chunk = nextChunk.getAndIncrement();
+                    if (chunk < amrChunks.size()) {
+                        task.run(worker, amrChunks.get(chunk), NO_SRLS);
+                    }
+                    else if (chunk < amrChunks.size() + srlChunks.size()) {
+                        task.run(worker, NO_AMRS, srlChunks.get(chunk - amrChunks.size()));
+                    }
+                    else return null;
+                }
+            });
+        }
+        invokeAll(workers);
+    }
+
+    /**
+     * Merges every worker's value into values[0], pairwise, a level of the tree at a time.
+     */
+    <T> void reduce(T[] values, Merge<T> merge) throws InterruptedException {
+        for (int stride = 1; stride < values.length; stride *= 2) {
+            List<Callable<Void>> merges = new ArrayList<>();
+            for (int i = 0; i + stride < values.length; i += 2 * stride) {
+                final T into = values[i];
+                final T from = values[i + stride];
+                merges.add(() -> {
+                    merge.merge(into, from);
+                    return null;
+                });
+            }
+            invokeAll(merges);
+        }
+    }
+
+    /**
+     * Runs the jobs on the pool and waits for them. If any of them fail, the first failure is rethrown here as it
+     * was thrown (ForkJoinPool's futures would hand back a copy).
+     */
+    private void invokeAll(List<Callable<Void>> jobs) throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Callable<Void>> guarded = new ArrayList<>();
+        for (Callable<Void> job : jobs) {
+            guarded.add(() -> {
+                try {
+                    job.call();
+                }
+                catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+                return null;
+            });
+        }
+        pool.invokeAll(guarded);
+        Throwable t = failure.get();
+        if (t == null) return;
+        if (t instanceof RuntimeException) throw (RuntimeException)t;
+        if (t instanceof Error) throw (Error)t;
+        throw new RuntimeException(t);
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -1,14 +1,18 @@
 package edu.stanford.nlp.stamr.alignments;
 
 import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.ArrayAMR;
 
 import java.util.Arrays;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Models a Bayesian PGM Tree, so we can do efficient factor elimination starting at the leaves to get a true MLE assignment for alignments.
+ *
+ * Factors can be dense, with a value for every token, or sparse, listing only the tokens a node could align to
+ * (its support) and treating every other token as impossible. Messages are only computed over the supports, so a
+ * tree of sparse factors costs about (candidates per node)^2 per arc rather than (sentence length)^2, and gives the
+ * same answers as the equivalent dense factors. Either way, marginals come back as dense distributions over tokens.
  */
 public class PGMTree {
 
@@ -18,16 +22,46 @@ public class PGMTree {
     }
 
     public class SingleFactor {
+        // The alignments this factor allows, sorted, or null for all of them. Everything else is indexed by position in here.
+        int[] support;
         double[] originalFactor;
         double[] incomingMessageUpwards;
         double[] incomingMessageDownwards;
 
         public SingleFactor(double[] originalFactor) {
+            this(null, originalFactor);
+        }
+
+        public SingleFactor(int[] support, double[] originalFactor) {
+            if (support != null && support.length != originalFactor.length) {
+                throw new IllegalArgumentException("Support has "+support.length+" alignments, but factor has "+originalFactor.length+" values");
+            }
+            this.support = support;
             this.originalFactor = originalFactor;
             incomingMessageUpwards = new double[originalFactor.length];
             incomingMessageDownwards = new double[originalFactor.length];
         }
 
+        int size() {
+            return originalFactor.length;
+        }
+
+        int alignment(int position) {
+            return support == null ? position : support[position];
+        }
+
+        /**
+         * Where an alignment is in the support, or a negative number if it isn't there.
+         */
+        int position(int alignment) {
+            return support == null ? alignment : Arrays.binarySearch(support, alignment);
+        }
+
+        double logValue(int alignment) {
+            int position = position(alignment);
+            return position < 0 ? Double.NEGATIVE_INFINITY : originalFactor[position];
+        }
+
         public double[] getOutgoingMessageUpwards() {
             double[] message = new double[originalFactor.length];
             for (int i = 0; i < originalFactor.length; i++) {
@@ -37,9 +71,10 @@ public class PGMTree {
         }
 
         public double[] getMarginal() {
-            double[] marginal = new double[originalFactor.length];
+            double[] marginal = new double[possibleAlignments];
+            if (support != null) Arrays.fill(marginal, Double.NEGATIVE_INFINITY);
             for (int i = 0; i < originalFactor.length; i++) {
-                marginal[i] = originalFactor[i] + incomingMessageUpwards[i] + incomingMessageDownwards[i];
+                marginal[alignment(i)] = originalFactor[i] + incomingMessageUpwards[i] + incomingMessageDownwards[i];
             }
             normalizeLogDistribution(marginal);
             return marginal;
@@ -55,67 +90,119 @@ public class PGMTree {
 
     public class JointFactor {
 
-        // First index is parent value, second is child
+        // First index is parent value, second is the child's position in its support.
+        // If parentValues isn't null, only the parent values listed there have rows, and the rest all take otherRows.
+        int[] parentValues;
         double[][] factor;
+        double otherRows;
         double[] upwardsMessage;
         double[] downwardsMessage;
 
         public JointFactor(double[][] factor) {
+            this(null, factor, Double.NEGATIVE_INFINITY);
+        }
+
+        public JointFactor(int[] parentValues, double[][] factor, double otherRows) {
+            if (parentValues != null && parentValues.length != factor.length) {
+                throw new IllegalArgumentException(parentValues.length+" parent values, but "+factor.length+" rows");
+            }
+            this.parentValues = parentValues;
             this.factor = factor;
+            this.otherRows = otherRows;
+        }
+
+        /**
+         * The row for a parent value, or null if it's one of the otherRows.
+         */
+        double[] row(int parent) {
+            if (parentValues == null) return factor[parent];
+            int r = Arrays.binarySearch(parentValues, parent);
+            return r < 0 ? null : factor[r];
         }
 
-        void calculateUpwardsMessage(double[] incomingMessages, MessagePassingType type) {
-            upwardsMessage = new double[possibleAlignments];
+        void calculateUpwardsMessage(SingleFactor parentSf, double[] incomingMessages, MessagePassingType type) {
+            upwardsMessage = new double[parentSf.size()];
 
             if (type == MessagePassingType.MAX_SUM) {
-                for (int i = 0; i < possibleAlignments; i++) {
+                for (int i = 0; i < upwardsMessage.length; i++) {
                     upwardsMessage[i] = Double.NEGATIVE_INFINITY;
                 }
             }
-
-            for (int parent = 0; parent < possibleAlignments; parent++) {
-                for (int child = 0; child < possibleAlignments; child++) {
+            // Sums over the children, see addLogTerm()
+            double[] max = new double[upwardsMessage.length];
+            double[] sum = new double[upwardsMessage.length];
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+
+            // Every parent without a row gets the same message, so we only work it out once
+            boolean otherRowsDone = false;
+            double otherRowsMessage = 0.0;
+
+            for (int parent = 0; parent < upwardsMessage.length; parent++) {
+                double[] row = row(parentSf.alignment(parent));
+                if (row == null && otherRowsDone) {
+                    upwardsMessage[parent] = otherRowsMessage;
+                    continue;
+                }
+                for (int child = 0; child < incomingMessages.length; child++) {
+                    double value = row == null ? otherRows : row[child];
                     if (type == MessagePassingType.SUM_PRODUCT) {
-                        upwardsMessage[parent] += Math.exp(factor[parent][child] + incomingMessages[child]);
+                        addLogTerm(max, sum, parent, value + incomingMessages[child]);
                     }
                     else if (type == MessagePassingType.MAX_SUM) {
-                        double prob = factor[parent][child] + incomingMessages[child];
+                        double prob = value + incomingMessages[child];
                         if (prob > upwardsMessage[parent]) {
                             upwardsMessage[parent] = prob;
                         }
                     }
                 }
-            }
-
-            if (type == MessagePassingType.SUM_PRODUCT) {
-                for (int i = 0; i < possibleAlignments; i++) {
-                    upwardsMessage[i] = Math.log(upwardsMessage[i]);
+                if (type == MessagePassingType.SUM_PRODUCT) {
+                    upwardsMessage[parent] = logSum(max[parent], sum[parent]);
+                }
+                if (row == null) {
+                    otherRowsDone = true;
+                    otherRowsMessage = upwardsMessage[parent];
                 }
             }
         }
 
-        void calculateDownwardsMessage(double[] incomingMessages, MessagePassingType type) {
-            downwardsMessage = new double[possibleAlignments];
+        void calculateDownwardsMessage(SingleFactor parentSf, SingleFactor childSf, double[] incomingMessages, MessagePassingType type) {
+            downwardsMessage = new double[childSf.size()];
 
             if (type == MessagePassingType.MAX_SUM) {
-                for (int i = 0; i < possibleAlignments; i++) {
+                for (int i = 0; i < downwardsMessage.length; i++) {
                     downwardsMessage[i] = Double.NEGATIVE_INFINITY;
                 }
             }
             else if (type == MessagePassingType.SUM_PRODUCT) {
-                for (int parent = 0; parent < possibleAlignments; parent++) {
-                    for (int child = 0; child < possibleAlignments; child++) {
-                        downwardsMessage[child] += Math.exp(factor[parent][child] + incomingMessages[parent]);
+                // Sums over the parents, see addLogTerm()
+                double[] max = new double[downwardsMessage.length];
+                double[] sum = new double[downwardsMessage.length];
+                Arrays.fill(max, Double.NEGATIVE_INFINITY);
+                for (int parent = 0; parent < incomingMessages.length; parent++) {
+                    double[] row = row(parentSf.alignment(parent));
+                    for (int child = 0; child < downwardsMessage.length; child++) {
+                        double value = row == null ? otherRows : row[child];
+                        addLogTerm(max, sum, child, value + incomingMessages[parent]);
                     }
                 }
-                for (int i = 0; i < possibleAlignments; i++) {
-                    downwardsMessage[i] = Math.log(downwardsMessage[i]);
+                for (int i = 0; i < downwardsMessage.length; i++) {
+                    downwardsMessage[i] = logSum(max[i], sum[i]);
                 }
             }
         }
 
-        double[] childFactorGivenParent(int parent) {
-            return Arrays.copyOf(factor[parent],possibleAlignments);
+        double[] childFactorGivenParent(int parent, int childSize) {
+            double[] row = row(parent);
+            if (row != null) return Arrays.copyOf(row,childSize);
+            double[] other = new double[childSize];
+            Arrays.fill(other, otherRows);
+            return other;
+        }
+
+        double logValue(int parent, int childPosition) {
+            if (childPosition < 0) return Double.NEGATIVE_INFINITY;
+            double[] row = row(parent);
+            return row == null ? otherRows : row[childPosition];
         }
 
         @Override
@@ -127,87 +214,160 @@ public class PGMTree {
     }
 
     AMR graph;
+    ArrayAMR structure;
     int possibleAlignments;
-    Map<AMR.Node, SingleFactor> singleFactorMap = new IdentityHashMap<AMR.Node, SingleFactor>();
-    Map<AMR.Arc, JointFactor> jointFactorMap = new IdentityHashMap<AMR.Arc, JointFactor>();
+
+    // Indexed by ArrayAMR node and arc ids. Roots all share AMR.nullArc as their parent arc, so their joint factors
+    // with the null node are kept by node id instead, one per root.
+    SingleFactor[] singleFactors;
+    JointFactor[] jointFactors;
+    JointFactor[] rootFactors;
 
     public PGMTree(AMR graph) {
         this.graph = graph;
+        structure = ArrayAMR.of(graph);
         possibleAlignments = graph.sourceTokenCount();
+        singleFactors = new SingleFactor[structure.size()];
+        jointFactors = new JointFactor[structure.numArcs()];
+        rootFactors = new JointFactor[structure.size()];
     }
 
+    /**
+     * A dense joint factor, indexed [parent alignment][child alignment]. The child's factor must be dense too.
+     */
     public void setFactor(AMR.Arc arc, double[][] factor) {
-        jointFactorMap.put(arc,new JointFactor(factor));
+        setFactor(arc, new JointFactor(factor));
+    }
+
+    /**
+     * A sparse joint factor. rows[r][c] is the log factor for the parent aligned to parentValues[r] (sorted), and the
+     * child aligned to the c'th alignment in its support (or to c, if the child's factor is dense). Parent alignments
+     * not in parentValues have otherRows for every child alignment.
+     */
+    public void setFactor(AMR.Arc arc, int[] parentValues, double[][] rows, double otherRows) {
+        setFactor(arc, new JointFactor(parentValues, rows, otherRows));
+    }
+
+    private void setFactor(AMR.Arc arc, JointFactor jf) {
+        int id = structure.idOf(arc);
+        if (id == ArrayAMR.NONE) {
+            if (arc == graph.nullArc) throw new IllegalArgumentException("Every root has the null arc as its parent, use setRootFactor() to say which root this is for");
+            throw new IllegalArgumentException("Arc isn't part of this tree: "+arc);
+        }
+        jointFactors[id] = jf;
+    }
+
+    /**
+     * A dense joint factor between the null node (the parent of every root) and a root, like setFactor(arc, factor).
+     */
+    public void setRootFactor(AMR.Node root, double[][] factor) {
+        setRootFactor(root, new JointFactor(factor));
+    }
+
+    /**
+     * A sparse joint factor between the null node and a root, like setFactor(arc, parentValues, rows, otherRows).
+     */
+    public void setRootFactor(AMR.Node root, int[] parentValues, double[][] rows, double otherRows) {
+        setRootFactor(root, new JointFactor(parentValues, rows, otherRows));
+    }
+
+    private void setRootFactor(AMR.Node root, JointFactor jf) {
+        int id = structure.idOf(root);
+        if (id == ArrayAMR.NONE) throw new IllegalArgumentException("Node isn't part of this tree: "+root);
+        if (structure.parentArc(id) != ArrayAMR.NONE) throw new IllegalArgumentException("Node isn't a root: "+root);
+        rootFactors[id] = jf;
     }
 
     public void setFactor(AMR.Node node, double[] factor) {
-        singleFactorMap.put(node,new SingleFactor(factor));
+        setFactor(node, null, factor);
+    }
+
+    /**
+     * A sparse factor, giving log values for only the (sorted) alignments in support. Any other alignment is impossible.
+     */
+    public void setFactor(AMR.Node node, int[] support, double[] factor) {
+        int id = structure.idOf(node);
+        if (id == ArrayAMR.NONE) throw new IllegalArgumentException("Node isn't part of this tree: "+node);
+        singleFactors[id] = new SingleFactor(support, factor);
     }
 
     public double[] getMarginal(AMR.Node node) {
-        return singleFactorMap.get(node).getMarginal();
+        return singleFactors[structure.idOf(node)].getMarginal();
     }
 
+    private JointFactor parentFactor(int node) {
+        int arc = structure.parentArc(node);
+        return arc == ArrayAMR.NONE ? rootFactors[node] : jointFactors[arc];
+    }
+
+    private void checkFactors(int reachable) {
+        for (int node = 1; node < reachable; node++) {
+            int arc = structure.parentArc(node);
+            int rowLength = jointFactors[arc].factor.length == 0 ? 0 : jointFactors[arc].factor[0].length;
+            if (jointFactors[arc].factor.length > 0 && rowLength != singleFactors[node].size()) {
+                throw new IllegalStateException("Joint factor rows have "+rowLength+" values, but the child's factor has "+singleFactors[node].size());
+            }
+        }
+    }
 
     public void passMessages(MessagePassingType type) {
-        List<AMR.Node> topologicalSort = graph.topologicalSortOnlyConnected();
+        // Nodes [0, reachable) are the head's component in breadth first order, which is a topological sort
+        int reachable = structure.reachableFromHead();
+        checkFactors(reachable);
 
         // Do VE in reverse topological order to get messages heading for the root
 
-        for (int i = topologicalSort.size()-1; i >= 0; i--) {
-            AMR.Node node = topologicalSort.get(i);
-            SingleFactor sf = singleFactorMap.get(node);
+        for (int node = reachable-1; node >= 0; node--) {
+            SingleFactor sf = singleFactors[node];
 
             // Nodes that have children must use all incoming messages
-            if (graph.outgoingArcs.containsKey(node)) {
-                for (AMR.Arc outgoingArc : graph.outgoingArcs.get(node)) {
-                    JointFactor jf = jointFactorMap.get(outgoingArc);
-                    jf.calculateUpwardsMessage(singleFactorMap.get(outgoingArc.tail).getOutgoingMessageUpwards(),type);
-                    for (int j = 0; j < possibleAlignments; j++) {
-                        sf.incomingMessageUpwards[j] += jf.upwardsMessage[j];
-                    }
+            for (int k = 0; k < structure.outDegree(node); k++) {
+                int outgoingArc = structure.outArc(node, k);
+                JointFactor jf = jointFactors[outgoingArc];
+                jf.calculateUpwardsMessage(sf, singleFactors[structure.arcTail(outgoingArc)].getOutgoingMessageUpwards(),type);
+                for (int j = 0; j < sf.size(); j++) {
+                    sf.incomingMessageUpwards[j] += jf.upwardsMessage[j];
                 }
             }
         }
 
         // Complete message passing back down the tree
 
-        for (AMR.Node node : topologicalSort) {
-            SingleFactor sf = singleFactorMap.get(node);
-            double[] parentMessage = new double[possibleAlignments];
-            if (node != graph.head) {
-                assert(graph.getParentArc(node) != null);
-                parentMessage = jointFactorMap.get(graph.getParentArc(node)).downwardsMessage;
+        for (int node = 0; node < reachable; node++) {
+            SingleFactor sf = singleFactors[node];
+            double[] parentMessage = new double[sf.size()];
+            if (node != structure.head()) {
+                assert(structure.parentArc(node) != ArrayAMR.NONE);
+                parentMessage = parentFactor(node).downwardsMessage;
             }
-            if (graph.outgoingArcs.containsKey(node)) {
-                List<AMR.Arc> outgoingArcs = graph.outgoingArcs.get(node);
-                for (int i = 0; i < outgoingArcs.size(); i++) {
-                    AMR.Arc outgoingArc = outgoingArcs.get(i);
-                    JointFactor jf = jointFactorMap.get(outgoingArc);
-                    SingleFactor tailSf = singleFactorMap.get(outgoingArc.tail);
-
-                    // Sum over all messages, except the one we're passing out
-                    double[] messageSum = new double[possibleAlignments];
-                    for (int j = 0; j < outgoingArcs.size(); j++) {
-                        if (j != i) {
-                            for (int k = 0; k < possibleAlignments; k++) {
-                                messageSum[k] += jointFactorMap.get(outgoingArcs.get(j)).upwardsMessage[k];
-                            }
+            int outDegree = structure.outDegree(node);
+            for (int i = 0; i < outDegree; i++) {
+                int outgoingArc = structure.outArc(node, i);
+                JointFactor jf = jointFactors[outgoingArc];
+                SingleFactor tailSf = singleFactors[structure.arcTail(outgoingArc)];
+
+                // Sum over all messages, except the one we're passing out
+                double[] messageSum = new double[sf.size()];
+                for (int j = 0; j < outDegree; j++) {
+                    if (j != i) {
+                        double[] upwardsMessage = jointFactors[structure.outArc(node, j)].upwardsMessage;
+                        for (int k = 0; k < sf.size(); k++) {
+                            messageSum[k] += upwardsMessage[k];
                         }
                     }
-                    for (int k = 0; k < possibleAlignments; k++) {
-                        messageSum[k] += sf.originalFactor[k];
-                        try {
-                            messageSum[k] += parentMessage[k];
-                        }
-                        catch (NullPointerException e) {
-                            e.printStackTrace();
-                        }
+                }
+                for (int k = 0; k < sf.size(); k++) {
+                    messageSum[k] += sf.originalFactor[k];
+                    try {
+                        messageSum[k] += parentMessage[k];
+                    }
+                    catch (NullPointerException e) {
+                        e.printStackTrace();
                     }
-
-                    jf.calculateDownwardsMessage(messageSum,type);
-                    tailSf.incomingMessageDownwards = jf.downwardsMessage;
                 }
+
+                jf.calculateDownwardsMessage(sf,tailSf,messageSum,type);
+                tailSf.incomingMessageDownwards = jf.downwardsMessage;
             }
         }
     }
@@ -215,34 +375,39 @@ public class PGMTree {
     public void getMarginals() {
         passMessages(MessagePassingType.SUM_PRODUCT);
 
-        for (AMR.Node node : graph.nodes) {
-            node.softAlignments = singleFactorMap.get(node).getMarginal();
+        for (int node = 0; node < structure.size(); node++) {
+            structure.sourceNode(node).softAlignments = singleFactors[node].getMarginal();
         }
     }
 
     public double getMLE() {
         passMessages(MessagePassingType.MAX_SUM);
 
-        double[] headMarginal = singleFactorMap.get(graph.head).getMarginal();
+        int[] alignments = new int[structure.size()];
 
-        graph.head.alignment = getMaxEntry(headMarginal);
+        double[] headMarginal = singleFactors[structure.head()].getMarginal();
+
+        alignments[structure.head()] = getMaxEntry(headMarginal);
+        graph.head.alignment = alignments[structure.head()];
 
         double jointProbability = headMarginal[graph.head.alignment];
 
-        List<AMR.Node> topologicalSort = graph.topologicalSort();
-        for (AMR.Node node : topologicalSort) {
-            if (node != graph.head) {
-                AMR.Arc parentArc = graph.getParentArc(node);
-                double[] alignmentDistribution = jointFactorMap.get(parentArc).childFactorGivenParent(parentArc.head.alignment);
-
-                SingleFactor sf = singleFactorMap.get(node);
-                for (int i = 0; i < possibleAlignments; i++) {
-                    alignmentDistribution[i] += sf.originalFactor[i];
-                }
-                normalizeLogDistribution(alignmentDistribution);
-                node.alignment = getMaxEntry(alignmentDistribution);
-                jointProbability += alignmentDistribution[node.alignment];
+        // Node ids are in AMR.topologicalSort() order, so parents are always assigned before their children
+        for (int node = 1; node < structure.size(); node++) {
+            int parent = structure.parent(node);
+            int parentAlignment = parent == ArrayAMR.NONE ? graph.nullArc.head.alignment : alignments[parent];
+            SingleFactor sf = singleFactors[node];
+            double[] childFactor = parentFactor(node).childFactorGivenParent(parentAlignment, sf.size());
+
+            double[] alignmentDistribution = new double[possibleAlignments];
+            if (sf.support != null) Arrays.fill(alignmentDistribution, Double.NEGATIVE_INFINITY);
+            for (int i = 0; i < sf.size(); i++) {
+                alignmentDistribution[sf.alignment(i)] = childFactor[i] + sf.originalFactor[i];
             }
+            normalizeLogDistribution(alignmentDistribution);
+            alignments[node] = getMaxEntry(alignmentDistribution);
+            structure.sourceNode(node).alignment = alignments[node];
+            jointProbability += alignmentDistribution[alignments[node]];
         }
 
         return jointProbability;
@@ -260,12 +425,37 @@ public class PGMTree {
         return max;
     }
 
+    /**
+     * Adds exp(logTerm) to a sum of probabilities kept in log space as exp(max[i]) * sum[i]. max[i] is the biggest
+     * term so far (start it at negative infinity and sum[i] at 0), so sum[i] stays between 1 and the number of terms
+     * and a sum of very unlikely terms doesn't underflow to zero before we take its log.
+     */
+    static void addLogTerm(double[] max, double[] sum, int i, double logTerm) {
+        if (logTerm == Double.NEGATIVE_INFINITY) return;
+        if (logTerm <= max[i]) {
+            sum[i] += Math.exp(logTerm - max[i]);
+        }
+        else {
+            sum[i] = sum[i] * Math.exp(max[i] - logTerm) + 1.0;
+            max[i] = logTerm;
+        }
+    }
+
+    /**
+     * The log of a sum built by addLogTerm().
+     */
+    static double logSum(double max, double sum) {
+        if (max == Double.NEGATIVE_INFINITY) return Double.NEGATIVE_INFINITY;
+        return max + Math.log(sum);
+    }
+
     public static void normalizeLogDistribution(double[] distribution) {
-        double sum = 0.0;
+        double[] max = new double[]{Double.NEGATIVE_INFINITY};
+        double[] sum = new double[1];
         for (int i = 0; i < distribution.length; i++) {
-            sum += Math.exp(distribution[i]);
+            addLogTerm(max, sum, 0, distribution[i]);
         }
-        double logSum = Math.log(sum);
+        double logSum = logSum(max[0], sum[0]);
         for (int i = 0; i < distribution.length; i++) {
             distribution[i] -= logSum;
         }
@@ -277,11 +467,16 @@ public class PGMTree {
         sb.append("PGM:");
         for (AMR.Node node : graph.nodes) {
             sb.append("\n").append(node.title).append(":\n");
-            printSingleFactor(sb,singleFactorMap.get(node));
+            printSingleFactor(sb,singleFactors[structure.idOf(node)]);
         }
         for (AMR.Arc arc : graph.arcs) {
             sb.append("\n").append(arc.title).append(":\n");
-            printJointFactor(sb,jointFactorMap.get(arc));
+            printJointFactor(sb,jointFactors[structure.idOf(arc)]);
+        }
+        for (int node = 0; node < structure.size(); node++) {
+            if (rootFactors[node] == null) continue;
+            sb.append("\nROOT ").append(structure.title(node)).append(":\n");
+            printJointFactor(sb,rootFactors[node]);
         }
         return sb.toString();
     }
@@ -290,7 +485,7 @@ public class PGMTree {
         sb.append("\tFactor");
         sb.append("\n\t\t[");
         for (int i = 0; i < sf.originalFactor.length; i++) {
-            sb.append("\n\t\t\t").append(i).append(": ").append(Math.exp(sf.originalFactor[i]));
+            sb.append("\n\t\t\t").append(sf.alignment(i)).append(": ").append(Math.exp(sf.originalFactor[i]));
         }
         sb.append("\n\t\t]");
 
@@ -313,9 +508,12 @@ public class PGMTree {
         sb.append("\n\t[");
         for (int i = 0; i < jf.factor.length; i++) {
             for (int j = 0; j < jf.factor[0].length; j++) {
-                sb.append("\n\t\t").append(i).append(",").append(j).append(": ").append(Math.exp(jf.factor[i][j]));
+                sb.append("\n\t\t").append(jf.parentValues == null ? i : jf.parentValues[i]).append(",").append(j).append(": ").append(Math.exp(jf.factor[i][j]));
             }
         }
+        if (jf.parentValues != null) {
+            sb.append("\n\t\tother parents: ").append(Math.exp(jf.otherRows));
+        }
 
         sb.append("\n\tMessage Upwards");
         sb.append("\n\t\t[");
@@ -376,10 +574,11 @@ public class PGMTree {
             for (int n = 0; n < topologicalSort.size(); n++) {
                 AMR.Node node = topologicalSort.get(n);
                 node.alignment = getAssignmentAtIndex(i,n);
-                totalDistribution[i] += singleFactorMap.get(node).originalFactor[node.alignment];
+                totalDistribution[i] += singleFactors[structure.idOf(node)].logValue(node.alignment);
             }
             for (AMR.Arc arc : graph.arcs) {
-                totalDistribution[i] += jointFactorMap.get(arc).factor[arc.head.alignment][arc.tail.alignment];
+                SingleFactor tailSf = singleFactors[structure.idOf(arc.tail)];
+                totalDistribution[i] += jointFactors[structure.idOf(arc)].logValue(arc.head.alignment, tailSf.position(arc.tail.alignment));
             }
         }
         return totalDistribution;
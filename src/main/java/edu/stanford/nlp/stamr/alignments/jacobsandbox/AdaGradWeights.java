@@ -0,0 +1,75 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * AdaGrad weights over integer feature ids, held in flat arrays, which many threads can update at once.
+ *
+ * Updates to a feature take one of a fixed set of locks, picked by feature id, so threads only wait on each other
+ * when they touch features that share a stripe. With lockFree set, updates skip the locks altogether (Hogwild
+ * style), and may occasionally lose a concurrent update to the same feature. Reads never lock, so a score computed
+ * while other threads are updating may mix old and new weights, which SGD doesn't mind.
+ */
+public class AdaGradWeights implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final double DELTA = 1e-4;
+    // Must be a power of two
+    private static final int STRIPES = 256;
+
+    public boolean lockFree = false;
+
+    double[] v = new double[0];
+    double[] s = new double[0];
+    // Plain Objects don't serialize, so these are made again when the weights are read back
+    private transient Object[] locks = newLocks();
+
+    private static Object[] newLocks() {
+        Object[] locks = new Object[STRIPES];
+        for (int i = 0; i < locks.length; i++) locks[i] = new Object();
+        return locks;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        locks = newLocks();
+    }
+
+    /**
+     * Makes room for ids below size. This isn't safe to call while other threads are using the weights.
+     */
+    public void ensureCapacity(int size) {
+        if (size <= v.length) return;
+        int oldSize = v.length;
+        int newSize = Math.max(size, oldSize * 2);
+        v = Arrays.copyOf(v, newSize);
+        s = Arrays.copyOf(s, newSize);
+        Arrays.fill(s, oldSize, newSize, DELTA);
+    }
+
+    public int size() {
+        return v.length;
+    }
+
+    public double get(int id) {
+        return id < v.length ? v[id] : 0.0;
+    }
+
+    public void update(int id, double gradient, double step) {
+        if (lockFree) {
+            doUpdate(id, gradient, step);
+        }
+        else {
+            synchronized (locks[id & (STRIPES - 1)]) {
+                doUpdate(id, gradient, step);
+            }
+        }
+    }
+
+    private void doUpdate(int id, double gradient, double step) {
+        s[id] += gradient * gradient;
+        v[id] += step * gradient / Math.sqrt(s[id]);
+    }
+}
@@ -17,6 +17,8 @@ class AugmentedToken {
     public final String value, sense, stem, ner;
     public final boolean blocked;
     public final JointEM.Action forcedAction;
+    // The model's feature ids for each action on this token, by Action ordinal, filled in before training
+    int[][] featureIds;
 
     public AugmentedToken(int index, String value, String sense, String stem, String ner, boolean blocked) {
         this.index = index;
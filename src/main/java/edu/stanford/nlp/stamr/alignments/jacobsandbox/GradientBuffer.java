@@ -0,0 +1,51 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+import java.util.Arrays;
+
+/**
+ * One worker's scratch space for the gradient of a single node's log likelihood: the expected feature counts under
+ * the source distribution (actions alone) and under the target distribution (actions weighted by how well they
+ * produce the node). The gradient is the difference of the two, once each is normalized.
+ *
+ * Counts are kept in dense arrays indexed by feature id, along with the list of ids touched, so clearing the buffer
+ * costs only as much as the last node used.
+ */
+class GradientBuffer {
+    private double[] src;
+    private double[] tar;
+    private boolean[] seen;
+    private int[] touched = new int[16];
+    private int size = 0;
+
+    GradientBuffer(int features) {
+        src = new double[features];
+        tar = new double[features];
+        seen = new boolean[features];
+    }
+
+    void add(int[] features, double probSrc, double probTar) {
+        for (int id : features) {
+            if (!seen[id]) {
+                seen[id] = true;
+                if (size == touched.length) touched = Arrays.copyOf(touched, size * 2);
+                touched[size++] = id;
+            }
+            src[id] += probSrc;
+            tar[id] += probTar;
+        }
+    }
+
+    /**
+     * Takes an AdaGrad step along the gradient, and clears the buffer for the next node.
+     */
+    void apply(AdaGradWeights weights, double zSrc, double zTar, double step) {
+        for (int i = 0; i < size; i++) {
+            int id = touched[i];
+            weights.update(id, (-1.0 / zSrc) * src[id] + (1.0 / zTar) * tar[id], step);
+            src[id] = 0.0;
+            tar[id] = 0.0;
+            seen[id] = false;
+        }
+        size = 0;
+    }
+}
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.*;
 
@@ -59,6 +60,10 @@ public class JointEM {
     private static double TRAIN_GAMMA = 3.0;
     @Execution.Option(name="train.alpha", gloss="The discount parameter of the dict (dirichlet alpha)")
     private static double TRAIN_ALPHA = 0.4;
+    @Execution.Option(name="train.threads", gloss="The number of threads to train with. More than one makes training nondeterministic")
+    private static int TRAIN_THREADS = 1;
+    @Execution.Option(name="train.hogwild", gloss="If true, update weights from many threads without locking them")
+    private static boolean TRAIN_HOGWILD = false;
 
     @Execution.Option(name="test.data", gloss="The path to the test data")
     private static String TEST_DATA = "data/training-500-subset.txt";
@@ -183,15 +188,15 @@ public class JointEM {
         // (get the model path)
         String modelSpecifier = new File(TRAIN_DATA).getName();
         modelSpecifier = modelSpecifier.substring(0, modelSpecifier.indexOf('.') < 0 ? modelSpecifier.length() : modelSpecifier.indexOf('.'));
-        File modelPath = new File(MODEL_DIR + File.separator + modelSpecifier + ".model.ser.gz");
+        File modelPath = new File(MODEL_DIR + File.separator + modelSpecifier + ".model.gz");
         // (try to load the model)
         if (!MODEL_CLOBBER && modelPath.exists() && modelPath.canRead()) {
-            model = IOUtils.readObjectFromFile(modelPath);
+            model = Model.read(modelPath.getPath());
         } else {
             // 2. Can't load the model: train a new one
             model = doEM(cache);
             startTrack("Training");
-            IOUtils.writeObjectToFile(model, modelPath);
+            model.write(modelPath.getPath());
             endTrack("Training");
         }
         endTrack("Creating Model");
@@ -240,131 +245,153 @@ public class JointEM {
             }
         }
 
+        // Give every feature that training can touch an id up front, so the workers never have to add any
+        for(int n = 0; n < bankSize; n++){
+            for(AugmentedToken token : tokens[n]){
+                token.featureIds = new int[Action.values().length][];
+                for(Action action : Action.values()){
+                    token.featureIds[action.ordinal()] = model.indexFeatures(extractFeatures(token, action));
+                }
+            }
+        }
+        model.weights.lockFree = TRAIN_HOGWILD;
+
+        // One pool for the whole run. Each worker keeps its own gradient buffer, and pulls sentences until there
+        // are none left
+        ExecutorService threadPool = Executors.newFixedThreadPool(TRAIN_THREADS);
+        GradientBuffer[] buffers = new GradientBuffer[TRAIN_THREADS];
+        for(int w = 0; w < TRAIN_THREADS; w++) buffers[w] = new GradientBuffer(model.numFeatures());
+
         // now tokens[i] has all the required token info
         // and nodes[i] has all the required node info
         // and we can just solve the alignment problem
         Model.SoftCountDict oldDict = new Model.SoftCountDict(freqs, TRAIN_GAMMA, TRAIN_ALPHA);
         Model.SoftCountDict oldNerDict = new Model.SoftCountDict(nerFreqs, TRAIN_GAMMA, TRAIN_ALPHA);
-        for(int iter = 0; iter < TRAIN_ITERS; iter++){
-            forceTrack("Iteration " + (iter + 1) + " / " + TRAIN_ITERS);
-            final Model.SoftCountDict curDict = oldDict;
-            final Model.SoftCountDict curNerDict = oldNerDict;
-            final Model.SoftCountDict nextDict = new Model.SoftCountDict(freqs, TRAIN_GAMMA, TRAIN_ALPHA);
-            final Model.SoftCountDict nextNerDict = new Model.SoftCountDict(nerFreqs, TRAIN_GAMMA, TRAIN_ALPHA);
-            final AtomicDouble logZTot = new AtomicDouble(0.0);
-            ExecutorService threadPool = Executors.newFixedThreadPool(1); //Execution.threads);
-            ArrayList<Future<Void>> threads = new ArrayList<>();
-            for(int n = 0; n < bankSize; n++){
-                final AugmentedToken[] curTokens = tokens[n];
-                final List<AMR.Node> curNodes = new ArrayList<>(Arrays.asList(nodes[n]));
-                final boolean supervised = (n % 2 == 0) && n < bankLabeledSize;
-                if(!supervised){
-                    for(int count = 0; count < (curTokens.length + 1) / 3; count++) {
-                        curNodes.add(new NoneNode());
-                    }
-                }
-                final int curN = n;
-                Callable<Void> thread = () -> {
-                    try {
-                        // do IBM model 1
-                        // print current best predictions (for debugging)
-                        if (curN == 0) {
-                            for (AugmentedToken token : curTokens) {
-                                Action bestAction = null;
-                                double bestScore = 0.0;
-                                if (token.forcedAction != null) {
-                                    bestAction = token.forcedAction;
-                                } else {
-                                    for (Action action : Action.values()) {
-                                        List<String> features = extractFeatures(token, action);
-                                        double curScore = model.score(features);
-                                        if (bestAction == null || curScore > bestScore) {
-                                            bestAction = action;
-                                            bestScore = curScore;
+        try {
+            for(int iter = 0; iter < TRAIN_ITERS; iter++){
+                forceTrack("Iteration " + (iter + 1) + " / " + TRAIN_ITERS);
+                long startTime = System.currentTimeMillis();
+                final Model.SoftCountDict curDict = oldDict;
+                final Model.SoftCountDict curNerDict = oldNerDict;
+                final Model.SoftCountDict nextDict = new Model.SoftCountDict(freqs, TRAIN_GAMMA, TRAIN_ALPHA);
+                final Model.SoftCountDict nextNerDict = new Model.SoftCountDict(nerFreqs, TRAIN_GAMMA, TRAIN_ALPHA);
+                final AtomicDouble logZTot = new AtomicDouble(0.0);
+                final AtomicInteger nextSentence = new AtomicInteger(0);
+                final AtomicInteger nodesSeen = new AtomicInteger(0);
+                ArrayList<Future<Void>> threads = new ArrayList<>();
+                for(int w = 0; w < TRAIN_THREADS; w++){
+                    final GradientBuffer buffer = buffers[w];
+                    Callable<Void> thread = () -> {
+                        try {
+                            int curN;
+                            while ((curN = nextSentence.getAndIncrement()) < bankSize) {
+                                final AugmentedToken[] curTokens = tokens[curN];
+                                final List<AMR.Node> curNodes = new ArrayList<>(Arrays.asList(nodes[curN]));
+                                final boolean supervised = (curN % 2 == 0) && curN < bankLabeledSize;
+                                if (!supervised) {
+                                    for (int count = 0; count < (curTokens.length + 1) / 3; count++) {
+                                        curNodes.add(new NoneNode());
+                                    }
+                                }
+                                // do IBM model 1
+                                // print current best predictions (for debugging)
+                                if (curN == 0) {
+                                    for (AugmentedToken token : curTokens) {
+                                        Action bestAction = null;
+                                        double bestScore = 0.0;
+                                        if (token.forcedAction != null) {
+                                            bestAction = token.forcedAction;
+                                        } else {
+                                            for (Action action : Action.values()) {
+                                                double curScore = model.score(token.featureIds[action.ordinal()]);
+                                                if (bestAction == null || curScore > bestScore) {
+                                                    bestAction = action;
+                                                    bestScore = curScore;
+                                                }
+                                            }
                                         }
+                                        System.out.println("OPT(" + token + ") : " + bestAction + " => " + getNode(token, bestAction, lemmaDict, cache));
                                     }
                                 }
-                                System.out.println("OPT(" + token + ") : " + bestAction + " => " + getNode(token, bestAction, lemmaDict, cache));
-                            }
-                        }
 
 
-                        // loop over output
-                        // For each node...
-                        for (AMR.Node node : curNodes) {
-                            if (namedEntityTypes.contains(node.title)) {
-                                continue;
-                            }
-                            //if(Iter >= 8 && Iter < 10 && Math.random() < 0.3) continue;
-                            double Zsrc = 0.0, Ztar = 0.0;
-                            HashMap<String, Double> counts = new HashMap<String, Double>();
-                            HashMap<String, Double> nerCounts = new HashMap<String, Double>();
-                            Map<String, Double> gradientSrc = new HashMap<String, Double>(),
-                                    gradientTar = new HashMap<String, Double>();
-                            // For each token...
-                            AugmentedToken[] theTokens = null;
-                            if (supervised) {
-                                theTokens = new AugmentedToken[1];
-                                theTokens[0] = curTokens[node.alignment];
-                                if (theTokens[0].forcedAction != null) {
-                                    System.out.println("uh oh " + theTokens[0].forcedAction + " " + node.title);
-                                }
-                            } else {
-                                theTokens = curTokens;
-                            }
-                            for (AugmentedToken token : theTokens) {
-                                double logZ2 = Double.NEGATIVE_INFINITY;
-                                int numValid = Action.validValues(token, node).size();
-                                for (Action action : Action.validValues(token, node)) {
-                                    List<String> features = extractFeatures(token, action);
-                                    logZ2 = Util.lse(logZ2, model.score(features));
-                                }
-                                // For each action...
-                                for (Action action : Action.validValues(token, node)) {
-                                    List<String> features = extractFeatures(token, action);
-                                    double probSrc = Math.exp(model.score(features) - logZ2);
-                                    double likelihood = getNode(token, action, lemmaDict, cache).score(node, curDict, curNerDict);
-                                    double probTar = probSrc * likelihood;
-                                    Zsrc += probSrc;
-                                    Ztar += probTar;
-                                    Util.incr(gradientSrc, features, probSrc);
-                                    Util.incr(gradientTar, features, probTar);
-                                    if (action == Action.DICT) {
-                                        counts.put(token.value, probTar);
+                                // loop over output
+                                // For each node...
+                                for (AMR.Node node : curNodes) {
+                                    if (namedEntityTypes.contains(node.title)) {
+                                        continue;
+                                    }
+                                    //if(Iter >= 8 && Iter < 10 && Math.random() < 0.3) continue;
+                                    double Zsrc = 0.0, Ztar = 0.0;
+                                    HashMap<String, Double> counts = new HashMap<String, Double>();
+                                    HashMap<String, Double> nerCounts = new HashMap<String, Double>();
+                                    // For each token...
+                                    AugmentedToken[] theTokens = null;
+                                    if (supervised) {
+                                        theTokens = new AugmentedToken[1];
+                                        theTokens[0] = curTokens[node.alignment];
+                                        if (theTokens[0].forcedAction != null) {
+                                            System.out.println("uh oh " + theTokens[0].forcedAction + " " + node.title);
+                                        }
+                                    } else {
+                                        theTokens = curTokens;
+                                    }
+                                    for (AugmentedToken token : theTokens) {
+                                        double logZ2 = Double.NEGATIVE_INFINITY;
+                                        for (Action action : Action.validValues(token, node)) {
+                                            logZ2 = Util.lse(logZ2, model.score(token.featureIds[action.ordinal()]));
+                                        }
+                                        // For each action...
+                                        for (Action action : Action.validValues(token, node)) {
+                                            int[] features = token.featureIds[action.ordinal()];
+                                            double probSrc = Math.exp(model.score(features) - logZ2);
+                                            double likelihood = getNode(token, action, lemmaDict, cache).score(node, curDict, curNerDict);
+                                            double probTar = probSrc * likelihood;
+                                            Zsrc += probSrc;
+                                            Ztar += probTar;
+                                            buffer.add(features, probSrc, probTar);
+                                            if (action == Action.DICT) {
+                                                counts.put(token.value, probTar);
+                                            }
+                                            if(action == Action.NAME && nerTypes.contains(node.title)) {
+                                                counts.put(token.ner, probTar);
+                                            }
+                                        }
+                                    }
+                                    for (Map.Entry<String, Double> e : counts.entrySet()) {
+                                        nextDict.addCount(e.getKey(), node.title, e.getValue() / Ztar);
                                     }
-                                    if(action == Action.NAME && nerTypes.contains(node.title)) {
-                                        counts.put(token.ner, probTar);
+                                    for (Map.Entry<String, Double> e : nerCounts.entrySet()) {
+                                        nextNerDict.addCount(e.getKey(), node.title, e.getValue() / Ztar);
                                     }
+                                    buffer.apply(model.weights, Zsrc, Ztar, TRAIN_ETA);
+                                    logZTot.addAndGet(Math.log(Zsrc / Ztar));
+                                    nodesSeen.incrementAndGet();
                                 }
                             }
-                            for (Map.Entry<String, Double> e : counts.entrySet()) {
-                                nextDict.addCount(e.getKey(), node.title, e.getValue() / Ztar);
-                            }
-                            for (Map.Entry<String, Double> e : nerCounts.entrySet()) {
-                                nextNerDict.addCount(e.getKey(), node.title, e.getValue() / Ztar);
-                            }
-                            Map<String, Double> gradient = new HashMap<String, Double>();
-                            Util.incr(gradient, gradientSrc, -1.0 / Zsrc);
-                            Util.incr(gradient, gradientTar, 1.0 / Ztar);
-                            model.adagrad(gradient, TRAIN_ETA);
-                            logZTot.addAndGet(Math.log(Zsrc / Ztar));
+                        } catch (Throwable t) {
+                            t.printStackTrace();
+                            System.exit(1);
                         }
-                    } catch (Throwable t) {
-                        t.printStackTrace();
-                        System.exit(1);
-                    }
-                    return null;
-                };
-                threads.add(threadPool.submit(thread));
-            }
-            if(iter >= 8) {
-                oldDict = nextDict;
-                oldNerDict = nextNerDict;
+                        return null;
+                    };
+                    threads.add(threadPool.submit(thread));
+                }
+                for(Future<Void> thread : threads) thread.get();
+                if(iter >= 8) {
+                    oldDict = nextDict;
+                    oldNerDict = nextNerDict;
+                }
+                long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+                System.out.println("cost after iteration " + (iter + 1) + ": " + logZTot.doubleValue());
+                System.out.println("iteration " + (iter + 1) + " took " + elapsed + "ms on " + TRAIN_THREADS + " threads ("
+                        + (bankSize * 1000 / elapsed) + " sentences/s, " + (nodesSeen.get() * 1000L / elapsed) + " nodes/s)");
+                System.out.println("caches: " + cache + "; " + frameManager.cacheStats());
+                endTrack("Iteration " + (iter + 1) + " / " + TRAIN_ITERS);
             }
+        }
+        finally {
             threadPool.shutdown();
-            threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            System.out.println("cost after iteration " + (iter + 1) + ": " + logZTot.doubleValue());
-            endTrack("Iteration " + (iter + 1) + " / " + TRAIN_ITERS);
         }
 
         /* commented out because the next stage does the same thing (uncomment if path != lpPath)
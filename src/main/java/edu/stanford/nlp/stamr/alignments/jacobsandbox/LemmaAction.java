@@ -2,11 +2,15 @@ package edu.stanford.nlp.stamr.alignments.jacobsandbox;
 
 import edu.stanford.nlp.keenonutils.JaroWinklerDistance;
 import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.AMRBinaryFormat;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.StringUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.HashMap;
@@ -54,6 +58,38 @@ public class LemmaAction implements Serializable {
         return lemmas.containsKey(token) ? Optional.of(Counters.argmax(lemmas.get(token))) : Optional.empty();
     }
 
+    /**
+     * Writes the dictionary out for Model.write().
+     *
+     *   lemmas := count:varint (word:utf count:varint (lemma:utf score:double)*)*
+     */
+    void write(DataOutputStream out) throws IOException {
+        AMRBinaryFormat.writeVarint(out, lemmas.size());
+        for (Map.Entry<String, Counter<String>> entry : lemmas.entrySet()) {
+            out.writeUTF(entry.getKey());
+            AMRBinaryFormat.writeVarint(out, entry.getValue().size());
+            for (Map.Entry<String, Double> lemma : entry.getValue().entrySet()) {
+                out.writeUTF(lemma.getKey());
+                out.writeDouble(lemma.getValue());
+            }
+        }
+    }
+
+    static LemmaAction read(DataInputStream in) throws IOException {
+        int size = AMRBinaryFormat.readVarint(in);
+        Map<String, Counter<String>> lemmas = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String word = in.readUTF();
+            int count = AMRBinaryFormat.readVarint(in);
+            Counter<String> counts = new ClassicCounter<>();
+            for (int j = 0; j < count; j++) {
+                counts.setCount(in.readUTF(), in.readDouble());
+            }
+            lemmas.put(word, counts);
+        }
+        return new LemmaAction(lemmas);
+    }
+
     public void print(PrintWriter writer) {
         for (Map.Entry<String, Counter<String>> entry : lemmas.entrySet()) {
             writer.println(entry.getKey() + "\t" + Counters.toSortedString(entry.getValue(), 10, "%1$s -> %2$f", "\t"));
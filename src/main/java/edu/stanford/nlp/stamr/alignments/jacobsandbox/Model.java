@@ -1,10 +1,17 @@
 package edu.stanford.nlp.stamr.alignments.jacobsandbox;
 
-import java.io.Serializable;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import edu.stanford.nlp.stamr.AMRBinaryFormat;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+
+import java.io.*;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by jacob on 3/28/15.
@@ -12,7 +19,11 @@ import java.util.concurrent.ConcurrentHashMap;
 public class Model implements Serializable {
     private static final double serialVersionUID = 1l;
 
-    private  Map<String, AGPair> theta = new ConcurrentHashMap<>();
+    static final byte[] MAGIC = {'J', 'E', 'M', 'M', 'O', 'D'};
+    static final int VERSION = 1;
+
+    private final Index<String> featureIndex = new HashIndex<>();
+    public final AdaGradWeights weights = new AdaGradWeights();
 
     // TODO(gabor) handle me better than setting me after doEM()
     public SoftCountDict dict;
@@ -21,70 +32,342 @@ public class Model implements Serializable {
     // TODO(gabor) handle me better than setting me after doEM()
     public LemmaAction lemmaDict;
 
-    public void adagrad(Map<String, Double> gradient, double step){
-        for(Map.Entry<String, Double> e : gradient.entrySet()){
-            AGPair p = theta.get(e.getKey());
-            if(p == null) theta.put(e.getKey(), new AGPair(e.getValue(), step));
-            else p.incr(e.getValue(), step);
+    /**
+     * Gives each feature an id, adding any we haven't seen before. This isn't thread safe, so every feature that
+     * training will touch should be indexed up front.
+     */
+    public int[] indexFeatures(List<String> features){
+        int[] ids = new int[features.size()];
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = featureIndex.addToIndex(features.get(i));
         }
+        weights.ensureCapacity(featureIndex.size());
+        return ids;
+    }
+
+    public int numFeatures(){
+        return featureIndex.size();
+    }
+
+    public double score(int[] features){
+        double ret = 0.0;
+        for(int id : features) ret += weights.get(id);
+        return ret;
     }
 
     public double score(List<String> features){
         double ret = 0.0;
         for(String key : features){
-            AGPair p = theta.get(key);
-            if(p != null) ret += p.v;
+            int id = featureIndex.indexOf(key);
+            if(id >= 0) ret += weights.get(id);
         }
         return ret;
     }
 
-    private static class AGPair implements Serializable {
-        private static final double serialVersionUID = 1l;
-        private static final double DELTA = 1e-4;
-        double v, s;
-        public AGPair(double val, double step){
-            s = val*val + DELTA;
-            v = step * val / Math.sqrt(s);
+    /**
+     * Writes the model out in a compact binary format, rather than Java serializing it. Paths ending in ".gz" are
+     * gzipped.
+     *
+     *   file     := "JEMMOD" version:byte count:varint (feature:utf weight:double adagrad:double)*
+     *               [dict] [nerDict] [lemmaDict]
+     *
+     * where each [...] is a byte saying whether it's there, then the thing itself (see SoftCountDict.write() and
+     * LemmaAction.write()).
+     */
+    public void write(String path) throws IOException {
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+        if(path.endsWith(".gz")) stream = new GZIPOutputStream(stream, 1 << 16);
+        try(DataOutputStream out = new DataOutputStream(stream)) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            AMRBinaryFormat.writeVarint(out, featureIndex.size());
+            for(int i = 0; i < featureIndex.size(); i++) {
+                out.writeUTF(featureIndex.get(i));
+                out.writeDouble(weights.v[i]);
+                out.writeDouble(weights.s[i]);
+            }
+            out.writeBoolean(dict != null);
+            if(dict != null) dict.write(out);
+            out.writeBoolean(nerDict != null);
+            if(nerDict != null) nerDict.write(out);
+            out.writeBoolean(lemmaDict != null);
+            if(lemmaDict != null) lemmaDict.write(out);
         }
-        void incr(double val, double step){
-            s += val * val;
-            v += step * val / Math.sqrt(s);
+    }
+
+    public static Model read(String path) throws IOException {
+        InputStream stream = new BufferedInputStream(new FileInputStream(path), 1 << 16);
+        if(path.endsWith(".gz")) stream = new GZIPInputStream(stream, 1 << 16);
+        try(DataInputStream in = new DataInputStream(stream)) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if(!Arrays.equals(magic, MAGIC)) throw new IOException(path + " isn't a JointEM model");
+            int version = in.readUnsignedByte();
+            if(version != VERSION) throw new IOException(path + " is JointEM model version " + version + ", expected " + VERSION);
+
+            Model model = new Model();
+            int numFeatures = AMRBinaryFormat.readVarint(in);
+            model.weights.ensureCapacity(numFeatures);
+            for(int i = 0; i < numFeatures; i++) {
+                if(model.featureIndex.addToIndex(in.readUTF()) != i) throw new IOException("Corrupt model, repeated feature");
+                model.weights.v[i] = in.readDouble();
+                model.weights.s[i] = in.readDouble();
+            }
+            if(in.readBoolean()) model.dict = SoftCountDict.read(in);
+            if(in.readBoolean()) model.nerDict = SoftCountDict.read(in);
+            if(in.readBoolean()) model.lemmaDict = LemmaAction.read(in);
+            return model;
         }
     }
 
+    /**
+     * Soft counts of how often x (a word, or an NER tag) produced the concept y, smoothed with a Dirichlet process
+     * over the concepts' overall frequencies.
+     *
+     * Strings are interned to integer ids, and the counts live in one open-addressed table keyed by (x, y) id pairs,
+     * next to per-x totals, all in primitive arrays. Many threads can addCount() at once: each add is a
+     * compare-and-swap on the count's bits, and only growing the table takes a lock. getProb() doesn't lock at all,
+     * so it should be read once the counts it needs are in.
+     */
     public static class SoftCountDict implements Serializable {
-        private static final double serialVersionUID = 1l;
-        ConcurrentHashMap<String, ConcurrentHashMap<String, Double>> softCounts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Double> totals = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Double> initCounts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Double> uniqueCounts = new ConcurrentHashMap<>();
+        private static final long serialVersionUID = 1L;
+        private static final long EMPTY = -1L;
+
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        // The Dirichlet base distribution, by y id
+        private double[] initCounts;
+        private volatile CountTable table = new CountTable(64, 16);
+        private final ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
         double gamma, alpha;
+
         public SoftCountDict(Map<String, Integer> freqs, double gamma, double alpha){
             int total = 0;
             for(Integer i : freqs.values()) total += i;
+            double[] init = new double[freqs.size()];
             for(Map.Entry<String, Integer> e : freqs.entrySet()){
-                initCounts.put(e.getKey(), e.getValue() / (double) total);
+                int y = intern(e.getKey());
+                if(y >= init.length) init = Arrays.copyOf(init, y + 1);
+                init[y] = e.getValue() / (double) total;
             }
+            this.initCounts = init;
             this.gamma = gamma;
             this.alpha = alpha;
         }
+
+        private SoftCountDict(double gamma, double alpha){
+            this.gamma = gamma;
+            this.alpha = alpha;
+        }
+
         void addCount(String x, String y, double dv){
-            ConcurrentHashMap<String, Double> softCountsX = Util.getMapSafe(softCounts, x);
-            double v = Util.getDoubleSafe(softCountsX, y);
-            softCountsX.put(y, v + dv);
-            double totalX = Util.getDoubleSafe(totals, x);
-            totals.put(x, totalX + dv);
-            double du = Math.min(v + dv, 1.0) - Math.min(v, 1.0);
-            double u = Util.getDoubleSafe(uniqueCounts, x);
-            uniqueCounts.put(x, u + du);
+            int xId = intern(x);
+            long key = key(xId, intern(y));
+            while(true){
+                resizeLock.readLock().lock();
+                try {
+                    CountTable t = table;
+                    if(xId < t.totals.length() && t.size.get() < t.keys.length() / 2){
+                        double v = getAndAdd(t.counts, t.claim(key), dv);
+                        getAndAdd(t.totals, xId, dv);
+                        double du = Math.min(v + dv, 1.0) - Math.min(v, 1.0);
+                        getAndAdd(t.uniqueCounts, xId, du);
+                        return;
+                    }
+                } finally {
+                    resizeLock.readLock().unlock();
+                }
+                grow(xId);
+            }
         }
+
         double getProb(String x, String y){
-            ConcurrentHashMap<String, Double> softCountsX = Util.getMapSafe(softCounts, x);
-            double v = Util.getDoubleSafe(softCountsX, y);
-            double v0 = Util.getDoubleSafe(initCounts, y);
-            double totalX = Util.getDoubleSafe(totals, x);
-            double u = Util.getDoubleSafe(uniqueCounts, x);
+            Integer xId = ids.get(x);
+            Integer yId = ids.get(y);
+            CountTable t = table;
+            double v = 0.0, totalX = 0.0, u = 0.0, v0 = 0.0;
+            if(xId != null && xId < t.totals.length()){
+                if(yId != null) v = t.get(key(xId, yId));
+                totalX = Double.longBitsToDouble(t.totals.get(xId));
+                u = Double.longBitsToDouble(t.uniqueCounts.get(xId));
+            }
+            if(yId != null && yId < initCounts.length) v0 = initCounts[yId];
             return (Math.max(v - 1.0, 0.0) + Math.min(v, 1.0) * (1-alpha) + (gamma + u * alpha) * v0) / (totalX + gamma);
         }
+
+        private int intern(String s){
+            Integer id = ids.get(s);
+            if(id != null) return id;
+            synchronized(strings){
+                id = ids.get(s);
+                if(id == null){
+                    id = strings.size();
+                    strings.add(s);
+                    ids.put(s, id);
+                }
+                return id;
+            }
+        }
+
+        private static long key(int x, int y){
+            return ((long) x << 32) | y;
+        }
+
+        /**
+         * Adds to the double whose bits are at i, and returns what it was before.
+         */
+        private static double getAndAdd(AtomicLongArray array, int i, double dv){
+            while(true){
+                long bits = array.get(i);
+                double v = Double.longBitsToDouble(bits);
+                if(array.compareAndSet(i, bits, Double.doubleToRawLongBits(v + dv))) return v;
+            }
+        }
+
+        /**
+         * Makes room for another (x, y) pair and for rows up to x, unless another thread already has.
+         */
+        private void grow(int x){
+            resizeLock.writeLock().lock();
+            try {
+                CountTable t = table;
+                int capacity = t.keys.length();
+                if(t.size.get() >= capacity / 2) capacity *= 2;
+                int rows = t.totals.length();
+                while(x >= rows) rows *= 2;
+                if(capacity == t.keys.length() && rows == t.totals.length()) return;
+
+                CountTable bigger = new CountTable(capacity, rows);
+                for(int i = 0; i < t.keys.length(); i++){
+                    long key = t.keys.get(i);
+                    if(key != EMPTY) bigger.counts.set(bigger.claim(key), t.counts.get(i));
+                }
+                for(int i = 0; i < t.totals.length(); i++){
+                    bigger.totals.set(i, t.totals.get(i));
+                    bigger.uniqueCounts.set(i, t.uniqueCounts.get(i));
+                }
+                table = bigger;
+            } finally {
+                resizeLock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Writes the dictionary out, a row of counts per x, in id order.
+         *
+         *   dict := gamma:double alpha:double count:varint string:utf* count:varint initCount:double*
+         *           count:varint row*
+         *   row  := total:double unique:double count:varint (y:varint count:double)*
+         */
+        void write(DataOutputStream out) throws IOException {
+            out.writeDouble(gamma);
+            out.writeDouble(alpha);
+            synchronized(strings){
+                AMRBinaryFormat.writeVarint(out, strings.size());
+                for(String s : strings) out.writeUTF(s);
+            }
+            AMRBinaryFormat.writeVarint(out, initCounts.length);
+            for(double v0 : initCounts) out.writeDouble(v0);
+
+            CountTable t = table;
+            List<List<Integer>> rows = new ArrayList<>();
+            for(int i = 0; i < t.totals.length(); i++) rows.add(new ArrayList<>());
+            for(int i = 0; i < t.keys.length(); i++){
+                long key = t.keys.get(i);
+                if(key != EMPTY) rows.get((int) (key >>> 32)).add(i);
+            }
+            AMRBinaryFormat.writeVarint(out, rows.size());
+            for(int x = 0; x < rows.size(); x++){
+                out.writeDouble(Double.longBitsToDouble(t.totals.get(x)));
+                out.writeDouble(Double.longBitsToDouble(t.uniqueCounts.get(x)));
+                List<Integer> row = rows.get(x);
+                row.sort((a, b) -> Integer.compare((int) t.keys.get(a), (int) t.keys.get(b)));
+                AMRBinaryFormat.writeVarint(out, row.size());
+                for(int i : row){
+                    AMRBinaryFormat.writeVarint(out, (int) t.keys.get(i));
+                    out.writeDouble(Double.longBitsToDouble(t.counts.get(i)));
+                }
+            }
+        }
+
+        static SoftCountDict read(DataInputStream in) throws IOException {
+            SoftCountDict dict = new SoftCountDict(in.readDouble(), in.readDouble());
+            int numStrings = AMRBinaryFormat.readVarint(in);
+            for(int i = 0; i < numStrings; i++) dict.intern(in.readUTF());
+            dict.initCounts = new double[AMRBinaryFormat.readVarint(in)];
+            for(int i = 0; i < dict.initCounts.length; i++) dict.initCounts[i] = in.readDouble();
+
+            int numRows = AMRBinaryFormat.readVarint(in);
+            if(numRows > 0) dict.grow(numRows - 1);
+            for(int x = 0; x < numRows; x++){
+                dict.table.totals.set(x, Double.doubleToRawLongBits(in.readDouble()));
+                dict.table.uniqueCounts.set(x, Double.doubleToRawLongBits(in.readDouble()));
+                int rowSize = AMRBinaryFormat.readVarint(in);
+                for(int i = 0; i < rowSize; i++){
+                    int y = AMRBinaryFormat.readVarint(in);
+                    if(x >= numStrings || y >= numStrings) throw new IOException("Corrupt model, unknown string id " + x + " or " + y);
+                    while(dict.table.size.get() >= dict.table.keys.length() / 2) dict.grow(x);
+                    dict.table.counts.set(dict.table.claim(key(x, y)), Double.doubleToRawLongBits(in.readDouble()));
+                }
+            }
+            return dict;
+        }
+
+        /**
+         * One generation of the counts. Doubles are stored as their bits, so they can be compare-and-swapped.
+         */
+        private static class CountTable implements Serializable {
+            private static final long serialVersionUID = 1L;
+            // (x, y) keys, by linear probing from the key's hash. The capacity is a power of two
+            final AtomicLongArray keys;
+            final AtomicLongArray counts;
+            final AtomicInteger size = new AtomicInteger();
+            // By x id
+            final AtomicLongArray totals;
+            final AtomicLongArray uniqueCounts;
+
+            CountTable(int capacity, int rows){
+                keys = new AtomicLongArray(capacity);
+                for(int i = 0; i < capacity; i++) keys.set(i, EMPTY);
+                counts = new AtomicLongArray(capacity);
+                totals = new AtomicLongArray(rows);
+                uniqueCounts = new AtomicLongArray(rows);
+            }
+
+            private int slot(long key){
+                long h = key * 0x9E3779B97F4A7C15L;
+                return (int) (h >>> 32) & (keys.length() - 1);
+            }
+
+            /**
+             * The slot holding key, taking an empty one for it if it isn't in the table yet.
+             */
+            int claim(long key){
+                int i = slot(key);
+                while(true){
+                    long k = keys.get(i);
+                    if(k == key) return i;
+                    if(k == EMPTY){
+                        if(keys.compareAndSet(i, EMPTY, key)){
+                            size.incrementAndGet();
+                            return i;
+                        }
+                        // Somebody beat us to this slot, so look at what they put there
+                        continue;
+                    }
+                    i = (i + 1) & (keys.length() - 1);
+                }
+            }
+
+            double get(long key){
+                int i = slot(key);
+                while(true){
+                    long k = keys.get(i);
+                    if(k == key) return Double.longBitsToDouble(counts.get(i));
+                    if(k == EMPTY) return 0.0;
+                    i = (i + 1) & (keys.length() - 1);
+                }
+            }
+        }
     }
 }
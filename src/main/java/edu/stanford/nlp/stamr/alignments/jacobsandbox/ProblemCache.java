@@ -2,69 +2,64 @@ package edu.stanford.nlp.stamr.alignments.jacobsandbox;
 
 import edu.stanford.nlp.experiments.FrameManager;
 import edu.stanford.nlp.process.WordShapeClassifier;
+import edu.stanford.nlp.stamr.utils.MemoCache;
 import edu.stanford.nlp.stats.Counters;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A class to encapsulate cached computation. This should be discarded when the EM aligner is
  * done, but speeds things up significantly while it's running.
  *
- * Feel free to instantiate me with new ProblemCache() and just pass me along.
+ * Feel free to instantiate me with new ProblemCache() and just pass me along. I'm safe to share between
+ * threads, and each of my caches holds at most CACHE_SIZE entries, dropping the least recently used.
  *
  * @author Gabor Angeli
  */
 public class ProblemCache {
+    public static int CACHE_SIZE = 100000;
 
-    public ProblemCache() {
+    private final MemoCache<String, String> getClosestFrameCache;
+    private final AtomicReference<FrameManager> getClosestFrameCacheCond = new AtomicReference<>();
+    private final MemoCache<String, String> getWordShapeCache;
 
+    public ProblemCache() {
+        this(CACHE_SIZE);
     }
 
-    private final Map<String, String> getClosestFrameCache = new HashMap<>();
-    private FrameManager getClosestFrameCacheCond = null;
+    public ProblemCache(int capacity) {
+        getClosestFrameCache = new MemoCache<>("closest frames", capacity);
+        getWordShapeCache = new MemoCache<>("word shapes", capacity);
+    }
 
     /**
      * A cached version of frameManager.getClosestFrame(stem);
      */
     public MatchNode getClosestFrame(FrameManager frameManager, String value, LemmaAction lemmaDict) {
-        if (getClosestFrameCacheCond == null) {
-            getClosestFrameCacheCond = frameManager;
-        }
-        if (getClosestFrameCacheCond != frameManager) {
+        getClosestFrameCacheCond.compareAndSet(null, frameManager);
+        if (getClosestFrameCacheCond.get() != frameManager) {
             throw new IllegalArgumentException("FrameManager changed between cache calls!");
         }
-        String rtn = getClosestFrameCache.get(value);
-        if (rtn == null) {
-            for (String stem : Counters.toSortedList(lemmaDict.lemmasFor(value.toLowerCase()))) {
+        String rtn = getClosestFrameCache.get(value, v -> {
+            for (String stem : Counters.toSortedList(lemmaDict.lemmasFor(v.toLowerCase()))) {
                 if (frameManager.containsFrameWithLemma(stem)) {
-                    rtn = frameManager.getClosestFrame(stem);
-                    break;
+                    return frameManager.getClosestFrame(stem);
                 }
             }
-            if (rtn == null) {
-                rtn = frameManager.getClosestFrame(value);
-            }
-            getClosestFrameCache.put(value, rtn);
-        }
+            return frameManager.getClosestFrame(v);
+        });
         return new MatchNode.VerbMatchNode(rtn);
     }
 
-
-    private final Map<String, String> getWordShapeCache = new HashMap<>();
-
     /**
      * A cache for the word shape classifier.
      */
     public String getWordShape(String input) {
-        String shape;
-        if ( (shape = getWordShapeCache.get(input)) != null) {
-            return shape;
-        }
-        shape = WordShapeClassifier.wordShape(input, WordShapeClassifier.WORDSHAPECHRIS4);
-        getWordShapeCache.put(input, shape);
-        return shape;
+        return getWordShapeCache.get(input, i -> WordShapeClassifier.wordShape(i, WordShapeClassifier.WORDSHAPECHRIS4));
     }
 
+    @Override
+    public String toString() {
+        return getClosestFrameCache + "; " + getWordShapeCache;
+    }
 }
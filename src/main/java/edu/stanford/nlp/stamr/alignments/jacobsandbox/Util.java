@@ -3,7 +3,6 @@ package edu.stanford.nlp.stamr.alignments.jacobsandbox;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by jacob on 3/28/15.
@@ -34,18 +33,4 @@ public class Util {
         else if(x < y) return y + Math.log(1 + Math.exp(x-y));
         else return x + Math.log(1 + Math.exp(y-x));
     }
-
-    static double getDoubleSafe(ConcurrentHashMap<String, Double> map, String key){
-        Double v = map.get(key);
-        if(v == null) return 0.0;
-        else return v;
-    }
-    static ConcurrentHashMap<String, Double> getMapSafe(ConcurrentHashMap<String, ConcurrentHashMap<String, Double>> map, String key){
-        ConcurrentHashMap<String, Double> map2 = map.get(key);
-        if(map2 == null){
-            map2 = new ConcurrentHashMap<String, Double>();
-            map.put(key, map2);
-        }
-        return map2;
-    }
 }
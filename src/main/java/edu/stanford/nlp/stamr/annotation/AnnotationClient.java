@@ -1,54 +1,395 @@
 package edu.stanford.nlp.stamr.annotation;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
 
 /**
  * Hooks itself up to the annotation server, allows real time annotations without the startup cost.
+ *
+ * Keeps a small pool of connections open to the server, and pipelines requests down them, so many annotations can be
+ * in flight at once without paying for a new connection each time. annotateAsync() never blocks: once every
+ * connection has as many requests in flight as it's allowed, new ones wait in a queue here until an answer comes
+ * back. A request that has no answer within the timeout of annotateAsync() being called, time spent waiting in that
+ * queue included, fails with a TimeoutException, and stops counting against its connection's limit. New connections
+ * are opened on a background thread, so a slow server doesn't hold anybody else up while we wait for it to accept.
+ *
+ * Futures are completed on the thread reading responses from the connection, so anything slow chained onto them
+ * should use the Async variants.
  */
-public class AnnotationClient {
+public class AnnotationClient implements Closeable {
     public final static String SERVER_HOSTNAME = "localhost";
     public final static int COMM_PORT = 2109;
 
+    public static int CONNECTIONS = 4;
+    public static int MAX_IN_FLIGHT_PER_CONNECTION = 16;
+    // Curator can take a long time on long sentences, so this is generous
+    public static long TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private final String host;
+    private final int port;
+    private final int maxConnections;
+    private final int maxInFlightPerConnection;
+    private final long timeoutMillis;
+
+    private final List<PooledConnection> pool = new ArrayList<PooledConnection>();
+    private final Deque<Call> waiting = new ArrayDeque<Call>();
+    private final ScheduledThreadPoolExecutor timer;
+    private final ExecutorService connector;
+    private final Set<Socket> connecting = ConcurrentHashMap.newKeySet();
+    // Connections being opened, which count against maxConnections
+    private int pendingConnections = 0;
+    // After a failed connect while we still have other connections, don't try again until this time
+    private long retryConnectAt = 0;
+    private boolean closed = false;
+
+    static final long CONNECT_RETRY_MILLIS = 1000;
+
+    private static AnnotationClient defaultClient = null;
+
+    public AnnotationClient() {
+        this(SERVER_HOSTNAME, COMM_PORT, CONNECTIONS, MAX_IN_FLIGHT_PER_CONNECTION, TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Connections are opened as they're needed, up to maxConnections. A timeout of 0 means wait forever.
+     */
+    public AnnotationClient(String host, int port, int maxConnections, int maxInFlightPerConnection, long timeoutMillis) {
+        if (maxConnections < 1) throw new IllegalArgumentException("Need at least one connection, got "+maxConnections);
+        if (maxInFlightPerConnection < 1) {
+            throw new IllegalArgumentException("Need at least one request in flight, got "+maxInFlightPerConnection);
+        }
+        this.host = host;
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.maxInFlightPerConnection = maxInFlightPerConnection;
+        this.timeoutMillis = timeoutMillis;
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "annotation-client-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // Otherwise a cancelled timeout stays queued until it would have gone off, and keeps its call's annotation
+        // reachable all that time
+        timer.setRemoveOnCancelPolicy(true);
+        connector = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "annotation-client-connector");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public CompletableFuture<MultiSentenceAnnotationWrapper> annotateAsync(String text) {
+        Call call = new Call(text);
+        if (timeoutMillis > 0) {
+            ScheduledFuture<?> timeout = timer.schedule(() -> {
+                call.future.completeExceptionally(new TimeoutException("No annotation after "+timeoutMillis+"ms"));
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            call.future.whenComplete((v, t) -> timeout.cancel(false));
+        }
+        // However the call ends, its slot is free for the next one
+        call.future.whenComplete((v, t) -> {
+            PooledConnection connection = call.connection;
+            if (connection != null) connection.inFlight.remove(call.id);
+            dispatch();
+        });
+        synchronized (this) {
+            if (closed) {
+                call.future.completeExceptionally(new IOException("Annotation client closed"));
+                return call.future;
+            }
+            waiting.add(call);
+        }
+        dispatch();
+        return call.future;
+    }
+
+    public synchronized int openConnections() {
+        int open = 0;
+        for (PooledConnection connection : pool) {
+            if (!connection.dead) open++;
+        }
+        return open;
+    }
+
+    /**
+     * How many timeouts are still scheduled, which should only be one per call that hasn't finished.
+     */
+    int pendingTimeouts() {
+        return timer.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        List<Call> abandoned = new ArrayList<Call>();
+        List<PooledConnection> connections;
+        synchronized (this) {
+            closed = true;
+            abandoned.addAll(waiting);
+            waiting.clear();
+            connections = new ArrayList<PooledConnection>(pool);
+            pool.clear();
+        }
+        for (Socket socket : connecting) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Do nothing
+            }
+        }
+        for (PooledConnection connection : connections) {
+            connection.fail(new IOException("Annotation client closed"));
+        }
+        for (Call call : abandoned) {
+            call.future.completeExceptionally(new IOException("Annotation client closed"));
+        }
+        timer.shutdownNow();
+        connector.shutdownNow();
+    }
+
+    /**
+     * Hands waiting calls to connections with room for them. Only queues them for the connection's writer, and leaves
+     * opening new connections to the connector, so this never blocks on the network, and is safe to call from the
+     * threads reading responses.
+     */
+    private void dispatch() {
+        synchronized (this) {
+            while (!waiting.isEmpty() && !closed) {
+                Call call = waiting.peek();
+                if (call.future.isDone()) {
+                    waiting.poll();
+                    continue;
+                }
+                PooledConnection connection = pickConnection();
+                if (connection == null) break;
+                waiting.poll();
+                if (!connection.send(call)) {
+                    // It died under us, so try again with whatever is left
+                    waiting.addFirst(call);
+                }
+            }
+        }
+    }
+
+    /**
+     * An idle connection if there is one, otherwise the least busy connection that's under its limit. If there's no
+     * idle connection and the pool has room, starts opening another one too. Null if everything is full, or still
+     * connecting.
+     */
+    private PooledConnection pickConnection() {
+        pool.removeIf(connection -> connection.dead);
+        PooledConnection best = null;
+        for (PooledConnection connection : pool) {
+            if (best == null || connection.inFlight.size() < best.inFlight.size()) best = connection;
+        }
+        if (best != null && best.inFlight.isEmpty()) return best;
+        if (pool.size() + pendingConnections < maxConnections && System.currentTimeMillis() >= retryConnectAt) {
+            pendingConnections++;
+            connector.execute(this::connect);
+        }
+        return best != null && best.inFlight.size() < maxInFlightPerConnection ? best : null;
+    }
+
+    /**
+     * Opens a connection for the slot pickConnection() reserved, and hands it whatever is waiting.
+     */
+    private void connect() {
+        PooledConnection connection = null;
+        IOException failure = null;
+        Socket socket = new Socket();
+        connecting.add(socket);
+        try {
+            socket.connect(new InetSocketAddress(host, port));
+            connection = new PooledConnection(socket);
+        }
+        catch (IOException e) {
+            failure = e;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Do nothing
+            }
+        }
+        finally {
+            connecting.remove(socket);
+        }
+
+        List<Call> unsendable = new ArrayList<Call>();
+        boolean discard = false;
+        synchronized (this) {
+            pendingConnections--;
+            if (connection != null) {
+                if (closed) discard = true;
+                else pool.add(connection);
+            }
+            else if (pool.isEmpty() && pendingConnections == 0) {
+                // Nowhere to send anything, so nothing waiting is going anywhere either
+                unsendable.addAll(waiting);
+                waiting.clear();
+            }
+            else {
+                // The server might just be out of room for connections, so make do with the ones we've got for a bit
+                retryConnectAt = System.currentTimeMillis() + CONNECT_RETRY_MILLIS;
+            }
+        }
+        if (discard) connection.fail(new IOException("Annotation client closed"));
+        for (Call call : unsendable) {
+            call.future.completeExceptionally(failure);
+        }
+        dispatch();
+    }
+
+    private static class Call {
+        final String text;
+        final CompletableFuture<MultiSentenceAnnotationWrapper> future = new CompletableFuture<MultiSentenceAnnotationWrapper>();
+        volatile PooledConnection connection = null;
+        volatile int id;
+
+        Call(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * One socket to the server. A writer thread sends queued calls, flushing whenever it runs out, and a reader thread
+     * matches responses to calls by id. Keeping reading and writing on their own threads means a full send buffer can
+     * never stop us reading the responses the server is waiting to get rid of.
+     */
+    private class PooledConnection {
+        final Socket socket;
+        final Map<Integer, Call> inFlight = new ConcurrentHashMap<Integer, Call>();
+        final BlockingQueue<Call> outgoing = new LinkedBlockingQueue<Call>();
+        int nextId = 0;
+        volatile boolean dead = false;
+
+        PooledConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            Thread writer = new Thread(() -> writeLoop(out), "annotation-client-writer");
+            Thread reader = new Thread(() -> readLoop(in), "annotation-client-reader");
+            writer.setDaemon(true);
+            reader.setDaemon(true);
+            writer.start();
+            reader.start();
+        }
+
+        /**
+         * False if the connection has died, in which case the call hasn't gone anywhere. Only called while holding the
+         * client's lock.
+         */
+        boolean send(Call call) {
+            call.id = nextId++;
+            call.connection = this;
+            inFlight.put(call.id, call);
+            // fail() marks us dead before it empties inFlight, so either it sees this call or we see that we're dead
+            if (dead) {
+                inFlight.remove(call.id);
+                call.connection = null;
+                return false;
+            }
+            outgoing.add(call);
+            return true;
+        }
+
+        void writeLoop(DataOutputStream out) {
+            try {
+                AnnotationProtocol.writeHello(out);
+                while (!dead) {
+                    Call call = outgoing.take();
+                    if (dead) break;
+                    if (call.future.isDone()) {
+                        // Timed out or cancelled before we got to it
+                        inFlight.remove(call.id);
+                    }
+                    else {
+                        AnnotationProtocol.writeRequest(out, call.id, call.text);
+                    }
+                    if (outgoing.isEmpty()) out.flush();
+                }
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+            catch (InterruptedException e) {
+                fail(new InterruptedIOException("Annotation client writer interrupted"));
+            }
+        }
+
+        void readLoop(DataInputStream in) {
+            try {
+                AnnotationProtocol.Response response;
+                while ((response = AnnotationProtocol.readResponse(in)) != null) {
+                    Call call = inFlight.remove(response.id);
+                    // Nobody is waiting for answers to calls that timed out
+                    if (call == null) continue;
+                    try {
+                        call.future.complete(response.annotation());
+                    }
+                    catch (IOException e) {
+                        call.future.completeExceptionally(e);
+                    }
+                }
+                fail(new EOFException("Annotation server closed the connection"));
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Fails everything in flight on this connection. Anything still waiting goes to another connection.
+         */
+        void fail(IOException e) {
+            dead = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Do nothing
+            }
+            // Wakes the writer up if it's waiting for something to send
+            outgoing.offer(new Call(""));
+            for (Integer id : new ArrayList<Integer>(inFlight.keySet())) {
+                Call call = inFlight.remove(id);
+                if (call != null) call.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static synchronized AnnotationClient getDefault() {
+        if (defaultClient == null) defaultClient = new AnnotationClient();
+        return defaultClient;
+    }
+
     public static MultiSentenceAnnotationWrapper annotate(String str) {
         MultiSentenceAnnotationWrapper annotationWrapper = null;
 
-        Socket socket = null;
         try
         {
-            socket = new Socket(SERVER_HOSTNAME, COMM_PORT);
-            OutputStream oStream = socket.getOutputStream();
-            ObjectOutputStream ooStream = new ObjectOutputStream(oStream);
-            ooStream.writeObject(str);
-
-            InputStream iStream = socket.getInputStream();
-            ObjectInputStream oiStream = new ObjectInputStream(iStream);
-            annotationWrapper = (MultiSentenceAnnotationWrapper) oiStream.readObject();
-            oiStream.close();
-        }
-        catch (UnknownHostException uhe)
-        {
-            System.out.println("Don't know about host: " + SERVER_HOSTNAME);
-            System.exit(1);
+            annotationWrapper = getDefault().annotateAsync(str).get();
         }
-        catch (IOException ioe)
+        catch (InterruptedException ie)
         {
-            System.out.println("Couldn't get I/O for the connection to: " +
-                    SERVER_HOSTNAME + ":" + COMM_PORT);
-            System.exit(1);
+            Thread.currentThread().interrupt();
         }
-        catch(ClassNotFoundException cne)
+        catch (ExecutionException ee)
         {
-            System.out.println("Wanted class AnnotationWrapper, but got class " + cne);
-        }
-        finally {
-            if (socket != null) {
-                try {
-                    socket.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            if (ee.getCause() instanceof TimeoutException) {
+                System.out.println("Annotation server didn't answer: " + ee.getCause().getMessage());
+            }
+            else {
+                System.out.println("Couldn't get I/O for the connection to: " +
+                        SERVER_HOSTNAME + ":" + COMM_PORT);
+                System.out.println(ee.getCause().toString());
+                System.exit(1);
             }
         }
 
@@ -0,0 +1,164 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers an AnnotationServer from a few connections at once, each keeping several requests in flight, and reports
+ * throughput and latency percentiles. Run it against the server you want to measure:
+ *
+ *   AnnotationLoadGenerator [host] [port] [connections] [requests per connection] [in flight per connection] [file]
+ *
+ * where file has one request per line. Use "local" as the host to start a server in this process on a free port.
+ */
+public class AnnotationLoadGenerator {
+
+    static final List<String> DEFAULT_REQUESTS = Arrays.asList(
+            "The boy wants to go to New York.",
+            "The soldier was afraid of battle. He hid.",
+            "Officials of the Ministry of Defense said the talks would continue next week.",
+            "I saw Joe's dog, which was running in the garden.",
+            "It is a good idea to do that."
+    );
+
+    public static class Report {
+        public final int requests;
+        public final int failures;
+        public final double seconds;
+        public final long[] latencyNanos;
+
+        Report(int requests, int failures, double seconds, long[] latencyNanos) {
+            this.requests = requests;
+            this.failures = failures;
+            this.seconds = seconds;
+            this.latencyNanos = latencyNanos;
+            Arrays.sort(this.latencyNanos);
+        }
+
+        public double percentileMillis(double p) {
+            if (latencyNanos.length == 0) return 0.0;
+            int i = (int) Math.ceil(p / 100.0 * latencyNanos.length) - 1;
+            return latencyNanos[Math.max(0, Math.min(latencyNanos.length - 1, i))] / 1e6;
+        }
+
+        public double requestsPerSecond() {
+            return requests / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return requests+" requests ("+failures+" failed) in "+String.format("%.2f", seconds)+"s: "
+                    +String.format("%.1f", requestsPerSecond())+" requests/s, p50 "
+                    +String.format("%.1f", percentileMillis(50))+"ms, p99 "
+                    +String.format("%.1f", percentileMillis(99))+"ms, max "
+                    +String.format("%.1f", percentileMillis(100))+"ms";
+        }
+    }
+
+    /**
+     * Sends requestsPerConnection requests down each of the connections, keeping up to depth of them in flight on
+     * each, cycling through texts.
+     */
+    public static Report run(String host, int port, int connections, int requestsPerConnection, int depth,
+                             List<String> texts) throws IOException, InterruptedException {
+        long[] latencies = new long[connections * requestsPerConnection];
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Socket> sockets = new ArrayList<Socket>();
+        List<IOException> errors = new ArrayList<IOException>();
+
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            Socket socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Semaphore window = new Semaphore(depth);
+            ConcurrentHashMap<Integer, Long> sentAt = new ConcurrentHashMap<Integer, Long>();
+            final int offset = c * requestsPerConnection;
+
+            Thread sender = new Thread(() -> {
+                try {
+                    AnnotationProtocol.writeHello(out);
+                    for (int i = 0; i < requestsPerConnection; i++) {
+                        window.acquire();
+                        sentAt.put(i, System.nanoTime());
+                        AnnotationProtocol.writeRequest(out, i, texts.get((offset + i) % texts.size()));
+                        // Only flush once we've run out of room or requests, so a full window goes out together
+                        if (window.availablePermits() == 0 || i == requestsPerConnection - 1) out.flush();
+                    }
+                }
+                catch (IOException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+                catch (InterruptedException ignored) {
+                    // Do nothing
+                }
+            }, "load-sender-"+c);
+            Thread receiver = new Thread(() -> {
+                try {
+                    for (int i = 0; i < requestsPerConnection; i++) {
+                        AnnotationProtocol.Response response = AnnotationProtocol.readResponse(in);
+                        if (response == null) throw new EOFException("Server closed the connection");
+                        latencies[offset + i] = System.nanoTime() - sentAt.remove(response.id);
+                        if (response.status != AnnotationProtocol.OK) failures.incrementAndGet();
+                        window.release();
+                    }
+                }
+                catch (IOException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }, "load-receiver-"+c);
+            threads.add(sender);
+            threads.add(receiver);
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for (Socket socket : sockets) socket.close();
+        if (!errors.isEmpty()) throw errors.get(0);
+
+        return new Report(latencies.length, failures.get(), seconds, latencies);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : AnnotationServer.COMM_PORT;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int requests = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+        List<String> texts = args.length > 5 ? Files.readAllLines(Paths.get(args[5])) : DEFAULT_REQUESTS;
+
+        AnnotationServer server = null;
+        if (host.equals("local")) {
+            server = new AnnotationServer(new AnnotationManager(), 0).start();
+            host = "localhost";
+            port = server.getPort();
+            // Load the models before we start the clock
+            System.out.println("Warming up...");
+            run(host, port, 1, 1, 1, texts);
+        }
+
+        System.out.println("Sending "+requests+" requests down each of "+connections+" connections, "
+                +depth+" in flight at a time...");
+        Report report = run(host, port, connections, requests, depth, texts);
+        System.out.println(report);
+        if (server != null) {
+            System.out.println(server);
+            server.close();
+        }
+    }
+}
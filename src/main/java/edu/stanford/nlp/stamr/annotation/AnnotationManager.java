@@ -22,7 +22,7 @@ import java.util.zip.GZIPOutputStream;
 /**
  * Deals with creating, saving, and loading annotations for AMR banks.
  */
-public class AnnotationManager {
+public class AnnotationManager implements AnnotationServer.Backend {
 
     StanfordCoreNLP splitter = null;
     StanfordCoreNLP pipeline = null;
@@ -159,17 +159,27 @@ public class AnnotationManager {
 
         // First check if we need to do multiple sentences here. If we do, then do that
 
+        List<AnnotationWrapper> sentences = new ArrayList<AnnotationWrapper>();
+        for (String sentence : splitSentences(str)) {
+            sentences.add(annotate(sentence));
+        }
+        assert(sentences.size() > 0);
+        return new MultiSentenceAnnotationWrapper(sentences);
+    }
+
+    @Override
+    public List<String> splitSentences(String str) {
         Annotation an = new Annotation(str);
         getSplitterPipeline().annotate(an);
 
-        List<AnnotationWrapper> sentences = new ArrayList<AnnotationWrapper>();
+        List<String> sentences = new ArrayList<String>();
         for (CoreMap sentence : an.get(CoreAnnotations.SentencesAnnotation.class)) {
-            sentences.add(annotate(sentence.toString()));
+            sentences.add(sentence.toString());
         }
-        assert(sentences.size() > 0);
-        return new MultiSentenceAnnotationWrapper(sentences);
+        return sentences;
     }
 
+    @Override
     public AnnotationWrapper annotate(String str) {
 
         // Strip the plurals off of stuff, using the simple rule that
@@ -194,14 +204,7 @@ public class AnnotationManager {
         */
 
         // run all Annotators on this text
-        byte[] data = new byte[0];
-        try {
-            data = str.getBytes("ASCII");
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-        String ascii = new String(data);
-        AnnotationWrapper annotationWrapper = new AnnotationWrapper(new Annotation(ascii));
+        AnnotationWrapper annotationWrapper = new AnnotationWrapper(new Annotation(toAscii(str)));
         try {
             // Only use SRL annotations on stuff with length less than 60 words.
             // Otherwise annotation takes literally all day.
@@ -213,6 +216,23 @@ public class AnnotationManager {
             getFallbackPipeline().annotate(annotationWrapper.annotation);
         }
 
+        markGovernmentOrganizations(annotationWrapper);
+
+        System.out.println("Annotating single-sentence: "+annotationWrapper.annotation.toString());
+        return annotationWrapper;
+    }
+
+    private static String toAscii(String str) {
+        byte[] data = new byte[0];
+        try {
+            data = str.getBytes("ASCII");
+        } catch (UnsupportedEncodingException e) {
+            e.printStackTrace();
+        }
+        return new String(data);
+    }
+
+    private static void markGovernmentOrganizations(AnnotationWrapper annotationWrapper) {
         // Add special case government stuff to the annotations
 
         for (TokenSequencePattern pattern : AMRConstants.govPatterns) {
@@ -223,9 +243,6 @@ public class AnnotationManager {
                 }
             }
         }
-
-        System.out.println("Annotating single-sentence: "+annotationWrapper.annotation.toString());
-        return annotationWrapper;
     }
 
     public void annotate(AMR amr) {
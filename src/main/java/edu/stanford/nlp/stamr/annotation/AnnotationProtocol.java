@@ -0,0 +1,165 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import edu.stanford.nlp.pipeline.Annotation;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The wire format AnnotationServer and AnnotationClient speak over a connection that stays open for many requests.
+ *
+ *   connection := hello request*                      (client to server)
+ *                 response*                           (server to client, in whatever order they finish)
+ *   hello      := "AMRANN" version:byte
+ *   request    := id:int length:int text:utf8[length]
+ *   response   := id:int status:byte length:int body[length]
+ *   body       := deflate(count:int annotation*)      if status is OK, each annotation Java serialized
+ *               | message:utf8                        if status is ERROR
+ *
+ * Ids are picked by the client, and only need to be unique among its requests in flight on that connection, so it can
+ * send many at once and match up the answers as they come. Only the CoreNLP Annotation of each sentence is sent, not
+ * the caches an AnnotationWrapper builds on top of it, and the sentences share one object stream, so class
+ * descriptions are sent once per response rather than once per sentence.
+ */
+public class AnnotationProtocol {
+    static final byte[] MAGIC = {'A', 'M', 'R', 'A', 'N', 'N'};
+    static final int VERSION = 1;
+
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+
+    // Anything bigger than this is a corrupt stream, or somebody who isn't speaking our protocol
+    public static int MAX_FRAME_BYTES = 64 << 20;
+
+    public static class Request {
+        public final int id;
+        public final String text;
+
+        public Request(int id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+    }
+
+    public static class Response {
+        public final int id;
+        public final byte status;
+        public final byte[] body;
+
+        public Response(int id, byte status, byte[] body) {
+            this.id = id;
+            this.status = status;
+            this.body = body;
+        }
+
+        public MultiSentenceAnnotationWrapper annotation() throws IOException {
+            if (status != OK) throw new IOException("Annotation server failed: "+error());
+            return decode(body);
+        }
+
+        public String error() {
+            return status == ERROR ? new String(body, StandardCharsets.UTF_8) : null;
+        }
+    }
+
+    public static void writeHello(DataOutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.flush();
+    }
+
+    public static void readHello(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("Client isn't speaking the annotation protocol");
+        int version = in.readUnsignedByte();
+        if (version != VERSION) throw new IOException("Client speaks annotation protocol version "+version+", expected "+VERSION);
+    }
+
+    public static void writeRequest(DataOutputStream out, int id, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(id);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * The next request, or null if the client closed the connection between requests.
+     */
+    public static Request readRequest(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) return null;
+        int id = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        byte[] bytes = readFrame(in);
+        return new Request(id, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    public static void writeResponse(DataOutputStream out, int id, byte status, byte[] body) throws IOException {
+        out.writeInt(id);
+        out.writeByte(status);
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    /**
+     * The next response, or null if the server closed the connection between responses.
+     */
+    public static Response readResponse(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) return null;
+        int id = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        byte status = in.readByte();
+        return new Response(id, status, readFrame(in));
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) throw new IOException("Bad frame length "+length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    public static byte[] encode(MultiSentenceAnnotationWrapper annotation) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // Serialized annotations are mostly repeated class and key names, which deflate squeezes well even on its
+        // fastest setting
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        // A stream given its own Deflater doesn't end() it on close, and until then it holds native memory
+        try (ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(bytes, deflater, 1 << 14))) {
+            out.writeInt(annotation.sentences.size());
+            for (AnnotationWrapper sentence : annotation.sentences) {
+                out.writeObject(sentence.annotation);
+            }
+        }
+        finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    public static MultiSentenceAnnotationWrapper decode(byte[] body) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new InflaterInputStream(new ByteArrayInputStream(body)))) {
+            int count = in.readInt();
+            List<AnnotationWrapper> sentences = new ArrayList<AnnotationWrapper>();
+            for (int i = 0; i < count; i++) {
+                sentences.add(new AnnotationWrapper((Annotation) in.readObject()));
+            }
+            return new MultiSentenceAnnotationWrapper(sentences);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException("Wanted an Annotation, but got "+e.getMessage(), e);
+        }
+    }
+
+    public static byte[] encodeError(Throwable t) {
+        String message = t.getMessage() == null ? t.getClass().getName() : t.getClass().getName()+": "+t.getMessage();
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -4,102 +4,326 @@ import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This handles creating annotation objects via a server-style communication, so I can leave the process
  * running and not constantly have to wait
+ *
+ * Clients keep their connection open and can have many requests in flight on it at once, see AnnotationProtocol.
+ * Each connection gets a thread that reads requests and hands them to a bounded pool of workers, which split them
+ * into sentences. Once a connection has MAX_IN_FLIGHT_PER_CONNECTION requests unanswered, its thread stops reading
+ * until one of them is answered, so a client can't queue up more work than that however fast it sends.
+ *
+ * Sentences from every request and every connection go into one queue, in the order they arrive, and
+ * ANNOTATOR_THREADS threads take them off one at a time and hand them to the backend, so that many sentences are in
+ * the pipeline at once (Curator doesn't like more). A sentence that fails only fails its own request. A response is
+ * written as soon as all of its own sentences are done, rather than in the order the requests came in.
  */
-public class AnnotationServer {
+public class AnnotationServer implements Closeable {
 
-    AnnotationManager manager = new AnnotationManager();
     public final static int COMM_PORT = 2109;  // socket port for client comms
 
-    private ServerSocket serverSocket;
+    public static int WORKER_THREADS = 4;
+    // Once this many requests are waiting for a worker, connections stop reading new ones until the workers catch up
+    public static int WORKER_QUEUE_SIZE = 256;
+    // How many sentences are annotated at once, the same as AnnotationManager.annotate(AMR[]) uses
+    public static int ANNOTATOR_THREADS = 5;
+    public static int MAX_IN_FLIGHT_PER_CONNECTION = 64;
 
-    /** Default constructor. */
-    public AnnotationServer()
-    {
-        initServerSocket();
-        try
-        {
-            while (true)
-            {
-                // listen for and accept a client connection to serverSocket
-                Socket sock = this.serverSocket.accept();
-                InputStream iStream = sock.getInputStream();
-                ObjectInputStream oiStream = new ObjectInputStream(iStream);
-                String input = (String)oiStream.readObject();
-
-                System.out.println("Annotating: "+input);
-                MultiSentenceAnnotationWrapper annotationWrapper = manager.annotateMultiSentence(input);
-                System.out.println("Done");
-
-                OutputStream oStream = sock.getOutputStream();
-                ObjectOutputStream ooStream = new ObjectOutputStream(oStream);
-                ooStream.writeObject(annotationWrapper);  // send serilized payload
-                ooStream.close();
-                sock.close();
-            }
-        }
-        catch (SecurityException se)
-        {
-            System.err.println("Unable to get host address due to security.");
-            System.err.println(se.toString());
-            System.exit(1);
+    /**
+     * Whatever does the actual annotating. AnnotationManager is the real one.
+     */
+    public interface Backend {
+        List<String> splitSentences(String text);
+
+        AnnotationWrapper annotate(String sentence);
+    }
+
+    private final Backend backend;
+    private final int maxInFlightPerConnection;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final ThreadPoolExecutor workers;
+    private final BlockingQueue<PendingSentence> sentenceQueue = new LinkedBlockingQueue<PendingSentence>();
+    private final List<Thread> annotators = new ArrayList<Thread>();
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong sentences = new AtomicLong();
+    private final AtomicLong failedSentences = new AtomicLong();
+
+    public AnnotationServer() throws IOException {
+        this(new AnnotationManager(), COMM_PORT);
+    }
+
+    /**
+     * Binds to port right away, 0 for any free one, but doesn't accept connections until serve() or start().
+     */
+    public AnnotationServer(Backend backend, int port) throws IOException {
+        this.backend = backend;
+        this.maxInFlightPerConnection = MAX_IN_FLIGHT_PER_CONNECTION;
+        this.serverSocket = new ServerSocket(port);
+        connections = Executors.newCachedThreadPool(daemonThreads("annotation-connection"));
+        workers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORKER_QUEUE_SIZE), daemonThreads("annotation-worker"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        for (int i = 0; i < ANNOTATOR_THREADS; i++) {
+            Thread annotator = new Thread(this::annotateLoop, "annotation-annotator-"+i);
+            annotator.setDaemon(true);
+            annotators.add(annotator);
+            annotator.start();
         }
-        catch (IOException ioe)
-        {
-            System.err.println("Unable to read data from an open socket.");
-            System.err.println(ioe.toString());
-            System.exit(1);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections on this thread until the server is closed.
+     */
+    public void serve() {
+        System.out.println("SERVER inbound data port " + getPort() + " is ready and waiting for clients to connect...");
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                openSockets.add(socket);
+                connections.execute(() -> handleConnection(socket));
+            }
+            catch (SocketException e) {
+                // close() shuts the server socket to get us out of accept()
+                if (!closed) System.err.println("Unable to accept a connection: "+e);
+            }
+            catch (IOException e) {
+                System.err.println("Unable to accept a connection: "+e);
+            }
         }
-        catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        } finally
-        {
-            try
-            {
-                this.serverSocket.close();
+    }
+
+    /**
+     * Accepts connections on a background thread, and returns right away.
+     */
+    public AnnotationServer start() {
+        Thread acceptor = new Thread(this::serve, "annotation-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : openSockets) {
+            socket.close();
+        }
+        connections.shutdownNow();
+        workers.shutdownNow();
+        for (Thread annotator : annotators) {
+            annotator.interrupt();
+        }
+        PendingSentence pending;
+        while ((pending = sentenceQueue.poll()) != null) {
+            pending.result.completeExceptionally(new IOException("Annotation server closed"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AnnotationServer on port "+getPort()+": "+requests.get()+" requests, "+sentences.get()
+                +" sentences annotated, "+failedSentences.get()+" failed";
+    }
+
+    private void handleConnection(Socket socket) {
+        Connection connection = null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            connection = new Connection(socket, maxInFlightPerConnection);
+            AnnotationProtocol.readHello(in);
+            AnnotationProtocol.Request request;
+            while (connection.awaitRoom() && (request = AnnotationProtocol.readRequest(in)) != null) {
+                requests.incrementAndGet();
+                connection.started();
+                final AnnotationProtocol.Request r = request;
+                final Connection c = connection;
+                workers.execute(() -> handleRequest(c, r));
             }
-            catch (IOException ioe)
-            {
-                System.err.println("Unable to close an open socket.");
-                System.err.println(ioe.toString());
-                System.exit(1);
+            // The client has said all it's going to say, but may still be waiting on answers
+            connection.awaitResponses();
+        }
+        catch (IOException e) {
+            if (!closed) System.err.println("Dropping connection from "+socket.getRemoteSocketAddress()+": "+e);
+        }
+        catch (InterruptedException | RejectedExecutionException e) {
+            // Shutting down
+        }
+        finally {
+            openSockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
     }
 
-    /** Initialize a server socket for communicating with the client. */
-    private void initServerSocket()
-    {
-        try
-        {
-            this.serverSocket = new ServerSocket(COMM_PORT);
-            assert this.serverSocket.isBound();
-            System.out.println("SERVER inbound data port " +
-                    this.serverSocket.getLocalPort() +
-                    " is ready and waiting for client to connect...");
+    private void handleRequest(Connection connection, AnnotationProtocol.Request request) {
+        List<CompletableFuture<AnnotationWrapper>> sentences = new ArrayList<CompletableFuture<AnnotationWrapper>>();
+        try {
+            for (String sentence : backend.splitSentences(request.text)) {
+                PendingSentence pending = new PendingSentence(sentence);
+                sentenceQueue.add(pending);
+                sentences.add(pending.result);
+            }
         }
-        catch (SocketException se)
-        {
-            System.err.println("Unable to create socket.");
-            System.err.println(se.toString());
-            System.exit(1);
+        catch (Throwable t) {
+            // Every request has to be answered, or it holds one of its connection's slots forever
+            connection.respond(request.id, AnnotationProtocol.ERROR, AnnotationProtocol.encodeError(t));
+            return;
         }
-        catch (IOException ioe)
-        {
-            System.err.println("Unable to read data from an open socket.");
-            System.err.println(ioe.toString());
-            System.exit(1);
+        if (closed) {
+            // close() may have drained the queue before we added to it
+            connection.respond(request.id, AnnotationProtocol.ERROR,
+                    AnnotationProtocol.encodeError(new IOException("Annotation server closed")));
+            return;
+        }
+
+        // Encoding runs on a worker rather than tying up whichever annotator finished the last sentence
+        CompletableFuture.allOf(sentences.toArray(new CompletableFuture[sentences.size()])).whenCompleteAsync((v, t) -> {
+            if (t != null) {
+                Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                connection.respond(request.id, AnnotationProtocol.ERROR, AnnotationProtocol.encodeError(cause));
+                return;
+            }
+            List<AnnotationWrapper> annotations = new ArrayList<AnnotationWrapper>();
+            for (CompletableFuture<AnnotationWrapper> sentence : sentences) {
+                annotations.add(sentence.join());
+            }
+            byte[] body;
+            try {
+                body = AnnotationProtocol.encode(new MultiSentenceAnnotationWrapper(annotations));
+            }
+            catch (Throwable e) {
+                connection.respond(request.id, AnnotationProtocol.ERROR, AnnotationProtocol.encodeError(e));
+                return;
+            }
+            connection.respond(request.id, AnnotationProtocol.OK, body);
+        }, workers);
+    }
+
+    private void annotateLoop() {
+        while (!closed) {
+            PendingSentence pending;
+            try {
+                pending = sentenceQueue.take();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            try {
+                pending.result.complete(backend.annotate(pending.sentence));
+                sentences.incrementAndGet();
+            }
+            catch (Throwable t) {
+                // Catching everything keeps a parser blowing its stack from killing this thread
+                failedSentences.incrementAndGet();
+                pending.result.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static class PendingSentence {
+        final String sentence;
+        final CompletableFuture<AnnotationWrapper> result = new CompletableFuture<AnnotationWrapper>();
+
+        PendingSentence(String sentence) {
+            this.sentence = sentence;
         }
     }
 
+    /**
+     * The writing half of a client connection. Responses finish on different threads, so writes take turns.
+     */
+    private static class Connection {
+        final Socket socket;
+        final DataOutputStream out;
+        final int maxInFlight;
+        int inFlight = 0;
+
+        Connection(Socket socket, int maxInFlight) throws IOException {
+            this.socket = socket;
+            this.maxInFlight = maxInFlight;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        synchronized void started() {
+            inFlight++;
+        }
+
+        /**
+         * Waits until this connection has room for another request. False if the connection closed while we waited.
+         */
+        synchronized boolean awaitRoom() throws InterruptedException {
+            while (inFlight >= maxInFlight && !socket.isClosed()) {
+                wait(1000);
+            }
+            return !socket.isClosed();
+        }
+
+        synchronized void respond(int id, byte status, byte[] body) {
+            try {
+                AnnotationProtocol.writeResponse(out, id, status, body);
+                out.flush();
+            }
+            catch (IOException e) {
+                // The client went away, so nobody is waiting for this. Make sure the reader notices too.
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Do nothing
+                }
+            }
+            inFlight--;
+            notifyAll();
+        }
+
+        synchronized void awaitResponses() throws InterruptedException {
+            while (inFlight > 0 && !socket.isClosed()) {
+                wait(1000);
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicLong count = new AtomicLong();
+        return r -> {
+            Thread t = new Thread(r, name+"-"+count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
     /**
      * Run this class as an application.
      */
     public static void main(String[] args)
     {
-        AnnotationServer server = new AnnotationServer();
+        try
+        {
+            new AnnotationServer().serve();
+        }
+        catch (IOException ioe)
+        {
+            System.err.println("Unable to create socket.");
+            System.err.println(ioe.toString());
+            System.exit(1);
+        }
     }
 }
@@ -264,43 +264,56 @@ public class AnnotationWrapper implements Serializable {
 
     // Cacheing for the dependency paths
 
-    Map<Pair<Integer,Integer>,String> dependencyPathCache = new HashMap<Pair<Integer, Integer>, String>();
-    Map<Pair<Integer,Integer>,Integer> dependencyPathLengthCache = new HashMap<Pair<Integer, Integer>, Integer>();
+    // All the paths in a sentence are built the first time any of them is asked for
+    transient Map<Integer,DependencyPathTable> dependencyPathTables;
 
-    Map<Pair<Integer,Integer>,List<SemanticGraphEdge>> dependencyPathEdgeCache = new HashMap<Pair<Integer, Integer>, List<SemanticGraphEdge>>();
     Map<Integer,List<IndexedWord>> dependencyPathRootCache = new HashMap<Integer, List<IndexedWord>>();
 
     Map<Integer,Integer> dependencyChildrenCache = new HashMap<Integer, Integer>();
 
-    public int getDependencyDistanceBetweenNodes(int start, int end) {
-        Pair<Integer,Integer> pair = new Pair<Integer, Integer>(start,end);
+    private static final DependencyPathTable.PathFormat WRAPPER_PATH = (steps) -> {
+        StringBuilder sb = new StringBuilder();
+        for (DependencyPathTable.Step step : steps) {
+            sb.append(step.up ? "<" : ">");
+            sb.append(step.relation.getShortName());
+        }
+        return sb.toString();
+    };
 
-        if (!dependencyPathLengthCache.containsKey(pair)) {
-            if (!dependencyPathEdgeCache.containsKey(pair)) {
-                IndexedWord startWord = getIndexedWordAtIndex(start);
-                IndexedWord endWord = getIndexedWordAtIndex(end);
+    public DependencyPathTable getDependencyPaths(int sentence) {
+        if (dependencyPathTables == null) dependencyPathTables = new HashMap<Integer, DependencyPathTable>();
+        if (!dependencyPathTables.containsKey(sentence)) {
+            dependencyPathTables.put(sentence, new DependencyPathTable(getBasicDependenciesAnnotation(sentence)));
+        }
+        return dependencyPathTables.get(sentence);
+    }
 
-                Pair<Integer,Integer> startSentenceOffset = getSentenceIndexForToken(start);
-                Pair<Integer,Integer> endSentenceOffset = getSentenceIndexForToken(end);
+    /**
+     * The id of the dependency path between two tokens in their sentence's DependencyPathTable, or NO_PATH if they
+     * aren't in the same sentence or connected.
+     */
+    public int getDependencyPathId(int start, int end) {
+        IndexedWord startWord = getIndexedWordAtIndex(start);
+        IndexedWord endWord = getIndexedWordAtIndex(end);
+        if ((startWord == null) || (endWord == null)) return DependencyPathTable.NO_PATH;
 
-                if (!startSentenceOffset.first.equals(endSentenceOffset.first)) return -1;
-                if ((startWord == null) || (endWord == null)) return -1;
-                dependencyPathEdgeCache.put(new Pair<Integer, Integer>(start, end), getBasicDependenciesAnnotation(startSentenceOffset.first).getShortestUndirectedPathEdges(startWord, endWord));
-            }
-            List<SemanticGraphEdge> edges = dependencyPathEdgeCache.get(new Pair<Integer, Integer>(start, end));
-            int count = 0;
-            if (edges == null) count = -1;
-            else {
-                for (SemanticGraphEdge edge : edges) {
-                    if (!edge.getRelation().getShortName().equals("nn")) {
-                        count++;
-                    }
-                }
+        Pair<Integer,Integer> startSentenceOffset = getSentenceIndexForToken(start);
+        Pair<Integer,Integer> endSentenceOffset = getSentenceIndexForToken(end);
+        if (!startSentenceOffset.first.equals(endSentenceOffset.first)) return DependencyPathTable.NO_PATH;
+
+        return getDependencyPaths(startSentenceOffset.first).pathId(startWord.index(), endWord.index());
+    }
+
+    public int getDependencyDistanceBetweenNodes(int start, int end) {
+        int id = getDependencyPathId(start, end);
+        if (id == DependencyPathTable.NO_PATH) return -1;
+        int count = 0;
+        for (DependencyPathTable.Step step : getDependencyPaths(getSentenceIndexForToken(start).first).getSteps(id)) {
+            if (!step.relation.getShortName().equals("nn")) {
+                count++;
             }
-            dependencyPathLengthCache.put(pair,count);
         }
-
-        return dependencyPathLengthCache.get(pair);
+        return count;
     }
 
     public int numDependencyChildren(int start) {
@@ -352,44 +365,8 @@ public class AnnotationWrapper implements Serializable {
     }
 
     public String getDependencyPathBetweenNodes(int start, int end) {
-        Pair<Integer,Integer> pair = new Pair<Integer, Integer>(start,end);
-        if (!dependencyPathCache.containsKey(pair)) {
-            IndexedWord startWord = getIndexedWordAtIndex(start);
-            IndexedWord endWord = getIndexedWordAtIndex(end);
-
-            if ((startWord == null) || (endWord == null)) return "?";
-
-            Pair<Integer,Integer> startSentenceOffset = getSentenceIndexForToken(start);
-            Pair<Integer,Integer> endSentenceOffset = getSentenceIndexForToken(end);
-
-            if (!startSentenceOffset.first.equals(endSentenceOffset.first)) return "?";
-
-            if (!dependencyPathEdgeCache.containsKey(new Pair<Integer, Integer>(start,end))) {
-
-                dependencyPathEdgeCache.put(new Pair<Integer,Integer>(start,end),getBasicDependenciesAnnotation(startSentenceOffset.first).getShortestUndirectedPathEdges(startWord, endWord));
-            }
-            List<SemanticGraphEdge> edges = dependencyPathEdgeCache.get(new Pair<Integer, Integer>(start, end));
-
-            if (!dependencyPathRootCache.containsKey(start)) {
-                dependencyPathRootCache.put(start, getBasicDependenciesAnnotation(startSentenceOffset.first).getPathToRoot(startWord));
-            }
-            List<IndexedWord> startToRoot = dependencyPathRootCache.get(start);
-
-            if ((edges == null) || (startToRoot == null)) return "?";
-
-            startToRoot.add(startWord);
-
-            StringBuilder sb = new StringBuilder();
-            for (SemanticGraphEdge edge : edges) {
-                if (startToRoot.contains(edge.getDependent())) {
-                    sb.append("<");
-                } else {
-                    sb.append(">");
-                }
-                sb.append(edge.getRelation().getShortName());
-            }
-            dependencyPathCache.put(pair,sb.toString());
-        }
-        return dependencyPathCache.get(pair);
+        int id = getDependencyPathId(start, end);
+        if (id == DependencyPathTable.NO_PATH) return "?";
+        return getDependencyPaths(getSentenceIndexForToken(start).first).getPath(id, WRAPPER_PATH);
     }
 }
@@ -0,0 +1,267 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The shortest undirected dependency path between every pair of words in one sentence's SemanticGraph, each
+ * computed at most once.
+ *
+ * Features ask for the path between the same pairs of tokens over and over (every template, every stage, every
+ * candidate arc), and SemanticGraph.getShortestUndirectedPathEdges() runs a fresh Dijkstra search each time. This
+ * interns identical paths (same relations, directions and POS tags) to a single integer id, and answers each later
+ * query with an array lookup.
+ *
+ * When the graph is a tree (or forest), which basic dependencies always are, every path is computed when the table
+ * is built, by walking up a parent array to the lowest common ancestor. Collapsed dependencies can give a word more
+ * than one governor, and then the shortest path isn't unique, so for those graphs we ask SemanticGraph for a pair
+ * the first time it's queried and remember the answer, to keep giving exactly the paths the feature code has always
+ * seen without searching for pairs nobody asks about. Lookups in those tables take a lock.
+ *
+ * Words are addressed by their IndexedWord.index(), the same as SemanticGraph.getNodeByIndexSafe().
+ */
+public class DependencyPathTable {
+    public static final int NO_PATH = -1;
+    // A pair we haven't asked the graph about yet, in a table that isn't a tree
+    static final int NOT_COMPUTED = -2;
+
+    /**
+     * One edge of a path: which way we went over it, its relation, and the POS tag of the word it got us to.
+     */
+    public static class Step {
+        public final boolean up;
+        public final GrammaticalRelation relation;
+        public final String tag;
+
+        Step(boolean up, GrammaticalRelation relation, String tag) {
+            this.up = up;
+            this.relation = relation;
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Turns a path into the String a particular feature wants. Each format is applied once per distinct path.
+     */
+    public interface PathFormat {
+        String format(List<Step> steps);
+    }
+
+    final SemanticGraph graph;
+    final IndexedWord[] words;
+    final boolean[] present;
+    final int[][] pathIds;
+    final List<List<Step>> paths = new ArrayList<>();
+    final Map<String,Integer> ids = new HashMap<>();
+    final boolean tree;
+
+    final Map<PathFormat,String[]> formatted = new ConcurrentHashMap<>();
+
+    public DependencyPathTable(SemanticGraph graph) {
+        this.graph = graph;
+        int size = 1;
+        for (IndexedWord word : graph.vertexSet()) {
+            size = Math.max(size, word.index() + 1);
+        }
+
+        words = new IndexedWord[size];
+        present = new boolean[size];
+        for (IndexedWord word : graph.vertexSet()) {
+            words[word.index()] = word;
+            present[word.index()] = true;
+        }
+
+        // Parent array, if every word has at most one governor
+
+        int[] parent = new int[size];
+        SemanticGraphEdge[] parentEdge = new SemanticGraphEdge[size];
+        boolean isTree = true;
+        for (int i = 0; i < size && isTree; i++) {
+            if (!present[i]) continue;
+            List<SemanticGraphEdge> incoming = graph.incomingEdgeList(words[i]);
+            if (incoming.size() > 1) isTree = false;
+            else if (incoming.size() == 1) {
+                parentEdge[i] = incoming.get(0);
+                parent[i] = incoming.get(0).getGovernor().index();
+            }
+        }
+
+        int[] depth = new int[size];
+        int[] root = new int[size];
+        for (int i = 0; i < size && isTree; i++) {
+            if (!present[i]) continue;
+            int cursor = i;
+            while (parentEdge[cursor] != null && depth[i] <= size) {
+                cursor = parent[cursor];
+                depth[i]++;
+            }
+            // Walked more steps than there are words, so we're going around a cycle
+            if (depth[i] > size) isTree = false;
+            root[i] = cursor;
+        }
+        tree = isTree;
+
+        pathIds = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            if (!tree) {
+                Arrays.fill(pathIds[i], NOT_COMPUTED);
+                continue;
+            }
+            Arrays.fill(pathIds[i], NO_PATH);
+            if (!present[i]) continue;
+            for (int j = 0; j < size; j++) {
+                if (!present[j] || root[i] != root[j]) continue;
+                pathIds[i][j] = intern(treePath(words, parent, parentEdge, depth, i, j));
+            }
+        }
+    }
+
+    /**
+     * Whether the word with this index is in the graph at all.
+     */
+    public boolean hasWord(int index) {
+        return index >= 0 && index < present.length && present[index];
+    }
+
+    /**
+     * The id of the path from one word to another, equal for any two pairs whose paths have the same relations,
+     * directions and POS tags, or NO_PATH if either word is missing or they aren't connected.
+     */
+    public int pathId(int from, int to) {
+        if (!hasWord(from) || !hasWord(to)) return NO_PATH;
+        if (tree) return pathIds[from][to];
+        synchronized (this) {
+            if (pathIds[from][to] == NOT_COMPUTED) {
+                List<Step> steps = graphPath(graph, words[from], words[to]);
+                pathIds[from][to] = steps == null ? NO_PATH : intern(steps);
+            }
+            return pathIds[from][to];
+        }
+    }
+
+    /**
+     * The number of distinct paths, which bounds the ids pathId() has handed out so far.
+     */
+    public int numPaths() {
+        if (tree) return paths.size();
+        synchronized (this) {
+            return paths.size();
+        }
+    }
+
+    /**
+     * The steps from one word to another, or null if there's no path.
+     */
+    public List<Step> steps(int from, int to) {
+        int id = pathId(from, to);
+        return id == NO_PATH ? null : getSteps(id);
+    }
+
+    /**
+     * The path from one word to another written out by `format`, or null if there's no path.
+     */
+    public String path(int from, int to, PathFormat format) {
+        int id = pathId(from, to);
+        return id == NO_PATH ? null : getPath(id, format);
+    }
+
+    public List<Step> getSteps(int id) {
+        if (tree) return paths.get(id);
+        synchronized (this) {
+            return paths.get(id);
+        }
+    }
+
+    /**
+     * The path with this id written out by `format`.
+     */
+    public String getPath(int id, PathFormat format) {
+        String[] cache = formatted.get(format);
+        if (cache == null || id >= cache.length) {
+            // Tables that aren't trees find new paths as they're asked for them, so the cache grows to match
+            int size = numPaths();
+            cache = formatted.compute(format, (f, old) ->
+                    old == null ? new String[size] : old.length >= size ? old : Arrays.copyOf(old, size));
+        }
+        // Two threads formatting the same path at once just both write the same String, and a write to a cache
+        // that's just been outgrown only means formatting that path again
+        if (cache[id] == null) cache[id] = format.format(getSteps(id));
+        return cache[id];
+    }
+
+    public boolean isTree() {
+        return tree;
+    }
+
+    private static List<Step> treePath(IndexedWord[] words, int[] parent, SemanticGraphEdge[] parentEdge,
+                                       int[] depth, int from, int to) {
+        // Lowest common ancestor, by bringing both ends to the same depth and then walking up together
+        int a = from;
+        int b = to;
+        while (depth[a] > depth[b]) a = parent[a];
+        while (depth[b] > depth[a]) b = parent[b];
+        while (a != b) {
+            a = parent[a];
+            b = parent[b];
+        }
+        int ancestor = a;
+
+        List<Step> steps = new ArrayList<>();
+        for (int cursor = from; cursor != ancestor; cursor = parent[cursor]) {
+            steps.add(new Step(true, parentEdge[cursor].getRelation(), tag(words[parent[cursor]])));
+        }
+        int upSteps = steps.size();
+        for (int cursor = to; cursor != ancestor; cursor = parent[cursor]) {
+            steps.add(upSteps, new Step(false, parentEdge[cursor].getRelation(), tag(words[cursor])));
+        }
+        return steps;
+    }
+
+    private static List<Step> graphPath(SemanticGraph graph, IndexedWord from, IndexedWord to) {
+        List<SemanticGraphEdge> edges = graph.getShortestUndirectedPathEdges(from, to);
+        if (edges == null) return null;
+        List<Step> steps = new ArrayList<>();
+        IndexedWord currentWord = from;
+        for (SemanticGraphEdge edge : edges) {
+            boolean up;
+            if (edge.getDependent().equals(currentWord)) {
+                up = true;
+                currentWord = edge.getGovernor();
+            }
+            else {
+                if (!edge.getGovernor().equals(currentWord)) {
+                    throw new IllegalStateException("Edges not in order");
+                }
+                up = false;
+                currentWord = edge.getDependent();
+            }
+            steps.add(new Step(up, edge.getRelation(), tag(currentWord)));
+        }
+        return steps;
+    }
+
+    private static String tag(IndexedWord word) {
+        return word.get(CoreAnnotations.PartOfSpeechAnnotation.class);
+    }
+
+    private int intern(List<Step> steps) {
+        StringBuilder sb = new StringBuilder();
+        for (Step step : steps) {
+            sb.append(step.up ? '^' : 'v').append(step.relation).append('/').append(step.tag).append(' ');
+        }
+        String key = sb.toString();
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = paths.size();
+            ids.put(key, id);
+            paths.add(Collections.unmodifiableList(steps));
+        }
+        return id;
+    }
+}
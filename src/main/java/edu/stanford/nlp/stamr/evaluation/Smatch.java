@@ -7,20 +7,423 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.*;
+import java.util.stream.IntStream;
 
 /**
- * Handles calculating Smatch scores over individual trees and sets of trees together
+ * Handles calculating Smatch scores over individual trees and sets of trees together.
+ *
+ * This is an in-process port of smatch_py/smatch.py: triples are compared as interned ints, variable mappings are
+ * found by hill-climbing from one smart start and RESTARTS random starts, and sentence pairs are scored in parallel.
+ * The Python implementation can still be run with smatchPython(), to check against.
  */
 public class Smatch {
+    /**
+     * Number of random restarts for the hill-climber, on top of the initial word-matching start. Same as smatch.py's
+     * -r flag, and the same default.
+     */
+    public static int RESTARTS = 4;
+
+    /**
+     * Seed for the random restarts. Each sentence pair derives its own seed from this, so scores don't depend on
+     * how pairs get scheduled across threads.
+     */
+    public static long SEED = 42;
+
+    /**
+     * Score sentence pairs on multiple threads.
+     */
+    public static boolean PARALLEL = true;
+
     public static double smatch(AMR gold, AMR test) throws IOException, InterruptedException {
         return smatch(new AMR[]{gold}, new AMR[]{test});
     }
 
+    /**
+     * Document level Smatch F1 between two parallel banks of AMRs.
+     */
+    public static double smatch(AMR[] goldSet, AMR[] testSet) throws IOException, InterruptedException {
+        int[] counts = matchCounts(goldSet, testSet);
+        return f1(counts[0], counts[1], counts[2]);
+    }
+
+    /**
+     * Gets {matching triples, triples in test, triples in gold} summed over all sentence pairs, which precision and
+     * recall can be computed from.
+     */
+    public static int[] matchCounts(AMR[] goldSet, AMR[] testSet) {
+        int numPairs = Math.min(goldSet.length, testSet.length);
+        if (goldSet.length != testSet.length) {
+            System.err.println("Smatch got "+goldSet.length+" gold AMRs and "+testSet.length+" test AMRs, ignoring the remainder");
+        }
+
+        // Writing out for Smatch can mutate AMRs, so we do that up front on this thread
+        SmatchTriples[] gold = new SmatchTriples[numPairs];
+        SmatchTriples[] test = new SmatchTriples[numPairs];
+        for (int i = 0; i < numPairs; i++) {
+            gold[i] = SmatchTriples.fromAMR(goldSet[i]);
+            test[i] = SmatchTriples.fromAMR(testSet[i]);
+        }
+
+        return matchCounts(gold, test);
+    }
+
+    public static int[] matchCounts(SmatchTriples[] gold, SmatchTriples[] test) {
+        int[] matches = new int[gold.length];
+        IntStream pairs = IntStream.range(0, gold.length);
+        if (PARALLEL) pairs = pairs.parallel();
+        pairs.forEach(i -> matches[i] = bestMatchCount(test[i], gold[i], new Random(SEED * 31 + i)));
+
+        int[] counts = new int[3];
+        for (int i = 0; i < gold.length; i++) {
+            counts[0] += matches[i];
+            counts[1] += test[i].size();
+            counts[2] += gold[i].size();
+        }
+        return counts;
+    }
+
+    public static double f1(int matchNum, int testNum, int goldNum) {
+        if (testNum == 0 || goldNum == 0) return 0.0;
+        double precision = (double)matchNum / testNum;
+        double recall = (double)matchNum / goldNum;
+        if (precision + recall == 0) return 0.0;
+        return 2 * precision * recall / (precision + recall);
+    }
+
+    /**
+     * The largest number of triples we can find to match between the two AMRs under a one-to-one mapping of
+     * variables. Like smatch.py, this maps the AMR with fewer variables onto the one with more.
+     */
+    public static int bestMatchCount(SmatchTriples test, SmatchTriples gold, Random random) {
+        if (test.concepts.length < gold.concepts.length) {
+            return new Matcher(test, gold).bestMatchCount(random);
+        }
+        else {
+            return new Matcher(gold, test).bestMatchCount(random);
+        }
+    }
+
+    /**
+     * Port of smatch.py's candidate pool and hill-climbing search, over int encoded triples. Variable pairs (i, j),
+     * mapping variable i of `a` to variable j of `b`, are numbered i*numB + j.
+     */
+    static class Matcher {
+        final SmatchTriples a;
+        final SmatchTriples b;
+        final int numA;
+        final int numB;
+
+        // Triples matched by a single variable pair
+        final int[] pairWeight;
+        // Triples matched by two variable pairs together, as adjacency lists in flat arrays
+        int[] neighborStart;
+        int[] neighborPair;
+        int[] neighborWeight;
+        // Variables of b each variable of a could usefully map to, ascending
+        final int[][] candidates;
+
+        Matcher(SmatchTriples a, SmatchTriples b) {
+            this.a = a;
+            this.b = b;
+            numA = a.concepts.length;
+            numB = b.concepts.length;
+            pairWeight = new int[numA * numB];
+
+            // Intern everything we compare into ints. Concepts and attributes compare case insensitively, like
+            // smatch.py does, and so do relation names.
+            Map<String,Integer> vocab = new HashMap<>();
+            int[] aConcepts = intern(a.concepts, vocab);
+            int[] bConcepts = intern(b.concepts, vocab);
+            int[] aAttrRels = intern(a.attributeRelations, vocab);
+            int[] bAttrRels = intern(b.attributeRelations, vocab);
+            int[] aAttrValues = intern(a.attributeValues, vocab);
+            int[] bAttrValues = intern(b.attributeValues, vocab);
+            int[] aRels = intern(a.relations, vocab);
+            int[] bRels = intern(b.relations, vocab);
+
+            List<Set<Integer>> candidateSets = new ArrayList<>();
+            for (int i = 0; i < numA; i++) candidateSets.add(new TreeSet<>());
+
+            for (int i = 0; i < numA; i++) {
+                for (int j = 0; j < numB; j++) {
+                    if (aConcepts[i] == bConcepts[j]) {
+                        candidateSets.get(i).add(j);
+                        pairWeight[i * numB + j]++;
+                    }
+                }
+            }
+
+            for (int x = 0; x < aAttrRels.length; x++) {
+                for (int y = 0; y < bAttrRels.length; y++) {
+                    if (aAttrRels[x] == bAttrRels[y] && aAttrValues[x] == bAttrValues[y]) {
+                        int i = a.attributeVariables[x];
+                        int j = b.attributeVariables[y];
+                        candidateSets.get(i).add(j);
+                        pairWeight[i * numB + j]++;
+                    }
+                }
+            }
+
+            // Relation matches depend on two variable pairs at once. Collect them as (pair, pair) keys, then count.
+            List<long[]> pairPairs = new ArrayList<>();
+            for (int x = 0; x < aRels.length; x++) {
+                for (int y = 0; y < bRels.length; y++) {
+                    if (aRels[x] != bRels[y]) continue;
+                    int headPair = a.relationHeads[x] * numB + b.relationHeads[y];
+                    int tailPair = a.relationTails[x] * numB + b.relationTails[y];
+                    candidateSets.get(a.relationHeads[x]).add(b.relationHeads[y]);
+                    candidateSets.get(a.relationTails[x]).add(b.relationTails[y]);
+                    if (headPair == tailPair) {
+                        pairWeight[headPair]++;
+                    }
+                    else {
+                        pairPairs.add(new long[]{headPair, tailPair});
+                        pairPairs.add(new long[]{tailPair, headPair});
+                    }
+                }
+            }
+            buildNeighbors(pairPairs);
+
+            candidates = new int[numA][];
+            for (int i = 0; i < numA; i++) {
+                candidates[i] = new int[candidateSets.get(i).size()];
+                int k = 0;
+                for (int j : candidateSets.get(i)) candidates[i][k++] = j;
+            }
+        }
+
+        private static int[] intern(String[] strings, Map<String,Integer> vocab) {
+            int[] ids = new int[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                String key = strings[i].toLowerCase(Locale.ROOT);
+                Integer id = vocab.get(key);
+                if (id == null) {
+                    id = vocab.size();
+                    vocab.put(key, id);
+                }
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        private void buildNeighbors(List<long[]> pairPairs) {
+            pairPairs.sort((p, q) -> p[0] != q[0] ? Long.compare(p[0], q[0]) : Long.compare(p[1], q[1]));
+
+            int numPairs = numA * numB;
+            neighborStart = new int[numPairs + 1];
+            int[] pairs = new int[pairPairs.size()];
+            int[] weights = new int[pairPairs.size()];
+            int n = 0;
+            for (int k = 0; k < pairPairs.size(); k++) {
+                long[] pp = pairPairs.get(k);
+                if (n > 0 && k > 0 && pairPairs.get(k - 1)[0] == pp[0] && pairs[n - 1] == (int)pp[1]) {
+                    weights[n - 1]++;
+                }
+                else {
+                    pairs[n] = (int)pp[1];
+                    weights[n] = 1;
+                    n++;
+                    neighborStart[(int)pp[0] + 1]++;
+                }
+            }
+            for (int p = 0; p < numPairs; p++) {
+                neighborStart[p + 1] += neighborStart[p];
+            }
+            neighborPair = Arrays.copyOf(pairs, n);
+            neighborWeight = Arrays.copyOf(weights, n);
+        }
+
+        int bestMatchCount(Random random) {
+            int best = 0;
+            int[] match = new int[numA];
+            boolean[] used = new boolean[numB];
+            for (int iter = 0; iter <= RESTARTS; iter++) {
+                if (iter == 0) {
+                    smartStart(match, used, random);
+                }
+                else {
+                    randomStart(match, used, random);
+                }
+                int score = hillClimb(match, used, score(match));
+                if (score > best) best = score;
+            }
+            return best;
+        }
+
+        /**
+         * smatch.py's init_match(): map each variable to the first free candidate with the same concept, and pick
+         * randomly among free candidates for everything else.
+         */
+        private void smartStart(int[] match, boolean[] used, Random random) {
+            Arrays.fill(used, false);
+            List<Integer> noWordMatch = new ArrayList<>();
+            for (int i = 0; i < numA; i++) {
+                match[i] = -1;
+                if (candidates[i].length == 0) continue;
+                for (int j : candidates[i]) {
+                    if (a.concepts[i].equals(b.concepts[j]) && !used[j]) {
+                        match[i] = j;
+                        used[j] = true;
+                        break;
+                    }
+                }
+                if (match[i] == -1) noWordMatch.add(i);
+            }
+            for (int i : noWordMatch) {
+                match[i] = pickFree(candidates[i], used, random);
+            }
+        }
+
+        /**
+         * smatch.py's get_random_sol().
+         */
+        private void randomStart(int[] match, boolean[] used, Random random) {
+            Arrays.fill(used, false);
+            for (int i = 0; i < numA; i++) {
+                match[i] = candidates[i].length == 0 ? -1 : pickFree(candidates[i], used, random);
+            }
+        }
+
+        private static int pickFree(int[] candidates, boolean[] used, Random random) {
+            int[] remaining = candidates.clone();
+            int n = remaining.length;
+            while (n > 1) {
+                int r = random.nextInt(n);
+                if (used[remaining[r]]) {
+                    remaining[r] = remaining[--n];
+                }
+                else {
+                    used[remaining[r]] = true;
+                    return remaining[r];
+                }
+            }
+            if (!used[remaining[0]]) {
+                used[remaining[0]] = true;
+                return remaining[0];
+            }
+            return -1;
+        }
+
+        int score(int[] match) {
+            int score = 0;
+            for (int i = 0; i < numA; i++) {
+                if (match[i] == -1) continue;
+                int p = i * numB + match[i];
+                score += pairWeight[p];
+                for (int k = neighborStart[p]; k < neighborStart[p + 1]; k++) {
+                    int q = neighborPair[k];
+                    int other = q / numB;
+                    // Each relation gets counted from both of its ends, so only count it from the lower one
+                    if (other > i && match[other] == q % numB) score += neighborWeight[k];
+                }
+            }
+            return score;
+        }
+
+        /**
+         * How many triples variable i contributes under the current mapping, counting relations to every other
+         * variable except `exclude`.
+         */
+        private int contribution(int[] match, int i, int exclude) {
+            if (match[i] == -1) return 0;
+            int p = i * numB + match[i];
+            int total = pairWeight[p];
+            for (int k = neighborStart[p]; k < neighborStart[p + 1]; k++) {
+                int q = neighborPair[k];
+                int other = q / numB;
+                if (other != exclude && match[other] == q % numB) total += neighborWeight[k];
+            }
+            return total;
+        }
+
+        private int relationBetween(int[] match, int i, int j) {
+            if (match[i] == -1 || match[j] == -1) return 0;
+            int p = i * numB + match[i];
+            int target = j * numB + match[j];
+            for (int k = neighborStart[p]; k < neighborStart[p + 1]; k++) {
+                if (neighborPair[k] == target) return neighborWeight[k];
+            }
+            return 0;
+        }
+
+        /**
+         * smatch.py's get_best_gain() loop: repeatedly take the single best move (remap a variable to an unused
+         * candidate) or swap (exchange two variables' mappings) until nothing improves the score.
+         */
+        private int hillClimb(int[] match, boolean[] used, int score) {
+            while (true) {
+                int bestGain = 0;
+                int bestI = -1;
+                int bestTarget = -1;
+                boolean bestIsSwap = false;
+
+                for (int i = 0; i < numA; i++) {
+                    int m = match[i];
+                    int before = contribution(match, i, -1);
+                    for (int nm : candidates[i]) {
+                        if (used[nm]) continue;
+                        match[i] = nm;
+                        int gain = contribution(match, i, -1) - before;
+                        match[i] = m;
+                        if (gain > bestGain) {
+                            bestGain = gain;
+                            bestI = i;
+                            bestTarget = nm;
+                            bestIsSwap = false;
+                        }
+                    }
+                }
+
+                for (int i = 0; i < numA; i++) {
+                    for (int j = 0; j < numA; j++) {
+                        if (i == j) continue;
+                        int m = match[i];
+                        int m2 = match[j];
+                        int before = contribution(match, i, j) + contribution(match, j, i) + relationBetween(match, i, j);
+                        match[i] = m2;
+                        match[j] = m;
+                        int after = contribution(match, i, j) + contribution(match, j, i) + relationBetween(match, i, j);
+                        match[i] = m;
+                        match[j] = m2;
+                        if (after - before > bestGain) {
+                            bestGain = after - before;
+                            bestI = i;
+                            bestTarget = j;
+                            bestIsSwap = true;
+                        }
+                    }
+                }
+
+                if (bestGain <= 0) return score;
+
+                if (bestIsSwap) {
+                    int temp = match[bestI];
+                    match[bestI] = match[bestTarget];
+                    match[bestTarget] = temp;
+                }
+                else {
+                    if (match[bestI] != -1) used[match[bestI]] = false;
+                    match[bestI] = bestTarget;
+                    used[bestTarget] = true;
+                }
+                score += bestGain;
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    // The Python implementation, for checking against
+
     static final String DIRECTORY = "tmp/smatch";
     static final String GOLD_PATH = DIRECTORY+"/gold.txt";
     static final String TEST_PATH = DIRECTORY+"/test.txt";
 
-    public static double smatch(AMR[] goldSet, AMR[] testSet) throws IOException, InterruptedException {
+    /**
+     * Runs the bundled smatch.py over the two banks, which needs Python 2. Note that smatch.py only reports two
+     * decimal places.
+     */
+    public static double smatchPython(AMR[] goldSet, AMR[] testSet) throws IOException, InterruptedException {
         prepFiles();
         AMRSlurp.burp(GOLD_PATH, AMRSlurp.Format.LDC, goldSet, AMR.AlignmentPrinting.NONE, true);
         AMRSlurp.burp(TEST_PATH, AMRSlurp.Format.LDC, testSet, AMR.AlignmentPrinting.NONE, true);
@@ -0,0 +1,252 @@
+package edu.stanford.nlp.stamr.evaluation;
+
+import edu.stanford.nlp.stamr.AMR;
+
+import java.util.*;
+
+/**
+ * The triples Smatch scores an AMR by: one instance triple per variable, one-variable attribute triples (including
+ * the TOP attribute on the root), and two-variable relation triples. Variables are numbered in order of first
+ * appearance.
+ *
+ * These are read off the same string smatch.py would see, with a port of the parser in smatch_py/amr.py, quirks
+ * and all (later duplicate relations between the same pair of variables overwrite earlier ones, quoted values with
+ * spaces keep only their first word, etc), so that we score exactly what the Python implementation scores.
+ */
+public class SmatchTriples {
+    public final String[] variables;
+    public final String[] concepts;
+
+    public final String[] attributeRelations;
+    public final int[] attributeVariables;
+    public final String[] attributeValues;
+
+    public final String[] relations;
+    public final int[] relationHeads;
+    public final int[] relationTails;
+
+    private SmatchTriples(List<String> variables,
+                          List<String> concepts,
+                          List<Map<String,String>> links,
+                          List<Map<String,String>> constants) {
+        this.variables = variables.toArray(new String[variables.size()]);
+        this.concepts = concepts.toArray(new String[concepts.size()]);
+
+        Map<String,Integer> variableIndex = new HashMap<>();
+        for (int i = 0; i < this.variables.length; i++) {
+            variableIndex.put(this.variables[i], i);
+        }
+
+        int numAttributes = 0;
+        int numRelations = 0;
+        for (int i = 0; i < this.variables.length; i++) {
+            numAttributes += constants.get(i).size();
+            numRelations += links.get(i).size();
+        }
+
+        attributeRelations = new String[numAttributes];
+        attributeVariables = new int[numAttributes];
+        attributeValues = new String[numAttributes];
+        relations = new String[numRelations];
+        relationHeads = new int[numRelations];
+        relationTails = new int[numRelations];
+
+        int a = 0;
+        int r = 0;
+        for (int i = 0; i < this.variables.length; i++) {
+            for (Map.Entry<String,String> link : links.get(i).entrySet()) {
+                relations[r] = link.getValue();
+                relationHeads[r] = i;
+                relationTails[r] = variableIndex.get(link.getKey());
+                r++;
+            }
+            for (Map.Entry<String,String> constant : constants.get(i).entrySet()) {
+                attributeRelations[a] = constant.getKey();
+                attributeVariables[a] = i;
+                attributeValues[a] = constant.getValue();
+                a++;
+            }
+        }
+    }
+
+    /**
+     * Total number of triples, which is what precision and recall are normalized by.
+     */
+    public int size() {
+        return concepts.length + attributeRelations.length + relations.length;
+    }
+
+    /**
+     * Gets the triples for an AMR, via the same string we used to hand to smatch.py. Like writing the AMR out for
+     * smatch.py did, this may rename some refs on the AMR to get rid of self loops.
+     */
+    public static SmatchTriples fromAMR(AMR amr) {
+        // smatch.py strips every line of the file and glues them back together without any separator
+        StringBuilder sb = new StringBuilder();
+        for (String line : amr.toStringForSmatch().split("\n")) {
+            String stripped = line.trim();
+            if (stripped.length() == 0 || stripped.startsWith("#")) continue;
+            sb.append(stripped);
+        }
+        return parse(sb.toString());
+    }
+
+    /**
+     * Port of AMR.parse_AMR_line() from smatch_py/amr.py. Throws an IllegalArgumentException wherever the Python
+     * would have printed an error and given up.
+     */
+    public static SmatchTriples parse(String line) {
+        // Significant symbol just encountered: 1 for (, 2 for :, 3 for /, 4 for )
+        int state = -1;
+        Deque<String> stack = new ArrayDeque<>();
+        StringBuilder charSeq = new StringBuilder();
+        Map<String,String> varDict = new HashMap<>();
+        List<String> varList = new ArrayList<>();
+        // Relations to other variables, and relations to things that weren't variables yet when we saw them
+        Map<String,List<String[]>> varAttr1 = new HashMap<>();
+        Map<String,List<String[]>> varAttr2 = new HashMap<>();
+        String curAttrName = "";
+        String variableName = null;
+        boolean inQuote = false;
+
+        String s = line.trim();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ' ') {
+                if (state == 2) charSeq.append(c);
+                continue;
+            }
+            if (c == '"') {
+                inQuote = !inQuote;
+            }
+            if (c == '(') {
+                if (inQuote) continue;
+                if (state == 2) {
+                    if (!curAttrName.equals("")) {
+                        throw new IllegalArgumentException("Format error when processing "+s.substring(0, i+1));
+                    }
+                    curAttrName = charSeq.toString().trim();
+                    charSeq.setLength(0);
+                }
+                state = 1;
+            }
+            else if (c == ':') {
+                if (inQuote) continue;
+                if (state == 3) {
+                    varDict.put(stack.peek(), charSeq.toString());
+                    charSeq.setLength(0);
+                }
+                else if (state == 2) {
+                    String[] parts = splitAttribute(charSeq.toString(), s, i);
+                    charSeq.setLength(0);
+                    if (stack.isEmpty()) {
+                        throw new IllegalArgumentException("Error in processing "+s.substring(0, i)+" "+parts[0]+" "+parts[1]);
+                    }
+                    addAttribute(varDict.containsKey(parts[1]) ? varAttr1 : varAttr2, stack.peek(), parts[0], parts[1]);
+                }
+                state = 2;
+            }
+            else if (c == '/') {
+                if (inQuote) continue;
+                if (state != 1) {
+                    throw new IllegalArgumentException("Error in parsing AMR "+s.substring(0, i+1));
+                }
+                variableName = charSeq.toString();
+                charSeq.setLength(0);
+                if (varDict.containsKey(variableName)) {
+                    throw new IllegalArgumentException("Duplicate variable "+variableName+" in parsing AMR");
+                }
+                String parent = stack.peek();
+                stack.push(variableName);
+                varList.add(variableName);
+                if (!curAttrName.equals("")) {
+                    if (!curAttrName.endsWith("-of")) {
+                        addAttribute(varAttr1, parent, curAttrName, variableName);
+                    }
+                    else {
+                        addAttribute(varAttr1, variableName, curAttrName.substring(0, curAttrName.length()-3), parent);
+                    }
+                    curAttrName = "";
+                }
+                state = 3;
+            }
+            else if (c == ')') {
+                if (inQuote) continue;
+                if (stack.isEmpty()) {
+                    throw new IllegalArgumentException("Unmatched parenthesis at position "+i+" in processing "+s.substring(0, i+1));
+                }
+                if (state == 2) {
+                    String[] parts = splitAttribute(charSeq.toString(), s, i);
+                    charSeq.setLength(0);
+                    if (curAttrName.endsWith("-of")) {
+                        String top = stack.pop();
+                        String parent = stack.peek();
+                        stack.push(top);
+                        addAttribute(varAttr1, variableName, curAttrName.substring(0, curAttrName.length()-3), parent);
+                    }
+                    else {
+                        addAttribute(varDict.containsKey(parts[1]) ? varAttr1 : varAttr2, stack.peek(), parts[0], parts[1]);
+                    }
+                }
+                else if (state == 3) {
+                    varDict.put(stack.peek(), charSeq.toString());
+                    charSeq.setLength(0);
+                }
+                stack.pop();
+                curAttrName = "";
+                state = 4;
+            }
+            else {
+                charSeq.append(c);
+            }
+        }
+
+        // Build the link and constant dictionaries, keeping the original variable names
+
+        List<String> concepts = new ArrayList<>();
+        List<Map<String,String>> links = new ArrayList<>();
+        List<Map<String,String>> constants = new ArrayList<>();
+        for (String v : varList) {
+            if (!varDict.containsKey(v)) {
+                throw new IllegalArgumentException("Error: variable value not found "+v);
+            }
+            concepts.add(varDict.get(v));
+            Map<String,String> linkDict = new LinkedHashMap<>();
+            Map<String,String> constDict = new LinkedHashMap<>();
+            for (String[] attr : varAttr1.getOrDefault(v, Collections.<String[]>emptyList())) {
+                linkDict.put(attr[1], attr[0]);
+            }
+            for (String[] attr : varAttr2.getOrDefault(v, Collections.<String[]>emptyList())) {
+                String value = attr[1];
+                if (value.charAt(0) == '"' && value.charAt(value.length()-1) == '"') {
+                    constDict.put(attr[0], value.length() > 1 ? value.substring(1, value.length()-1) : "");
+                }
+                else if (varDict.containsKey(value)) {
+                    linkDict.put(value, attr[0]);
+                }
+                else {
+                    constDict.put(attr[0], value);
+                }
+            }
+            links.add(linkDict);
+            constants.add(constDict);
+        }
+        if (!varList.isEmpty()) {
+            constants.get(0).put("TOP", concepts.get(0));
+        }
+
+        return new SmatchTriples(varList, concepts, links, constants);
+    }
+
+    private static String[] splitAttribute(String attr, String line, int i) {
+        String[] parts = attr.trim().split("\\s+");
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Error in processing "+line.substring(0, i+1)+" "+attr);
+        }
+        return parts;
+    }
+
+    private static void addAttribute(Map<String,List<String[]>> attrs, String variable, String name, String value) {
+        attrs.computeIfAbsent(variable, k -> new ArrayList<>()).add(new String[]{name, value});
+    }
+}
@@ -0,0 +1,314 @@
+package edu.stanford.nlp.stamr.utils;
+
+import java.util.Arrays;
+
+/**
+ * Chu-Liu-Edmonds maximum spanning arborescence over primitive arrays, rooted at node 0.
+ *
+ * This solves the same problem as DGraph, but keeps all of its working state in flat arrays that are allocated
+ * once and reused across calls, so decoding thousands of sentences doesn't churn out a fresh 2n x 2n matrix and
+ * a boxed priority queue per node for every graph. Contracted cycles reuse the matrix slot of one of their members,
+ * so the score matrix never has to be bigger than n x n.
+ *
+ * Not thread safe, give each thread its own solver.
+ */
+public class ArborescenceSolver {
+    int capacity = 0;
+
+    // Working scores between current supernodes (by slot), and the original arc each cell stands for
+    double[] scores;
+    int[] arcSource;
+    int[] arcTarget;
+
+    // Per slot state
+    boolean[] active;
+    int[] bestParent;
+    int[] slotId;
+    int[] color;
+    int[] path;
+    double[] newIn;
+    int[] newInSource;
+    int[] newInTarget;
+    double[] newOut;
+    int[] newOutSource;
+    int[] newOutTarget;
+
+    // Per supernode id state. Ids [0, n) are the original nodes, id n+k is the k-th contracted cycle.
+    int[] containedIn;
+    int[] entry;
+
+    // Contraction history: the members of cycle k are members[memberStart[k]] to members[memberStart[k+1]-1],
+    // along with the original arc each member was using inside the cycle
+    int[] memberStart;
+    int[] members;
+    int[] memberArcSource;
+    int[] memberArcTarget;
+
+    public ArborescenceSolver() {
+        this(16);
+    }
+
+    public ArborescenceSolver(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Makes sure graphs of up to numNodes nodes (including the root) can be solved without allocating.
+     */
+    public void ensureCapacity(int numNodes) {
+        if (numNodes <= capacity) return;
+        int n = Math.max(numNodes, capacity * 2);
+        capacity = n;
+
+        scores = new double[n * n];
+        arcSource = new int[n * n];
+        arcTarget = new int[n * n];
+
+        active = new boolean[n];
+        bestParent = new int[n];
+        slotId = new int[n];
+        color = new int[n];
+        path = new int[n];
+        newIn = new double[n];
+        newInSource = new int[n];
+        newInTarget = new int[n];
+        newOut = new double[n];
+        newOutSource = new int[n];
+        newOutTarget = new int[n];
+
+        containedIn = new int[2 * n];
+        entry = new int[2 * n];
+
+        memberStart = new int[n + 1];
+        members = new int[2 * n];
+        memberArcSource = new int[2 * n];
+        memberArcTarget = new int[2 * n];
+    }
+
+    /**
+     * Solves for weights given as weights[parent][child]. Arcs into node 0 and self loops are ignored, and
+     * Double.NEGATIVE_INFINITY means no arc. Fills parents[child] for every child, with parents[0] = -1, and
+     * returns the total weight of the tree.
+     */
+    public double solve(double[][] weights, int[] parents) {
+        int n = weights.length;
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(weights[i], 0, scores, i * n, n);
+        }
+        run(n, parents);
+
+        double total = 0.0;
+        for (int child = 1; child < n; child++) {
+            total += weights[parents[child]][child];
+        }
+        return total;
+    }
+
+    /**
+     * Same as solve(double[][], int[]), but with weights laid out flat as weights[parent*numNodes + child].
+     */
+    public double solve(double[] weights, int numNodes, int[] parents) {
+        int n = numNodes;
+        ensureCapacity(n);
+        System.arraycopy(weights, 0, scores, 0, n * n);
+        run(n, parents);
+
+        double total = 0.0;
+        for (int child = 1; child < n; child++) {
+            total += weights[parents[child] * n + child];
+        }
+        return total;
+    }
+
+    private void run(int n, int[] parents) {
+        if (parents.length < n) {
+            throw new IllegalArgumentException("Need room for "+n+" parents, got "+parents.length);
+        }
+
+        for (int u = 0; u < n; u++) {
+            for (int v = 0; v < n; v++) {
+                int cell = u * n + v;
+                arcSource[cell] = u;
+                arcTarget[cell] = v;
+                if (u == v || v == 0) scores[cell] = Double.NEGATIVE_INFINITY;
+            }
+            active[u] = true;
+            slotId[u] = u;
+            containedIn[u] = -1;
+        }
+
+        int numCycles = 0;
+        memberStart[0] = 0;
+
+        while (true) {
+            // Greedily pick the best incoming arc for every supernode
+
+            for (int v = 1; v < n; v++) {
+                if (!active[v]) continue;
+                int argmax = -1;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int u = 0; u < n; u++) {
+                    if (!active[u]) continue;
+                    double score = scores[u * n + v];
+                    if (score > max) {
+                        max = score;
+                        argmax = u;
+                    }
+                }
+                if (argmax < 0) {
+                    throw new IllegalStateException("Node "+v+" doesn't have a parent: "+argmax);
+                }
+                bestParent[v] = argmax;
+            }
+
+            int cycleLength = findCycle(n);
+            if (cycleLength == 0) break;
+
+            contract(n, cycleLength, numCycles);
+            numCycles++;
+        }
+
+        // Read off the arcs chosen for the top level supernodes
+
+        parents[0] = -1;
+        for (int v = 1; v < n; v++) {
+            if (!active[v]) continue;
+            int cell = bestParent[v] * n + v;
+            parents[arcTarget[cell]] = arcSource[cell];
+            entry[slotId[v]] = arcTarget[cell];
+        }
+
+        // Then expand cycles, outermost first. Every member keeps its arc inside the cycle, except for the member
+        // the cycle was entered through, which keeps the arc coming from outside.
+
+        for (int k = numCycles - 1; k >= 0; k--) {
+            int cycleId = n + k;
+            int entered = memberContaining(entry[cycleId], cycleId);
+            for (int m = memberStart[k]; m < memberStart[k + 1]; m++) {
+                if (members[m] == entered) {
+                    entry[entered] = entry[cycleId];
+                }
+                else {
+                    parents[memberArcTarget[m]] = memberArcSource[m];
+                    entry[members[m]] = memberArcTarget[m];
+                }
+            }
+        }
+    }
+
+    /**
+     * Follows bestParent pointers looking for a cycle. If one is found, its slots are left in path[] and its
+     * length is returned, otherwise returns 0.
+     */
+    private int findCycle(int n) {
+        // color: 0 is unvisited, 1 + start is on the walk from start, -1 is known to reach the root
+        Arrays.fill(color, 0, n, 0);
+        color[0] = -1;
+        for (int start = 1; start < n; start++) {
+            if (!active[start] || color[start] != 0) continue;
+            int v = start;
+            while (color[v] == 0) {
+                color[v] = 1 + start;
+                v = bestParent[v];
+            }
+            if (color[v] == 1 + start) {
+                // Found a cycle through v
+                int length = 0;
+                int u = v;
+                do {
+                    path[length++] = u;
+                    u = bestParent[u];
+                } while (u != v);
+                return length;
+            }
+            // Walked into something already known to be acyclic
+            for (v = start; color[v] == 1 + start; v = bestParent[v]) {
+                color[v] = -1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Collapses the cycle in path[0, length) into the slot of its first member.
+     */
+    private void contract(int n, int length, int k) {
+        int cycleId = n + k;
+        int rep = path[0];
+
+        // Record the cycle for expansion later
+
+        int m = memberStart[k];
+        for (int i = 0; i < length; i++) {
+            int x = path[i];
+            int cell = bestParent[x] * n + x;
+            members[m] = slotId[x];
+            memberArcSource[m] = arcSource[cell];
+            memberArcTarget[m] = arcTarget[cell];
+            containedIn[slotId[x]] = cycleId;
+            m++;
+        }
+        memberStart[k + 1] = m;
+        containedIn[cycleId] = -1;
+
+        for (int i = 0; i < length; i++) {
+            active[path[i]] = false;
+        }
+
+        // Arcs into the cycle are scored relative to the cycle arc they'd replace, arcs out of the cycle just take
+        // the best member to leave from
+
+        for (int u = 0; u < n; u++) {
+            if (!active[u]) continue;
+            double bestIn = Double.NEGATIVE_INFINITY;
+            int bestInCell = -1;
+            double bestOut = Double.NEGATIVE_INFINITY;
+            int bestOutCell = -1;
+            for (int i = 0; i < length; i++) {
+                int x = path[i];
+                int inCell = u * n + x;
+                double in = scores[inCell] - scores[bestParent[x] * n + x];
+                if (bestInCell == -1 || in > bestIn) {
+                    bestIn = in;
+                    bestInCell = inCell;
+                }
+                int outCell = x * n + u;
+                if (bestOutCell == -1 || scores[outCell] > bestOut) {
+                    bestOut = scores[outCell];
+                    bestOutCell = outCell;
+                }
+            }
+            newIn[u] = bestIn;
+            newInSource[u] = arcSource[bestInCell];
+            newInTarget[u] = arcTarget[bestInCell];
+            newOut[u] = bestOut;
+            newOutSource[u] = arcSource[bestOutCell];
+            newOutTarget[u] = arcTarget[bestOutCell];
+        }
+
+        for (int u = 0; u < n; u++) {
+            if (!active[u]) continue;
+            int inCell = u * n + rep;
+            scores[inCell] = newIn[u];
+            arcSource[inCell] = newInSource[u];
+            arcTarget[inCell] = newInTarget[u];
+            int outCell = rep * n + u;
+            scores[outCell] = u == 0 ? Double.NEGATIVE_INFINITY : newOut[u];
+            arcSource[outCell] = newOutSource[u];
+            arcTarget[outCell] = newOutTarget[u];
+        }
+        scores[rep * n + rep] = Double.NEGATIVE_INFINITY;
+
+        active[rep] = true;
+        slotId[rep] = cycleId;
+    }
+
+    private int memberContaining(int node, int cycleId) {
+        int id = node;
+        while (containedIn[id] != cycleId) {
+            id = containedIn[id];
+        }
+        return id;
+    }
+}
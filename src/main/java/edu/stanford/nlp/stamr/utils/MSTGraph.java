@@ -12,6 +12,21 @@ import java.util.*;
  * Managed a graph of nodes, and stitching them together with Edmonds' algorithm
  */
 public class MSTGraph {
+    /**
+     * Runs DGraph's optimality test on every solution, and cross checks the single pass root constraint against
+     * solving once per candidate root. Slow, only for debugging.
+     */
+    public static boolean VERIFY_OPTIMALITY = false;
+
+    /**
+     * Solve with Gabor's DGraph instead of the primitive array ArborescenceSolver. They find the same trees, but
+     * DGraph allocates a lot more per graph.
+     */
+    public static boolean USE_DGRAPH = false;
+
+    // Solvers keep their scratch space between graphs, so we keep one around per decoding thread
+    private static final ThreadLocal<ArborescenceSolver> solver = ThreadLocal.withInitial(ArborescenceSolver::new);
+
     Map<Integer,Set<Triple<Integer,String,Double>>> arcs = new HashMap<Integer, Set<Triple<Integer, String, Double>>>();
 
 
@@ -107,9 +122,125 @@ public class MSTGraph {
             arcLabels[0][i] = "ROOT";
         }
 
-        double[] rootWeights = new double[numNodes];
+        Pair<int[], Object[]> outArcs = getSingleRootMST(weights, arcLabels);
+
+        if (VERIFY_OPTIMALITY) {
+            // Check the single pass against the old approach of running Chu-Liu-Edmonds once per candidate root
+            Pair<int[], Object[]> enumerated = getMSTByEnumeratingRoots(weights, arcLabels);
+            double singlePassScore = score(weights, outArcs.first);
+            double enumeratedScore = enumerated.first == null ? Double.NEGATIVE_INFINITY : score(weights, enumerated.first);
+            if (singlePassScore < enumeratedScore - 0.000001) {
+                throw new IllegalStateException("Single root MST scored "+singlePassScore+", but enumerating roots found "+enumeratedScore);
+            }
+        }
+
+        int[] parents = outArcs.first;
+        Object[] parentArcs = outArcs.second;
+
+        if (debug) {
+            for (int i = 0; i < numNodes; i++) {
+                System.out.println(i+": "+parents[i]+" with arc "+parentArcs[i].toString());
+            }
+        }
+
+        if (parents == null) {
+            System.out.println("Break");
+        }
+
+        // Decode the graph
+
+        for (int i = 1; i < numNodes; i++) {
+            int a = 0;
+            if (parents[i-1] != -1) {
+                a = sequenceToNodes.get(parents[i-1]+1);
+            }
+            int b = sequenceToNodes.get(i);
+            String s = (String)parentArcs[i-1];
+            graph.putIfAbsent(a, new IdentityHashSet<Pair<String, Integer>>());
+            graph.get(a).add(new Pair<String, Integer>(s, b));
+        }
+
+        return graph;
+    }
+
+    /**
+     * Finds the best arborescence with exactly one arc out of the artificial root (node 0) in a single run of
+     * Chu-Liu-Edmonds. Every allowed root arc gets the same huge penalty, bigger than the spread of all the other
+     * weights put together, so a tree with fewer root arcs always outscores one with more, and among single root
+     * trees the penalty is the same constant, so the best of them is still the best.
+     *
+     * Nodes with no outgoing arcs (QUOTE, VALUE nodes) can't be the root of anything, so they aren't allowed root
+     * arcs at all, the same as getMSTByEnumeratingRoots() skips them. If that leaves no tree with a single root,
+     * we say so and fall back to the best tree with as few roots as we can manage, letting those nodes hang off
+     * the root too.
+     */
+    static Pair<int[], Object[]> getSingleRootMST(double[][] weights, String[][] arcLabels) {
+        int numNodes = weights.length;
+
+        double spread = 1.0;
+        for (int i = 0; i < numNodes; i++) {
+            for (int j = 1; j < numNodes; j++) {
+                if (weights[i][j] > Double.NEGATIVE_INFINITY) spread += Math.abs(weights[i][j]);
+            }
+        }
+        double penalty = 2 * spread;
+
+        // Only the root row changes, so the rest can be shared with the original weights
+        double[][] penalized = weights.clone();
+        penalized[0] = weights[0].clone();
+        for (int r = 1; r < numNodes; r++) {
+            if (weights[0][r] == Double.NEGATIVE_INFINITY) continue;
+            penalized[0][r] = hasOutgoingArcs(weights, r) ? weights[0][r] - penalty : Double.NEGATIVE_INFINITY;
+        }
+
+        Pair<int[], Object[]> arcs = null;
+        if (hasSpanningTree(penalized)) arcs = solve(penalized, arcLabels);
+        if (arcs == null || rootArcs(arcs.first) > 1) {
+            for (int r = 1; r < numNodes; r++) {
+                if (weights[0][r] > Double.NEGATIVE_INFINITY) penalized[0][r] = weights[0][r] - penalty;
+            }
+            arcs = solve(penalized, arcLabels);
+            System.err.println("No single root MST over "+(numNodes - 1)+" nodes, settling for one with "
+                    +rootArcs(arcs.first)+" roots");
+        }
+        return arcs;
+    }
+
+    private static Pair<int[], Object[]> solve(double[][] penalized, String[][] arcLabels) {
+        int numNodes = penalized.length;
+
+        if (USE_DGRAPH) {
+            DGraph dGraph = new DGraph(penalized, arcLabels);
+            Pair<int[], Object[]> arcs = dGraph.chuLiuEdmonds();
+            if (VERIFY_OPTIMALITY && !dGraph.testOptimality()) {
+                throw new IllegalStateException("Can't have a non-optimal graph solution!");
+            }
+            return arcs;
+        }
+
+        int[] solution = new int[numNodes];
+        solver.get().solve(penalized, solution);
+
+        // Put the solution in DGraph's format, where parents are shifted down by one to not count the root
+        int[] parents = new int[numNodes - 1];
+        Object[] labels = new Object[numNodes - 1];
+        for (int i = 1; i < numNodes; i++) {
+            parents[i - 1] = solution[i] - 1;
+            labels[i - 1] = arcLabels[solution[i]][i];
+        }
+        return new Pair<int[], Object[]>(parents, labels);
+    }
+
+    /**
+     * The old way of getting a single root: run Chu-Liu-Edmonds once for every candidate root, and keep the best.
+     * Costs a factor of n more than getSingleRootMST(), so this is only kept around to verify it.
+     */
+    static Pair<int[], Object[]> getMSTByEnumeratingRoots(double[][] originalWeights, String[][] arcLabels) {
+        int numNodes = originalWeights.length;
+
+        double[][] weights = new double[numNodes][];
         for (int i = 0; i < numNodes; i++) {
-            rootWeights[i] = weights[0][i];
+            weights[i] = originalWeights[i].clone();
         }
 
         Pair<int[], Object[]> outArcs = new Pair<int[], Object[]>();
@@ -120,23 +251,18 @@ public class MSTGraph {
         for (int r = 1; r < numNodes; r++) {
 
             // We're trying to make a ROOT that the arc existence classifier calls impossible
-            if (weights[0][r] == Double.NEGATIVE_INFINITY) {
+            if (originalWeights[0][r] == Double.NEGATIVE_INFINITY) {
                 continue;
             }
 
             // QUOTE, VALUE nodes make bad roots
-            boolean hasOutgoingArcs = false;
-            for (int i = 0; i < numNodes; i++) {
-                if (weights[r][i] > Double.NEGATIVE_INFINITY) {
-                    hasOutgoingArcs = true;
-                    break;
-                }
-            }
-            if (!hasOutgoingArcs) continue;
+            if (!hasOutgoingArcs(originalWeights, r)) continue;
 
             for (int i = 1; i < numNodes; i++) {
-                weights[0][i] = i == r ? rootWeights[i] : Double.NEGATIVE_INFINITY;
+                weights[0][i] = i == r ? originalWeights[0][i] : Double.NEGATIVE_INFINITY;
             }
+            // Some nodes can only hang off the root, so there's no tree under r
+            if (!hasSpanningTree(weights)) continue;
 
             DGraph dGraph = new DGraph(weights, arcLabels);
             Pair<int[], Object[]> possibleArcs = dGraph.chuLiuEdmonds();
@@ -144,42 +270,67 @@ public class MSTGraph {
                 throw new IllegalStateException("Can't have a non-optimal graph solution!");
             }
 
-            double score = 0.0;
-            for (int i = 1; i < numNodes; i++) {
-                score += weights[possibleArcs.first[i - 1] + 1][i];
-            }
+            double score = score(weights, possibleArcs.first);
             if (score > maxScore) {
                 maxScore = score;
                 outArcs = possibleArcs;
             }
         }
 
-        int[] parents = outArcs.first;
-        Object[] parentArcs = outArcs.second;
+        return outArcs;
+    }
 
-        if (debug) {
-            for (int i = 0; i < numNodes; i++) {
-                System.out.println(i+": "+parents[i]+" with arc "+parentArcs[i].toString());
+    /**
+     * Whether every node can be reached from the root, which is all Chu-Liu-Edmonds needs to find a tree.
+     */
+    private static boolean hasSpanningTree(double[][] weights) {
+        boolean[] reached = new boolean[weights.length];
+        int[] stack = new int[weights.length];
+        int size = 0;
+        reached[0] = true;
+        stack[size++] = 0;
+        int count = 1;
+        while (size > 0) {
+            int node = stack[--size];
+            for (int child = 1; child < weights.length; child++) {
+                if (!reached[child] && child != node && weights[node][child] > Double.NEGATIVE_INFINITY) {
+                    reached[child] = true;
+                    stack[size++] = child;
+                    count++;
+                }
             }
         }
+        return count == weights.length;
+    }
 
-        if (parents == null) {
-            System.out.println("Break");
+    /**
+     * The number of nodes a DGraph style solution hangs directly off the root.
+     */
+    static int rootArcs(int[] parents) {
+        int roots = 0;
+        for (int parent : parents) {
+            if (parent == -1) roots++;
         }
+        return roots;
+    }
 
-        // Decode the graph
-
-        for (int i = 1; i < numNodes; i++) {
-            int a = 0;
-            if (parents[i-1] != -1) {
-                a = sequenceToNodes.get(parents[i-1]+1);
+    private static boolean hasOutgoingArcs(double[][] weights, int node) {
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[node][i] > Double.NEGATIVE_INFINITY) {
+                return true;
             }
-            int b = sequenceToNodes.get(i);
-            String s = (String)parentArcs[i-1];
-            graph.putIfAbsent(a, new IdentityHashSet<Pair<String, Integer>>());
-            graph.get(a).add(new Pair<String, Integer>(s, b));
         }
+        return false;
+    }
 
-        return graph;
+    /**
+     * Score of a DGraph solution, where parents[i-1] is the parent of node i, shifted down by one.
+     */
+    static double score(double[][] weights, int[] parents) {
+        double score = 0.0;
+        for (int i = 1; i < weights.length; i++) {
+            score += weights[parents[i - 1] + 1][i];
+        }
+        return score;
     }
 }
@@ -0,0 +1,132 @@
+package edu.stanford.nlp.stamr.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded, thread safe memo for an expensive function, like FrameManager lookups or word shapes.
+ *
+ * Entries are spread over a fixed number of segments by hash, each a small LRU map behind its own lock, so threads
+ * only contend when they hit the same segment. Once a segment is full, adding to it evicts the entry in it used least
+ * recently, which keeps the whole cache within its capacity. The function is run outside of any lock, so two threads
+ * missing on the same key at once may both compute it; that's fine for the pure functions this is meant for.
+ * Null values aren't cached.
+ *
+ * Hits, misses and evictions are counted, and toString() reports them.
+ */
+public class MemoCache<K, V> {
+    private static final int SEGMENTS = 16;
+
+    private final String name;
+    private final int capacity;
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public MemoCache(String name, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Cache capacity must be positive, got "+capacity);
+        this.name = name;
+        this.capacity = capacity;
+        // Small caches get fewer segments, so every segment has room for something
+        int numSegments = Math.min(SEGMENTS, capacity);
+        segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment<>(capacity / numSegments + (i < capacity % numSegments ? 1 : 0), evictions);
+        }
+    }
+
+    /**
+     * The value for key, computing it with fn and remembering it if we haven't seen key recently.
+     */
+    public V get(K key, Function<? super K, ? extends V> fn) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        misses.increment();
+        value = fn.apply(key);
+        if (value != null) {
+            synchronized (segment) {
+                segment.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        long h = hits(), m = misses();
+        double hitRate = h + m == 0 ? 0.0 : h * 100.0 / (h + m);
+        return name+": "+size()+"/"+capacity+" entries, "+h+" hits, "+m+" misses ("
+                +String.format("%.1f", hitRate)+"% hit rate), "+evictions()+" evictions";
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        final int capacity;
+        final LongAdder evictions;
+
+        Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package edu.stanford.nlp.word2vec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A word embedding table that lives in a memory mapped file instead of on the heap.
+ *
+ * Opening one only maps the file, so there's nothing to wait on at startup, and pages of vectors are faulted in by
+ * the OS as words are actually looked up. Vectors are kept as float32 (which is all the precision the source data
+ * has), and looked up through an open addressing hash table stored in the file, so there are no per word objects.
+ * The file looks like:
+ *
+ *   header:  MAGIC, version, words, dimension, table size, offsets of the four sections below
+ *   table:   (word hash, row + 1) per slot, row + 1 == 0 for an empty slot, linear probing
+ *   keys:    offset of each row's word in the chars section, plus one extra for the end of the last word
+ *   vectors: words x dimension floats
+ *   chars:   every word, as UTF-16 chars, back to back
+ *
+ * Lookups only use absolute reads on the mapped buffers, so a store can be shared between any number of threads.
+ */
+public class EmbeddingStore implements Closeable {
+    static final byte[] MAGIC = new byte[]{'W', '2', 'V', 'S', 'T', 'O', 'R', 'E'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 4 * 4 + 4 * 8;
+
+    // A single mapping can't be over 2GB, so big vector sections get mapped in chunks of whole rows
+    static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE;
+
+    final FileChannel channel;
+    final int words;
+    final int dimension;
+    final int tableMask;
+
+    final ByteBuffer table;
+    final ByteBuffer keys;
+    final ByteBuffer chars;
+    final ByteBuffer[] vectorChunks;
+    final int rowsPerChunk;
+
+    /**
+     * A view of one row of the store. Doesn't copy anything, reads go straight to the mapped file.
+     */
+    public static class Vector {
+        final EmbeddingStore store;
+        final int row;
+
+        Vector(EmbeddingStore store, int row) {
+            this.store = store;
+            this.row = row;
+        }
+
+        public int dimension() {
+            return store.dimension;
+        }
+
+        public double get(int i) {
+            return store.get(row, i);
+        }
+
+        public double[] toDoubleArray() {
+            double[] arr = new double[store.dimension];
+            store.copy(row, arr);
+            return arr;
+        }
+    }
+
+    public static EmbeddingStore open(String path) throws IOException {
+        return new EmbeddingStore(path);
+    }
+
+    private EmbeddingStore(String path) throws IOException {
+        channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not an embedding store: "+path);
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not an embedding store: "+path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Don't know how to read version "+version+" embedding stores: "+path);
+            }
+            words = header.getInt();
+            dimension = header.getInt();
+            int tableSize = header.getInt();
+            long tableOffset = header.getLong();
+            long keysOffset = header.getLong();
+            long vectorsOffset = header.getLong();
+            long charsOffset = header.getLong();
+
+            if (channel.size() < charsOffset) {
+                throw new IOException("Embedding store is truncated: "+path);
+            }
+
+            tableMask = tableSize - 1;
+            table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, 8L * tableSize);
+            keys = channel.map(FileChannel.MapMode.READ_ONLY, keysOffset, 4L * (words + 1));
+            chars = channel.map(FileChannel.MapMode.READ_ONLY, charsOffset, channel.size() - charsOffset);
+
+            long rowBytes = 4L * Math.max(dimension, 1);
+            rowsPerChunk = (int)Math.max(1, Math.min(MAX_CHUNK_BYTES / rowBytes, Math.max(words, 1)));
+            int numChunks = (words + rowsPerChunk - 1) / rowsPerChunk;
+            vectorChunks = new ByteBuffer[numChunks];
+            for (int c = 0; c < numChunks; c++) {
+                int rows = Math.min(rowsPerChunk, words - c * rowsPerChunk);
+                vectorChunks[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        vectorsOffset + c * rowsPerChunk * rowBytes, rows * rowBytes);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return words;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public boolean containsKey(String word) {
+        return row(word) != -1;
+    }
+
+    /**
+     * Returns the row a word's vector is stored in, or -1 if it isn't in the store.
+     */
+    public int row(String word) {
+        int hash = word.hashCode();
+        int slot = mix(hash) & tableMask;
+        while (true) {
+            int rowPlusOne = table.getInt(slot * 8 + 4);
+            if (rowPlusOne == 0) return -1;
+            if (table.getInt(slot * 8) == hash && keyEquals(rowPlusOne - 1, word)) return rowPlusOne - 1;
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    /**
+     * Returns a view of a word's vector, or null if it isn't in the store, just like Map.get() would.
+     */
+    public Vector get(String word) {
+        int row = row(word);
+        return row == -1 ? null : new Vector(this, row);
+    }
+
+    public float get(int row, int i) {
+        int chunk = row / rowsPerChunk;
+        int offset = ((row - chunk * rowsPerChunk) * dimension + i) * 4;
+        return vectorChunks[chunk].getFloat(offset);
+    }
+
+    /**
+     * Copies row `row` into the first dimension() entries of dest.
+     */
+    public void copy(int row, double[] dest) {
+        for (int i = 0; i < dimension; i++) {
+            dest[i] = get(row, i);
+        }
+    }
+
+    public String word(int row) {
+        int start = keys.getInt(row * 4);
+        int end = keys.getInt(row * 4 + 4);
+        char[] word = new char[end - start];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = chars.getChar((start + i) * 2);
+        }
+        return new String(word);
+    }
+
+    private boolean keyEquals(int row, String word) {
+        int start = keys.getInt(row * 4);
+        int end = keys.getInt(row * 4 + 4);
+        if (end - start != word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (chars.getChar((start + i) * 2) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * Writes a store, one word at a time. The number of words has to be known up front (it's in the header of both
+     * the text and .ser.gz dumps), but fewer can be added. If the same word is added twice, the later vector wins.
+     */
+    public static class Writer implements Closeable {
+        final FileChannel channel;
+        final int capacity;
+        final int dimension;
+        final int[] tableHashes;
+        final int[] tableRows;
+        final int[] keyOffsets;
+        final long tableOffset;
+        final long keysOffset;
+        final long vectorsOffset;
+        final long charsOffset;
+
+        StringBuilder chars = new StringBuilder();
+        ByteBuffer row;
+        int words = 0;
+
+        public Writer(String path, int capacity, int dimension) throws IOException {
+            this.capacity = capacity;
+            this.dimension = dimension;
+
+            // Keep the table at most half full, so probe sequences stay short
+            int tableSize = Integer.highestOneBit(Math.max(2 * capacity, 1) * 2 - 1);
+            tableHashes = new int[tableSize];
+            tableRows = new int[tableSize];
+            keyOffsets = new int[capacity + 1];
+
+            tableOffset = HEADER_SIZE;
+            keysOffset = tableOffset + 8L * tableSize;
+            vectorsOffset = keysOffset + 4L * (capacity + 1);
+            charsOffset = vectorsOffset + 4L * capacity * dimension;
+
+            channel = FileChannel.open(new File(path).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            row = ByteBuffer.allocate(4 * dimension);
+        }
+
+        public void add(String word, float[] vector) throws IOException {
+            row.clear();
+            for (int i = 0; i < dimension; i++) row.putFloat(vector[i]);
+            add(word);
+        }
+
+        public void add(String word, double[] vector) throws IOException {
+            row.clear();
+            for (int i = 0; i < dimension; i++) row.putFloat((float)vector[i]);
+            add(word);
+        }
+
+        private void add(String word) throws IOException {
+            int hash = word.hashCode();
+            int mask = tableRows.length - 1;
+            int slot = mix(hash) & mask;
+            while (tableRows[slot] != 0) {
+                int existing = tableRows[slot] - 1;
+                if (tableHashes[slot] == hash && chars.substring(keyOffsets[existing], keyOffsets[existing + 1]).equals(word)) {
+                    // Overwrite the old vector in place
+                    row.flip();
+                    write(row, vectorsOffset + 4L * existing * dimension);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (words == capacity) {
+                throw new IllegalStateException("Embedding store was sized for "+capacity+" words");
+            }
+            tableHashes[slot] = hash;
+            tableRows[slot] = words + 1;
+
+            row.flip();
+            write(row, vectorsOffset + 4L * words * dimension);
+            chars.append(word);
+            words++;
+            keyOffsets[words] = chars.length();
+        }
+
+        private void write(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC).putInt(VERSION).putInt(words).putInt(dimension).putInt(tableRows.length);
+            header.putLong(tableOffset).putLong(keysOffset).putLong(vectorsOffset).putLong(charsOffset);
+            header.flip();
+            write(header, 0);
+
+            ByteBuffer tableBuffer = ByteBuffer.allocate(8 * tableRows.length);
+            for (int i = 0; i < tableRows.length; i++) {
+                tableBuffer.putInt(tableHashes[i]).putInt(tableRows[i]);
+            }
+            tableBuffer.flip();
+            write(tableBuffer, tableOffset);
+
+            ByteBuffer keysBuffer = ByteBuffer.allocate(4 * (capacity + 1));
+            for (int i = 0; i <= capacity; i++) {
+                keysBuffer.putInt(keyOffsets[Math.min(i, words)]);
+            }
+            keysBuffer.flip();
+            write(keysBuffer, keysOffset);
+
+            ByteBuffer charsBuffer = ByteBuffer.allocate(2 * chars.length());
+            for (int i = 0; i < chars.length(); i++) {
+                charsBuffer.putChar(chars.charAt(i));
+            }
+            charsBuffer.flip();
+            write(charsBuffer, charsOffset);
+
+            // Rows we never used are a hole before the chars, so with no chars to write the file would stop short
+            if (chars.length() == 0 && channel.size() < charsOffset) {
+                write(ByteBuffer.allocate(1), charsOffset - 1);
+            }
+
+            channel.close();
+        }
+    }
+}
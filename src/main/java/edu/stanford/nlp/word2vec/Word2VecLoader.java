@@ -15,9 +15,14 @@ import java.util.zip.GZIPOutputStream;
  *
  * Loads a big inflated Word2Vec index into memory, where we can use it to populate double[] features for experimentation
  * What we want here is a blocking map, and a loader thread, similar to the TransferMap, but without deleting entries.
+ *
+ * For big indices, prefer loadStore(), which memory maps an EmbeddingStore instead of inflating everything onto the
+ * heap. translate() and dump() write that format instead of the Kryo .ser.gz format when given a path ending in
+ * STORE_EXTENSION.
  */
 public class Word2VecLoader {
     static final int WORD_SIZE = 50;
+    public static final String STORE_EXTENSION = ".emb";
 
     public static void main(String[] args) throws IOException {
         translate("data/google-300.txt", "data/google-300.ser.gz");
@@ -29,15 +34,35 @@ public class Word2VecLoader {
         File f = new File(textPath);
         assert(f.exists());
 
-        File o = new File(outPath);
-        Output output = new Output(new GZIPOutputStream(new FileOutputStream(o)));
-
         BufferedReader br = new BufferedReader(new FileReader(f));
         String line = br.readLine(); // ignore first line
         String[] initialParts = line.split(" ");
         int words = Integer.parseInt(initialParts[0]);
         int dimension = Integer.parseInt(initialParts[1]);
 
+        if (outPath.endsWith(STORE_EXTENSION)) {
+            EmbeddingStore.Writer writer = new EmbeddingStore.Writer(outPath, words, dimension);
+            float[] vector = new float[dimension];
+            int count = 0;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(" ");
+                count++;
+                if (count % 100 == 0) {
+                    System.out.println(((double)count / words)+": "+count+" / "+words);
+                }
+                for (int i = 0; i < dimension; i++) {
+                    vector[i] = Float.parseFloat(parts[i+1]);
+                }
+                writer.add(parts[0], vector);
+            }
+            writer.close();
+            br.close();
+            return;
+        }
+
+        File o = new File(outPath);
+        Output output = new Output(new GZIPOutputStream(new FileOutputStream(o)));
+
         output.writeInt(words);
         output.writeInt(dimension);
         int count = 0;
@@ -60,13 +85,27 @@ public class Word2VecLoader {
     public static void dump(String outPath, Map<String,double[]> map) throws IOException {
         File o = new File(outPath);
         if (o.exists()) o.delete();
-        Output output = new Output(new GZIPOutputStream(new FileOutputStream(o)));
 
         int dimension = map.values().iterator().next().length;
 
         int count = 0;
         int words = map.size();
 
+        if (outPath.endsWith(STORE_EXTENSION)) {
+            EmbeddingStore.Writer writer = new EmbeddingStore.Writer(outPath, words, dimension);
+            for (Map.Entry<String,double[]> entry : map.entrySet()) {
+                count++;
+                if (count % 100 == 0) {
+                    System.out.println(((double)count / words)+": "+count+" / "+words);
+                }
+                writer.add(entry.getKey(), entry.getValue());
+            }
+            writer.close();
+            return;
+        }
+
+        Output output = new Output(new GZIPOutputStream(new FileOutputStream(o)));
+
         output.writeInt(words);
         output.writeInt(dimension);
         for (String s : map.keySet()) {
@@ -160,4 +199,57 @@ public class Word2VecLoader {
 
         return embeddings;
     }
+
+    /**
+     * Memory maps the EmbeddingStore for an index. Given a Kryo .ser.gz dump, this converts it to a store next to it
+     * the first time through (streaming, so the dump never has to fit on the heap), and maps that from then on.
+     */
+    public static EmbeddingStore loadStore(String path) throws IOException {
+        if (path.endsWith(STORE_EXTENSION)) {
+            return EmbeddingStore.open(path);
+        }
+
+        String storePath = path;
+        if (storePath.endsWith(".gz")) storePath = storePath.substring(0, storePath.length() - ".gz".length());
+        if (storePath.endsWith(".ser")) storePath = storePath.substring(0, storePath.length() - ".ser".length());
+        storePath += STORE_EXTENSION;
+
+        File store = new File(storePath);
+        if (!store.exists() || store.lastModified() < new File(path).lastModified()) {
+            System.out.println("Converting "+path+" to "+storePath);
+            File f = new File(path);
+            assert(f.exists());
+            Input input;
+            if (path.endsWith(".gz")) {
+                input = new Input(new GZIPInputStream(new FileInputStream(f)));
+            }
+            else {
+                input = new Input(new FileInputStream(f));
+            }
+
+            int words = input.readInt();
+            int dimension = input.readInt();
+
+            // Write to a temporary file first, so a half finished conversion never gets mistaken for a store
+            File tmp = new File(storePath + ".tmp");
+            EmbeddingStore.Writer writer = new EmbeddingStore.Writer(tmp.getPath(), words, dimension);
+            float[] vector = new float[dimension];
+            for (int i = 0; i < words; i++) {
+                String s = input.readString();
+                for (int j = 0; j < dimension; j++) {
+                    vector[j] = input.readFloat();
+                }
+                writer.add(s, vector);
+            }
+            writer.close();
+            input.close();
+
+            if (store.exists()) store.delete();
+            if (!tmp.renameTo(store)) {
+                throw new IOException("Couldn't move "+tmp.getPath()+" to "+storePath);
+            }
+        }
+
+        return EmbeddingStore.open(storePath);
+    }
 }
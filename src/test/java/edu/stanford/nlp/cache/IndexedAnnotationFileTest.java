@@ -0,0 +1,130 @@
+package edu.stanford.nlp.cache;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import edu.stanford.nlp.pipeline.Annotation;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class IndexedAnnotationFileTest {
+
+    static File tempCache() throws IOException {
+        File dir = Files.createTempDirectory("cache").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, "annotations.idx");
+        file.deleteOnExit();
+        new File(file.getPath() + ".tmp").deleteOnExit();
+        return file;
+    }
+
+    @Theory
+    public void testConcurrentRoundTrip(@ForAll(sampleSize = 5) @From(SentencesGen.class) String[] sentences,
+                                        @ForAll(sampleSize = 2) @InRange(minInt = 1, maxInt = 8) int threads)
+            throws Exception {
+        int size = sentences.length;
+
+        File file = tempCache();
+        IndexedAnnotationFile.Writer writer = new IndexedAnnotationFile.Writer(file.getPath(), size);
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int i = offset; i < size; i += threads) {
+                        if (sentences[i] != null) writer.write(i, new Annotation(sentences[i]));
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+        assertTrue(errors.isEmpty());
+        // Nothing shows up where readers look until the index is written
+        assertFalse(file.exists());
+        writer.close();
+        assertTrue(file.exists());
+
+        try (IndexedAnnotationFile.Reader reader = new IndexedAnnotationFile.Reader(file.getPath())) {
+            assertEquals(size, reader.size());
+            // Read back in a different order from many threads at once, each thread striding through from its own start
+            List<Thread> readers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int start = t * size / threads;
+                Thread worker = new Thread(() -> {
+                    try {
+                        for (int n = 0; n < size; n++) {
+                            int i = (int) ((start + 7919L * n) % size);
+                            Annotation annotation = reader.read(i);
+                            if (sentences[i] == null) assertNull(annotation);
+                            else assertEquals(sentences[i], annotation.toString());
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                });
+                readers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : readers) worker.join();
+            assertTrue(errors.toString(), errors.isEmpty());
+        }
+    }
+
+    @Theory
+    public void testUnfinishedCachesAreRejected() throws Exception {
+        File file = tempCache();
+        IndexedAnnotationFile.Writer writer = new IndexedAnnotationFile.Writer(file.getPath(), 10);
+        for (int i = 0; i < 10; i++) writer.write(i, new Annotation("sentence " + i));
+        writer.close();
+
+        // A cache that lost its index, like one from before writes went through a temporary file
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+        try {
+            new IndexedAnnotationFile.Reader(file.getPath()).close();
+            fail("Read a cache without an index");
+        } catch (IOException expected) {
+            // Good
+        }
+
+        // Ones that are too short for even a header are rejected the same way
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(3);
+        }
+        try {
+            new IndexedAnnotationFile.Reader(file.getPath()).close();
+            fail("Read a cache without a header");
+        } catch (IOException expected) {
+            // Good
+        }
+
+        // Writing it again replaces it
+        writer = new IndexedAnnotationFile.Writer(file.getPath(), 1);
+        writer.write(0, new Annotation("again"));
+        writer.close();
+        try (IndexedAnnotationFile.Reader reader = new IndexedAnnotationFile.Reader(file.getPath())) {
+            assertEquals("again", reader.read(0).toString());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package edu.stanford.nlp.cache;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * A bank's worth of sentences to cache, each starting "sentence i" so they're all different. About one in ten is
+ * null, for a sentence that never got annotated.
+ */
+public class SentencesGen extends Generator<String[]> {
+    public SentencesGen(Class<String[]> type) {
+        super(type);
+    }
+
+    @Override
+    public String[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        String[] sentences = new String[sourceOfRandomness.nextInt(1, 500)];
+        for (int i = 0; i < sentences.length; i++) {
+            if (sourceOfRandomness.nextInt(10) == 0) continue;
+            StringBuilder sb = new StringBuilder("sentence " + i);
+            for (int j = sourceOfRandomness.nextInt(30); j > 0; j--) {
+                sb.append(" word").append(sourceOfRandomness.nextInt(100));
+            }
+            sentences[i] = sb.toString();
+        }
+        return sentences;
+    }
+}
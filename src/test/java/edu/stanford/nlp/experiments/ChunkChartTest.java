@@ -0,0 +1,112 @@
+package edu.stanford.nlp.experiments;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import edu.stanford.nlp.util.Pair;
+import org.junit.contrib.theories.DataPoints;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class ChunkChartTest {
+
+    // Sequence banks whose runs of DICT tokens get chunked against a dictionary trained on train-500
+    @DataPoints
+    public static String[] banks = new String[]{
+            "data/dev-100-seq.txt",
+            "data/test-100-seq.txt"
+    };
+
+    static AMRPipeline dictionaryPipeline;
+
+    static synchronized AMRPipeline dictionaryPipeline() throws IOException {
+        if (dictionaryPipeline == null) {
+            AMRPipeline pipeline = new AMRPipeline();
+            pipeline.trainDictionaryLookup(pipeline.loadManygenData("data/train-500-manygen.txt"));
+            dictionaryPipeline = pipeline;
+        }
+        return dictionaryPipeline;
+    }
+
+    /**
+     * The recursion getBestAMRChunks used before the chart, kept here to check the chart against.
+     */
+    static List<Pair<String,Integer>> recursiveChunks(int first, int last, BiFunction<Integer,Integer,String> lookup) {
+        List<Pair<String,Integer>> bestChunks = new ArrayList<>();
+        String amrString = lookup.apply(first, last);
+        if (amrString != null) {
+            bestChunks.add(new Pair<>(amrString, first));
+            return bestChunks;
+        }
+        if (first == last) return bestChunks;
+        for (int pivot = first; pivot < last; pivot++) {
+            List<Pair<String,Integer>> part1 = recursiveChunks(first, pivot, lookup);
+            List<Pair<String,Integer>> part2 = recursiveChunks(pivot+1, last, lookup);
+            if (part1.size() + part2.size() > bestChunks.size()) {
+                bestChunks = new ArrayList<>();
+                bestChunks.addAll(part1);
+                bestChunks.addAll(part2);
+            }
+        }
+        return bestChunks;
+    }
+
+    @Theory
+    public void testMatchesRecursion(@ForAll(sampleSize = 200) @From(ChunkDictionaryGen.class) ChunkDictionary dict) {
+        List<Pair<String,Integer>> expected = recursiveChunks(dict.first, dict.last, dict::lookup);
+        assertEquals(expected, new ChunkChart(dict.first, dict.last, dict.longestChunk, dict::lookup).getBestChunks());
+        assertEquals(expected, new ChunkChart(dict.first, dict.last, Integer.MAX_VALUE, dict::lookup).getBestChunks());
+    }
+
+    @Theory
+    public void testLooksUpEachSpanOnce(@ForAll(sampleSize = 50) @From(ChunkDictionaryGen.class) ChunkDictionary dict) {
+        int[][] lookups = new int[dict.known.length][dict.known.length];
+
+        new ChunkChart(dict.first, dict.last, dict.longestChunk, (i, j) -> {
+            lookups[i][j]++;
+            return dict.lookup(i, j);
+        }).getBestChunks();
+
+        for (int i = 0; i < dict.known.length; i++) {
+            for (int j = i; j < dict.known.length; j++) {
+                boolean inSpan = dict.first <= i && j <= dict.last && j - i < dict.longestChunk;
+                assertEquals(inSpan ? 1 : 0, lookups[i][j]);
+            }
+        }
+    }
+
+    @Theory
+    public void testPipelineMatchesRecursion(String bank) throws IOException {
+        AMRPipeline pipeline = dictionaryPipeline();
+        int runs = 0;
+        int chunked = 0;
+        for (LabeledSequence seq : AMRPipeline.loadSequenceData(bank)) {
+            // Each run of DICT tokens, the spans the pipeline chunks. None in these banks are over 6 tokens, so the
+            // recursion finishes.
+            int first = -1;
+            for (int i = 0; i <= seq.labels.length; i++) {
+                boolean dict = i < seq.labels.length && seq.labels[i].equals("DICT");
+                if (dict && first == -1) first = i;
+                else if (!dict && first != -1) {
+                    List<Pair<String,Integer>> expected = recursiveChunks(first, i - 1,
+                            (a, b) -> pipeline.bestDictionaryEntry(seq, a, b));
+                    assertEquals(expected, pipeline.getBestAMRChunks(seq, first, i - 1));
+                    runs++;
+                    if (!expected.isEmpty()) chunked++;
+                    first = -1;
+                }
+            }
+        }
+        // Make sure the dictionary actually knew some of them
+        assertTrue(runs > 0);
+        assertTrue(chunked > 0);
+    }
+}
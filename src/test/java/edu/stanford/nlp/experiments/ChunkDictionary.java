@@ -0,0 +1,35 @@
+package edu.stanford.nlp.experiments;
+
+/**
+ * A made up AMR chunk dictionary over the spans of one sentence, and the span to chunk.
+ */
+public class ChunkDictionary {
+    // known[i][j] is what the dictionary has for tokens i to j inclusive, or null
+    final String[][] known;
+    final int longestChunk;
+    final int first;
+    final int last;
+
+    ChunkDictionary(String[][] known, int longestChunk, int first, int last) {
+        this.known = known;
+        this.longestChunk = longestChunk;
+        this.first = first;
+        this.last = last;
+    }
+
+    String lookup(int i, int j) {
+        return known[i][j];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("tokens "+first+" to "+last+" of "+known.length+", longest chunk "
+                +longestChunk+":");
+        for (int i = 0; i < known.length; i++) {
+            for (int j = i; j < known.length; j++) {
+                if (known[i][j] != null) sb.append(" ").append(known[i][j]);
+            }
+        }
+        return sb.toString();
+    }
+}
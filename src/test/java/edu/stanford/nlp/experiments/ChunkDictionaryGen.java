@@ -0,0 +1,30 @@
+package edu.stanford.nlp.experiments;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * Dictionaries over sentences short enough for the old recursion, knowing mostly short spans the way the trained one
+ * does, with nothing longer than longestChunk.
+ */
+public class ChunkDictionaryGen extends Generator<ChunkDictionary> {
+    public ChunkDictionaryGen(Class<ChunkDictionary> type) {
+        super(type);
+    }
+
+    @Override
+    public ChunkDictionary generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        int length = sourceOfRandomness.nextInt(1, 12);
+        int longestChunk = sourceOfRandomness.nextInt(1, length);
+        String[][] known = new String[length][length];
+        for (int i = 0; i < length; i++) {
+            for (int j = i; j < length && j - i < longestChunk; j++) {
+                if (sourceOfRandomness.nextInt(j - i + 2) == 0) known[i][j] = "(x"+i+"_"+j+")";
+            }
+        }
+        int first = sourceOfRandomness.nextInt(length);
+        int last = sourceOfRandomness.nextInt(first, length - 1);
+        return new ChunkDictionary(known, longestChunk, first, last);
+    }
+}
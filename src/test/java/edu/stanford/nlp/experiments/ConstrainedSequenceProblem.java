@@ -0,0 +1,26 @@
+package edu.stanford.nlp.experiments;
+
+import java.util.Arrays;
+
+/**
+ * The arguments to one ConstrainedSequence solve, see MinCostFlowConstrainedSequence.
+ */
+public class ConstrainedSequenceProblem {
+    final double[][] probabilities;
+    final int[] allowed;
+    final int[] min;
+    final int[] forced;
+
+    ConstrainedSequenceProblem(double[][] probabilities, int[] allowed, int[] min, int[] forced) {
+        this.probabilities = probabilities;
+        this.allowed = allowed;
+        this.min = min;
+        this.forced = forced;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.deepToString(probabilities)+" allowed "+Arrays.toString(allowed)+" min "+Arrays.toString(min)
+                +" forced "+Arrays.toString(forced);
+    }
+}
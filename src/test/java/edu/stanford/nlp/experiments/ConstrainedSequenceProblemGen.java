@@ -0,0 +1,39 @@
+package edu.stanford.nlp.experiments;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * Problems small enough to brute force, with the odd impossible entry, and caps, minimums and forced rows on about a
+ * third of the classes and a fifth of the rows. Plenty of them end up infeasible.
+ */
+public class ConstrainedSequenceProblemGen extends Generator<ConstrainedSequenceProblem> {
+    public ConstrainedSequenceProblemGen(Class<ConstrainedSequenceProblem> type) {
+        super(type);
+    }
+
+    @Override
+    public ConstrainedSequenceProblem generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        int numRows = sourceOfRandomness.nextInt(1, 6);
+        int numClasses = sourceOfRandomness.nextInt(1, 4);
+        double[][] probabilities = new double[numRows][numClasses];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numClasses; j++) {
+                probabilities[i][j] = sourceOfRandomness.nextInt(8) == 0 ? Double.NEGATIVE_INFINITY
+                        : Math.log(sourceOfRandomness.nextDouble());
+            }
+        }
+        int[] allowed = new int[numClasses];
+        int[] min = new int[numClasses];
+        for (int j = 0; j < numClasses; j++) {
+            allowed[j] = sourceOfRandomness.nextInt(3) == 0 ? -1 : sourceOfRandomness.nextInt(numRows + 1);
+            min[j] = sourceOfRandomness.nextInt(3) == 0 ? -1 : sourceOfRandomness.nextInt(3);
+        }
+        int[] forced = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            forced[i] = sourceOfRandomness.nextInt(5) == 0 ? sourceOfRandomness.nextInt(numClasses) : -1;
+        }
+        return new ConstrainedSequenceProblem(probabilities, allowed, min, forced);
+    }
+}
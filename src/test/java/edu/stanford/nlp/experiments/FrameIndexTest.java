@@ -0,0 +1,53 @@
+package edu.stanford.nlp.experiments;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class FrameIndexTest {
+
+    static List<Frame> frames;
+    static FrameIndex index;
+
+    static {
+        try {
+            frames = FrameManager.loadFrames("data/frames");
+            index = new FrameIndex(frames);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Theory
+    public void testMatchesLinearScan(@ForAll(sampleSize = 200) @From(TokenGen.class) String token) {
+        assertEquals(FrameManager.getClosestFrame(token, frames), index.getClosestFrame(token));
+        assertEquals(FrameManager.getMaxSimilarity(token, frames), index.getMaxSimilarity(token), 0.0);
+    }
+
+    @Theory
+    public void testMatchesLinearScanNearLemmas(@ForAll(sampleSize = 200) @From(TokenGen.class) String noise) {
+        // Build a token out of a real lemma, so there are close calls and ties between frames to get right
+        Frame frame = frames.get(Math.abs(noise.hashCode()) % frames.size());
+        String token = noise.length() % 2 == 0 ? frame.lemma+noise.substring(0, noise.length() / 2) :
+                noise.charAt(0)+frame.lemma.substring(Math.min(1, frame.lemma.length()));
+
+        assertEquals(FrameManager.getClosestFrame(token, frames), index.getClosestFrame(token));
+        assertEquals(FrameManager.getMaxSimilarity(token, frames), index.getMaxSimilarity(token), 0.0);
+    }
+
+    @Theory
+    public void testContainsLemma() {
+        for (Frame frame : frames) {
+            assertTrue(index.containsLemma(frame.lemma.toUpperCase()));
+        }
+        assertFalse(index.containsLemma("not-a-lemma-at-all"));
+    }
+}
@@ -0,0 +1,235 @@
+package edu.stanford.nlp.experiments;
+
+import edu.stanford.nlp.classify.LogisticClassifier;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.Pair;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class LinearPipeTest {
+
+    static List<Function<String,Object>> templates() {
+        return new ArrayList<Function<String,Object>>(){{
+            add(s -> s.substring(0, 1));
+            add(s -> s.substring(s.length() - 1));
+            add(s -> (double) s.length());
+            add(s -> new double[]{s.indexOf('a'), s.indexOf('e')});
+        }};
+    }
+
+    static List<Function<String,Object>> otherTemplates() {
+        return new ArrayList<Function<String,Object>>(){{
+            add(s -> s.substring(0, 1));
+            add(s -> s.substring(s.length() - 2));
+            add(s -> (double) s.length());
+            add(s -> new double[]{s.indexOf('a'), s.indexOf('e')});
+        }};
+    }
+
+    static List<String> words() {
+        Random r = new Random(42);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = r.nextInt(6) + 2;
+            for (int j = 0; j < length; j++) sb.append((char)('a' + r.nextInt(8)));
+            words.add(sb.toString());
+        }
+        return words;
+    }
+
+    static <OUT> void assertSamePredictions(LinearPipe<String,OUT> trained, LinearPipe<String,OUT> loaded) {
+        List<String> unseen = new ArrayList<>(words());
+        unseen.add("zzzz");
+        for (String word : unseen) {
+            assertEquals(trained.predict(word), loaded.predict(word));
+            Counter<OUT> expected = trained.predictSoft(word);
+            Counter<OUT> actual = loaded.predictSoft(word);
+            assertEquals(expected.keySet(), actual.keySet());
+            for (OUT label : expected.keySet()) {
+                assertEquals(expected.getCount(label), actual.getCount(label), 0.0);
+            }
+        }
+    }
+
+    static File tempModel() throws IOException {
+        File file = File.createTempFile("linearpipe", ".model");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Theory
+    public void testLinearRoundTrip() throws IOException {
+        List<Pair<String,String>> data = new ArrayList<>();
+        for (String word : words()) data.add(new Pair<>(word, word.length() > 4 ? "LONG" : word.substring(0, 1)));
+
+        LinearPipe<String,String> trained = new LinearPipe<>(templates(), null);
+        trained.train(data);
+        File model = tempModel();
+        trained.save(model.getPath());
+
+        LinearPipe<String,String> loaded = new LinearPipe<>(templates(), null);
+        loaded.load(model.getPath());
+        assertEquals(trained.getLabels(), loaded.getLabels());
+        assertSamePredictions(trained, loaded);
+    }
+
+    @Theory
+    public void testLogisticRoundTrip() throws IOException {
+        List<Pair<String,Boolean>> data = new ArrayList<>();
+        for (String word : words()) data.add(new Pair<>(word, word.contains("a")));
+
+        LinearPipe<String,Boolean> trained = new LinearPipe<>(templates(), null);
+        trained.type = LinearPipe.ClassifierType.LOGISTIC;
+        trained.train(data);
+        File model = tempModel();
+        trained.save(model.getPath());
+
+        LinearPipe<String,Boolean> loaded = new LinearPipe<>(templates(), null);
+        loaded.load(model.getPath());
+        assertEquals(LinearPipe.ClassifierType.LOGISTIC, loaded.type);
+        assertSamePredictions(trained, loaded);
+    }
+
+    /**
+     * The compiled weights have to score exactly like the classifier, whichever way round it keeps its labels.
+     */
+    @Theory
+    @SuppressWarnings("unchecked")
+    public void testCompiledLogisticMatchesClassifier() {
+        for (boolean firstLabel : new boolean[]{true, false}) {
+            // LogisticClassifier puts its labels in the order it first sees them
+            List<Pair<String,Boolean>> data = new ArrayList<>();
+            for (String word : words()) data.add(new Pair<>(word, word.contains("a")));
+            data.sort((a, b) -> Boolean.compare(a.second != firstLabel, b.second != firstLabel));
+
+            LinearPipe<String,Boolean> pipe = new LinearPipe<>(templates(), null);
+            pipe.type = LinearPipe.ClassifierType.LOGISTIC;
+            pipe.train(data);
+            LogisticClassifier<Boolean,Integer> logistic = (LogisticClassifier<Boolean,Integer>) pipe.classifiers.get(0);
+            assertEquals(firstLabel, logistic.getLabels().iterator().next());
+            assertNotNull(pipe.logisticWeights);
+
+            List<String> unseen = new ArrayList<>(words());
+            unseen.add("zzzz");
+            for (String word : unseen) {
+                Counter<Boolean> compiled = pipe.predictSoft(word);
+                Counter<Boolean> expected = pipe.predictSoftWithClassifiers(pipe.applyFeatures(word));
+                for (boolean label : new boolean[]{true, false}) {
+                    assertEquals(Math.exp(expected.getCount(label)), Math.exp(compiled.getCount(label)), 1.0e-9);
+                }
+            }
+        }
+    }
+
+    @Theory
+    public void testBayesianRoundTrip() throws IOException {
+        List<Function<String,Object>> lookup = new ArrayList<Function<String,Object>>(){{
+            add(s -> s);
+        }};
+        List<Pair<String,String>> data = new ArrayList<>();
+        for (String word : words()) data.add(new Pair<>(word, word.toUpperCase()));
+
+        LinearPipe<String,String> trained = new LinearPipe<>(lookup, null);
+        trained.type = LinearPipe.ClassifierType.BAYESIAN;
+        trained.train(data);
+        File model = tempModel();
+        trained.save(model.getPath());
+
+        LinearPipe<String,String> loaded = new LinearPipe<>(lookup, null);
+        loaded.load(model.getPath());
+        assertSamePredictions(trained, loaded);
+        assertEquals(0, loaded.predictSoft("not in the dictionary").size());
+    }
+
+    /**
+     * A class file for a class Template with one method, static int get() { return constant; }, written on the given
+     * line. Building it by hand means two versions differ in exactly what we choose, and nothing else.
+     */
+    static byte[] templateClassFile(int constant, int line) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); // minor version
+        out.writeShort(52); // major version
+        out.writeShort(9); // constant pool count
+        out.writeByte(1); out.writeUTF("Template"); // #1
+        out.writeByte(7); out.writeShort(1); // #2
+        out.writeByte(1); out.writeUTF("java/lang/Object"); // #3
+        out.writeByte(7); out.writeShort(3); // #4
+        out.writeByte(1); out.writeUTF("get"); // #5
+        out.writeByte(1); out.writeUTF("()I"); // #6
+        out.writeByte(1); out.writeUTF("Code"); // #7
+        out.writeByte(1); out.writeUTF("LineNumberTable"); // #8
+        out.writeShort(0x21); // public super
+        out.writeShort(2); // this class
+        out.writeShort(4); // super class
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(1); // methods
+        out.writeShort(0x9); // public static
+        out.writeShort(5);
+        out.writeShort(6);
+        out.writeShort(1); // attributes
+        out.writeShort(7); // Code
+        out.writeInt(2 + 2 + 4 + 2 + 2 + 2 + 2 + 4 + 2 + 4);
+        out.writeShort(1); // max stack
+        out.writeShort(0); // max locals
+        out.writeInt(2); // code length
+        out.writeByte(0x03 + constant); // iconst_<constant>
+        out.writeByte(0xac); // ireturn
+        out.writeShort(0); // exception table
+        out.writeShort(1); // attributes
+        out.writeShort(8); // LineNumberTable
+        out.writeInt(2 + 4);
+        out.writeShort(1);
+        out.writeShort(0); // start pc
+        out.writeShort(line);
+        out.writeShort(0); // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Theory
+    public void testChecksumsCodeButNotLines() throws IOException {
+        // Moving the template down the file doesn't change it
+        assertEquals(TemplateChecksum.of(templateClassFile(1, 10)), TemplateChecksum.of(templateClassFile(1, 25)));
+        // Changing a single instruction does, even with the class name and everything else the same
+        assertTrue(TemplateChecksum.of(templateClassFile(1, 10)) != TemplateChecksum.of(templateClassFile(2, 10)));
+        assertTrue(TemplateChecksum.of(templateClassFile(1, 10)) != TemplateChecksum.of(templateClassFile(2, 25)));
+    }
+
+    @Theory
+    public void testRejectsChangedTemplates() throws IOException {
+        List<Pair<String,String>> data = new ArrayList<>();
+        for (String word : words()) data.add(new Pair<>(word, word.substring(0, 1)));
+
+        LinearPipe<String,String> trained = new LinearPipe<>(templates(), null);
+        trained.train(data);
+        File model = tempModel();
+        trained.save(model.getPath());
+
+        assertEquals(TemplateChecksum.of(templates().toArray()), TemplateChecksum.of(templates().toArray()));
+        assertTrue(TemplateChecksum.of(templates().toArray()) != TemplateChecksum.of(otherTemplates().toArray()));
+
+        LinearPipe<String,String> changed = new LinearPipe<>(otherTemplates(), null);
+        try {
+            changed.load(model.getPath());
+            fail("Loaded a model trained with different feature templates");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
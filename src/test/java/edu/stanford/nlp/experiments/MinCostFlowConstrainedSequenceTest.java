@@ -0,0 +1,106 @@
+package edu.stanford.nlp.experiments;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class MinCostFlowConstrainedSequenceTest {
+
+    /**
+     * How good an assignment is: first how few impossible (-Infinity) entries it uses, then the sum of the rest.
+     * Null if it breaks a constraint.
+     */
+    static double[] score(double[][] probabilities, int[] allowed, int[] min, int[] forced, int[] classes) {
+        int numClasses = allowed.length;
+        int[] counts = new int[numClasses];
+        double impossible = 0.0;
+        double sum = 0.0;
+        for (int i = 0; i < classes.length; i++) {
+            if (forced[i] != -1 && forced[i] != classes[i]) return null;
+            counts[classes[i]]++;
+            double p = probabilities[i][classes[i]];
+            if (Double.isInfinite(p)) impossible++;
+            else sum += p;
+        }
+        for (int j = 0; j < numClasses; j++) {
+            if (allowed[j] != -1 && counts[j] > allowed[j]) return null;
+            if (min[j] != -1 && counts[j] < min[j]) return null;
+        }
+        return new double[]{-impossible, sum};
+    }
+
+    /**
+     * The best score over every possible assignment, or null if none of them meets the constraints.
+     */
+    static double[] bruteForce(double[][] probabilities, int[] allowed, int[] min, int[] forced) {
+        int numRows = probabilities.length;
+        int numClasses = allowed.length;
+        int[] classes = new int[numRows];
+        double[] best = null;
+        while (true) {
+            double[] score = score(probabilities, allowed, min, forced, classes);
+            if (score != null && (best == null || score[0] > best[0] || (score[0] == best[0] && score[1] > best[1]))) {
+                best = score;
+            }
+            // Next assignment, counting in base numClasses
+            int i = 0;
+            while (i < numRows && ++classes[i] == numClasses) classes[i++] = 0;
+            if (i == numRows) return best;
+        }
+    }
+
+    @Theory
+    public void testMatchesBruteForce(@ForAll(sampleSize = 2000) @From(ConstrainedSequenceProblemGen.class) ConstrainedSequenceProblem problem) {
+        double[][] probabilities = problem.probabilities;
+        int numRows = probabilities.length;
+        double[][] original = new double[numRows][];
+        for (int i = 0; i < numRows; i++) original[i] = probabilities[i].clone();
+
+        MinCostFlowConstrainedSequence solver = new MinCostFlowConstrainedSequence();
+        double[] best = bruteForce(probabilities, problem.allowed, problem.min, problem.forced);
+        int[] classes = solver.solveOrNull(probabilities, problem.allowed, problem.min, problem.forced);
+
+        if (best == null) {
+            assertNull("Should be infeasible: "+problem, classes);
+            // solve() still hands back something the old callers can use
+            assertArrayEquals(new int[numRows], solver.solve(probabilities, problem.allowed, problem.min, problem.forced));
+        }
+        else {
+            assertNotNull("Should be feasible: "+problem, classes);
+            double[] score = score(probabilities, problem.allowed, problem.min, problem.forced, classes);
+            assertNotNull("Breaks a constraint: "+problem+" got "+Arrays.toString(classes), score);
+            assertEquals(problem.toString(), best[0], score[0], 0.0);
+            assertEquals(problem.toString(), best[1], score[1], 1e-9);
+        }
+        assertTrue(Arrays.deepEquals(original, probabilities));
+    }
+
+    @Theory
+    public void testForcedAndCounted() {
+        MinCostFlowConstrainedSequence solver = new MinCostFlowConstrainedSequence();
+        double[][] probabilities = {
+                {1.0, 4.0},
+                {2.0, 3.5}
+        };
+        // Both rows prefer class 1, but only one of them can have it, and giving it to the first is worth more
+        assertArrayEquals(new int[]{1, 0}, solver.solveOrNull(probabilities, new int[]{1, 1}, new int[]{-1, -1}, new int[]{-1, -1}));
+        // Unless we force the first one elsewhere
+        assertArrayEquals(new int[]{0, 1}, solver.solveOrNull(probabilities, new int[]{1, 1}, new int[]{-1, -1}, new int[]{0, -1}));
+        // Class 0 needs two occupants
+        assertArrayEquals(new int[]{0, 0}, solver.solveOrNull(probabilities, new int[]{-1, -1}, new int[]{2, -1}, new int[]{-1, -1}));
+        // Which it can't have if one row is forced elsewhere
+        assertNull(solver.solveOrNull(probabilities, new int[]{-1, -1}, new int[]{2, -1}, new int[]{-1, 1}));
+        // And nothing can go anywhere if no class takes anybody
+        assertNull(solver.solveOrNull(probabilities, new int[]{0, 0}, new int[]{-1, -1}, new int[]{-1, -1}));
+        // Impossible entries are avoided when there's any way around them
+        probabilities[0][1] = Double.NEGATIVE_INFINITY;
+        assertArrayEquals(new int[]{0, 1}, solver.solveOrNull(probabilities, new int[]{-1, -1}, new int[]{-1, -1}, new int[]{-1, -1}));
+    }
+}
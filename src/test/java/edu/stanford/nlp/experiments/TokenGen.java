@@ -0,0 +1,29 @@
+package edu.stanford.nlp.experiments;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * Random word-like tokens, mostly lowercase letters with the odd capital, hyphen or digit, the way tokens show up
+ * when we look for their closest frame.
+ */
+public class TokenGen extends Generator<String> {
+    static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzaeiouaeiounrstlABCDEFGHIJKLMNOPQRSTUVWXYZ-0123456789";
+
+    public TokenGen(Class<String> type) {
+        super(type);
+    }
+
+    @Override
+    public String generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        int length = sourceOfRandomness.nextInt(1, 14);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            // Keep most characters to lowercase letters, so tokens look enough like lemmas to score well
+            int bound = sourceOfRandomness.nextInt(5) == 0 ? ALPHABET.length() : 41;
+            sb.append(ALPHABET.charAt(sourceOfRandomness.nextInt(bound)));
+        }
+        return sb.toString();
+    }
+}
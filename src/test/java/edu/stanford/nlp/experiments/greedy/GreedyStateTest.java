@@ -31,6 +31,38 @@ public class GreedyStateTest {
         GreedyState clone = state.deepClone();
         assertTrue(clone.equals(state));
         assertTrue(state.equals(clone));
+        assertEquals(state.hashCode(), clone.hashCode());
+    }
+
+    @Theory
+    public void testTransitionSharesRowsSafely(@ForAll @From(GreedyStateGen.class) GreedyState state) {
+        assumeFalse(state.finished);
+
+        GreedyState before = state.deepClone();
+        String[] headArcs = new String[state.nodes.length];
+        for (int i = 0; i < headArcs.length; i++) {
+            headArcs[i] = i % 2 == 0 ? "NONE" : "ARG" + i;
+        }
+        GreedyState next = state.transition(headArcs);
+        GreedyState again = state.transition(headArcs);
+
+        // Stepping doesn't touch the old state, and equal states hash the same however they were made
+        assertTrue(state.equals(before));
+        assertEquals(before.hashCode(), state.hashCode());
+        assertTrue(next.equals(again));
+        assertEquals(next.hashCode(), again.hashCode());
+        assertTrue(next.equals(next.deepClone()));
+        assertEquals(next.hashCode(), next.deepClone().hashCode());
+        assertFalse(next.equals(state));
+
+        // Writing to a shared row copies it first
+        next.setArc(0, 1, "ARG9");
+        assertTrue(state.equals(before));
+        assertFalse(next.equals(again));
+        assertEquals("ARG9", next.arcs[0][1]);
+        next.setArc(0, 1, again.arcs[0][1]);
+        assertTrue(next.equals(again));
+        assertEquals(next.hashCode(), again.hashCode());
     }
 
     @Theory
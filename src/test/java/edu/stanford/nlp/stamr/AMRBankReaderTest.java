@@ -0,0 +1,83 @@
+package edu.stanford.nlp.stamr;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.generator.InRange;
+import org.junit.contrib.theories.DataPoints;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class AMRBankReaderTest {
+
+    @DataPoints
+    public static String[] banks = new String[]{
+            "data/train-3-subset.txt",
+            "data/dev-100-subset.txt"
+    };
+
+    static List<AMR> read(String path, int threads, int readAhead) throws IOException {
+        List<AMR> amrs = new ArrayList<>();
+        try (AMRBankReader reader = new AMRBankReader(new BufferedReader(new FileReader(path)), AMRSlurp.Format.LDC,
+                threads, readAhead)) {
+            for (AMR amr : reader) amrs.add(amr);
+        }
+        return amrs;
+    }
+
+    static void assertSameBank(List<AMR> expected, List<AMR> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).docId, actual.get(i).docId);
+            assertArrayEquals(expected.get(i).sourceText, actual.get(i).sourceText);
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+    }
+
+    @Theory
+    public void testParallelKeepsFileOrder(String path,
+                                           @ForAll(sampleSize = 3) @InRange(minInt = 2, maxInt = 9) int threads,
+                                           @ForAll(sampleSize = 2) @InRange(minInt = 1, maxInt = 16) int readAhead)
+            throws IOException {
+        List<AMR> sequential = read(path, 1, 1);
+        List<AMR> parallel = read(path, threads, readAhead);
+        assertSameBank(sequential, parallel);
+        assertSameBank(sequential, Arrays.asList(AMRSlurp.slurp(path, AMRSlurp.Format.LDC)));
+    }
+
+    @Theory
+    public void testStopEarly(String path) throws IOException {
+        List<AMR> all = read(path, 1, 1);
+        try (Stream<AMR> stream = AMRSlurp.stream(path, AMRSlurp.Format.LDC).stream()) {
+            List<String> firstIds = stream.limit(2).map(amr -> amr.docId).collect(Collectors.toList());
+            assertEquals(Math.min(2, all.size()), firstIds.size());
+            for (int i = 0; i < firstIds.size(); i++) assertEquals(all.get(i).docId, firstIds.get(i));
+        }
+    }
+
+    @Theory
+    public void testLastEntryWithoutBlankLine(String path) throws IOException {
+        List<AMR> all = read(path, 1, 1);
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = br.readLine()) != null) sb.append(line).append("\n");
+        }
+        String trimmed = sb.toString().replaceAll("\\s+$", "\n");
+        List<AMR> amrs = new ArrayList<>();
+        try (AMRBankReader reader = new AMRBankReader(new BufferedReader(new StringReader(trimmed)),
+                AMRSlurp.Format.LDC, 2, 4)) {
+            for (AMR amr : reader) amrs.add(amr);
+        }
+        assertSameBank(all, amrs);
+    }
+}
@@ -0,0 +1,106 @@
+package edu.stanford.nlp.stamr;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import org.junit.contrib.theories.DataPoints;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class AMRBinaryFormatTest {
+
+    @DataPoints
+    public static String[] banks = new String[]{
+            "data/train-3-subset.txt",
+            "data/dev-100-subset.txt"
+    };
+
+    static File tempBank(String suffix) throws IOException {
+        File file = File.createTempFile("bank", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    static void assertSameBank(AMR[] expected, AMR[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].docId, actual[i].docId);
+            assertArrayEquals(expected[i].sourceText, actual[i].sourceText);
+            assertEquals(expected[i].treeDepth, actual[i].treeDepth);
+            assertEquals(PenmanParserTest.describe(expected[i]), PenmanParserTest.describe(actual[i]));
+            assertEquals(expected[i].toString(AMR.AlignmentPrinting.ALL), actual[i].toString(AMR.AlignmentPrinting.ALL));
+            List<AMR.Node> expectedNodes = expected[i].depthFirstSearch();
+            List<AMR.Node> actualNodes = actual[i].depthFirstSearch();
+            assertEquals(expectedNodes.size(), actualNodes.size());
+            for (int j = 0; j < expectedNodes.size(); j++) {
+                AMR.Node node = expectedNodes.get(j);
+                AMR.Node copy = actualNodes.get(j);
+                assertEquals(node.ref, copy.ref);
+                assertEquals(node.depth, copy.depth);
+                assertEquals(node.testAlignment, copy.testAlignment);
+                assertTrue(Arrays.equals(node.softAlignments, copy.softAlignments));
+            }
+        }
+    }
+
+    @Theory
+    public void testRoundTrip(@ForAll(sampleSize = 3) @From(AlignedBankGen.class) AMR[] bank) throws IOException {
+        for (String suffix : new String[]{".amrbin", ".amrbin.gz"}) {
+            File file = tempBank(suffix);
+            AMRSlurp.burpBinary(file.getPath(), bank);
+            assertSameBank(bank, AMRSlurp.slurpBinary(file.getPath()));
+        }
+    }
+
+    @Theory
+    public void testStreaming(String path) throws IOException {
+        AMR[] bank = AMRSlurp.slurp(path, AMRSlurp.Format.LDC);
+        File file = tempBank(".amrbin");
+        try (AMRBinaryFormat.Writer writer = new AMRBinaryFormat.Writer(file.getPath())) {
+            for (AMR amr : bank) writer.write(amr);
+        }
+        try (AMRBinaryFormat.Reader reader = new AMRBinaryFormat.Reader(file.getPath())) {
+            for (AMR amr : bank) {
+                assertSameBank(new AMR[]{amr}, new AMR[]{reader.read()});
+            }
+            assertNull(reader.read());
+            assertNull(reader.read());
+        }
+    }
+
+    @Theory
+    public void testVarints(@ForAll(sampleSize = 50) @InRange(minInt = Integer.MIN_VALUE, maxInt = Integer.MAX_VALUE) int value)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        AMRBinaryFormat.writeSignedVarint(out, value);
+        AMRBinaryFormat.writeVarint(out, value);
+        AMRBinaryFormat.writeSignedVarint(out, -1);
+        AMRBinaryFormat.writeVarint(out, 127);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(value, AMRBinaryFormat.readSignedVarint(in));
+        assertEquals(value, AMRBinaryFormat.readVarint(in));
+        assertEquals(-1, AMRBinaryFormat.readSignedVarint(in));
+        assertEquals(127, AMRBinaryFormat.readVarint(in));
+        assertEquals(0, in.available());
+    }
+
+    @Theory
+    public void testRejectsOtherFiles(String path) throws IOException {
+        try {
+            new AMRBinaryFormat.Reader(path).close();
+            fail("Read a text bank as binary");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
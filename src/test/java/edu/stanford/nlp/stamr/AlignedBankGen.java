@@ -0,0 +1,48 @@
+package edu.stanford.nlp.stamr;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The test banks, with the soft alignments EM and the test alignments the alignment tester would have left on a
+ * random half and quarter of the nodes.
+ */
+public class AlignedBankGen extends Generator<AMR[]> {
+    public AlignedBankGen(Class<AMR[]> type) {
+        super(type);
+    }
+
+    @Override
+    public AMR[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        List<AMR> bank = new ArrayList<>();
+        for (String path : AMRBinaryFormatTest.banks) {
+            try {
+                bank.addAll(Arrays.asList(AMRSlurp.slurp(path, AMRSlurp.Format.LDC)));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        for (AMR amr : bank) {
+            for (AMR.Node node : amr.nodes) {
+                if (sourceOfRandomness.nextBoolean()) {
+                    node.softAlignments = new double[amr.sourceText.length];
+                    for (int i = 0; i < node.softAlignments.length; i++) {
+                        node.softAlignments[i] = sourceOfRandomness.nextDouble();
+                    }
+                }
+                if (sourceOfRandomness.nextInt(4) == 0) {
+                    node.testAlignment = sourceOfRandomness.nextInt(amr.sourceText.length + 1);
+                }
+            }
+        }
+        return bank.toArray(new AMR[bank.size()]);
+    }
+}
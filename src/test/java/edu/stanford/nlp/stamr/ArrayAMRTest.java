@@ -0,0 +1,104 @@
+package edu.stanford.nlp.stamr;
+
+import org.junit.contrib.theories.DataPoints;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class ArrayAMRTest {
+
+    @DataPoints
+    public static String[] banks = new String[]{
+            "data/train-3-subset.txt",
+            "data/dev-100-subset.txt",
+            "src/main/python/smatch_py/test_input1.txt"
+    };
+
+    static void assertSameNodes(ArrayAMR structure, List<AMR.Node> expected, int[] actual) {
+        assertEquals(expected.size(), actual.length);
+        for (int i = 0; i < actual.length; i++) {
+            assertSame(expected.get(i), structure.sourceNode(actual[i]));
+        }
+    }
+
+    @Theory
+    public void testMatchesAMR(String path) throws IOException {
+        for (AMR amr : AMRSlurp.slurp(path, AMRSlurp.Format.LDC)) {
+            ArrayAMR structure = ArrayAMR.of(amr);
+            assertEquals(amr.hashCode(), structure.hashCode());
+            assertEquals(amr.nodes.size(), structure.size());
+            assertEquals(amr.arcs.size(), structure.numArcs());
+            assertSame(amr.head, structure.sourceNode(structure.head()));
+
+            List<AMR.Node> sorted = amr.topologicalSort();
+            for (int i = 0; i < sorted.size(); i++) {
+                AMR.Node node = sorted.get(i);
+                assertEquals(i, structure.idOf(node));
+                assertEquals(node.title, structure.title(i));
+                assertEquals(node.type, structure.type(i));
+
+                AMR.Arc parentArc = amr.getParentArc(node);
+                if (parentArc == amr.nullArc) {
+                    assertEquals(ArrayAMR.NONE, structure.parentArc(i));
+                    assertEquals(ArrayAMR.NONE, structure.parent(i));
+                }
+                else {
+                    assertSame(parentArc, structure.sourceArc(structure.parentArc(i)));
+                    assertEquals(structure.idOf(parentArc.head), structure.parent(i));
+                }
+
+                List<AMR.Arc> outgoing = amr.outgoingArcs.get(node);
+                assertEquals(outgoing == null ? 0 : outgoing.size(), structure.outDegree(i));
+                for (int k = 0; k < structure.outDegree(i); k++) {
+                    int arc = structure.outArc(i, k);
+                    assertSame(outgoing.get(k), structure.sourceArc(arc));
+                    assertEquals(i, structure.arcHead(arc));
+                    assertEquals(structure.idOf(outgoing.get(k).tail), structure.child(i, k));
+                    assertEquals(outgoing.get(k).title, structure.arcTitle(arc));
+                }
+                List<AMR.Arc> incoming = amr.incomingArcs.get(node);
+                assertEquals(incoming == null ? 0 : incoming.size(), structure.inDegree(i));
+                for (int k = 0; k < structure.inDegree(i); k++) {
+                    assertSame(incoming.get(k), structure.sourceArc(structure.inArc(i, k)));
+                }
+
+                assertSameNodes(structure, amr.breadthFirstSearch(node), structure.breadthFirstSearch(i));
+                assertSameNodes(structure, amr.depthFirstSearchNode(node), structure.depthFirstSearch(i));
+            }
+            assertEquals(amr.breadthFirstSearch().size(), structure.reachableFromHead());
+            assertEquals(ArrayAMR.NONE, structure.idOf(amr.nullArc));
+        }
+    }
+
+    @Theory
+    public void testRoundTrip(String path) throws IOException {
+        for (AMR amr : AMRSlurp.slurp(path, AMRSlurp.Format.LDC)) {
+            ArrayAMR structure = ArrayAMR.of(amr);
+            AMR copy = structure.toAMR();
+            assertEquals(amr, copy);
+            assertEquals(amr.hashCode(), copy.hashCode());
+            assertEquals(PenmanParserTest.describe(amr), PenmanParserTest.describe(copy));
+            assertEquals(amr.toString(AMR.AlignmentPrinting.ALL), copy.toString(AMR.AlignmentPrinting.ALL));
+
+            ArrayAMR again = ArrayAMR.of(copy);
+            assertEquals(structure, again);
+            assertEquals(structure.hashCode(), again.hashCode());
+        }
+    }
+
+    @Theory
+    public void testEquality() {
+        ArrayAMR a = ArrayAMR.of(PenmanParser.parse("(a / and :op1 (b / boy) :op2 (g / girl))"));
+        ArrayAMR b = ArrayAMR.of(PenmanParser.parse("(x / and :op2 (y / girl) :op1 (z / boy))"));
+        ArrayAMR c = ArrayAMR.of(PenmanParser.parse("(a / and :op1 (b / girl) :op2 (g / boy))"));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(c));
+    }
+}
@@ -0,0 +1,174 @@
+package edu.stanford.nlp.stamr;
+
+import org.junit.contrib.theories.DataPoints;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class PenmanParserTest {
+
+    @DataPoints
+    public static String[] banks = new String[]{
+            "data/amr-release-1.0-dev-proxy.txt",
+            "data/dev-100-subset.txt",
+            "data/real-train-300-subset.txt",
+            "data/test-100-subset.txt",
+            "data/train-200-subset.txt",
+            "data/train-250-subset.txt",
+            "data/train-3-subset.txt",
+            "data/train-300-subset.txt",
+            "data/train-350-subset.txt",
+            "data/train-400-subset.txt",
+            "data/training-500-subset.txt",
+            "realdata/amr-release-1.0-test-proxy.txt",
+            "realdata/dev-aligned.txt",
+            "realdata/test-subset.txt",
+            "src/main/python/smatch_py/test_input1.txt",
+            "src/main/python/smatch_py/test_input2.txt",
+            // Dictionaries of AMR chunks, which the pipelines parse at runtime
+            "data/dev-100-manygen.txt",
+            "data/test-100-manygen.txt",
+            "data/train-200-manygen.txt",
+            "data/train-250-manygen.txt",
+            "data/train-3-manygen.txt",
+            "data/train-300-manygen.txt",
+            "data/train-350-manygen.txt",
+            "data/train-400-manygen.txt",
+            "data/train-500-manygen.txt",
+            "realdata/test-manygen.txt"
+    };
+
+    /**
+     * The AMR strings in an LDC format bank, without their headers, or in a manygen dictionary.
+     */
+    static List<String> amrStrings(String path) throws IOException {
+        if (path.endsWith("manygen.txt")) return dictionaryAmrStrings(path);
+        List<String> amrs = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.length() == 0) {
+                    if (sb.length() > 0) amrs.add(sb.toString());
+                    sb.setLength(0);
+                }
+                else if (sb.length() > 0 || line.charAt(0) == '(') {
+                    sb.append(line).append("\n");
+                }
+            }
+        }
+        if (sb.length() > 0) amrs.add(sb.toString());
+        return amrs;
+    }
+
+    /**
+     * The AMR chunks in a manygen dictionary, which come one to a line as "AMR\tfirst token\tlast token" after each
+     * sentence. Chunks that are just a quote or a value never get parsed, so they're left out.
+     */
+    static List<String> dictionaryAmrStrings(String path) throws IOException {
+        List<String> amrs = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 3 && parts[0].startsWith("(")) amrs.add(parts[0]);
+            }
+        }
+        return amrs;
+    }
+
+    /**
+     * Everything about the graph that the parser decides, walking it depth first in arc order.
+     */
+    static String describe(AMR amr) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(amr.nodes.size()).append(" nodes, ").append(amr.arcs.size()).append(" arcs\n");
+        describe(amr, amr.head, new IdentityHashMap<>(), sb);
+        return sb.toString();
+    }
+
+    private static void describe(AMR amr, AMR.Node node, Map<AMR.Node,Integer> seen, StringBuilder sb) {
+        if (seen.containsKey(node)) {
+            sb.append("#").append(seen.get(node)).append("\n");
+            return;
+        }
+        seen.put(node, seen.size());
+        sb.append(node.type).append(" ").append(node.ref).append(" ").append(node.title).append(" ")
+                .append(node.isFirstRef).append(" ").append(node.alignment).append(" ").append(node.alignmentFixed)
+                .append("\n");
+        if (amr.outgoingArcs.containsKey(node)) {
+            for (AMR.Arc arc : amr.outgoingArcs.get(node)) {
+                sb.append(":").append(arc.title).append(" ");
+                describe(amr, arc.tail, seen, sb);
+            }
+        }
+    }
+
+    @Theory
+    public void testMatchesANTLR(String path) throws IOException {
+        List<String> amrs = amrStrings(path);
+        assertFalse(amrs.isEmpty());
+        for (String amr : amrs) {
+            assertEquals(amr, describe(AMRSlurp.parseAMRTreeANTLR(amr)), describe(PenmanParser.parse(amr)));
+        }
+    }
+
+    @Theory
+    public void testGrammar() {
+        String amr = "(p / possible [GUESS 1 = \"can\" ACTUAL 2 = \"possibly\"]\n" +
+                "\t:polarity - :quant 2.5\n" +
+                "\t:ARG1-of (s / say-01 :ARG0 (b / boy [3])\n" +
+                "\t\t:ARG1 b :name \"Hal 9000\" [4 = \"Hal\"] :mod (b) :value x))";
+        assertEquals(describe(AMRSlurp.parseAMRTreeANTLR(amr)), describe(PenmanParser.parse(amr)));
+
+        AMR parsed = PenmanParser.parse(amr);
+        assertEquals("possible", parsed.head.title);
+        assertEquals(2, parsed.head.alignment);
+        assertTrue(parsed.head.alignmentFixed);
+        assertEquals(9, parsed.nodes.size());
+        assertEquals(8, parsed.arcs.size());
+    }
+
+    static PenmanParser.ParseException parseError(String amr) {
+        try {
+            PenmanParser.parse(amr);
+        }
+        catch (PenmanParser.ParseException e) {
+            return e;
+        }
+        fail("Parsed "+amr);
+        return null;
+    }
+
+    @Theory
+    public void testErrorPositions() {
+        PenmanParser.ParseException e = parseError("(a / and\n  :op1 (b / boy\n  :op2 c)");
+        assertEquals(3, e.line);
+        assertEquals(10, e.column);
+        assertEquals("(a / and\n  :op1 (b / boy\n  :op2 c)".length(), e.position);
+
+        e = parseError("(a / and :op1 (b / boy) :op2 ( / girl))");
+        assertEquals(1, e.line);
+        assertEquals(32, e.column);
+
+        e = parseError("(a / and :op1 \"unterminated)");
+        assertEquals(15, e.column);
+
+        e = parseError("(a / and [7 = \"and\" :op1 b)");
+        assertEquals(21, e.column);
+
+        e = parseError("(a / and :op1 ?)");
+        assertEquals(15, e.column);
+    }
+}
@@ -0,0 +1,57 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.alignments.conditional.types.BinaryAlignmentFeature;
+import edu.stanford.nlp.stamr.alignments.conditional.types.UnaryAlignmentFeature;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class EMAlignerTest {
+
+    static PGMTree inferenceGraph(boolean sparse, AMR amr, UnaryAlignmentFeature[] unary, BinaryAlignmentFeature[] binary) {
+        boolean sparseInference = EMAligner.SPARSE_INFERENCE;
+        EMAligner.SPARSE_INFERENCE = sparse;
+        try {
+            return EMAligner.prepareExactInferenceGraph(amr, unary, binary);
+        }
+        finally {
+            EMAligner.SPARSE_INFERENCE = sparseInference;
+        }
+    }
+
+    @Theory
+    public void testSparseInferenceMatchesDense(@ForAll(sampleSize = 3) @From(ForestBankGen.class) AMR[] bank,
+                                                @ForAll(sampleSize = 1) @From(RandomFeaturesGen.class) RandomFeatures features) {
+        int forests = 0;
+        for (AMR amr : bank) {
+            if (amr.topologicalSortOnlyConnected().size() < amr.nodes.size()) forests++;
+
+            inferenceGraph(false, amr, features.unary, features.binary).getMarginals();
+            Map<AMR.Node,double[]> denseMarginals = new IdentityHashMap<>();
+            for (AMR.Node node : amr.nodes) denseMarginals.put(node, node.softAlignments);
+            inferenceGraph(true, amr, features.unary, features.binary).getMarginals();
+            for (AMR.Node node : amr.nodes) {
+                PGMTreeTest.assertSameDistribution(denseMarginals.get(node), node.softAlignments);
+            }
+
+            double denseProb = inferenceGraph(false, amr, features.unary, features.binary).getMLE();
+            Map<AMR.Node,Integer> denseAlignments = new IdentityHashMap<>();
+            for (AMR.Node node : amr.nodes) denseAlignments.put(node, node.alignment);
+            double sparseProb = inferenceGraph(true, amr, features.unary, features.binary).getMLE();
+            assertEquals(denseProb, sparseProb, 1e-9);
+            for (AMR.Node node : amr.nodes) {
+                assertEquals((int)denseAlignments.get(node), node.alignment);
+            }
+        }
+        assertTrue(forests > 0);
+    }
+}
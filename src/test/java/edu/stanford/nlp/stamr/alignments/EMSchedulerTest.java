@@ -0,0 +1,89 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.ontonotes.SRL;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(Theories.class)
+public class EMSchedulerTest {
+
+    @Theory
+    public void testRunsEverythingOnce(@ForAll(sampleSize = 5) @From(StarBankGen.class) AMR[] bank,
+                                       @ForAll(sampleSize = 2) @From(SRLBankGen.class) SRL[] augmentBank,
+                                       @ForAll(sampleSize = 3) @InRange(minInt = 1, maxInt = 8) int threads)
+            throws InterruptedException {
+        EMScheduler scheduler = new EMScheduler(bank, augmentBank, threads);
+        try {
+            // The most expensive AMRs go first
+            long lastCost = Long.MAX_VALUE;
+            for (AMR[] chunk : scheduler.amrChunks) {
+                for (AMR amr : chunk) {
+                    assertTrue(EMScheduler.cost(amr) <= lastCost);
+                    lastCost = EMScheduler.cost(amr);
+                }
+            }
+
+            for (int step = 0; step < 2; step++) {
+                Map<Object,Integer> seen = Collections.synchronizedMap(new IdentityHashMap<>());
+                boolean[] badWorker = new boolean[1];
+                scheduler.run((worker, amrs, srls) -> {
+                    if (worker < 0 || worker >= threads) badWorker[0] = true;
+                    for (AMR amr : amrs) seen.merge(amr, 1, Integer::sum);
+                    for (SRL srl : srls) seen.merge(srl, 1, Integer::sum);
+                });
+                assertFalse(badWorker[0]);
+                assertEquals(bank.length + augmentBank.length, seen.size());
+                for (AMR amr : bank) assertEquals(1, (int)seen.get(amr));
+                for (SRL srl : augmentBank) assertEquals(1, (int)seen.get(srl));
+            }
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Theory
+    public void testReduce(@ForAll(sampleSize = 3) @InRange(minInt = 1, maxInt = 12) int threads)
+            throws InterruptedException {
+        EMScheduler scheduler = new EMScheduler(new AMR[0], new SRL[0], threads);
+        try {
+            AtomicLong[] sums = new AtomicLong[threads];
+            for (int t = 0; t < threads; t++) sums[t] = new AtomicLong(t + 1);
+            scheduler.reduce(sums, (into, from) -> into.addAndGet(from.get()));
+            assertEquals(threads * (threads + 1) / 2, sums[0].get());
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Theory
+    public void testFailuresReachTheCaller(@ForAll(sampleSize = 3) @From(StarBankGen.class) AMR[] bank)
+            throws InterruptedException {
+        assumeTrue(bank.length > 0);
+        EMScheduler scheduler = new EMScheduler(bank, new SRL[0], 3);
+        try {
+            scheduler.run((worker, amrs, srls) -> {
+                if (amrs.length > 0) throw new IllegalStateException("boom");
+            });
+            fail("Exception was swallowed");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.AMRSlurp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * The dev subset with some nodes cut off from their parents, so there are roots besides the head, and getMatches()
+ * filled in for every node so we don't need CoreNLP annotations.
+ */
+public class ForestBankGen extends Generator<AMR[]> {
+    public ForestBankGen(Class<AMR[]> type) {
+        super(type);
+    }
+
+    @Override
+    public AMR[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        AMR[] bank;
+        try {
+            bank = AMRSlurp.slurp("data/dev-100-subset.txt", AMRSlurp.Format.LDC);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (AMR amr : bank) {
+            // In breadth first order from the head, which (unlike amr.nodes) is the same every run.
+            // removeArc() finds arcs with equals(), so leave alone any arc that looks the same as another.
+            List<AMR.Node> nodes = amr.topologicalSort();
+            List<AMR.Arc> arcs = new ArrayList<>(amr.arcs);
+            for (AMR.Node node : nodes) {
+                AMR.Arc parentArc = amr.getParentArc(node);
+                if (node != amr.head && sourceOfRandomness.nextInt(8) == 0 && Collections.frequency(arcs, parentArc) == 1) {
+                    amr.removeArc(parentArc);
+                }
+            }
+            setMatches(amr, nodes, sourceOfRandomness);
+        }
+        return bank;
+    }
+
+    /**
+     * Some nodes (and the null node, which roots get their parent matches from) have no matches, some match
+     * everything, the rest a few tokens.
+     */
+    static void setMatches(AMR amr, List<AMR.Node> nodes, SourceOfRandomness sourceOfRandomness) {
+        int tokens = amr.sourceTokenCount();
+        List<AMR.Node> withNull = new ArrayList<>(nodes);
+        withNull.add(amr.nullNode);
+        for (AMR.Node node : withNull) {
+            Set<Integer> matches = new HashSet<>();
+            int kind = sourceOfRandomness.nextInt(5);
+            if (kind == 0) {
+                for (int i = 0; i < tokens; i++) matches.add(i);
+            }
+            else if (kind != 1) {
+                int size = sourceOfRandomness.nextInt(1, Math.min(tokens, 4));
+                for (int i = 0; i < size; i++) matches.add(sourceOfRandomness.nextInt(tokens));
+            }
+            amr.matchesCache.put(node, matches);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import edu.stanford.nlp.stamr.AMR;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class PGMTreeTest {
+
+    static void assertSameDistribution(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 1e-9);
+        }
+    }
+
+    @Theory
+    public void testSparseMatchesDense(@ForAll(sampleSize = 3) @From(TrainBankFactorsGen.class) TreeFactors[] bank) {
+        for (TreeFactors factors : bank) {
+            AMR amr = factors.amr;
+            factors.denseTree().getMarginals();
+            Map<AMR.Node,double[]> denseMarginals = new IdentityHashMap<>();
+            for (AMR.Node node : amr.nodes) denseMarginals.put(node, node.softAlignments);
+            factors.sparseTree().getMarginals();
+            for (AMR.Node node : amr.nodes) {
+                assertSameDistribution(denseMarginals.get(node), node.softAlignments);
+            }
+
+            // MLE message passing starts from clean messages, so on new trees
+            double denseProb = factors.denseTree().getMLE();
+            Map<AMR.Node,Integer> denseAlignments = new IdentityHashMap<>();
+            for (AMR.Node node : amr.nodes) denseAlignments.put(node, node.alignment);
+            double sparseProb = factors.sparseTree().getMLE();
+            assertEquals(denseProb, sparseProb, 1e-9);
+            for (AMR.Node node : amr.nodes) {
+                assertEquals((int)denseAlignments.get(node), node.alignment);
+            }
+        }
+    }
+
+    @Theory
+    public void testSparseMatchesBruteForce(@ForAll(sampleSize = 5) @From(SmallTreeFactorsGen.class) TreeFactors factors) {
+        PGMTree sparse = factors.sparseTree();
+        sparse.passMessages(PGMTree.MessagePassingType.SUM_PRODUCT);
+        for (AMR.Node node : factors.amr.nodes) {
+            assertSameDistribution(sparse.getMarginalBruteForce(node), sparse.getMarginal(node));
+        }
+    }
+
+    @Theory
+    public void testTinyFactorsDontUnderflow(@ForAll(sampleSize = 5) @From(TrainBankFactorsGen.class) TreeFactors[] bank) {
+        for (TreeFactors factors : bank) {
+            // Every probability is below the smallest double, so summing them outside log space gets nothing
+            TreeFactors tiny = factors.shifted(-1000.0);
+            for (PGMTree tree : new PGMTree[]{tiny.sparseTree(), tiny.denseTree()}) {
+                factors.sparseTree().getMarginals();
+                Map<AMR.Node,double[]> marginals = new IdentityHashMap<>();
+                for (AMR.Node node : factors.amr.nodes) marginals.put(node, node.softAlignments);
+                tree.getMarginals();
+                for (AMR.Node node : factors.amr.nodes) {
+                    assertSameDistribution(marginals.get(node), node.softAlignments);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.alignments.conditional.types.BinaryAlignmentFeature;
+import edu.stanford.nlp.stamr.alignments.conditional.types.UnaryAlignmentFeature;
+import edu.stanford.nlp.stamr.ontonotes.SRL;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Features for EMAligner that score alignments by hashing them, so the same alignment always gets the same score.
+ */
+public class RandomFeatures {
+    final long salt;
+    final UnaryAlignmentFeature[] unary;
+    final BinaryAlignmentFeature[] binary;
+
+    RandomFeatures(long salt) {
+        this.salt = salt;
+        this.unary = new UnaryAlignmentFeature[]{new RandomUnaryFeature()};
+        this.binary = new BinaryAlignmentFeature[]{new RandomBinaryFeature()};
+    }
+
+    /**
+     * A made up score in [0, 1) for the given arguments, that's zero about a quarter of the time, so some nodes and
+     * some parent alignments end up with no evidence at all.
+     */
+    double score(Object... args) {
+        double score = new Random(salt * 31 + Arrays.hashCode(args)).nextDouble();
+        return score < 0.25 ? 0.0 : score;
+    }
+
+    class RandomUnaryFeature extends UnaryAlignmentFeature {
+        @Override
+        public double score(AMR amr, AMR.Node node, int token) {
+            // Some nodes get nothing anywhere
+            if (RandomFeatures.this.score(node.ref, node.title) == 0.0) return 0.0;
+            return RandomFeatures.this.score(node.ref, node.title, token);
+        }
+
+        @Override public void observe(SRL srl) {}
+        @Override public void observe(AMR amr, AMR.Node node, int token, double probability) {}
+        @Override public void addAll(UnaryAlignmentFeature uf) {}
+        @Override public void clear() {}
+        @Override public void cook() {}
+    }
+
+    class RandomBinaryFeature extends BinaryAlignmentFeature {
+        @Override
+        public double score(AMR amr, AMR.Node node, int token, int parentToken, AMR.Arc parentArc) {
+            return RandomFeatures.this.score(node.ref, node.title, token, parentToken, parentArc.title);
+        }
+
+        @Override public void observe(SRL srl) {}
+        @Override public void observe(AMR amr, AMR.Node node, int token, int parentToken, AMR.Arc parentArc, double probability) {}
+        @Override public void addAll(BinaryAlignmentFeature bf) {}
+        @Override public void clear() {}
+        @Override public void cook() {}
+    }
+
+    @Override
+    public String toString() {
+        return "features salted with "+salt;
+    }
+}
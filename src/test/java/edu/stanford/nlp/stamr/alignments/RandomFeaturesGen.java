@@ -0,0 +1,19 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * A made up unary and binary feature, scoring every alignment in [0, 1) and about a quarter of them zero.
+ */
+public class RandomFeaturesGen extends Generator<RandomFeatures> {
+    public RandomFeaturesGen(Class<RandomFeatures> type) {
+        super(type);
+    }
+
+    @Override
+    public RandomFeatures generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        return new RandomFeatures(sourceOfRandomness.nextLong());
+    }
+}
@@ -0,0 +1,22 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.stanford.nlp.stamr.ontonotes.SRL;
+
+/**
+ * Up to 100 one token SRL examples to augment a bank with.
+ */
+public class SRLBankGen extends Generator<SRL[]> {
+    public SRLBankGen(Class<SRL[]> type) {
+        super(type);
+    }
+
+    @Override
+    public SRL[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        SRL[] bank = new SRL[sourceOfRandomness.nextInt(100)];
+        for (int i = 0; i < bank.length; i++) bank[i] = new SRL("token", "sense-01", i);
+        return bank;
+    }
+}
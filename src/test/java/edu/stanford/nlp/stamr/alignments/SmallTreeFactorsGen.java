@@ -0,0 +1,23 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.PenmanParser;
+
+/**
+ * Random factors on an AMR small enough to brute force the marginals of: four nodes over five tokens.
+ */
+public class SmallTreeFactorsGen extends Generator<TreeFactors> {
+    public SmallTreeFactorsGen(Class<TreeFactors> type) {
+        super(type);
+    }
+
+    @Override
+    public TreeFactors generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        AMR amr = PenmanParser.parse("(a / and :op1 (b / boy) :op2 (g / girl :mod (t / tall)))");
+        amr.sourceText = new String[]{"the", "tall", "boy", "and", "girl"};
+        return TreeFactors.random(amr, sourceOfRandomness);
+    }
+}
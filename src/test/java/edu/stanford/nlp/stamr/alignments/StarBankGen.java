@@ -0,0 +1,30 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.PenmanParser;
+
+/**
+ * Banks of up to 200 AMRs that are an "and" of up to 9 boys, over sentences of 1 to 40 tokens, so they cost
+ * anything from nothing to quite a lot to align.
+ */
+public class StarBankGen extends Generator<AMR[]> {
+    public StarBankGen(Class<AMR[]> type) {
+        super(type);
+    }
+
+    @Override
+    public AMR[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        AMR[] bank = new AMR[sourceOfRandomness.nextInt(200)];
+        for (int i = 0; i < bank.length; i++) {
+            StringBuilder sb = new StringBuilder("(a / and");
+            int children = sourceOfRandomness.nextInt(10);
+            for (int c = 0; c < children; c++) sb.append(" :op").append(c + 1).append(" (b").append(c).append(" / boy)");
+            bank[i] = PenmanParser.parse(sb.append(")").toString());
+            bank[i].sourceText = new String[sourceOfRandomness.nextInt(1, 40)];
+        }
+        return bank;
+    }
+}
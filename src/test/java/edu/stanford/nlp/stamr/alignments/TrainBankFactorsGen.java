@@ -0,0 +1,33 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.AMRSlurp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Random factors for each AMR in the three sentence training subset.
+ */
+public class TrainBankFactorsGen extends Generator<TreeFactors[]> {
+    public TrainBankFactorsGen(Class<TreeFactors[]> type) {
+        super(type);
+    }
+
+    @Override
+    public TreeFactors[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        AMR[] bank;
+        try {
+            bank = AMRSlurp.slurp("data/train-3-subset.txt", AMRSlurp.Format.LDC);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        TreeFactors[] factors = new TreeFactors[bank.length];
+        for (int i = 0; i < bank.length; i++) factors[i] = TreeFactors.random(bank[i], sourceOfRandomness);
+        return factors;
+    }
+}
@@ -0,0 +1,145 @@
+package edu.stanford.nlp.stamr.alignments;
+
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.stanford.nlp.stamr.AMR;
+
+import java.util.*;
+
+/**
+ * Random factors for every node of an AMR, the way EMAligner sets them: a node's factor and the joint factor on its
+ * parent arc. They can be set on a sparse tree, or on a dense tree that means the same thing.
+ */
+public class TreeFactors {
+    final AMR amr;
+    // The tokens each node can align to, or null for anywhere
+    final Map<AMR.Node,int[]> supports = new IdentityHashMap<>();
+    final Map<AMR.Node,double[]> factors = new IdentityHashMap<>();
+    // The parent alignments with their own row in the parent arc's joint factor, and those rows
+    final Map<AMR.Node,int[]> rowValues = new IdentityHashMap<>();
+    final Map<AMR.Node,double[][]> rows = new IdentityHashMap<>();
+    // Added to every log factor, which scales the whole distribution without changing any marginal
+    double shift = 0.0;
+
+    TreeFactors(AMR amr) {
+        this.amr = amr;
+    }
+
+    static TreeFactors random(AMR amr, SourceOfRandomness sourceOfRandomness) {
+        TreeFactors factors = new TreeFactors(amr);
+        int tokens = amr.sourceTokenCount();
+        for (AMR.Node node : amr.nodes) {
+            // Some nodes could align anywhere, the rest only to a few tokens
+            if (sourceOfRandomness.nextInt(5) == 0) factors.supports.put(node, null);
+            else {
+                Set<Integer> support = new TreeSet<>();
+                int size = sourceOfRandomness.nextInt(1, Math.min(tokens, 4));
+                while (support.size() < size) support.add(sourceOfRandomness.nextInt(tokens));
+                int[] array = new int[size];
+                int i = 0;
+                for (int alignment : support) array[i++] = alignment;
+                factors.supports.put(node, array);
+            }
+        }
+
+        for (AMR.Node node : amr.nodes) {
+            int size = factors.size(node);
+            double[] factor = new double[size];
+            for (int i = 0; i < size; i++) factor[i] = Math.log(sourceOfRandomness.nextDouble());
+            factors.factors.put(node, factor);
+
+            int[] parentSupport = factors.supports.get(amr.getParentArc(node).head);
+            List<Integer> parentValues = new ArrayList<>();
+            for (int i = 0; i < tokens; i++) {
+                boolean supported = parentSupport == null || Arrays.binarySearch(parentSupport, i) >= 0;
+                if (supported && sourceOfRandomness.nextInt(4) != 0) parentValues.add(i);
+            }
+            int[] rowValues = new int[parentValues.size()];
+            double[][] rows = new double[parentValues.size()][size];
+            for (int i = 0; i < rowValues.length; i++) {
+                rowValues[i] = parentValues.get(i);
+                for (int j = 0; j < size; j++) rows[i][j] = Math.log(sourceOfRandomness.nextDouble());
+            }
+            factors.rowValues.put(node, rowValues);
+            factors.rows.put(node, rows);
+        }
+        return factors;
+    }
+
+    /**
+     * The same factors, each multiplied by exp(by).
+     */
+    TreeFactors shifted(double by) {
+        TreeFactors shifted = new TreeFactors(amr);
+        shifted.supports.putAll(supports);
+        shifted.rowValues.putAll(rowValues);
+        shifted.shift = shift + by;
+        for (AMR.Node node : amr.nodes) {
+            double[] factor = factors.get(node).clone();
+            for (int i = 0; i < factor.length; i++) factor[i] += by;
+            shifted.factors.put(node, factor);
+            double[][] rows = new double[this.rows.get(node).length][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = this.rows.get(node)[i].clone();
+                for (int j = 0; j < rows[i].length; j++) rows[i][j] += by;
+            }
+            shifted.rows.put(node, rows);
+        }
+        return shifted;
+    }
+
+    int size(AMR.Node node) {
+        int[] support = supports.get(node);
+        return support == null ? amr.sourceTokenCount() : support.length;
+    }
+
+    /**
+     * Parent alignments without a row of their own in a joint factor are uniform over the node's alignments.
+     */
+    double otherRows() {
+        return Math.log(1.0 / amr.sourceTokenCount()) + shift;
+    }
+
+    PGMTree sparseTree() {
+        PGMTree tree = new PGMTree(amr);
+        for (AMR.Node node : amr.nodes) {
+            tree.setFactor(node, supports.get(node), factors.get(node));
+            AMR.Arc parentArc = amr.getParentArc(node);
+            if (parentArc == amr.nullArc) tree.setRootFactor(node, rowValues.get(node), rows.get(node), otherRows());
+            else tree.setFactor(parentArc, rowValues.get(node), rows.get(node), otherRows());
+        }
+        return tree;
+    }
+
+    PGMTree denseTree() {
+        PGMTree tree = new PGMTree(amr);
+        int tokens = amr.sourceTokenCount();
+        for (AMR.Node node : amr.nodes) {
+            int[] support = supports.get(node);
+            double[] factor = factors.get(node);
+            double[] denseFactor = new double[tokens];
+            Arrays.fill(denseFactor, Double.NEGATIVE_INFINITY);
+            for (int i = 0; i < factor.length; i++) denseFactor[support == null ? i : support[i]] = factor[i];
+            tree.setFactor(node, denseFactor);
+
+            int[] rowValues = this.rowValues.get(node);
+            double[][] rows = this.rows.get(node);
+            double[][] denseJoint = new double[tokens][tokens];
+            for (double[] denseRow : denseJoint) Arrays.fill(denseRow, otherRows());
+            for (int i = 0; i < rowValues.length; i++) {
+                Arrays.fill(denseJoint[rowValues[i]], Double.NEGATIVE_INFINITY);
+                for (int j = 0; j < factor.length; j++) {
+                    denseJoint[rowValues[i]][support == null ? j : support[j]] = rows[i][j];
+                }
+            }
+            AMR.Arc parentArc = amr.getParentArc(node);
+            if (parentArc == amr.nullArc) tree.setRootFactor(node, denseJoint);
+            else tree.setFactor(parentArc, denseJoint);
+        }
+        return tree;
+    }
+
+    @Override
+    public String toString() {
+        return amr.toString();
+    }
+}
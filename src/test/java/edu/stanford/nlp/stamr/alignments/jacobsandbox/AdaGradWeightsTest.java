@@ -0,0 +1,132 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class AdaGradWeightsTest {
+
+    @Theory
+    public void testMatchesAdaGrad(@ForAll(sampleSize = 10) @From(GradientStepsGen.class) GradientSteps steps) {
+        AdaGradWeights weights = new AdaGradWeights();
+        weights.ensureCapacity(steps.features);
+        double[] v = new double[steps.features];
+        double[] s = new double[steps.features];
+        boolean[] started = new boolean[steps.features];
+        for (int i = 0; i < steps.ids.length; i++) {
+            int id = steps.ids[i];
+            double gradient = steps.gradients[i];
+            weights.update(id, gradient, 0.3);
+
+            // The first step for a feature starts its sum of squares at DELTA
+            if (!started[id]) {
+                s[id] = gradient * gradient + AdaGradWeights.DELTA;
+                started[id] = true;
+            }
+            else s[id] += gradient * gradient;
+            v[id] += 0.3 * gradient / Math.sqrt(s[id]);
+        }
+        for (int id = 0; id < steps.features; id++) {
+            assertEquals(v[id], weights.get(id), 1e-12);
+        }
+        assertEquals(0.0, weights.get(steps.features), 0.0);
+    }
+
+    @Theory
+    public void testConcurrentUpdatesAreNotLost(@ForAll(sampleSize = 3) @InRange(minInt = 2, maxInt = 8) int threads)
+            throws InterruptedException {
+        AdaGradWeights weights = new AdaGradWeights();
+        weights.ensureCapacity(4);
+        AdaGradWeights expected = new AdaGradWeights();
+        expected.ensureCapacity(4);
+
+        // Every step is the same, so the result doesn't depend on the order the threads take them in
+        int steps = 20000;
+        for (int i = 0; i < threads * steps; i++) expected.update(i % 4, 1.0, 0.1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < steps; i++) weights.update(i % 4, 1.0, 0.1);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+
+        for (int id = 0; id < 4; id++) {
+            assertEquals(expected.s[id], weights.s[id], 0.0);
+            assertEquals(expected.get(id), weights.get(id), 0.0);
+        }
+    }
+
+    @Theory
+    public void testGradientBuffer(@ForAll(sampleSize = 10) @From(NodeExpectationsGen.class) NodeExpectations[] nodes) {
+        AdaGradWeights weights = new AdaGradWeights();
+        weights.ensureCapacity(20);
+        AdaGradWeights expected = new AdaGradWeights();
+        expected.ensureCapacity(20);
+        GradientBuffer buffer = new GradientBuffer(20);
+        for (NodeExpectations node : nodes) {
+            double[] src = new double[20];
+            double[] tar = new double[20];
+            boolean[] touched = new boolean[20];
+            double zSrc = 0.0, zTar = 0.0;
+            for (int i = 0; i < node.features.length; i++) {
+                int[] features = node.features[i];
+                double probSrc = node.probSrc[i];
+                double probTar = node.probTar[i];
+                buffer.add(features, probSrc, probTar);
+                for (int id : features) {
+                    src[id] += probSrc;
+                    tar[id] += probTar;
+                    touched[id] = true;
+                }
+                zSrc += probSrc;
+                zTar += probTar;
+            }
+            buffer.apply(weights, zSrc, zTar, 0.3);
+            for (int id = 0; id < 20; id++) {
+                if (touched[id]) expected.update(id, (-1.0 / zSrc) * src[id] + (1.0 / zTar) * tar[id], 0.3);
+            }
+        }
+        for (int id = 0; id < 20; id++) {
+            assertEquals(expected.get(id), weights.get(id), 0.0);
+        }
+    }
+
+    @Theory
+    public void testSerializedWeightsStillUpdate(@ForAll(sampleSize = 10) @From(GradientStepsGen.class) GradientSteps steps)
+            throws IOException, ClassNotFoundException {
+        AdaGradWeights weights = new AdaGradWeights();
+        weights.ensureCapacity(steps.features);
+        int half = steps.ids.length / 2;
+        steps.apply(weights, 0, half, 0.3);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(weights);
+        }
+        AdaGradWeights read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (AdaGradWeights) in.readObject();
+        }
+
+        // Both copies go on the same way, which needs the locks back
+        steps.apply(weights, half, steps.ids.length, 0.3);
+        steps.apply(read, half, steps.ids.length, 0.3);
+        for (int id = 0; id < steps.features; id++) {
+            assertEquals(weights.s[id], read.s[id], 0.0);
+            assertEquals(weights.get(id), read.get(id), 0.0);
+        }
+    }
+}
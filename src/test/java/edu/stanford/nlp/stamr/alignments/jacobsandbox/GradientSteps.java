@@ -0,0 +1,25 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+/**
+ * A run of AdaGrad updates over a handful of features.
+ */
+public class GradientSteps {
+    final int features;
+    final int[] ids;
+    final double[] gradients;
+
+    GradientSteps(int features, int[] ids, double[] gradients) {
+        this.features = features;
+        this.ids = ids;
+        this.gradients = gradients;
+    }
+
+    void apply(AdaGradWeights weights, int from, int to, double eta) {
+        for (int i = from; i < to; i++) weights.update(ids[i], gradients[i], eta);
+    }
+
+    @Override
+    public String toString() {
+        return ids.length+" steps over "+features+" features";
+    }
+}
@@ -0,0 +1,25 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * 1000 steps over 10 features, so every feature is updated plenty of times, with standard normal gradients.
+ */
+public class GradientStepsGen extends Generator<GradientSteps> {
+    public GradientStepsGen(Class<GradientSteps> type) {
+        super(type);
+    }
+
+    @Override
+    public GradientSteps generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        int[] ids = new int[1000];
+        double[] gradients = new double[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = sourceOfRandomness.nextInt(10);
+            gradients[i] = sourceOfRandomness.nextGaussian();
+        }
+        return new GradientSteps(10, ids, gradients);
+    }
+}
@@ -0,0 +1,30 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+import java.util.Arrays;
+
+/**
+ * Models part way through training: weights for the VAL features of word-0 to word-49 and a shared NER feature, a
+ * dictionary with counts in it, and an NER dictionary with only its base distribution. No lemma dictionary.
+ */
+public class ModelGen extends Generator<Model> {
+    public ModelGen(Class<Model> type) {
+        super(type);
+    }
+
+    @Override
+    public Model generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        Model model = new Model();
+        for (int i = 0; i < 100; i++) {
+            int[] ids = model.indexFeatures(Arrays.asList("VAL|word-" + sourceOfRandomness.nextInt(50) + "|DICT",
+                    "NER|O|DICT"));
+            for (int id : ids) model.weights.update(id, sourceOfRandomness.nextGaussian(), 0.3);
+        }
+        model.dict = SoftCountsGen.counts(sourceOfRandomness, 1000, 100).dict(3.0, 0.4);
+        model.nerDict = SoftCountsGen.counts(sourceOfRandomness, 0, 100).dict(3.0, 0.4);
+        return model;
+    }
+}
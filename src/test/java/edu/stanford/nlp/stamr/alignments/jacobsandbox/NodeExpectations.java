@@ -0,0 +1,17 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+/**
+ * What one node contributes to a GradientBuffer: for each candidate, the features that fire on it and its
+ * probability under the source and target distributions.
+ */
+public class NodeExpectations {
+    final int[][] features;
+    final double[] probSrc;
+    final double[] probTar;
+
+    NodeExpectations(int[][] features, double[] probSrc, double[] probTar) {
+        this.features = features;
+        this.probSrc = probSrc;
+        this.probTar = probTar;
+    }
+}
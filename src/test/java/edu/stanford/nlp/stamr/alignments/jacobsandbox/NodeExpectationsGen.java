@@ -0,0 +1,33 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * 50 nodes of 1 to 5 candidates, each firing two of 20 features (sometimes the same one twice), with the target
+ * probability no more than the source one.
+ */
+public class NodeExpectationsGen extends Generator<NodeExpectations[]> {
+    public NodeExpectationsGen(Class<NodeExpectations[]> type) {
+        super(type);
+    }
+
+    @Override
+    public NodeExpectations[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        NodeExpectations[] nodes = new NodeExpectations[50];
+        for (int node = 0; node < nodes.length; node++) {
+            int candidates = sourceOfRandomness.nextInt(1, 5);
+            int[][] features = new int[candidates][];
+            double[] probSrc = new double[candidates];
+            double[] probTar = new double[candidates];
+            for (int i = 0; i < candidates; i++) {
+                features[i] = new int[]{sourceOfRandomness.nextInt(20), sourceOfRandomness.nextInt(20)};
+                probSrc[i] = sourceOfRandomness.nextDouble();
+                probTar[i] = probSrc[i] * sourceOfRandomness.nextDouble();
+            }
+            nodes[node] = new NodeExpectations(features, probSrc, probTar);
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,112 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class SoftCountDictTest {
+
+    @Theory
+    public void testMatchesNaiveCounts(@ForAll(sampleSize = 10) @From(SoftCountsGen.class) SoftCounts soft) {
+        Map<String, Integer> freqs = soft.freqs;
+        Model.SoftCountDict dict = soft.dict(3.0, 0.4);
+
+        int total = 0;
+        for (int freq : freqs.values()) total += freq;
+        Map<String, Double> counts = new HashMap<>();
+        Map<String, Double> totals = new HashMap<>();
+        Map<String, Double> uniqueCounts = new HashMap<>();
+        for (int i = 0; i < soft.amounts.length; i++) {
+            String x = soft.words[i];
+            String y = soft.concepts[i];
+            double dv = soft.amounts[i];
+            double v = counts.getOrDefault(x + " " + y, 0.0);
+            counts.put(x + " " + y, v + dv);
+            totals.put(x, totals.getOrDefault(x, 0.0) + dv);
+            uniqueCounts.put(x, uniqueCounts.getOrDefault(x, 0.0) + Math.min(v + dv, 1.0) - Math.min(v, 1.0));
+        }
+
+        // Including some words that were never counted
+        for (int w = 0; w < 320; w++) {
+            for (int c = 0; c < 60; c++) {
+                String x = "word-" + w;
+                String y = "concept-" + c;
+                double v = counts.getOrDefault(x + " " + y, 0.0);
+                double v0 = freqs.containsKey(y) ? freqs.get(y) / (double) total : 0.0;
+                double u = uniqueCounts.getOrDefault(x, 0.0);
+                double expected = (Math.max(v - 1.0, 0.0) + Math.min(v, 1.0) * 0.6 + (3.0 + u * 0.4) * v0)
+                        / (totals.getOrDefault(x, 0.0) + 3.0);
+                assertEquals(expected, dict.getProb(x, y), 1e-9);
+            }
+        }
+    }
+
+    @Theory
+    public void testConcurrentAdds(@ForAll(sampleSize = 3) @InRange(minInt = 2, maxInt = 8) int threads)
+            throws InterruptedException {
+        Model.SoftCountDict dict = new Model.SoftCountDict(new HashMap<>(), 1.0, 0.0);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) dict.addCount("word-" + (i % 500), "concept-" + (i % 7), 1.0);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+
+        // Counts of whole numbers add up exactly, whatever order they come in. With alpha = 0 and no base
+        // distribution, getProb() is just (count - 1 + min(count, 1)) / (total + 1)
+        for (int w = 0; w < 500; w++) {
+            double total = 0.0;
+            Map<Integer, Integer> perConcept = new HashMap<>();
+            for (int i = w; i < 20000; i += 500) {
+                perConcept.merge(i % 7, threads, Integer::sum);
+                total += threads;
+            }
+            for (int c = 0; c < 7; c++) {
+                double count = perConcept.getOrDefault(c, 0);
+                double expected = (Math.max(count - 1.0, 0.0) + Math.min(count, 1.0)) / (total + 1.0);
+                assertEquals(expected, dict.getProb("word-" + w, "concept-" + c), 0.0);
+            }
+        }
+    }
+
+    @Theory
+    public void testRoundTrip(@ForAll(sampleSize = 3) @From(ModelGen.class) Model model) throws IOException {
+        // Some of these words never got a feature
+        List<List<String>> features = new ArrayList<>();
+        for (int w = 0; w < 60; w++) features.add(Arrays.asList("VAL|word-" + w + "|DICT", "NER|O|DICT"));
+
+        File file = File.createTempFile("model", ".model.gz");
+        file.deleteOnExit();
+        model.write(file.getPath());
+        Model read = Model.read(file.getPath());
+
+        for (List<String> f : features) assertEquals(model.score(f), read.score(f), 0.0);
+        assertNull(read.lemmaDict);
+        for (int x = 0; x < 110; x++) {
+            for (int y = 0; y < 60; y++) {
+                assertEquals(model.dict.getProb("word-" + x, "concept-" + y),
+                        read.dict.getProb("word-" + x, "concept-" + y), 0.0);
+                assertEquals(model.nerDict.getProb("word-" + x, "concept-" + y),
+                        read.nerDict.getProb("word-" + x, "concept-" + y), 0.0);
+            }
+        }
+
+        // Adding to a dictionary that was read back works like adding to the original
+        model.dict.addCount("word-1", "concept-1", 2.5);
+        read.dict.addCount("word-1", "concept-1", 2.5);
+        assertEquals(model.dict.getProb("word-1", "concept-1"), read.dict.getProb("word-1", "concept-1"), 0.0);
+    }
+}
@@ -0,0 +1,31 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+import java.util.Map;
+
+/**
+ * Concept frequencies for a SoftCountDict's base distribution, and the soft counts to add to it.
+ */
+public class SoftCounts {
+    final Map<String, Integer> freqs;
+    final String[] words;
+    final String[] concepts;
+    final double[] amounts;
+
+    SoftCounts(Map<String, Integer> freqs, String[] words, String[] concepts, double[] amounts) {
+        this.freqs = freqs;
+        this.words = words;
+        this.concepts = concepts;
+        this.amounts = amounts;
+    }
+
+    Model.SoftCountDict dict(double gamma, double alpha) {
+        Model.SoftCountDict dict = new Model.SoftCountDict(freqs, gamma, alpha);
+        for (int i = 0; i < words.length; i++) dict.addCount(words[i], concepts[i], amounts[i]);
+        return dict;
+    }
+
+    @Override
+    public String toString() {
+        return amounts.length+" counts over "+freqs.size()+" concepts";
+    }
+}
@@ -0,0 +1,37 @@
+package edu.stanford.nlp.stamr.alignments.jacobsandbox;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Frequencies for concept-0 to concept-49, and 5000 counts of word-0 to word-299 against concept-0 to concept-59, so
+ * some concepts aren't in the base distribution and the dictionary's table has to grow a few times.
+ */
+public class SoftCountsGen extends Generator<SoftCounts> {
+    public SoftCountsGen(Class<SoftCounts> type) {
+        super(type);
+    }
+
+    @Override
+    public SoftCounts generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        return counts(sourceOfRandomness, 5000, 300);
+    }
+
+    static SoftCounts counts(SourceOfRandomness sourceOfRandomness, int adds, int numWords) {
+        Map<String, Integer> freqs = new HashMap<>();
+        for (int i = 0; i < 50; i++) freqs.put("concept-" + i, sourceOfRandomness.nextInt(1, 20));
+        String[] words = new String[adds];
+        String[] concepts = new String[adds];
+        double[] amounts = new double[adds];
+        for (int i = 0; i < adds; i++) {
+            words[i] = "word-" + sourceOfRandomness.nextInt(numWords);
+            concepts[i] = "concept-" + sourceOfRandomness.nextInt(60);
+            amounts[i] = sourceOfRandomness.nextDouble();
+        }
+        return new SoftCounts(freqs, words, concepts, amounts);
+    }
+}
@@ -0,0 +1,230 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import edu.stanford.nlp.pipeline.Annotation;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class AnnotationClientTest {
+
+    /**
+     * Speaks the annotation protocol, but does what the request text tells it to: "slow N ..." answers after N ms,
+     * "hang" never answers, "die" drops the connection, "error" answers with an error, and anything else is
+     * echoed back as a single sentence right away.
+     */
+    static class StandInServer implements Closeable {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final ScheduledExecutorService answerer = Executors.newScheduledThreadPool(4);
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger mostInFlight = new AtomicInteger();
+
+        StandInServer() throws IOException {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        Thread reader = new Thread(() -> serve(socket));
+                        reader.setDaemon(true);
+                        reader.start();
+                    }
+                }
+                catch (IOException e) {
+                    // Closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        void serve(Socket socket) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                AtomicInteger inFlight = new AtomicInteger();
+                AnnotationProtocol.readHello(in);
+                AnnotationProtocol.Request request;
+                while ((request = AnnotationProtocol.readRequest(in)) != null) {
+                    mostInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    final AnnotationProtocol.Request r = request;
+                    if (r.text.equals("hang")) continue;
+                    if (r.text.equals("die")) {
+                        socket.close();
+                        return;
+                    }
+                    long delay = r.text.startsWith("slow ") ? Long.parseLong(r.text.split(" ")[1]) : 0;
+                    answerer.schedule(() -> {
+                        byte status = r.text.equals("error") ? AnnotationProtocol.ERROR : AnnotationProtocol.OK;
+                        try {
+                            byte[] body = status == AnnotationProtocol.OK
+                                    ? AnnotationProtocol.encode(new MultiSentenceAnnotationWrapper(
+                                            new AnnotationWrapper(new Annotation(r.text))))
+                                    : "no annotations for you".getBytes(StandardCharsets.UTF_8);
+                            synchronized (out) {
+                                inFlight.decrementAndGet();
+                                AnnotationProtocol.writeResponse(out, r.id, status, body);
+                                out.flush();
+                            }
+                        }
+                        catch (IOException e) {
+                            // Client went away
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+            catch (IOException e) {
+                // Client went away
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            answerer.shutdownNow();
+        }
+    }
+
+    static Throwable failureOf(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+        }
+        catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Expected the call to fail");
+        return null;
+    }
+
+    @Theory
+    public void testPipelinedRequests(@ForAll(sampleSize = 1) @From(SlowRequestsGen.class) String[] requests,
+                                      @ForAll(sampleSize = 2) @InRange(minInt = 1, maxInt = 3) int maxConnections,
+                                      @ForAll(sampleSize = 2) @InRange(minInt = 1, maxInt = 6) int maxInFlight)
+            throws Exception {
+        try (StandInServer server = new StandInServer();
+             AnnotationClient client = new AnnotationClient("localhost", server.getPort(), maxConnections, maxInFlight, 10000)) {
+            Map<String, CompletableFuture<MultiSentenceAnnotationWrapper>> calls = new HashMap<>();
+            // Send them before looking at any of the answers
+            for (String text : requests) calls.put(text, client.annotateAsync(text));
+            for (Map.Entry<String, CompletableFuture<MultiSentenceAnnotationWrapper>> call : calls.entrySet()) {
+                MultiSentenceAnnotationWrapper annotation = call.getValue().get();
+                assertEquals(1, annotation.sentences.size());
+                assertEquals(call.getKey(), annotation.sentences.get(0).annotation.toString());
+            }
+            assertTrue(server.connections.get() <= maxConnections);
+            assertTrue(server.mostInFlight.get() <= maxInFlight);
+            // Every connection gets used before we start piling requests onto them
+            assertEquals(maxConnections, client.openConnections());
+        }
+    }
+
+    @Theory
+    public void testTimeoutsFreeTheirSlot() throws Exception {
+        try (StandInServer server = new StandInServer();
+             AnnotationClient client = new AnnotationClient("localhost", server.getPort(), 1, 1, 200)) {
+            assertTrue(failureOf(client.annotateAsync("hang")) instanceof TimeoutException);
+            // The one connection only takes one request at a time, and the server never answered the last one
+            assertEquals("next", client.annotateAsync("next").get().sentences.get(0).annotation.toString());
+            assertEquals(1, server.connections.get());
+        }
+    }
+
+    @Theory
+    public void testFailures() throws Exception {
+        try (StandInServer server = new StandInServer();
+             AnnotationClient client = new AnnotationClient("localhost", server.getPort(), 1, 4, 10000)) {
+            Throwable error = failureOf(client.annotateAsync("error"));
+            assertTrue(error instanceof IOException);
+            assertTrue(error.getMessage().contains("no annotations for you"));
+
+            // Everything in flight on a connection that dies fails with it, and the next call gets a new connection
+            CompletableFuture<MultiSentenceAnnotationWrapper> stuck = client.annotateAsync("hang");
+            assertTrue(failureOf(client.annotateAsync("die")) instanceof IOException);
+            assertTrue(failureOf(stuck) instanceof IOException);
+            assertEquals("alive", client.annotateAsync("alive").get().sentences.get(0).annotation.toString());
+            assertEquals(2, server.connections.get());
+        }
+    }
+
+    @Theory
+    public void testFinishedCallsDontKeepTheirTimeouts() throws Exception {
+        try (StandInServer server = new StandInServer();
+             AnnotationClient client = new AnnotationClient("localhost", server.getPort(), 2, 8, 60000)) {
+            List<CompletableFuture<MultiSentenceAnnotationWrapper>> calls = new ArrayList<>();
+            for (int i = 0; i < 100; i++) calls.add(client.annotateAsync("request " + i));
+            for (CompletableFuture<MultiSentenceAnnotationWrapper> call : calls) call.get();
+            // Cancelled timeouts would otherwise hang around for a minute, holding on to their annotations
+            assertEquals(0, client.pendingTimeouts());
+        }
+    }
+
+    @Theory
+    public void testSlowConnectsDontBlock() throws Exception {
+        // A server that never accepts, with its backlog full, so connecting to it hangs
+        try (ServerSocket full = new ServerSocket(0, 1)) {
+            List<Socket> backlog = new ArrayList<>();
+            try {
+                for (int i = 0; i < 8; i++) {
+                    Socket socket = new Socket();
+                    socket.connect(new InetSocketAddress("localhost", full.getLocalPort()), 200);
+                    backlog.add(socket);
+                }
+            } catch (IOException e) {
+                // Full
+            }
+            try (AnnotationClient client = new AnnotationClient("localhost", full.getLocalPort(), 2, 4, 300)) {
+                long start = System.nanoTime();
+                List<CompletableFuture<MultiSentenceAnnotationWrapper>> calls = new ArrayList<>();
+                for (int i = 0; i < 20; i++) calls.add(client.annotateAsync("request " + i));
+                assertTrue((System.nanoTime() - start) / 1e6 < 200);
+                for (CompletableFuture<MultiSentenceAnnotationWrapper> call : calls) {
+                    assertTrue(failureOf(call) instanceof TimeoutException);
+                }
+            }
+            for (Socket socket : backlog) socket.close();
+        }
+    }
+
+    @Theory
+    public void testNoServer() throws Exception {
+        int port;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            port = unused.getLocalPort();
+        }
+        try (AnnotationClient client = new AnnotationClient("localhost", port, 2, 4, 10000)) {
+            assertTrue(failureOf(client.annotateAsync("anyone there?")) instanceof IOException);
+        }
+    }
+
+    @Theory
+    public void testAgainstAnnotationServer() throws Exception {
+        try (AnnotationServer server = new AnnotationServer(new AnnotationServerTest.FakeBackend(), 0).start();
+             AnnotationClient client = new AnnotationClient("localhost", server.getPort(), 2, 8, 10000)) {
+            List<CompletableFuture<MultiSentenceAnnotationWrapper>> calls = new ArrayList<>();
+            for (int i = 0; i < 100; i++) calls.add(client.annotateAsync("first " + i + "|second " + i));
+            for (int i = 0; i < 100; i++) {
+                MultiSentenceAnnotationWrapper annotation = calls.get(i).get();
+                assertEquals(2, annotation.sentences.size());
+                assertEquals("second " + i, annotation.sentences.get(1).annotation.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import edu.stanford.nlp.pipeline.Annotation;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class AnnotationServerTest {
+
+    /**
+     * Splits on "|", and "annotates" a sentence by wrapping its text, so we can check what came back without CoreNLP.
+     * The sentence "fail" throws an exception, and "overflow" an error.
+     */
+    static class FakeBackend implements AnnotationServer.Backend {
+        final AtomicInteger annotating = new AtomicInteger();
+        final AtomicInteger mostAtOnce = new AtomicInteger();
+
+        @Override
+        public List<String> splitSentences(String text) {
+            if (text.equals("split-fail")) throw new IllegalStateException("can't split that");
+            return Arrays.asList(text.split("\\|"));
+        }
+
+        @Override
+        public AnnotationWrapper annotate(String sentence) {
+            mostAtOnce.accumulateAndGet(annotating.incrementAndGet(), Math::max);
+            try {
+                if (sentence.equals("fail")) throw new IllegalStateException("can't annotate that");
+                if (sentence.equals("overflow")) throw new StackOverflowError("can't parse that");
+                return new AnnotationWrapper(new Annotation(sentence));
+            }
+            finally {
+                annotating.decrementAndGet();
+            }
+        }
+    }
+
+    static void assertAnnotates(String request, AnnotationProtocol.Response response) throws IOException {
+        MultiSentenceAnnotationWrapper annotation = response.annotation();
+        String[] sentences = request.split("\\|");
+        assertEquals(sentences.length, annotation.sentences.size());
+        for (int i = 0; i < sentences.length; i++) {
+            assertEquals(sentences[i], annotation.sentences.get(i).annotation.toString());
+        }
+    }
+
+    @Theory
+    public void testPipelinedRequests(@ForAll(sampleSize = 3) @From(RequestsGen.class) String[] requests)
+            throws IOException {
+        FakeBackend backend = new FakeBackend();
+        try (AnnotationServer server = new AnnotationServer(backend, 0).start();
+             Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            // Send everything before reading anything back
+            Map<Integer, String> sent = new HashMap<>();
+            AnnotationProtocol.writeHello(out);
+            for (int i = 0; i < requests.length; i++) {
+                sent.put(i * 7, requests[i]);
+                AnnotationProtocol.writeRequest(out, i * 7, requests[i]);
+            }
+            out.flush();
+
+            for (int i = 0; i < requests.length; i++) {
+                AnnotationProtocol.Response response = AnnotationProtocol.readResponse(in);
+                assertNotNull(response);
+                assertAnnotates(sent.remove(response.id), response);
+            }
+            assertTrue(sent.isEmpty());
+
+            // Closing our side gets the rest of the answers, then the server hangs up
+            socket.shutdownOutput();
+            assertNull(AnnotationProtocol.readResponse(in));
+        }
+        assertTrue(backend.mostAtOnce.get() <= AnnotationServer.ANNOTATOR_THREADS);
+    }
+
+    @Theory
+    public void testConcurrentConnections(@ForAll(sampleSize = 1) @From(RequestsGen.class) String[] requests,
+                                          @ForAll(sampleSize = 3) @InRange(minInt = 2, maxInt = 8) int connections)
+            throws Exception {
+        try (AnnotationServer server = new AnnotationServer(new FakeBackend(), 0).start()) {
+            AnnotationLoadGenerator.Report report = AnnotationLoadGenerator.run("localhost", server.getPort(),
+                    connections, 50, 8, Arrays.asList(requests));
+            assertEquals(connections * 50, report.requests);
+            assertEquals(0, report.failures);
+            assertTrue(report.percentileMillis(50) <= report.percentileMillis(99));
+        }
+    }
+
+    @Theory
+    public void testFailuresOnlyFailTheirRequest() throws IOException {
+        try (AnnotationServer server = new AnnotationServer(new FakeBackend(), 0).start();
+             Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            AnnotationProtocol.writeHello(out);
+
+            List<String> requests = Arrays.asList("split-fail", "a|fail|b", "fine|also fine", "c|overflow", "still fine");
+            for (int i = 0; i < requests.size(); i++) {
+                AnnotationProtocol.writeRequest(out, i, requests.get(i));
+            }
+            out.flush();
+
+            for (int i = 0; i < requests.size(); i++) {
+                AnnotationProtocol.Response response = AnnotationProtocol.readResponse(in);
+                String request = requests.get(response.id);
+                if (request.contains("fine")) {
+                    assertEquals(AnnotationProtocol.OK, response.status);
+                    assertAnnotates(request, response);
+                }
+                else {
+                    assertEquals(AnnotationProtocol.ERROR, response.status);
+                    assertTrue(response.error().contains("can't"));
+                }
+            }
+
+            // The annotator threads survived all that
+            for (int i = 0; i < 2 * AnnotationServer.ANNOTATOR_THREADS; i++) {
+                AnnotationProtocol.writeRequest(out, i, "c|overflow");
+                AnnotationProtocol.writeRequest(out, i + 100, "still fine");
+                out.flush();
+                for (int j = 0; j < 2; j++) {
+                    AnnotationProtocol.Response response = AnnotationProtocol.readResponse(in);
+                    assertEquals(response.id >= 100 ? AnnotationProtocol.OK : AnnotationProtocol.ERROR, response.status);
+                }
+            }
+        }
+    }
+
+    @Theory
+    public void testFloodedConnectionIsCapped(@ForAll(sampleSize = 3) @InRange(minInt = 1, maxInt = 16) int cap)
+            throws Exception {
+        int maxInFlight = AnnotationServer.MAX_IN_FLIGHT_PER_CONNECTION;
+        AnnotationServer.MAX_IN_FLIGHT_PER_CONNECTION = cap;
+        // Sentences are annotated one per permit, so we decide exactly when each request can be answered
+        Semaphore release = new Semaphore(0);
+        AtomicInteger annotated = new AtomicInteger();
+        AtomicInteger split = new AtomicInteger();
+        AtomicBoolean overran = new AtomicBoolean(false);
+        CountDownLatch full = new CountDownLatch(cap);
+        FakeBackend blocked = new FakeBackend() {
+            @Override
+            public List<String> splitSentences(String text) {
+                // Each request past the first cap has to wait for an earlier one to be answered, and every answer
+                // comes after its sentence is annotated
+                if (split.incrementAndGet() > cap + annotated.get()) overran.set(true);
+                full.countDown();
+                return super.splitSentences(text);
+            }
+
+            @Override
+            public AnnotationWrapper annotate(String sentence) {
+                release.acquireUninterruptibly();
+                try {
+                    return super.annotate(sentence);
+                }
+                finally {
+                    annotated.incrementAndGet();
+                }
+            }
+        };
+        try (AnnotationServer server = new AnnotationServer(blocked, 0).start();
+             Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            AnnotationProtocol.writeHello(out);
+            for (int i = 0; i < 200; i++) {
+                AnnotationProtocol.writeRequest(out, i, "sentence " + i);
+            }
+            out.flush();
+
+            // Let requests through one at a time once the server has taken all it's allowed to
+            full.await();
+            Set<Integer> answered = new HashSet<>();
+            for (int i = 0; i < 200; i++) {
+                release.release();
+                AnnotationProtocol.Response response = AnnotationProtocol.readResponse(in);
+                assertEquals(AnnotationProtocol.OK, response.status);
+                answered.add(response.id);
+            }
+            assertEquals(200, answered.size());
+            assertEquals(200, split.get());
+            assertFalse(overran.get());
+        }
+        finally {
+            AnnotationServer.MAX_IN_FLIGHT_PER_CONNECTION = maxInFlight;
+        }
+    }
+
+    @Theory
+    public void testRejectsStrangers() throws IOException {
+        try (AnnotationServer server = new AnnotationServer(new FakeBackend(), 0).start();
+             Socket socket = new Socket("localhost", server.getPort())) {
+            // What the old client used to send
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.writeObject("hello my darlings");
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+
+/**
+ * Dependency trees over 2 to 16 words with up to 4 extra governors added, so most of them aren't trees any more.
+ */
+public class CollapsedDependencyGraphGen extends Generator<SemanticGraph> {
+    public CollapsedDependencyGraphGen(Class<SemanticGraph> type) {
+        super(type);
+    }
+
+    @Override
+    public SemanticGraph generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        int length = sourceOfRandomness.nextInt(2, 16);
+        return DependencyTreeGen.graph(sourceOfRandomness, length, sourceOfRandomness.nextInt(1, 4));
+    }
+}
@@ -0,0 +1,155 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.EnglishGrammaticalRelations;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class DependencyPathTableTest {
+    static final DependencyPathTable.PathFormat FORMAT = (steps) -> {
+        StringBuilder sb = new StringBuilder();
+        for (DependencyPathTable.Step step : steps) {
+            sb.append(step.up ? ">" : "<").append(step.relation.toString()).append(":").append(step.tag);
+        }
+        return sb.toString();
+    };
+
+    /**
+     * How the feature code wrote out paths before there was a table.
+     */
+    static String slowPath(SemanticGraph graph, int from, int to) {
+        IndexedWord fromWord = graph.getNodeByIndexSafe(from);
+        IndexedWord toWord = graph.getNodeByIndexSafe(to);
+        List<SemanticGraphEdge> edges = graph.getShortestUndirectedPathEdges(fromWord, toWord);
+        if (edges == null) return null;
+        StringBuilder sb = new StringBuilder();
+        IndexedWord currentWord = fromWord;
+        for (SemanticGraphEdge edge : edges) {
+            if (edge.getDependent().equals(currentWord)) {
+                sb.append(">");
+                currentWord = edge.getGovernor();
+            }
+            else {
+                sb.append("<");
+                currentWord = edge.getDependent();
+            }
+            sb.append(edge.getRelation().toString()).append(":").append(currentWord.tag());
+        }
+        return sb.toString();
+    }
+
+    @Theory
+    public void testTreeMatchesShortestPath(@ForAll(sampleSize = 100) @From(DependencyTreeGen.class) SemanticGraph graph) {
+        int length = graph.vertexSet().size();
+        DependencyPathTable table = new DependencyPathTable(graph);
+        assertTrue(table.isTree());
+
+        for (int i = 1; i <= length; i++) {
+            for (int j = 1; j <= length; j++) {
+                assertEquals(slowPath(graph, i, j), table.path(i, j, FORMAT));
+            }
+        }
+    }
+
+    @Theory
+    public void testGraphMatchesShortestPath(
+            @ForAll(sampleSize = 50) @From(CollapsedDependencyGraphGen.class) SemanticGraph graph) {
+        int length = graph.vertexSet().size();
+        DependencyPathTable table = new DependencyPathTable(graph);
+
+        for (int i = 1; i <= length; i++) {
+            for (int j = 1; j <= length; j++) {
+                assertEquals(slowPath(graph, i, j), table.path(i, j, FORMAT));
+            }
+        }
+    }
+
+    @Theory
+    public void testIdsIdentifyPaths(@ForAll(sampleSize = 50) @From(DependencyTreeGen.class) SemanticGraph graph) {
+        int length = graph.vertexSet().size();
+        DependencyPathTable table = new DependencyPathTable(graph);
+
+        for (int i = 1; i <= length; i++) {
+            for (int j = 1; j <= length; j++) {
+                for (int k = 1; k <= length; k++) {
+                    boolean sameId = table.pathId(i, j) == table.pathId(i, k);
+                    assertEquals(sameId, table.path(i, j, FORMAT).equals(table.path(i, k, FORMAT)));
+                }
+            }
+        }
+        assertEquals(DependencyPathTable.NO_PATH, table.pathId(0, 1));
+        assertEquals(DependencyPathTable.NO_PATH, table.pathId(1, length + 1));
+        assertFalse(table.hasWord(length + 1));
+    }
+
+    /**
+     * Counts the shortest path searches, so we can see which ones the table asked for.
+     */
+    static class CountingGraph extends SemanticGraph {
+        final AtomicInteger searches = new AtomicInteger();
+
+        @Override
+        public List<SemanticGraphEdge> getShortestUndirectedPathEdges(IndexedWord source, IndexedWord target) {
+            searches.incrementAndGet();
+            return super.getShortestUndirectedPathEdges(source, target);
+        }
+    }
+
+    @Theory
+    public void testCollapsedGraphSearchesLazily() {
+        // The collapsed, CC-processed dependencies of "Bills on ports and immigration were submitted by Brownback",
+        // where "immigration" gets a second governor from the conjunction
+        String[] tokens = {"Bills", "on", "ports", "and", "immigration", "were", "submitted", "by", "Brownback"};
+        String[] tags = {"NNS", "IN", "NNS", "CC", "NN", "VBD", "VBN", "IN", "NNP"};
+        CountingGraph graph = new CountingGraph();
+        IndexedWord[] words = new IndexedWord[tokens.length + 1];
+        for (int i = 1; i <= tokens.length; i++) {
+            words[i] = new IndexedWord("doc", 0, i);
+            words[i].setTag(tags[i - 1]);
+            // "on", "and" and "by" were collapsed into relations, so they aren't in the graph
+            if (i != 2 && i != 4 && i != 8) graph.addVertex(words[i]);
+        }
+        graph.addRoot(words[7]);
+        graph.addEdge(words[7], words[1], EnglishGrammaticalRelations.valueOf("nsubjpass"), 1.0, false);
+        graph.addEdge(words[1], words[3], EnglishGrammaticalRelations.getPrep("on"), 1.0, false);
+        graph.addEdge(words[3], words[5], EnglishGrammaticalRelations.getConj("and"), 1.0, false);
+        graph.addEdge(words[1], words[5], EnglishGrammaticalRelations.getPrep("on"), 1.0, true);
+        graph.addEdge(words[7], words[6], EnglishGrammaticalRelations.valueOf("auxpass"), 1.0, false);
+        graph.addEdge(words[7], words[9], EnglishGrammaticalRelations.getPrep("by"), 1.0, false);
+
+        DependencyPathTable table = new DependencyPathTable(graph);
+        assertFalse(table.isTree());
+        assertEquals(0, graph.searches.get());
+
+        // The extra governor makes "Bills" to "immigration" one step rather than two
+        assertEquals(">prep_on:NNS", table.path(5, 1, FORMAT));
+        assertEquals(1, graph.searches.get());
+
+        // Each other pair of words is searched for once, the first time it's asked about, and then remembered
+        for (int i = 1; i <= tokens.length; i++) {
+            for (int j = 1; j <= tokens.length; j++) {
+                if (!table.hasWord(i) || !table.hasWord(j)) {
+                    assertNull(table.path(i, j, FORMAT));
+                    continue;
+                }
+                String expected = slowPath(graph, i, j);
+                int searches = graph.searches.get() + (i == 5 && j == 1 ? 0 : 1);
+                assertEquals(expected, table.path(i, j, FORMAT));
+                assertEquals(searches, graph.searches.get());
+                assertEquals(expected, table.path(i, j, FORMAT));
+                assertEquals(searches, graph.searches.get());
+            }
+        }
+    }
+}
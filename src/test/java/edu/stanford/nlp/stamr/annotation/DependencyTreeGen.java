@@ -0,0 +1,73 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.trees.EnglishGrammaticalRelations;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+
+/**
+ * Basic dependency trees over 1 to 25 words, indexed from 1 with no gaps.
+ */
+public class DependencyTreeGen extends Generator<SemanticGraph> {
+    static final String[] RELATIONS = {"nsubj", "dobj", "amod", "det", "nn", "prep", "pobj", "advmod", "conj", "cc"};
+    static final String[] TAGS = {"NN", "NNS", "VB", "VBD", "JJ", "DT", "IN", "RB"};
+
+    public DependencyTreeGen(Class<SemanticGraph> type) {
+        super(type);
+    }
+
+    @Override
+    public SemanticGraph generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        return graph(sourceOfRandomness, sourceOfRandomness.nextInt(1, 25), 0);
+    }
+
+    /**
+     * A random dependency tree over `length` words, with `extraEdges` additional governors thrown in the way the
+     * collapsed dependencies add them.
+     */
+    static SemanticGraph graph(SourceOfRandomness sourceOfRandomness, int length, int extraEdges) {
+        SemanticGraph graph = new SemanticGraph();
+        IndexedWord[] words = new IndexedWord[length + 1];
+        for (int i = 1; i <= length; i++) {
+            words[i] = new IndexedWord("doc", 0, i);
+            words[i].setTag(TAGS[sourceOfRandomness.nextInt(TAGS.length)]);
+            graph.addVertex(words[i]);
+        }
+        int root = sourceOfRandomness.nextInt(1, length);
+        graph.addRoot(words[root]);
+        // Attach each word after the root in a random order, to something already in the tree
+        int[] order = new int[length];
+        for (int i = 0; i < length; i++) order[i] = i + 1;
+        for (int i = length - 1; i > 0; i--) {
+            int j = sourceOfRandomness.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        for (int i = 0; i < length; i++) {
+            if (order[i] == root) {
+                order[i] = order[0];
+                order[0] = root;
+            }
+        }
+        for (int i = 1; i < length; i++) {
+            IndexedWord governor = words[order[sourceOfRandomness.nextInt(i)]];
+            graph.addEdge(governor, words[order[i]], relation(sourceOfRandomness), 1.0, false);
+        }
+        for (int i = 0; i < extraEdges && length > 1; i++) {
+            int governor = sourceOfRandomness.nextInt(1, length);
+            int dependent = sourceOfRandomness.nextInt(1, length);
+            if (governor != dependent) {
+                graph.addEdge(words[governor], words[dependent], relation(sourceOfRandomness), 1.0, true);
+            }
+        }
+        return graph;
+    }
+
+    static GrammaticalRelation relation(SourceOfRandomness sourceOfRandomness) {
+        return EnglishGrammaticalRelations.valueOf(RELATIONS[sourceOfRandomness.nextInt(RELATIONS.length)]);
+    }
+}
@@ -0,0 +1,30 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * 200 requests for the fake backend in AnnotationServerTest, each 1 to 4 "|" separated sentences with some non-ASCII
+ * in them, so they have to go over the wire as UTF-8.
+ */
+public class RequestsGen extends Generator<String[]> {
+    public RequestsGen(Class<String[]> type) {
+        super(type);
+    }
+
+    @Override
+    public String[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        String[] requests = new String[200];
+        for (int r = 0; r < requests.length; r++) {
+            StringBuilder sb = new StringBuilder();
+            int sentences = sourceOfRandomness.nextInt(1, 4);
+            for (int i = 0; i < sentences; i++) {
+                if (i > 0) sb.append("|");
+                sb.append("sentence ").append(sourceOfRandomness.nextInt(1000)).append(" \u00e9");
+            }
+            requests[r] = sb.toString();
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,24 @@
+package edu.stanford.nlp.stamr.annotation;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * 300 different requests for the stand in server in AnnotationClientTest, each taking it 0 to 4 ms to answer, so the
+ * answers come back out of order.
+ */
+public class SlowRequestsGen extends Generator<String[]> {
+    public SlowRequestsGen(Class<String[]> type) {
+        super(type);
+    }
+
+    @Override
+    public String[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        String[] requests = new String[300];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = "slow " + sourceOfRandomness.nextInt(5) + " request " + i;
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,102 @@
+package edu.stanford.nlp.stamr.evaluation;
+
+import edu.stanford.nlp.stamr.AMR;
+import edu.stanford.nlp.stamr.AMRSlurp;
+import org.junit.contrib.theories.DataPoints;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+@RunWith(Theories.class)
+public class SmatchTest {
+
+    @DataPoints
+    public static String[] banks = new String[]{
+            "data/dev-100-subset.txt",
+            "data/test-100-subset.txt"
+    };
+
+    @Theory
+    public void testParseTriples() {
+        SmatchTriples triples = SmatchTriples.parse("(a / agree-01 :ARG0 (n / nation :quant 43) :ARG1-of (f / free-01 :mod n))");
+        assertArrayEquals(new String[]{"a", "n", "f"}, triples.variables);
+        assertArrayEquals(new String[]{"agree-01", "nation", "free-01"}, triples.concepts);
+        // :quant 43, and TOP on the root
+        assertEquals(2, triples.attributeRelations.length);
+        // :ARG0 a->n, the inverted :ARG1 f->a, and the reentrant :mod f->n
+        assertEquals(3, triples.relations.length);
+        assertEquals(8, triples.size());
+    }
+
+    @Theory
+    public void testIdenticalBanksScorePerfectly(String path) throws IOException, InterruptedException {
+        AMR[] gold = AMRSlurp.slurp(path, AMRSlurp.Format.LDC);
+        AMR[] test = AMRSlurp.slurp(path, AMRSlurp.Format.LDC);
+        assertEquals(1.0, Smatch.smatch(gold, test), 1.0e-9);
+    }
+
+    @Theory
+    public void testDeterministic(String path) throws IOException, InterruptedException {
+        AMR[] gold = AMRSlurp.slurp(path, AMRSlurp.Format.LDC);
+        AMR[] test = corrupt(AMRSlurp.slurp(path, AMRSlurp.Format.LDC));
+        double parallel = Smatch.smatch(gold, test);
+
+        Smatch.PARALLEL = false;
+        try {
+            assertEquals(parallel, Smatch.smatch(gold, test), 0.0);
+        }
+        finally {
+            Smatch.PARALLEL = true;
+        }
+        assertTrue(parallel < 1.0);
+    }
+
+    @Theory
+    public void testMatchesPython(String path) throws IOException, InterruptedException {
+        AMR[] gold = AMRSlurp.slurp(path, AMRSlurp.Format.LDC);
+        AMR[] test = corrupt(AMRSlurp.slurp(path, AMRSlurp.Format.LDC));
+
+        double python;
+        try {
+            python = Smatch.smatchPython(gold, test);
+        }
+        catch (Exception e) {
+            // No Python 2 to run smatch.py with
+            assumeNoException(e);
+            return;
+        }
+
+        // smatch.py rounds to two decimal places, and both sides are randomized searches
+        assertEquals(python, Smatch.smatch(gold, test), 0.01);
+    }
+
+    /**
+     * Deterministically damages a bank, by relabeling every third arc and renaming every fifth concept. amr.nodes and
+     * amr.arcs iterate in identity hash order, which changes from run to run, so we walk the graph breadth first from
+     * the head instead, taking each node's arcs in the order they were written.
+     */
+    private static AMR[] corrupt(AMR[] bank) {
+        for (AMR amr : bank) {
+            List<AMR.Node> nodes = amr.topologicalSort();
+            List<AMR.Arc> arcs = new ArrayList<>();
+            for (AMR.Node node : nodes) {
+                if (amr.outgoingArcs.containsKey(node)) arcs.addAll(amr.outgoingArcs.get(node));
+            }
+            for (int i = 0; i < arcs.size(); i += 3) {
+                arcs.get(i).title = "mod";
+            }
+            int j = 0;
+            for (AMR.Node node : nodes) {
+                if (node.type == AMR.NodeType.ENTITY && j++ % 5 == 0) node.title = node.title+"-x";
+            }
+        }
+        return bank;
+    }
+}
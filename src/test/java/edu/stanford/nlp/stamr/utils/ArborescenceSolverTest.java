@@ -0,0 +1,75 @@
+package edu.stanford.nlp.stamr.utils;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import edu.stanford.nlp.util.Pair;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class ArborescenceSolverTest {
+
+    // Deliberately shared between theories, and started too small, to exercise reusing and growing scratch space
+    static ArborescenceSolver solver = new ArborescenceSolver(2);
+
+    @Theory
+    public void testMatchesDGraph(@ForAll @From(WeightMatrixGen.class) double[][] weights) {
+        int n = weights.length;
+        Object[][] labels = new Object[n][n];
+
+        Pair<int[], Object[]> expected = new DGraph(weights, labels).chuLiuEdmonds();
+        double expectedScore = 0.0;
+        for (int i = 1; i < n; i++) {
+            expectedScore += weights[expected.first[i - 1] + 1][i];
+        }
+
+        int[] parents = new int[n];
+        double score = solver.solve(weights, parents);
+
+        assertEquals(expectedScore, score, 1.0e-9);
+        assertEquals(-1, parents[0]);
+        for (int i = 1; i < n; i++) {
+            assertEquals(expected.first[i - 1] + 1, parents[i]);
+        }
+    }
+
+    @Theory
+    public void testFlatLayoutMatches(@ForAll @From(WeightMatrixGen.class) double[][] weights) {
+        int n = weights.length;
+        double[] flat = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(weights[i], 0, flat, i * n, n);
+        }
+
+        int[] parents = new int[n];
+        int[] flatParents = new int[n];
+        double score = solver.solve(weights, parents);
+        double flatScore = solver.solve(flat, n, flatParents);
+
+        assertEquals(score, flatScore, 0.0);
+        assertArrayEquals(parents, flatParents);
+    }
+
+    @Theory
+    public void testIsTree(@ForAll @From(WeightMatrixGen.class) double[][] weights) {
+        int n = weights.length;
+        int[] parents = new int[n];
+        double score = solver.solve(weights, parents);
+        assertTrue(score > Double.NEGATIVE_INFINITY);
+
+        // Every node has to reach the root in fewer than n steps, otherwise there's a cycle
+        for (int i = 1; i < n; i++) {
+            int cursor = i;
+            int steps = 0;
+            while (cursor != 0) {
+                assertTrue(weights[parents[cursor]][cursor] > Double.NEGATIVE_INFINITY);
+                cursor = parents[cursor];
+                steps++;
+                assertTrue(steps < n);
+            }
+        }
+    }
+}
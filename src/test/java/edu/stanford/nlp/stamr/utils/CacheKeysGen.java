@@ -0,0 +1,21 @@
+package edu.stanford.nlp.stamr.utils;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * 2000 lookups of keys 0 to 149, so a cache with room for fewer than 150 has to evict some of them.
+ */
+public class CacheKeysGen extends Generator<int[]> {
+    public CacheKeysGen(Class<int[]> type) {
+        super(type);
+    }
+
+    @Override
+    public int[] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        int[] keys = new int[2000];
+        for (int i = 0; i < keys.length; i++) keys[i] = sourceOfRandomness.nextInt(150);
+        return keys;
+    }
+}
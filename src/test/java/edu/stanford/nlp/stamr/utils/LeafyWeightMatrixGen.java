@@ -0,0 +1,28 @@
+package edu.stanford.nlp.stamr.utils;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * WeightMatrixGen matrices where some nodes have no outgoing arcs at all, the way QUOTE and VALUE nodes don't. Their
+ * children can be left with nowhere to hang but the root, so some of these graphs have no single root tree.
+ */
+public class LeafyWeightMatrixGen extends Generator<double[][]> {
+    public LeafyWeightMatrixGen(Class<double[][]> type) {
+        super(type);
+    }
+
+    @Override
+    public double[][] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        double[][] weights = new WeightMatrixGen(double[][].class).generate(sourceOfRandomness, generationStatus);
+        for (int node = 1; node < weights.length; node++) {
+            if (sourceOfRandomness.nextInt(4) == 0) {
+                for (int child = 0; child < weights.length; child++) {
+                    weights[node][child] = Double.NEGATIVE_INFINITY;
+                }
+            }
+        }
+        return weights;
+    }
+}
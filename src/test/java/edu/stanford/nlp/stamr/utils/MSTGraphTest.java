@@ -0,0 +1,57 @@
+package edu.stanford.nlp.stamr.utils;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import edu.stanford.nlp.util.Pair;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class MSTGraphTest {
+
+    static String[][] labels(int numNodes) {
+        String[][] labels = new String[numNodes][numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            for (int j = 0; j < numNodes; j++) labels[i][j] = i == 0 ? "ROOT" : "ARG" + i;
+        }
+        return labels;
+    }
+
+    static boolean hasOutgoingArcs(double[][] weights, int node) {
+        for (double weight : weights[node]) {
+            if (weight > Double.NEGATIVE_INFINITY) return true;
+        }
+        return false;
+    }
+
+    @Theory
+    public void testSingleRootMatchesEnumeratingRoots(@ForAll(sampleSize = 200) @From(LeafyWeightMatrixGen.class) double[][] weights) {
+        int n = weights.length;
+        // getMST() answers a single node without solving anything
+        if (n < 3) return;
+        String[][] labels = labels(n);
+
+        Pair<int[], Object[]> singlePass = MSTGraph.getSingleRootMST(weights, labels);
+        Pair<int[], Object[]> enumerated = MSTGraph.getMSTByEnumeratingRoots(weights, labels);
+        double singlePassScore = MSTGraph.score(weights, singlePass.first);
+        assertTrue(singlePassScore > Double.NEGATIVE_INFINITY);
+
+        if (enumerated.first == null) {
+            // No node with outgoing arcs can root a tree by itself, so it has to take more than one
+            assertTrue(MSTGraph.rootArcs(singlePass.first) > 1);
+        }
+        else {
+            assertEquals(1, MSTGraph.rootArcs(singlePass.first));
+            assertEquals(MSTGraph.score(weights, enumerated.first), singlePassScore, 1.0e-9);
+            for (int i = 1; i < n; i++) {
+                if (singlePass.first[i - 1] == -1) assertTrue(hasOutgoingArcs(weights, i));
+            }
+        }
+        for (int i = 1; i < n; i++) {
+            assertEquals(labels[singlePass.first[i - 1] + 1][i], singlePass.second[i - 1]);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package edu.stanford.nlp.stamr.utils;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class MemoCacheTest {
+
+    static String slowFunction(Integer key) {
+        return "value-" + (key * 31 + 7);
+    }
+
+    @Theory
+    public void testMatchesFunction(@ForAll(sampleSize = 5) @From(CacheKeysGen.class) int[] keys,
+                                    @ForAll(sampleSize = 2) @InRange(minInt = 1, maxInt = 100) int capacity) {
+        MemoCache<Integer, String> cache = new MemoCache<>("test", capacity);
+        AtomicInteger calls = new AtomicInteger();
+        for (int key : keys) {
+            assertEquals(slowFunction(key), cache.get(key, k -> {
+                calls.incrementAndGet();
+                return slowFunction(k);
+            }));
+            assertTrue(cache.size() <= capacity);
+        }
+        // Every miss computes and stores a value, and everything stored is either still there or was evicted
+        assertEquals(keys.length, cache.hits() + cache.misses());
+        assertEquals(calls.get(), cache.misses());
+        assertEquals(cache.misses() - cache.evictions(), cache.size());
+    }
+
+    @Theory
+    public void testEvictsLeastRecentlyUsed() {
+        MemoCache<Integer, String> cache = new MemoCache<>("test", 1);
+        cache.get(1, MemoCacheTest::slowFunction);
+        cache.get(1, MemoCacheTest::slowFunction);
+        cache.get(2, MemoCacheTest::slowFunction);
+        cache.get(1, MemoCacheTest::slowFunction);
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(2, cache.evictions());
+        assertEquals(1, cache.size());
+
+        // Null values are passed through, but not remembered
+        assertNull(cache.get(3, k -> null));
+        assertNull(cache.get(3, k -> null));
+        assertEquals(5, cache.misses());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Theory
+    public void testConcurrentUse(@ForAll(sampleSize = 1) @From(CacheKeysGen.class) int[] keys,
+                                  @ForAll(sampleSize = 3) @InRange(minInt = 2, maxInt = 8) int threads)
+            throws InterruptedException {
+        MemoCache<Integer, String> cache = new MemoCache<>("test", 64);
+        AtomicBoolean wrong = new AtomicBoolean(false);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            // Each thread goes round the keys ten times, starting from its own place in them
+            final int start = t * keys.length / threads;
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < 10 * keys.length; i++) {
+                    int key = keys[(start + i) % keys.length];
+                    if (!slowFunction(key).equals(cache.get(key, MemoCacheTest::slowFunction))) wrong.set(true);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+
+        assertFalse(wrong.get());
+        assertTrue(cache.size() <= 64);
+        assertEquals(threads * 10L * keys.length, cache.hits() + cache.misses());
+    }
+}
@@ -0,0 +1,34 @@
+package edu.stanford.nlp.stamr.utils;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * Random dense arc weight matrices, weights[parent][child], with node 0 as the root. Some arcs are missing, but
+ * every node always has at least one possible parent other than the root, the way the arc existence classifier
+ * gives us graphs.
+ */
+public class WeightMatrixGen extends Generator<double[][]> {
+    public WeightMatrixGen(Class<double[][]> type) {
+        super(type);
+    }
+
+    @Override
+    public double[][] generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        int numNodes = sourceOfRandomness.nextInt(2, 25);
+        double[][] weights = new double[numNodes][numNodes];
+        for (int parent = 0; parent < numNodes; parent++) {
+            for (int child = 0; child < numNodes; child++) {
+                boolean guaranteed = parent == 0 || parent == (child % (numNodes - 1)) + 1;
+                if (parent == child || child == 0 || (!guaranteed && sourceOfRandomness.nextInt(4) == 0)) {
+                    weights[parent][child] = Double.NEGATIVE_INFINITY;
+                }
+                else {
+                    weights[parent][child] = Math.log(sourceOfRandomness.nextDouble());
+                }
+            }
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,27 @@
+package edu.stanford.nlp.word2vec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A run of adds to an EmbeddingStore.Writer, some as float[] and some as double[], plus words to look up afterwards
+ * that may or may not have been added.
+ */
+public class EmbeddingAdds {
+    final int dimension;
+    final List<String> words = new ArrayList<>();
+    final List<Object> vectors = new ArrayList<>();
+    // Rows to ask for past the number of distinct words, sometimes 0 so the writer is exactly full
+    final int spareCapacity;
+    final List<String> probes = new ArrayList<>();
+
+    EmbeddingAdds(int dimension, int spareCapacity) {
+        this.dimension = dimension;
+        this.spareCapacity = spareCapacity;
+    }
+
+    @Override
+    public String toString() {
+        return words.size()+" adds of dimension "+dimension+" with "+spareCapacity+" spare: "+words;
+    }
+}
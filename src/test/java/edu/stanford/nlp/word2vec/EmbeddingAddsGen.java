@@ -0,0 +1,52 @@
+package edu.stanford.nlp.word2vec;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * Up to 300 adds of short words built from a handful of pieces, so words repeat, "Aa" and "BB" have the same
+ * hashCode(), and some aren't ASCII. The probes are the same kind of word, and the same again with a "z" on the end,
+ * which nothing added has.
+ */
+public class EmbeddingAddsGen extends Generator<EmbeddingAdds> {
+    static final String[] PIECES = new String[]{"a", "b", "Aa", "BB", "\u00e9", "\u4e2d"};
+
+    public EmbeddingAddsGen(Class<EmbeddingAdds> type) {
+        super(type);
+    }
+
+    static String word(SourceOfRandomness sourceOfRandomness) {
+        StringBuilder sb = new StringBuilder();
+        int pieces = sourceOfRandomness.nextInt(4);
+        for (int i = 0; i < pieces; i++) sb.append(PIECES[sourceOfRandomness.nextInt(PIECES.length)]);
+        return sb.toString();
+    }
+
+    @Override
+    public EmbeddingAdds generate(SourceOfRandomness sourceOfRandomness, GenerationStatus generationStatus) {
+        int dimension = sourceOfRandomness.nextInt(1, 50);
+        EmbeddingAdds adds = new EmbeddingAdds(dimension,
+                sourceOfRandomness.nextBoolean() ? 0 : sourceOfRandomness.nextInt(10));
+        int n = sourceOfRandomness.nextInt(300);
+        for (int i = 0; i < n; i++) {
+            adds.words.add(word(sourceOfRandomness));
+            if (sourceOfRandomness.nextBoolean()) {
+                float[] floats = new float[dimension];
+                for (int j = 0; j < dimension; j++) floats[j] = (float)sourceOfRandomness.nextGaussian();
+                adds.vectors.add(floats);
+            }
+            else {
+                double[] doubles = new double[dimension];
+                for (int j = 0; j < dimension; j++) doubles[j] = sourceOfRandomness.nextGaussian();
+                adds.vectors.add(doubles);
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            String word = word(sourceOfRandomness);
+            adds.probes.add(word);
+            adds.probes.add(word + "z");
+        }
+        return adds;
+    }
+}
@@ -0,0 +1,107 @@
+package edu.stanford.nlp.word2vec;
+
+import com.pholser.junit.quickcheck.ForAll;
+import com.pholser.junit.quickcheck.From;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@RunWith(Theories.class)
+public class EmbeddingStoreTest {
+
+    @Theory
+    public void testRoundTrip(@ForAll(sampleSize = 20) @From(EmbeddingAddsGen.class) EmbeddingAdds adds)
+            throws IOException {
+        int dimension = adds.dimension;
+        List<String> words = adds.words;
+        List<Object> vectors = adds.vectors;
+
+        // What each word should read back as, after the later of any repeated words wins and doubles become floats
+        Map<String,float[]> expected = new HashMap<>();
+        for (int i = 0; i < words.size(); i++) {
+            float[] floats;
+            if (vectors.get(i) instanceof float[]) floats = (float[]) vectors.get(i);
+            else {
+                double[] doubles = (double[]) vectors.get(i);
+                floats = new float[dimension];
+                for (int j = 0; j < dimension; j++) floats[j] = (float)doubles[j];
+            }
+            expected.put(words.get(i), floats);
+        }
+        // Sometimes exactly full, so repeats have to overwrite without asking for another row
+        int capacity = expected.size() + adds.spareCapacity;
+
+        File file = File.createTempFile("embeddings", ".store");
+        file.deleteOnExit();
+        try (EmbeddingStore.Writer writer = new EmbeddingStore.Writer(file.getPath(), capacity, dimension)) {
+            for (int i = 0; i < words.size(); i++) {
+                if (vectors.get(i) instanceof float[]) writer.add(words.get(i), (float[]) vectors.get(i));
+                else writer.add(words.get(i), (double[]) vectors.get(i));
+            }
+        }
+
+        try (EmbeddingStore store = EmbeddingStore.open(file.getPath())) {
+            assertEquals(expected.size(), store.size());
+            assertEquals(dimension, store.dimension());
+
+            // Vectors are float32 in the file, and read through mappings of it rather than copied onto the heap
+            int chars = 0;
+            for (String word : expected.keySet()) chars += word.length();
+            assertEquals(EmbeddingStore.HEADER_SIZE + 8L * (store.tableMask + 1) + 4L * (capacity + 1)
+                    + 4L * capacity * dimension + 2L * chars, file.length());
+            for (Object chunk : store.vectorChunks) assertTrue(chunk instanceof MappedByteBuffer);
+
+            Set<String> rows = new HashSet<>();
+            for (int row = 0; row < store.size(); row++) assertTrue(rows.add(store.word(row)));
+            assertEquals(expected.keySet(), rows);
+
+            for (Map.Entry<String,float[]> entry : expected.entrySet()) {
+                String word = entry.getKey();
+                float[] vector = entry.getValue();
+                assertTrue(store.containsKey(word));
+                int row = store.row(word);
+                assertEquals(word, store.word(row));
+                EmbeddingStore.Vector view = store.get(word);
+                assertEquals(dimension, view.dimension());
+                double[] copy = view.toDoubleArray();
+                for (int i = 0; i < dimension; i++) {
+                    assertEquals(vector[i], store.get(row, i), 0.0);
+                    assertEquals(vector[i], view.get(i), 0.0);
+                    assertEquals(vector[i], copy[i], 0.0);
+                }
+            }
+
+            // Nothing has a "z" in it, and plenty of the short words were never added
+            for (String word : adds.probes) {
+                if (expected.containsKey(word)) continue;
+                assertFalse(store.containsKey(word));
+                assertEquals(-1, store.row(word));
+                assertNull(store.get(word));
+            }
+        }
+    }
+
+    @Theory
+    public void testRejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("embeddings", ".txt");
+        file.deleteOnExit();
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write("4 3\nthe 0.1 0.2 0.3\nof 0.4 0.5 0.6\nand 0.7 0.8 0.9\nto 1.0 1.1 1.2\n");
+        }
+        try {
+            EmbeddingStore.open(file.getPath()).close();
+            fail("Opened a text dump as a store");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}